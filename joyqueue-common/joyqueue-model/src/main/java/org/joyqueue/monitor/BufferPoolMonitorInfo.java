@@ -28,6 +28,7 @@ public class BufferPoolMonitorInfo {
     private String directUsed;
 
     private List<PLMonitorInfo> plMonitorInfos;
+    private List<CacheMonitorInfo> cacheMonitorInfos;
 
     public String getPlUsed() {
         return plUsed;
@@ -77,6 +78,14 @@ public class BufferPoolMonitorInfo {
         this.plMonitorInfos = plMonitorInfos;
     }
 
+    public List<CacheMonitorInfo> getCacheMonitorInfos() {
+        return cacheMonitorInfos;
+    }
+
+    public void setCacheMonitorInfos(List<CacheMonitorInfo> cacheMonitorInfos) {
+        this.cacheMonitorInfos = cacheMonitorInfos;
+    }
+
     public static class PLMonitorInfo {
         private String cached;
         private String usedPreLoad;
@@ -115,5 +124,55 @@ public class BufferPoolMonitorInfo {
             this.bufferSize = bufferSize;
         }
     }
-}
 
+    /**
+     * 主题的缓存页统计
+     */
+    public static class CacheMonitorInfo {
+        private String topic;
+        private String used;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        public String getUsed() {
+            return used;
+        }
+
+        public void setUsed(String used) {
+            this.used = used;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public void setHits(long hits) {
+            this.hits = hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public void setMisses(long misses) {
+            this.misses = misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public void setEvictions(long evictions) {
+            this.evictions = evictions;
+        }
+    }
+}
@@ -51,6 +51,10 @@ public class CommandType {
     public static final int RAFT_VOTE_REQUEST = 43;
     // raft选举投票请求命令响应
     public static final int RAFT_VOTE_RESPONSE = -43;
+    // raft批量复制添加记录命令，合并发往同一节点的多个分区组的复制请求
+    public static final int RAFT_BATCH_APPEND_ENTRIES_REQUEST = 44;
+    // raft批量复制添加记录命令响应
+    public static final int RAFT_BATCH_APPEND_ENTRIES_RESPONSE = -44;
     // raft复制添加记录命令
     public static final int RAFT_APPEND_ENTRIES_REQUEST = 45;
     // raft复制添加记录命令响应
@@ -30,6 +30,7 @@ import org.joyqueue.broker.monitor.BrokerMonitor;
 import org.joyqueue.broker.monitor.BrokerMonitorService;
 import org.joyqueue.broker.monitor.SessionManager;
 import org.joyqueue.broker.producer.Produce;
+import org.joyqueue.broker.producer.schedule.ScheduleManager;
 import org.joyqueue.domain.Broker;
 import org.joyqueue.domain.Consumer;
 import org.joyqueue.domain.Producer;
@@ -51,6 +52,7 @@ public class BrokerContext {
     private Produce produce;
     private Consume consume;
     private PositionManager positionManager;
+    private ScheduleManager scheduleManager;
     private Authentication authentication;
     private StoreService storeService;
     private ElectionService electionService;
@@ -119,6 +121,10 @@ public class BrokerContext {
         return positionManager;
     }
 
+    public ScheduleManager getScheduleManager() {
+        return scheduleManager;
+    }
+
     public NameService getNameService() {
         return nameService;
     }
@@ -221,6 +227,11 @@ public class BrokerContext {
         return this;
     }
 
+    public BrokerContext scheduleManager(ScheduleManager scheduleManager) {
+        this.scheduleManager = scheduleManager;
+        return this;
+    }
+
     public BrokerContext authentication(Authentication authentication) {
         this.authentication = authentication;
         return this;
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import io.netty.util.ResourceLeakTracker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生产消息序列化使用的直接内存缓冲池
+ * <p>
+ * 缓冲区从Netty的池化分配器中申请，按照写入批次（{@link Batch}）管理，批次的引用计数归零时一起归还。
+ * 池中同时被占用的总字节数不超过capacity，超过时退化为创建堆内缓冲区，避免写入卡住时直接内存无限增长。
+ * <p>
+ * 没有释放就被回收的批次会由Netty的ResourceLeakDetector报告，检测级别使用io.netty.leakDetection.level配置。
+ */
+public class MessageBufferPool {
+
+    private static final ResourceLeakDetector<Batch> leakDetector =
+            ResourceLeakDetectorFactory.instance().newResourceLeakDetector(Batch.class);
+
+    private final ByteBufAllocator allocator;
+    // 最多同时占用的字节数
+    private final long capacity;
+    // 当前占用的字节数
+    private final AtomicLong used = new AtomicLong();
+    // 未释放的批次数
+    private final AtomicLong outstanding = new AtomicLong();
+    // 超过容量退化为堆内缓冲区的次数
+    private final LongAdder fallbacks = new LongAdder();
+
+    public MessageBufferPool(long capacity) {
+        this(PooledByteBufAllocator.DEFAULT, capacity);
+    }
+
+    public MessageBufferPool(ByteBufAllocator allocator, long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        }
+        this.allocator = allocator;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 创建写入批次，引用计数为1
+     *
+     * @return 写入批次
+     */
+    public Batch newBatch() {
+        outstanding.incrementAndGet();
+        return new Batch();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * 一次写入使用的缓冲区
+     * <p>
+     * 分配只能在一个线程内进行，释放可以在任意线程，引用计数归零时归还所有缓冲区。
+     */
+    public class Batch {
+
+        private final List<ByteBuf> buffers = new ArrayList<>();
+        private final AtomicInteger refCnt = new AtomicInteger(1);
+        private final ResourceLeakTracker<Batch> leak;
+        private long size;
+
+        Batch() {
+            this.leak = leakDetector.track(this);
+        }
+
+        /**
+         * 申请缓冲区
+         *
+         * @param length 长度
+         * @return position为0，limit为length的缓冲区
+         */
+        public ByteBuffer allocate(int length) {
+            if (refCnt.get() <= 0) {
+                throw new IllegalReferenceCountException(0);
+            }
+            if (used.addAndGet(length) > capacity) {
+                used.addAndGet(-length);
+                fallbacks.increment();
+                return ByteBuffer.allocate(length);
+            }
+            ByteBuf buffer;
+            try {
+                buffer = allocator.directBuffer(length, length);
+            } catch (OutOfMemoryError e) {
+                used.addAndGet(-length);
+                fallbacks.increment();
+                return ByteBuffer.allocate(length);
+            }
+            buffers.add(buffer);
+            size += length;
+            return buffer.nioBuffer(0, length);
+        }
+
+        public Batch retain() {
+            int cnt = refCnt.getAndIncrement();
+            if (cnt <= 0) {
+                refCnt.getAndDecrement();
+                throw new IllegalReferenceCountException(cnt, 1);
+            }
+            return this;
+        }
+
+        /**
+         * 释放一次引用
+         *
+         * @return 引用计数归零，缓冲区已经归还时返回true
+         */
+        public boolean release() {
+            int cnt = refCnt.decrementAndGet();
+            if (cnt > 0) {
+                return false;
+            }
+            if (cnt < 0) {
+                refCnt.incrementAndGet();
+                throw new IllegalReferenceCountException(0, -1);
+            }
+            for (ByteBuf buffer : buffers) {
+                buffer.release();
+            }
+            buffers.clear();
+            used.addAndGet(-size);
+            outstanding.decrementAndGet();
+            if (leak != null) {
+                leak.close(this);
+            }
+            return true;
+        }
+
+        public int refCnt() {
+            return refCnt.get();
+        }
+
+        public long size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.buffer;
+
+import com.google.common.base.Charsets;
+import org.joyqueue.toolkit.serialize.AbstractSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * 存储消息的只读视图
+ * <p>
+ * 按照存储格式直接在消息缓冲区上读取字段，不反序列化整条消息，也不改变缓冲区的position和limit。
+ * 定长字段用绝对位置读取；变长字段（消息体、业务ID、属性、扩展字段、应用）的偏移在第一次访问时计算，
+ * 只有真正需要字节数组或字符串时才分配内存。
+ * <p>
+ * 视图可以通过wrap重复使用，非线程安全，适合在单个线程内遍历一批消息。
+ */
+public class MessageView {
+
+    private static final int SIZE_OFFSET = 0;
+    private static final int PARTITION_OFFSET = 4;
+    private static final int INDEX_OFFSET = 6;
+    private static final int TERM_OFFSET = 14;
+    private static final int SYS_CODE_OFFSET = 20;
+    private static final int PRIORITY_OFFSET = 22;
+    private static final int START_TIME_OFFSET = 39;
+    private static final int STORE_TIME_OFFSET = 47;
+    private static final int BODY_CRC_OFFSET = 51;
+    private static final int FLAG_OFFSET = 59;
+    private static final int BODY_OFFSET = 61;
+
+    private ByteBuffer buffer;
+    private int base;
+    // 变长字段的绝对位置，-1表示还没有计算
+    private int businessIdOffset;
+    private int attributesOffset;
+    private int extensionOffset;
+    private int appOffset;
+
+    public MessageView() {
+    }
+
+    public MessageView(ByteBuffer buffer) {
+        wrap(buffer);
+    }
+
+    /**
+     * 指向新的消息，消息从缓冲区当前的position开始
+     *
+     * @param buffer 消息缓冲区
+     * @return 当前视图
+     */
+    public MessageView wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.base = buffer.position();
+        this.businessIdOffset = -1;
+        this.attributesOffset = -1;
+        this.extensionOffset = -1;
+        this.appOffset = -1;
+        return this;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getSize() {
+        return buffer.getInt(base + SIZE_OFFSET);
+    }
+
+    public short getPartition() {
+        return buffer.getShort(base + PARTITION_OFFSET);
+    }
+
+    public long getIndex() {
+        return buffer.getLong(base + INDEX_OFFSET);
+    }
+
+    public int getTerm() {
+        return buffer.getInt(base + TERM_OFFSET);
+    }
+
+    public short getSysCode() {
+        return buffer.getShort(base + SYS_CODE_OFFSET);
+    }
+
+    public boolean isCompressed() {
+        return (getSysCode() & 0x1) > 0;
+    }
+
+    public boolean isOrdered() {
+        return (getSysCode() & 0x2) > 0;
+    }
+
+    public byte getSource() {
+        return (byte) (getSysCode() >> 2 & 0x3);
+    }
+
+    public boolean isBatch() {
+        return (getSysCode() >> 12) == 1;
+    }
+
+    public byte getPriority() {
+        return buffer.get(base + PRIORITY_OFFSET);
+    }
+
+    public long getStartTime() {
+        return buffer.getLong(base + START_TIME_OFFSET);
+    }
+
+    public int getStoreTime() {
+        return buffer.getInt(base + STORE_TIME_OFFSET);
+    }
+
+    public long getBodyCRC() {
+        return buffer.getLong(base + BODY_CRC_OFFSET);
+    }
+
+    /**
+     * 标签，批量消息是批量条数
+     */
+    public short getFlag() {
+        return buffer.getShort(base + FLAG_OFFSET);
+    }
+
+    /**
+     * 消息条数，批量消息按照批量条数计算
+     */
+    public int getCount() {
+        return isBatch() ? getFlag() : 1;
+    }
+
+    public int getBodyLength() {
+        return buffer.getInt(base + BODY_OFFSET);
+    }
+
+    /**
+     * 消息体，未解压缩
+     *
+     * @return 消息体的拷贝
+     */
+    public byte[] getBody() {
+        return copy(base + BODY_OFFSET + 4, getBodyLength());
+    }
+
+    /**
+     * 消息体，未解压缩
+     *
+     * @return 共享消息缓冲区内容的只读缓冲区
+     */
+    public ByteBuffer getBodyBuffer() {
+        ByteBuffer body = buffer.asReadOnlyBuffer();
+        int offset = base + BODY_OFFSET + 4;
+        body.limit(offset + getBodyLength()).position(offset);
+        return body;
+    }
+
+    public byte[] getBusinessIdBytes() {
+        int offset = businessIdOffset();
+        return copy(offset + 1, buffer.get(offset) & 0xff);
+    }
+
+    public String getBusinessId() {
+        return new String(getBusinessIdBytes(), Charsets.UTF_8);
+    }
+
+    /**
+     * 消息属性
+     *
+     * @return 消息属性，没有属性时返回null
+     * @throws Exception 反序列化异常
+     */
+    public Map<String, String> getAttributes() throws Exception {
+        int offset = attributesOffset();
+        short length = buffer.getShort(offset);
+        if (length <= 0) {
+            return null;
+        }
+        return AbstractSerializer.toStringMap(new String(copy(offset + 2, length), Charsets.UTF_8));
+    }
+
+    /**
+     * 是否有指定的属性，直接在属性的字节上匹配键，不反序列化属性
+     *
+     * @param key 属性键的字节，只支持不需要转义的ASCII字符
+     * @return 是否有该属性
+     */
+    public boolean hasAttribute(byte[] key) {
+        int offset = attributesOffset();
+        int start = offset + 2;
+        // 键后面至少还有一个'='
+        int end = start + buffer.getShort(offset) - key.length;
+        for (int i = start; i < end; i++) {
+            // 属性之间用换行分隔，值里面的换行会被转义
+            if (i > start && buffer.get(i - 1) != '\n') {
+                continue;
+            }
+            if (buffer.get(i + key.length) == '=' && matches(i, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public byte[] getExtension() {
+        int offset = extensionOffset();
+        return copy(offset + 4, buffer.getInt(offset));
+    }
+
+    public String getApp() {
+        int offset = appOffset();
+        return new String(copy(offset + 1, buffer.get(offset) & 0xff), Charsets.UTF_8);
+    }
+
+    protected int businessIdOffset() {
+        if (businessIdOffset < 0) {
+            businessIdOffset = base + BODY_OFFSET + 4 + Math.max(getBodyLength(), 0);
+        }
+        return businessIdOffset;
+    }
+
+    protected int attributesOffset() {
+        if (attributesOffset < 0) {
+            int offset = businessIdOffset();
+            attributesOffset = offset + 1 + (buffer.get(offset) & 0xff);
+        }
+        return attributesOffset;
+    }
+
+    protected int extensionOffset() {
+        if (extensionOffset < 0) {
+            int offset = attributesOffset();
+            extensionOffset = offset + 2 + Math.max(buffer.getShort(offset), 0);
+        }
+        return extensionOffset;
+    }
+
+    protected int appOffset() {
+        if (appOffset < 0) {
+            int offset = extensionOffset();
+            appOffset = offset + 4 + Math.max(buffer.getInt(offset), 0);
+        }
+        return appOffset;
+    }
+
+    protected boolean matches(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected byte[] copy(int offset, int length) {
+        if (length <= 0) {
+            return new byte[0];
+        }
+        byte[] bytes = new byte[length];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, bytes, 0, length);
+        } else {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset);
+            duplicate.get(bytes);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageView{" +
+                "partition=" + getPartition() +
+                ", index=" + getIndex() +
+                ", size=" + getSize() +
+                ", flag=" + getFlag() +
+                '}';
+    }
+}
@@ -29,6 +29,7 @@ import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.Map;
 
 /**
  * 负责broker端消息的序列化
@@ -68,35 +69,38 @@ public class Serializer extends AbstractSerializer {
     private static final byte CURRENT_MESSAGE_VERSION = MESSAGE_VERSION_V1;
 
     public static short readPartition(ByteBuffer byteBuffer) {
-        ByteBuffer slice = byteBuffer.slice();
-        slice.position(4);
-        short partition = slice.getShort();
-
-        return partition;
+        return byteBuffer.getShort(byteBuffer.position() + 4);
     }
 
     public static long readIndex(ByteBuffer byteBuffer) {
-        ByteBuffer slice = byteBuffer.slice();
-        slice.position(6);
-        long index = slice.getLong();
-
-        return index;
+        return byteBuffer.getLong(byteBuffer.position() + 6);
     }
 
     public static short readFlag(ByteBuffer byteBuffer) {
-        ByteBuffer slice = byteBuffer.slice();
-        slice.position(59);
-        short flag = slice.getShort();
-
-        return flag;
+        return byteBuffer.getShort(byteBuffer.position() + 59);
     }
 
     public static long readSendTime(ByteBuffer byteBuffer) {
-        ByteBuffer slice = byteBuffer.slice();
-        slice.position(39);
-        long sendTime = slice.getLong();
+        return byteBuffer.getLong(byteBuffer.position() + 39);
+    }
 
-        return sendTime;
+    /**
+     * 只读取消息属性，跳过消息体和业务ID，不反序列化整条消息
+     *
+     * @param byteBuffer 消息
+     * @return 消息属性，没有属性时返回null
+     */
+    public static Map<String, String> readAttributes(ByteBuffer byteBuffer) throws Exception {
+        ByteBuffer slice = byteBuffer.slice();
+        slice.position(61);
+        int bodyLength = slice.getInt();
+        slice.position(slice.position() + bodyLength);
+        int businessIdLength = slice.get() & 0xff;
+        slice.position(slice.position() + businessIdLength);
+        if (slice.getShort(slice.position()) <= 0) {
+            return null;
+        }
+        return toStringMap(readString(slice, 2));
     }
 
     public static void setPartition(ByteBuffer byteBuffer, short partition) {
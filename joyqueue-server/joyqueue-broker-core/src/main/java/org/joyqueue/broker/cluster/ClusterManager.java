@@ -30,6 +30,8 @@ import org.joyqueue.broker.cluster.entry.ClusterNode;
 import org.joyqueue.broker.cluster.event.CompensateEvent;
 import org.joyqueue.broker.config.BrokerConfig;
 import org.joyqueue.broker.consumer.ConsumeConfigKey;
+import org.joyqueue.broker.election.ElectionService;
+import org.joyqueue.broker.election.LeaderElection;
 import org.joyqueue.domain.AppToken;
 import org.joyqueue.domain.Broker;
 import org.joyqueue.domain.Consumer;
@@ -640,6 +642,26 @@ public class ClusterManager extends Service {
         return (clusterNode.getLeader() == getBrokerId());
     }
 
+    /**
+     * 是否可以在当前broker上消费分区组的消息
+     * 当前broker是leader，或者开启了follower读并且当前broker上的follower与leader保持同步
+     *
+     * @param partitionGroup 分区组
+     * @return 是否可读
+     */
+    public boolean isReadable(PartitionGroup partitionGroup) {
+        if (isLeader(partitionGroup)) {
+            return true;
+        }
+        ElectionService electionService = (brokerContext == null ? null : brokerContext.getElectionService());
+        if (electionService == null) {
+            return false;
+        }
+        LeaderElection leaderElection = electionService.getLeaderElection(partitionGroup.getTopic(), partitionGroup.getGroup());
+        return leaderElection != null && leaderElection.getReplicaGroup() != null
+                && leaderElection.getReplicaGroup().isFollowerReadable();
+    }
+
     /**
      * 检查是否能生产数据
      * <br>
@@ -765,8 +787,8 @@ public class ClusterManager extends Service {
             }
         }
         Collection<PartitionGroup> partitionGroups = topicConfig.fetchTopicPartitionGroupsByBrokerId(broker.getId());
-        // 当前主题在该broker上有角色是master的分区组
-        if (partitionGroups.stream().noneMatch(partitionGroup -> isLeader(partitionGroup))) {
+        // 当前主题在该broker上有可读的分区组
+        if (partitionGroups.stream().noneMatch(partitionGroup -> isReadable(partitionGroup))) {
             logger.error("topic[{}],app[{}],error[{}]", topic, app, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER.getMessage());
             return BooleanResponse.failed(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER);
         }
@@ -793,7 +815,7 @@ public class ClusterManager extends Service {
         }
         TopicConfig topicConfig = getTopicConfig(topic);
         PartitionGroup group = topicConfig.fetchPartitionGroupByPartition(partition);
-        if (group == null || !isLeader(group)) {
+        if (group == null || !isReadable(group)) {
             logger.error("topic[{}],app[{}],partition[{}],error[{}]", topic, app,partition, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER.getMessage());
             return BooleanResponse.failed(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER);
         }
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并行消费时，分区上已经拉取、还未提交应答位置的消息片段。
+ *
+ * 片段之间互不重叠，按照起始序号保存在跳表中：
+ * 按起始序号查找和确认片段的复杂度是O(log n)，从头部提交连续已确认的片段是均摊O(1)，
+ * 不需要在每次应答时对全部片段排序、遍历。
+ * 线程安全，读写同一个片段的并发控制由片段自己负责。
+ *
+ * @param <T> 片段类型
+ */
+class AckWindow<T extends AckWindow.Segment> {
+
+    private final ConcurrentSkipListMap<Long /* startIndex */, T> segments = new ConcurrentSkipListMap<>();
+    // ConcurrentSkipListMap.size()需要遍历，单独计数
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * 分区上连续的若干条消息
+     */
+    interface Segment {
+        /**
+         * @return 起始序号
+         */
+        long getStartIndex();
+
+        /**
+         * @return 消息条数
+         */
+        int getCount();
+
+        /**
+         * @return 是否已经确认
+         */
+        boolean isAcked();
+    }
+
+    void add(T segment) {
+        if (null == segments.put(segment.getStartIndex(), segment)) {
+            size.incrementAndGet();
+        }
+    }
+
+    T get(long startIndex) {
+        return segments.get(startIndex);
+    }
+
+    /**
+     * 查找首尾相接、正好覆盖[startIndex, startIndex + count)的片段
+     *
+     * @param startIndex 起始序号
+     * @param count      消息条数
+     * @return 按序号排列的片段，不能正好覆盖时返回空列表
+     */
+    List<T> find(long startIndex, int count) {
+        T segment = segments.get(startIndex);
+        if (null != segment && segment.getCount() == count) {
+            return Collections.singletonList(segment);
+        }
+        List<T> result = new ArrayList<>();
+        long index = startIndex;
+        int remaining = count;
+        while (remaining > 0 && null != segment) {
+            result.add(segment);
+            index += segment.getCount();
+            remaining -= segment.getCount();
+            segment = remaining > 0 ? segments.get(index) : null;
+        }
+        return remaining == 0 ? result : Collections.emptyList();
+    }
+
+    /**
+     * @return 序号最小的片段，没有片段时返回null
+     */
+    T first() {
+        Map.Entry<Long, T> entry = segments.firstEntry();
+        return null == entry ? null : entry.getValue();
+    }
+
+    /**
+     * 移除片段，片段已经被移除或者替换时返回false
+     */
+    boolean remove(T segment) {
+        if (segments.remove(segment.getStartIndex(), segment)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 按序号排列的全部片段
+     */
+    Collection<T> segments() {
+        return segments.values();
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    void clear() {
+        for (T segment : segments.values()) {
+            remove(segment);
+        }
+    }
+}
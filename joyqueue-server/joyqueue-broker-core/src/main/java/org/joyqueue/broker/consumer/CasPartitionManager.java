@@ -43,6 +43,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class CasPartitionManager implements PartitionManager {
@@ -51,6 +52,8 @@ public class CasPartitionManager implements PartitionManager {
 
     // 清理线程，每30分钟清理一次
     private static final long CLEAN_INTERVAL_MS = 30L * 60 * 1000;
+    // 每分钟报告一次分区占用的竞争情况
+    private static final long REPORT_INTERVAL_MS = 60L * 1000;
 
     // 集群管理器
     private ClusterManager clusterManager;
@@ -62,18 +65,44 @@ public class CasPartitionManager implements PartitionManager {
     private RetryProbability retryProbability = new RetryProbability();
     // 计数服务
     private CounterService counterService = new CounterService();
+    // 粘性分区分配，没有开启时为null
+    private final StickyPartitionAssignor partitionAssignor;
+    // 尝试占用分区的次数和失败的次数
+    private final LongAdder occupyCount = new LongAdder();
+    private final LongAdder occupyFailCount = new LongAdder();
 
     private ScheduledExecutorService cleanUpExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CasPartitionManagerCleanUpExecutor", true));
 
     public CasPartitionManager(ClusterManager clusterManager, SessionManager sessionManager) {
+        this(clusterManager, sessionManager, null);
+    }
+
+    public CasPartitionManager(ClusterManager clusterManager, SessionManager sessionManager, ConsumeConfig consumeConfig) {
         this.clusterManager = clusterManager;
+        this.partitionAssignor = consumeConfig != null && consumeConfig.getPartitionAssignSticky() ?
+                new StickyPartitionAssignor(consumeConfig.getPartitionAssignLease()) : null;
 
         // 添加会话断开后移除分区占用事件监听
         sessionManager.addListener(new RemoveOccupyListener());
         cleanUpExecutor.scheduleAtFixedRate(this::cleanup,CLEAN_INTERVAL_MS, CLEAN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        cleanUpExecutor.scheduleAtFixedRate(this::reportOccupy, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 报告分区占用的竞争情况
+     */
+    private void reportOccupy() {
+        long count = occupyCount.sumThenReset();
+        long failCount = occupyFailCount.sumThenReset();
+        if (count > 0) {
+            logger.info("Occupy partitions, count: {}, failed: {}, sticky: {}", count, failCount, partitionAssignor != null);
+        }
     }
 
     private void cleanup() {
+        if (partitionAssignor != null) {
+            partitionAssignor.cleanup();
+        }
         ownerShipCache.entrySet().removeIf(entry -> {
             PartitionLock partitionLock = entry.getValue();
             if(partitionLock != null) {
@@ -119,7 +148,34 @@ public class CasPartitionManager implements PartitionManager {
                 partitionLock = newPartitionLock;
             }
         }
-        return partitionLock.tryLock(clientId, occupyTimeout);
+        occupyCount.increment();
+        boolean locked = partitionLock.tryLock(clientId, occupyTimeout);
+        if (!locked) {
+            occupyFailCount.increment();
+        }
+        return locked;
+    }
+
+    @Override
+    public List<Short> getAssignedPartitions(Consumer consumer, List<Short> partitions) {
+        if (partitionAssignor == null || consumer.getId() == null) {
+            return partitions;
+        }
+        return partitionAssignor.assign(consumer.getJoint(), consumer.getId(), partitions);
+    }
+
+    /**
+     * 尝试占用分区的次数
+     */
+    long getOccupyCount() {
+        return occupyCount.sum();
+    }
+
+    /**
+     * 尝试占用分区失败的次数
+     */
+    long getOccupyFailCount() {
+        return occupyFailCount.sum();
     }
 
 
@@ -638,6 +694,9 @@ public class CasPartitionManager implements PartitionManager {
 
             });
 
+            if (partitionAssignor != null) {
+                partitionAssignor.leave(consumer.getJoint(), clientId);
+            }
             // 清零该消费者的占用次数
             counterService.clearOccupyTimes(clientId);
             // 清零该消费者的出错次数
@@ -15,22 +15,20 @@
  */
 package org.joyqueue.broker.consumer;
 
-import com.google.common.collect.Lists;
 import org.joyqueue.broker.archive.ArchiveManager;
 import org.joyqueue.broker.archive.ConsumeArchiveService;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.broker.buffer.Serializer;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.consumer.filter.FilterCallback;
 import org.joyqueue.broker.consumer.model.ConsumePartition;
 import org.joyqueue.broker.consumer.model.PullResult;
 import org.joyqueue.broker.consumer.position.PositionManager;
-import org.joyqueue.broker.consumer.position.model.Position;
 import org.joyqueue.broker.monitor.SessionManager;
 import org.joyqueue.domain.Partition;
 import org.joyqueue.domain.TopicName;
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.exception.JoyQueueException;
-import org.joyqueue.message.BrokerMessage;
 import org.joyqueue.message.MessageLocation;
 import org.joyqueue.network.session.Connection;
 import org.joyqueue.network.session.Consumer;
@@ -62,7 +60,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
  * 并行的消息消费方式
@@ -99,7 +96,7 @@ class ConcurrentConsumption extends Service implements ConcurrentConsumer {
     private LoopThread moveExpireThread;
     private LoopThread cleanExpireThread;
     // K=消费分区，V=消费分区段集合
-    private ConcurrentMap<ConsumePartition, List<Position>> concurrentConsumeCache = new ConcurrentHashMap<>();
+    private ConcurrentMap<ConsumePartition, AckWindow<AckSegment>> concurrentConsumeCache = new ConcurrentHashMap<>();
     // 消费分区锁
     private PartitionLockInstance lockInstance = new PartitionLockInstance();
     // 延迟处理器
@@ -392,13 +389,9 @@ class ConcurrentConsumption extends Service implements ConcurrentConsumer {
     private int count(PullResult pullResult) {
         int count = 0;
         List<ByteBuffer> buffers = pullResult.getBuffers();
+        MessageView view = new MessageView();
         for (ByteBuffer buffer : buffers) {
-            BrokerMessage header = Serializer.readBrokerMessageHeader(buffer);
-            if (header.isBatch()) {
-                count += header.getFlag();
-            } else {
-                count += 1;
-            }
+            count += view.wrap(buffer).getCount();
         }
         return count;
     }
@@ -588,16 +581,16 @@ class ConcurrentConsumption extends Service implements ConcurrentConsumer {
         if (increaseCounter){
             increaseConcurrentCounter(new ConsumePartition(topic, app, partition));
 
-            List<Position> positions = concurrentConsumeCache.get(new ConsumePartition(topic, app, partition));
-            if (positions == null) {
-                positions = new ArrayList<>();
-                List<Position> oldPositions = concurrentConsumeCache.putIfAbsent(new ConsumePartition(topic, app, partition), positions);
-                if (oldPositions != null) {
-                    positions = oldPositions;
+            AckWindow<AckSegment> ackWindow = concurrentConsumeCache.get(new ConsumePartition(topic, app, partition));
+            if (ackWindow == null) {
+                ackWindow = new AckWindow<>();
+                AckWindow<AckSegment> oldAckWindow = concurrentConsumeCache.putIfAbsent(new ConsumePartition(topic, app, partition), ackWindow);
+                if (oldAckWindow != null) {
+                    ackWindow = oldAckWindow;
                 }
             }
 
-            positions.add(new Position(startIndex, endIndex, -1, -1));
+            ackWindow.add(new AckSegment(startIndex, endIndex));
         }
     }
 
@@ -782,7 +775,7 @@ class ConcurrentConsumption extends Service implements ConcurrentConsumer {
 
 
         ConcurrentMap<ConsumePartition, AtomicInteger> consumerCounter = consumerSegmentNumMap;
-        ConcurrentMap<ConsumePartition, List<Position>> concurrentConsumeCacheMap = concurrentConsumeCache;
+        ConcurrentMap<ConsumePartition, AckWindow<AckSegment>> concurrentConsumeCacheMap = concurrentConsumeCache;
         removed.forEach(ele -> {
             expired.remove(ele);
             consumerCounter.remove(ele);
@@ -802,179 +795,82 @@ class ConcurrentConsumption extends Service implements ConcurrentConsumer {
         String app = consumePartition.getApp();
         short partition = consumePartition.getPartition();
 
-        // 查询应答位置
-        long lastMsgAckIndex = positionManager.getLastMsgAckIndex(TopicName.parse(topic), app, partition);
-        List<Position> positions = sortPositions(consumePartition);
-        Position currentPosition = null;
-
-        if (CollectionUtils.isEmpty(positions)) {
+        AckWindow<AckSegment> ackWindow = concurrentConsumeCache.get(consumePartition);
+        if (ackWindow == null || ackWindow.isEmpty()) {
             logger.warn("current position is null, positions is empty, partition: {}, startIndex: {}, endIndex: {}",
                     partition, indexArr[0], indexArr[1]);
             return;
         }
 
-        for (Position position : positions) {
-            if (position.getAckStartIndex() == indexArr[0] && position.getAckCurIndex() == indexArr[1]) {
-                currentPosition = position;
-                break;
-            }
-        }
-
-        if (currentPosition == null) {
+        AckSegment currentSegment = ackWindow.get(indexArr[0]);
+        if (currentSegment == null || currentSegment.getEndIndex() != indexArr[1]) {
             logger.warn("current position is null, partition: {}, startIndex: {}, endIndex: {}",
                     partition, indexArr[0], indexArr[1]);
             return;
         }
 
-        if (currentPosition.isAck()) {
+        if (currentSegment.isAcked()) {
             return;
         }
+        currentSegment.ack();
 
-        // 排序、并返回第一个分区段
-        Position headPosition = positions.get(0);
-        currentPosition.setAck(true);
-
-        if (headPosition.isAck() && headPosition.getAckStartIndex() == lastMsgAckIndex) {
-            List<Position> committedPositions = Lists.newLinkedList();
-
-            for (int i = 0; i < positions.size(); i++) {
-                Position position = positions.get(i);
-                if (position.isAck() && position.getAckStartIndex() == lastMsgAckIndex) {
-                    lastMsgAckIndex = position.getAckCurIndex() + 1;
-                    committedPositions.add(position);
-                } else {
-                    break;
-                }
+        // 查询应答位置，从头部开始提交连续的已应答分区段
+        long lastMsgAckIndex = positionManager.getLastMsgAckIndex(TopicName.parse(topic), app, partition);
+        AckSegment headSegment = ackWindow.first();
+        if (headSegment != null && headSegment.isAcked() && headSegment.getStartIndex() == lastMsgAckIndex) {
+            AckSegment segment;
+            while ((segment = ackWindow.first()) != null && segment.isAcked() && segment.getStartIndex() == lastMsgAckIndex) {
+                ackWindow.remove(segment);
+                lastMsgAckIndex = segment.getEndIndex() + 1;
             }
+            positionManager.updateLastMsgAckIndex(TopicName.parse(topic), app, partition, lastMsgAckIndex, false);
 
-            if (committedPositions.isEmpty()) {
-                logger.info("commit index failed, partition: {}, head: {}, index: {}",
-                        partition, headPosition.getAckStartIndex(), lastMsgAckIndex);
-            } else {
-                positions.removeAll(committedPositions);
-                concurrentConsumeCache.put(consumePartition, positions);
-                positionManager.updateLastMsgAckIndex(TopicName.parse(topic), app, partition, lastMsgAckIndex, false);
-
-                logger.debug("commit index, partition: {}, index: {}", partition, lastMsgAckIndex);
-            }
-        } else {
-            logger.debug("commit index failed, partition: {}, head: {}, index: {}, ack: {}", partition, headPosition.getAckStartIndex(), lastMsgAckIndex, headPosition.isAck());
+            logger.debug("commit index, partition: {}, index: {}", partition, lastMsgAckIndex);
+        } else if (headSegment != null) {
+            logger.debug("commit index failed, partition: {}, head: {}, index: {}, ack: {}", partition, headSegment.getStartIndex(), lastMsgAckIndex, headSegment.isAcked());
         }
     }
 
     /**
-     * 添加应答的分区段
-     *
-     * @param consumePartition
-     * @param ackStartIndex
-     * @param ackCurIndex
+     * 已经拉取、等待应答的分区段
      */
-    private void addAckSegment(ConsumePartition consumePartition, long ackStartIndex, long ackCurIndex) {
-        List<Position> positionList = concurrentConsumeCache.get(consumePartition);
-        if (positionList == null) {
-            positionList = new ArrayList<>();
-            concurrentConsumeCache.put(consumePartition, positionList);
-        }
-        Position position = new Position(ackStartIndex, ackCurIndex, -1, -1);
-        if (positionList.contains(position)) {
-            return;
-        }
-        positionList.add(position);
-    }
-
+    private static class AckSegment implements AckWindow.Segment {
+        // 开始序号
+        private final long startIndex;
+        // 结束序号
+        private final long endIndex;
+        // 是否已应答
+        private volatile boolean acked = false;
 
-    /**
-     * 按照消费应答开始序号将分段段进行排序,并返回第一分区段的位置
-     *
-     * @param consumePartition 消费分区
-     * @return 应答位置
-     */
-    private List<Position> sortPositions(ConsumePartition consumePartition) {
-        List<Position> positionList = concurrentConsumeCache.get(consumePartition);
-        if (CollectionUtils.isEmpty(positionList)) {
-            return null;
+        AckSegment(long startIndex, long endIndex) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
         }
-        // 将分区段按照拉取消息的起始序号进行排序
-        List<Position> sortPositionList = sortByAckStartIndex(positionList);
-        concurrentConsumeCache.put(consumePartition, sortPositionList);
-        return sortPositionList;
-    }
 
-    /**
-     * 按照消费应答开始序号将分段段进行排序
-     *
-     * @param list
-     * @return
-     */
-    private List<Position> sortByAckStartIndex(List<Position> list) {
-        return Lists.newArrayList(list).stream().sorted((thisPosition, thatPosition) -> Long.compare(thisPosition.getAckStartIndex(), thatPosition.getAckStartIndex())).collect(Collectors.toList());
-    }
-
-    /**
-     * 合并相邻的消费区间
-     * <br>
-     * 判断包含关系
-     * <br>
-     * 判断连续关系
-     *
-     * @param sortPositionList 已经排序的消费位置列表
-     * @return
-     */
-    private List<Position> mergeSequenceSegment(List<Position> sortPositionList) {
-        if (sortPositionList.size() <= 1) {
-            return sortPositionList;
+        @Override
+        public long getStartIndex() {
+            return startIndex;
         }
-        List<Position> mergeList = new ArrayList<>();
-
-        for (int i = 0; i < sortPositionList.size(); i++) {
-            Position current = sortPositionList.get(i);
-            Position last = current;
-            int skipIndex = 0;
-
-            for (int j = i + 1; j < sortPositionList.size(); j++) {
-                Position next = sortPositionList.get(j);
-                Position mergedPosition = tryMergeTwoSegment(last, next);
-                if (mergedPosition != null) {
-                    last = mergedPosition;
-                    skipIndex ++;
-                } else {
-                    break;
-                }
-            }
 
-            mergeList.add(last);
-            i += skipIndex;
+        @Override
+        public int getCount() {
+            return (int) (endIndex - startIndex + 1);
         }
 
-        return mergeList;
-    }
+        long getEndIndex() {
+            return endIndex;
+        }
 
-    /**
-     * 尝试合并两个消费区间
-     * <br>
-     * 判断包含关系
-     * <br>
-     * 判断连续关系
-     *
-     * @param last
-     * @param next
-     * @return
-     */
-    private Position tryMergeTwoSegment(Position last, Position next) {
-        // 包含关系
-        if (last.getAckCurIndex() >= next.getAckCurIndex()) {
-            return last;
+        @Override
+        public boolean isAcked() {
+            return acked;
         }
-        // 连续关系(两个连续的序号相差1)
-        if (last.getAckCurIndex() + 1 == next.getAckStartIndex()) {
-            // 这里只关心应答序号，消费序号都用-1标示，稍后再合并消费位置的会填充。
-            return new Position(last.getAckStartIndex(), next.getAckCurIndex(), -1, -1);
+
+        void ack() {
+            acked = true;
         }
-        // 否则返回空
-        return null;
     }
 
-
     /**
      * 分割的一小段分区，用于并行消费
      */
@@ -16,6 +16,7 @@
 package org.joyqueue.broker.consumer;
 
 import org.joyqueue.broker.config.BrokerConfig;
+import org.joyqueue.broker.election.ElectionConfigKey;
 import org.joyqueue.toolkit.config.Property;
 import org.joyqueue.toolkit.config.PropertySupplier;
 
@@ -106,4 +107,40 @@ public class ConsumeConfig {
     public int getPartitionSelectRetryMax() {
         return propertySupplier.getValue(ConsumeConfigKey.PARTITION_SELECT_RETRY_MAX);
     }
+
+    public boolean getPartitionAssignSticky() {
+        return propertySupplier.getValue(ConsumeConfigKey.PARTITION_ASSIGN_STICKY);
+    }
+
+    public int getPartitionAssignLease() {
+        return propertySupplier.getValue(ConsumeConfigKey.PARTITION_ASSIGN_LEASE);
+    }
+
+    public int getFilterSkipMax() {
+        return propertySupplier.getValue(ConsumeConfigKey.FILTER_SKIP_MAX);
+    }
+
+    public boolean getReadAheadEnable() {
+        return propertySupplier.getValue(ConsumeConfigKey.READ_AHEAD_ENABLE);
+    }
+
+    public int getReadAheadCount() {
+        return propertySupplier.getValue(ConsumeConfigKey.READ_AHEAD_COUNT);
+    }
+
+    public int getReadAheadSegmentSize() {
+        return propertySupplier.getValue(ConsumeConfigKey.READ_AHEAD_SEGMENT_SIZE);
+    }
+
+    public long getReadAheadCacheSize() {
+        return propertySupplier.getValue(ConsumeConfigKey.READ_AHEAD_CACHE_SIZE);
+    }
+
+    public int getReadAheadReportInterval() {
+        return propertySupplier.getValue(ConsumeConfigKey.READ_AHEAD_REPORT_INTERVAL);
+    }
+
+    public boolean enableFollowerRead() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.ENABLE_FOLLOWER_READ);
+    }
 }
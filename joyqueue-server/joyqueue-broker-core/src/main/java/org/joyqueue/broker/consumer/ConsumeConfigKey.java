@@ -42,6 +42,25 @@ public enum ConsumeConfigKey implements PropertyDef {
 
     PARTITION_SELECT_RETRY_MAX("consume.partition.select.retry.max", 20, Type.INT),
 
+    // 是否把分区固定分配给消费者，消费者之间不再竞争分区
+    PARTITION_ASSIGN_STICKY("consume.partition.assign.sticky", true, Type.BOOLEAN),
+    // 分区分配的租约时间，消费者超过这个时间没有拉取消息，它的分区会重新分配给其它消费者
+    PARTITION_ASSIGN_LEASE("consume.partition.assign.lease", 1000 * 30, Type.INT),
+
+    // 按标签过滤时，每次拉取最多根据标签索引跳过的消息条数，小于等于0不跳过
+    FILTER_SKIP_MAX("consume.filter.skip.max", 10000, Type.INT),
+
+    // 消费预读缓存
+    READ_AHEAD_ENABLE("consume.read.ahead.enable", true, Type.BOOLEAN),
+    // 每次预读的消息条数
+    READ_AHEAD_COUNT("consume.read.ahead.count", 1000, Type.INT),
+    // 每个分区预读的最大字节数
+    READ_AHEAD_SEGMENT_SIZE("consume.read.ahead.segment.size", 1024 * 1024 * 4, Type.INT),
+    // 预读缓存的总大小
+    READ_AHEAD_CACHE_SIZE("consume.read.ahead.cache.size", 1024L * 1024 * 256, Type.LONG),
+    // 命中率报告和清理空闲缓存的间隔
+    READ_AHEAD_REPORT_INTERVAL("consume.read.ahead.report.interval", 1000 * 60, Type.INT),
+
     ;
     private String name;
     private Object value;
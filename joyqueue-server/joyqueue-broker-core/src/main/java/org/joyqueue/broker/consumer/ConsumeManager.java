@@ -23,7 +23,7 @@ import org.joyqueue.broker.BrokerContext;
 import org.joyqueue.broker.BrokerContextAware;
 import org.joyqueue.broker.archive.ArchiveManager;
 import org.joyqueue.broker.archive.ConsumeArchiveService;
-import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.consumer.model.ConsumePartition;
 import org.joyqueue.broker.consumer.model.PullResult;
@@ -31,6 +31,7 @@ import org.joyqueue.broker.consumer.position.PositionManager;
 import org.joyqueue.broker.consumer.position.model.Position;
 import org.joyqueue.broker.monitor.BrokerMonitor;
 import org.joyqueue.broker.monitor.SessionManager;
+import org.joyqueue.broker.producer.ProduceConfig;
 import org.joyqueue.domain.Consumer.ConsumerPolicy;
 import org.joyqueue.domain.Partition;
 import org.joyqueue.domain.PartitionGroup;
@@ -41,7 +42,6 @@ import org.joyqueue.event.EventType;
 import org.joyqueue.event.MetaEvent;
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.exception.JoyQueueException;
-import org.joyqueue.message.BrokerMessage;
 import org.joyqueue.message.MessageLocation;
 import org.joyqueue.network.session.Connection;
 import org.joyqueue.network.session.Consumer;
@@ -95,6 +95,8 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
     private PositionManager positionManager;
     // 延迟消费帮助类
     private FilterMessageSupport filterMessageSupport;
+    // 消费预读缓存
+    private ReadAheadCache readAheadCache;
     // 消费者请求消息的次数Map,用于实现每个消费者对每个主题的队列的公平访问,访问策略用轮询实现
     private ConcurrentMap<Joint, AtomicLong> consumeCounter = new ConcurrentHashMap();
     // 分区锁实例
@@ -165,17 +167,21 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
         if (archiveManager == null) {
             logger.warn("archive manager is null.");
         }
-        this.filterMessageSupport = new FilterMessageSupport(clusterManager);
+        this.filterMessageSupport = new FilterMessageSupport(clusterManager,
+                new ProduceConfig(brokerContext != null ? brokerContext.getPropertySupplier() : null),
+                brokerContext != null ? brokerContext.getScheduleManager() : null);
+        this.readAheadCache = new ReadAheadCache(consumeConfig);
         this.partitionManager = consumeConfig.useLegacyPartitionManager() ?
-                new LegacyPartitionManager(clusterManager, sessionManager): new CasPartitionManager(clusterManager, sessionManager);
+                new LegacyPartitionManager(clusterManager, sessionManager): new CasPartitionManager(clusterManager, sessionManager, consumeConfig);
         this.positionManager = new PositionManager(clusterManager, storeService, consumeConfig);
         this.brokerContext.positionManager(positionManager);
-        this.partitionConsumption = new PartitionConsumption(clusterManager, storeService, partitionManager, positionManager, messageRetry, filterMessageSupport, archiveManager, consumeConfig);
+        this.partitionConsumption = new PartitionConsumption(clusterManager, storeService, partitionManager, positionManager, messageRetry,
+                filterMessageSupport, readAheadCache, archiveManager, consumeConfig);
         this.concurrentConsumption =
                 consumeConfig.useLegacyConcurrentConsumer() ?
                     new ConcurrentConsumption(clusterManager, storeService, partitionManager, messageRetry, positionManager, filterMessageSupport, archiveManager, sessionManager):
                     new SlideWindowConcurrentConsumer(clusterManager, storeService, partitionManager, messageRetry, positionManager,
-                            filterMessageSupport, archiveManager, consumeConfig, brokerContext.getEventBus());
+                            filterMessageSupport, readAheadCache, archiveManager, consumeConfig, brokerContext.getEventBus());
         ;
         this.resetBroadcastIndexTimer = new Timer("joyqueuue-consume-reset-broadcast-index-timer");
     }
@@ -183,6 +189,7 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
     @Override
     protected void doStart() throws Exception {
         super.doStart();
+        readAheadCache.start();
         partitionConsumption.start();
         concurrentConsumption.start();
         positionManager.start();
@@ -204,6 +211,7 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
         Close.close(messageRetry);
         Close.close(partitionConsumption);
         Close.close(concurrentConsumption);
+        Close.close(readAheadCache);
         resetBroadcastIndexTimer.cancel();
         partitionManager.close();
         logger.info("ConsumeManager is stopped.");
@@ -396,14 +404,10 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
             long now = SystemClock.now();
             int messageCount = 0;
             int messageSize = 0;
+            MessageView view = new MessageView();
             for (ByteBuffer buffer : pullResult.getBuffers()) {
                 messageSize += buffer.limit();
-                BrokerMessage brokerMessage = Serializer.readBrokerMessageHeader(buffer);
-                if (brokerMessage.isBatch()) {
-                    messageCount += brokerMessage.getFlag();
-                } else {
-                    messageCount += 1;
-                }
+                messageCount += view.wrap(buffer).getCount();
             }
             brokerMonitor.onGetMessage(consumer.getTopic(), consumer.getApp(), partitionGroup, pullResult.getPartition(), messageCount, messageSize, now - startTime);
         }
@@ -554,7 +558,7 @@ public class ConsumeManager extends Service implements Consume, BrokerContextAwa
         Integer partitionGroupId = clusterManager.getPartitionGroupId(TopicName.parse(consumer.getTopic()), partition);
         Preconditions.checkArgument(partitionGroupId != null, "partitionGroupId can not be null.");
 
-        positionManager.updateLastMsgAckIndex(TopicName.parse(topic), app, partition, index);
+        positionManager.resetLastMsgAckIndex(TopicName.parse(topic), app, partition, index);
         brokerMonitor.onAckMessage(consumer.getTopic(), consumer.getApp(), partitionGroupId, partition);
     }
 
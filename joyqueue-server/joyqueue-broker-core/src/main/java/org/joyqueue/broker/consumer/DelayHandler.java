@@ -15,7 +15,7 @@
  */
 package org.joyqueue.broker.consumer;
 
-import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.domain.Consumer;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.slf4j.Logger;
@@ -67,8 +67,9 @@ public class DelayHandler {
         int delayTime = consumerPolicy.getDelay();
 
         List<ByteBuffer> collect = new LinkedList<>();
+        MessageView view = new MessageView();
         for (ByteBuffer msg : msgs) {
-            if (isExpire(msg, delayTime)) {
+            if (isExpire(view.wrap(msg), delayTime)) {
                 collect.add(msg);
             } else {
                 break;
@@ -80,14 +81,14 @@ public class DelayHandler {
     /**
      * 判断是否到期
      *
-     * @param msg 消息字节缓存
+     * @param msg 消息视图
      * @return 到期返回true, 没有到期返回false
      */
-    private boolean isExpire(ByteBuffer msg, int delayTime) {
+    private boolean isExpire(MessageView msg, int delayTime) {
         boolean rst = false;
         try {
             //TODO 是否需要读取存储时间
-            long sendTime = Serializer.readSendTime(msg);
+            long sendTime = msg.getStartTime();
             long expire = sendTime + delayTime;
 
             // 过期时间小于等于当前时间,表示已经到期
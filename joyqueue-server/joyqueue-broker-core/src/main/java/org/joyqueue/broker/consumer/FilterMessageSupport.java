@@ -20,7 +20,11 @@ import com.jd.laf.extension.ExtensionManager;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.consumer.filter.FilterCallback;
 import org.joyqueue.broker.consumer.filter.FilterPipeline;
+import org.joyqueue.broker.consumer.filter.FlagFilter;
 import org.joyqueue.broker.consumer.filter.MessageFilter;
+import org.joyqueue.broker.consumer.filter.ScheduleFilter;
+import org.joyqueue.broker.producer.ProduceConfig;
+import org.joyqueue.broker.producer.schedule.ScheduleManager;
 import org.joyqueue.domain.Consumer;
 import org.joyqueue.domain.TopicName;
 import org.joyqueue.event.EventType;
@@ -42,6 +46,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntPredicate;
 
 /**
  * 消息过滤
@@ -55,9 +60,19 @@ class FilterMessageSupport {
     private ClusterManager clusterManager;
     // 用户的消息过滤管道缓存
     private ConcurrentMap</* consumerId */String, /* 过滤管道 */FilterPipeline<MessageFilter>> filterRuleCache = new ConcurrentHashMap<>();
+    // 跳过还没有投递的定时消息，对开启了定时投递的主题的所有消费者生效
+    private final ScheduleFilter scheduleFilter;
+    // 生产配置，为null时不检查定时消息
+    private ProduceConfig produceConfig;
 
     FilterMessageSupport(ClusterManager clusterManager) {
+        this(clusterManager, null, null);
+    }
+
+    FilterMessageSupport(ClusterManager clusterManager, ProduceConfig produceConfig, ScheduleManager scheduleManager) {
         this.clusterManager = clusterManager;
+        this.produceConfig = produceConfig;
+        this.scheduleFilter = new ScheduleFilter(scheduleManager);
 
         // 添加消费者信息更新事件
         clusterManager.addListener(new updateConsumeListener());
@@ -74,13 +89,37 @@ class FilterMessageSupport {
      * @throws JoyQueueException
      */
     public List<ByteBuffer> filter(Consumer consumer, List<ByteBuffer> byteBuffers, FilterCallback filterCallback) throws JoyQueueException {
+        FilterPipeline<MessageFilter> filterPipeline = getFilterPipeline(consumer);
+        List<ByteBuffer> result = byteBuffers;
+        if (produceConfig != null && produceConfig.getScheduleEnable(consumer.getTopic().getFullName())) {
+            result = scheduleFilter.filter(consumer.getTopic().getFullName(), result, filterCallback);
+        }
+        result = filterPipeline.execute(result, filterCallback);
+        return result;
+    }
+
+    /**
+     * 用户配置了标签过滤时，返回标签匹配规则，用于在存储的标签索引上跳过不匹配的消息
+     *
+     * @param consumer 消费者
+     * @return 标签匹配规则，没有配置标签过滤返回null
+     * @throws JoyQueueException
+     */
+    public IntPredicate flagMatcher(Consumer consumer) throws JoyQueueException {
+        FlagFilter flagFilter = getFilterPipeline(consumer).getFilter(FlagFilter.class);
+        if (flagFilter == null) {
+            return null;
+        }
+        return flag -> flagFilter.match((short) flag);
+    }
+
+    private FilterPipeline<MessageFilter> getFilterPipeline(Consumer consumer) throws JoyQueueException {
         FilterPipeline<MessageFilter> filterPipeline = filterRuleCache.get(consumer.getId());
         if (filterPipeline == null) {
             filterPipeline = createFilterPipeline(consumer.getConsumerPolicy());
             filterRuleCache.putIfAbsent(consumer.getId(), filterPipeline);
         }
-        List<ByteBuffer> result = filterPipeline.execute(byteBuffers, filterCallback);
-        return result;
+        return filterPipeline;
     }
 
     /**
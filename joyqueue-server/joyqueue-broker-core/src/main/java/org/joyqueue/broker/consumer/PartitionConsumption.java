@@ -51,6 +51,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntPredicate;
 
 /**
  * 默认的消息消费方式，线程安全
@@ -73,6 +74,8 @@ class PartitionConsumption extends Service {
     private DelayHandler delayHandler = new DelayHandler();
     // 消费过滤帮助类
     private FilterMessageSupport filterMessageSupport;
+    // 消费预读缓存
+    private ReadAheadCache readAheadCache;
     // 尝试管理
     private MessageRetry messageRetry;
     // 消费归档
@@ -83,13 +86,14 @@ class PartitionConsumption extends Service {
 
     PartitionConsumption(ClusterManager clusterManager, StoreService storeService, PartitionManager partitionManager,
                                 PositionManager positionManager, MessageRetry messageRetry,
-                                FilterMessageSupport filterMessageSupport, ArchiveManager archiveManager, ConsumeConfig config) {
+                                FilterMessageSupport filterMessageSupport, ReadAheadCache readAheadCache, ArchiveManager archiveManager, ConsumeConfig config) {
         this.clusterManager = clusterManager;
         this.storeService = storeService;
         this.partitionManager = partitionManager;
         this.positionManager = positionManager;
         this.messageRetry = messageRetry;
         this.filterMessageSupport = filterMessageSupport;
+        this.readAheadCache = readAheadCache;
         this.archiveManager = archiveManager;
         this.config = config;
     }
@@ -135,6 +139,8 @@ class PartitionConsumption extends Service {
         if (pullResult.count() < 1) {
             // 消费普通分区消息
             List<Short> partitionList = clusterManager.getLocalPartitions(TopicName.parse(consumer.getTopic()));
+            // 只从分配给这个消费者的分区拉取，避免和其它消费者竞争
+            partitionList = partitionManager.getAssignedPartitions(consumer, partitionList);
             if (partitionManager.isRetry(consumer)) {
                 partitionList = new ArrayList<>(partitionList);
                 partitionList.add(Partition.RETRY_PARTITION_ID);
@@ -306,9 +312,10 @@ class PartitionConsumption extends Service {
             int partitionGroup = clusterManager.getPartitionGroupId(TopicName.parse(consumer.getTopic()), partition);
             long index = positionManager.getLastMsgAckIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition);
             try {
+                // 按标签过滤时，先根据标签索引跳过不匹配的消息
+                index = skipUnmatchedMessages(consumer, partitionGroup, partition, index);
                 ByteBuffer[] byteBuffers = readMessages(consumer, partitionGroup, partition, index, count);
 
-
                 if (byteBuffers == null) {
                     // 如果没有拿到消息，则释放占用
                     partitionManager.releasePartition(consumer, partition);
@@ -404,7 +411,7 @@ class PartitionConsumption extends Service {
             return null;
         }
         try {
-            ReadResult readRst = store.read(partition, index, count, Long.MAX_VALUE);
+            ReadResult readRst = readAheadCache.read(store, partition, index, count);
             if (readRst.getCode() == JoyQueueCode.SUCCESS) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("readMessage by topic:[{}], app:[{}], partition:[{}], consumer: [{}], count:[{}], result: {}",
@@ -424,6 +431,56 @@ class PartitionConsumption extends Service {
         return null;
     }
 
+    /**
+     * 根据存储的标签索引跳过不匹配标签过滤规则的消息，并应答被跳过的消息，
+     * 不用读取和解析这些消息。
+     *
+     * @param consumer       消费者信息
+     * @param partitionGroup 消费分区所在分组
+     * @param partition      消费分区
+     * @param index          消息序号
+     * @return 跳过之后的消息序号
+     */
+    private long skipUnmatchedMessages(Consumer consumer, int partitionGroup, short partition, long index) throws IOException, JoyQueueException {
+        int skipMax = config.getFilterSkipMax();
+        if (skipMax <= 0) {
+            return index;
+        }
+        org.joyqueue.domain.Consumer consumerConfig = clusterManager.tryGetConsumer(TopicName.parse(consumer.getTopic()), consumer.getApp());
+        if (consumerConfig == null) {
+            return index;
+        }
+        IntPredicate flagMatcher = filterMessageSupport.flagMatcher(consumerConfig);
+        if (flagMatcher == null) {
+            return index;
+        }
+        PartitionGroupStore store = storeService.getStore(consumer.getTopic(), partitionGroup);
+        if (index < store.getLeftIndex(partition) || index >= store.getRightIndex(partition)) {
+            return index;
+        }
+        int skipped = store.skipUnmatched(partition, index, skipMax, flagMatcher);
+        if (skipped <= 0) {
+            return index;
+        }
+        // 跳过的消息是连续的，直接按区间应答，只有开启归档时才需要逐条的消费位置
+        if (!acknowledge(consumer, partition, index, index + skipped - 1)) {
+            return index;
+        }
+        ConsumeArchiveService archiveService = consumeArchiveService();
+        if (archiveService != null) {
+            MessageLocation[] locations = new MessageLocation[skipped];
+            for (int i = 0; i < skipped; i++) {
+                locations[i] = new MessageLocation(consumer.getTopic(), partition, index + i);
+            }
+            appendConsumeLog(archiveService, locations);
+        }
+        if (config.getLogDetail(consumer.getApp())) {
+            logger.info("skipUnmatchedMessages, topic: {}, app: {}, partition: {}, index: {}, skipped: {}",
+                    consumer.getTopic(), consumer.getApp(), partition, index, skipped);
+        }
+        return index + skipped;
+    }
+
     /**
      * broker内部应答的APP名称
      */
@@ -445,12 +502,21 @@ class PartitionConsumption extends Service {
     }
 
     private void archiveIfNecessary(MessageLocation[] messageLocations) throws JoyQueueException {
-        ConsumeArchiveService archiveService;
-
-        if (archiveManager == null || (archiveService = archiveManager.getConsumeArchiveService()) == null) {
+        ConsumeArchiveService archiveService = consumeArchiveService();
+        if (archiveService == null) {
             return;
         }
+        appendConsumeLog(archiveService, messageLocations);
+    }
+
+    /**
+     * 消费归档服务，未开启归档时返回null
+     */
+    private ConsumeArchiveService consumeArchiveService() {
+        return archiveManager == null ? null : archiveManager.getConsumeArchiveService();
+    }
 
+    private void appendConsumeLog(ConsumeArchiveService archiveService, MessageLocation[] messageLocations) throws JoyQueueException {
         // 归档需要用到 address、app
         Connection connection = new Connection();
         try {
@@ -492,7 +558,6 @@ class PartitionConsumption extends Service {
      * @throws JoyQueueException
      */
     public boolean acknowledge(MessageLocation[] locations, Consumer consumer, boolean isSuccessAck) throws JoyQueueException {
-        boolean isSuccess = false;
         if (locations.length < 1) {
             return false;
         }
@@ -507,28 +572,43 @@ class PartitionConsumption extends Service {
             return retryAck(topic, app, locations, isSuccessAck);
         }
         long[] indexArr = AcknowledgeSupport.sortMsgLocation(locations);
-        if (indexArr != null) {
-            long lastMsgAckIndex = positionManager.getLastMsgAckIndex(TopicName.parse(topic), app, partition);
-            // 如果应答的序号与之前应答序号连续，则更新应答序号
-            if (lastMsgAckIndex == indexArr[0]) {
-                long curIndex = indexArr[1];
-                // 将当前序号向后移动一位
-                long updateMsgAckIndex = curIndex + 1;
-                isSuccess = positionManager.updateLastMsgAckIndex(TopicName.parse(topic), app, partition, updateMsgAckIndex);
-
-                // 更新拉取位置(普通消费于并行消费来回切换之后需要用到实时的拉取位置)
-                positionManager.updateLastMsgPullIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition, updateMsgAckIndex);
-            } else {
-                logger.error("ack index : [{} - {}] is not continue, partition: {}, currentIndex is : [{}], consumer info is : {}",
-                        indexArr[0], indexArr[1], partition, lastMsgAckIndex, consumer);
-            }
-        } else {
+        if (indexArr == null) {
             throw new JoyQueueException(JoyQueueCode.FW_CONSUMER_ACK_FAIL, "ack index is not continue or repeatable!");
         }
+        return acknowledge(consumer, partition, indexArr[0], indexArr[1]);
+    }
+
+    /**
+     * 应答连续的消息区间
+     *
+     * @param consumer   消费者信息
+     * @param partition  分区
+     * @param startIndex 起始序号
+     * @param endIndex   结束序号（包含）
+     * @return 是否应答成功
+     * @throws JoyQueueException
+     */
+    private boolean acknowledge(Consumer consumer, short partition, long startIndex, long endIndex) throws JoyQueueException {
+        boolean isSuccess = false;
+        String topic = consumer.getTopic();
+        String app = consumer.getApp();
+        long lastMsgAckIndex = positionManager.getLastMsgAckIndex(TopicName.parse(topic), app, partition);
+        // 如果应答的序号与之前应答序号连续，则更新应答序号
+        if (lastMsgAckIndex == startIndex) {
+            // 将当前序号向后移动一位
+            long updateMsgAckIndex = endIndex + 1;
+            isSuccess = positionManager.updateLastMsgAckIndex(TopicName.parse(topic), app, partition, updateMsgAckIndex);
+
+            // 更新拉取位置(普通消费于并行消费来回切换之后需要用到实时的拉取位置)
+            positionManager.updateLastMsgPullIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition, updateMsgAckIndex);
+        } else {
+            logger.error("ack index : [{} - {}] is not continue, partition: {}, currentIndex is : [{}], consumer info is : {}",
+                    startIndex, endIndex, partition, lastMsgAckIndex, consumer);
+        }
 
         if (config.getLogDetail(consumer.getApp())) {
             logger.info("acknowledge, topic: {}, app: {}, partition: {}, startIndex: {}, endIndex: {}, isSuccess: {}",
-                    consumer.getTopic(), consumer.getApp(), partition, indexArr[0], indexArr[1], isSuccess);
+                    consumer.getTopic(), consumer.getApp(), partition, startIndex, endIndex, isSuccess);
         }
 
         return isSuccess;
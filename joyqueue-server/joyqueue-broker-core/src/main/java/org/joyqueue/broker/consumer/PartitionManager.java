@@ -56,5 +56,16 @@ public interface PartitionManager {
 
     boolean hasFreePartition(Consumer consumer);
 
+    /**
+     * 返回分配给消费者的分区，消费者只从这些分区拉取消息
+     *
+     * @param consumer   消费者
+     * @param partitions 本地的全部分区
+     * @return 分配给消费者的分区
+     */
+    default List<Short> getAssignedPartitions(Consumer consumer, List<Short> partitions) {
+        return partitions;
+    }
+
     default void close() {}
 }
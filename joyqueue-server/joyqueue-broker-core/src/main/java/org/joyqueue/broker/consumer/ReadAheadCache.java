@@ -0,0 +1,343 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer;
+
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.store.PartitionGroupStore;
+import org.joyqueue.store.ReadResult;
+import org.joyqueue.store.message.BatchMessageParser;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.service.Service;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消费预读缓存
+ * <p>
+ * 每个分区缓存一段尾部的消息，多个应用消费同一个分区的尾部时，
+ * 只有第一个读到新消息的消费者从存储读取（并向后多读一批），其它消费者直接从缓存中返回。
+ * 只有向后读取的时候才会替换缓存，落后的消费者直接读存储，不会把尾部的缓存挤掉。
+ * 缓存的总大小超过上限时按照最近访问时间淘汰，长时间没有访问的缓存定时清理。
+ */
+class ReadAheadCache extends Service {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadAheadCache.class);
+
+    private final ConsumeConfig config;
+    // 每个分区的预读缓存
+    private final ConcurrentMap<PartitionKey, Holder> holders = new ConcurrentHashMap<>();
+    // 每个主题的命中统计
+    private final ConcurrentMap<String, HitStat> hitStats = new ConcurrentHashMap<>();
+    // 缓存的消息总大小
+    private final AtomicLong cachedSize = new AtomicLong();
+    private ScheduledExecutorService scheduledExecutorService;
+
+    ReadAheadCache(ConsumeConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        int interval = config.getReadAheadReportInterval();
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("joyqueue-consume-read-ahead-report", true));
+        scheduledExecutorService.scheduleWithFixedDelay(this::report, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() {
+        if (scheduledExecutorService != null) {
+            scheduledExecutorService.shutdownNow();
+        }
+        holders.clear();
+        cachedSize.set(0L);
+        super.doStop();
+    }
+
+    /**
+     * 读取消息，语义和{@link PartitionGroupStore#read(short, long, int, long)}一致，不限制读取的大小。
+     * 返回的消息和缓存共享内容，每次调用都有独立的position，调用方不能修改消息内容。
+     *
+     * @param store     分区组存储
+     * @param partition 分区
+     * @param index     消息序号
+     * @param count     消息条数
+     * @return 读取结果
+     */
+    ReadResult read(PartitionGroupStore store, short partition, long index, int count) throws IOException {
+        if (!config.getReadAheadEnable()) {
+            return store.read(partition, index, count, Long.MAX_VALUE);
+        }
+        HitStat hitStat = hitStats.computeIfAbsent(store.getTopic(), topic -> new HitStat());
+        Holder holder = holders.computeIfAbsent(new PartitionKey(store, partition), key -> new Holder());
+
+        ByteBuffer[] messages = get(holder.segment, store, partition, index, count);
+        if (messages == null) {
+            ReadResult readResult = null;
+            synchronized (holder) {
+                // 其它消费者可能已经读取了同一段消息
+                messages = get(holder.segment, store, partition, index, count);
+                if (messages == null) {
+                    readResult = load(holder, store, partition, index, count);
+                }
+            }
+            if (readResult != null) {
+                hitStat.miss.increment();
+                evictIfNecessary(holder);
+                return readResult;
+            }
+        }
+        hitStat.hit.increment();
+        return toReadResult(messages);
+    }
+
+    /**
+     * 主题的预读缓存命中率，统计周期为上一次报告到现在
+     *
+     * @param topic 主题
+     * @return 命中率，没有读取返回0
+     */
+    double getHitRatio(String topic) {
+        HitStat hitStat = hitStats.get(topic);
+        if (hitStat == null) {
+            return 0D;
+        }
+        long hit = hitStat.hit.sum();
+        long total = hit + hitStat.miss.sum();
+        return total == 0 ? 0D : (double) hit / total;
+    }
+
+    /**
+     * 缓存的消息总大小
+     */
+    long getCachedSize() {
+        return cachedSize.get();
+    }
+
+    /**
+     * 报告每个主题的命中率并重新开始统计，同时清理长时间没有访问的缓存
+     */
+    void report() {
+        for (Map.Entry<String, HitStat> entry : hitStats.entrySet()) {
+            long hit = entry.getValue().hit.sumThenReset();
+            long miss = entry.getValue().miss.sumThenReset();
+            if (hit + miss > 0) {
+                logger.info("Consume read ahead, topic: {}, hit: {}, miss: {}, hitRatio: {}%, cachedSize: {}",
+                        entry.getKey(), hit, miss, hit * 100 / (hit + miss), cachedSize.get());
+            } else {
+                hitStats.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        long expireTime = SystemClock.now() - config.getReadAheadReportInterval();
+        for (Map.Entry<PartitionKey, Holder> entry : holders.entrySet()) {
+            Segment segment = entry.getValue().segment;
+            if (segment == null || segment.lastAccessTime < expireTime) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 从缓存中读取，缓存中没有或者分区尾部已经向后移动时返回null
+     */
+    private ByteBuffer[] get(Segment segment, PartitionGroupStore store, short partition, long index, int count) {
+        if (segment == null || index < segment.startIndex || index >= segment.endIndex) {
+            return null;
+        }
+        long rightIndex = store.getRightIndex(partition);
+        if (rightIndex < segment.endIndex) {
+            // 分区回滚过，缓存的消息可能已经无效
+            return null;
+        }
+        long endIndex = index + Math.max(1, count);
+        if (endIndex > segment.endIndex && rightIndex > segment.endIndex) {
+            // 读到了缓存的末尾，并且后面还有消息，重新预读
+            return null;
+        }
+        int from = Arrays.binarySearch(segment.indices, index);
+        if (from < 0) {
+            // 序号在一批消息的中间，直接读存储
+            return null;
+        }
+        segment.lastAccessTime = SystemClock.now();
+        return segment.slice(from, endIndex);
+    }
+
+    private ReadResult load(Holder holder, PartitionGroupStore store, short partition, long index, int count) throws IOException {
+        Segment current = holder.segment;
+        if (holder.removed || (current != null && index < current.startIndex)) {
+            // 落后的消费者直接读存储，不替换尾部的缓存
+            return store.read(partition, index, count, Long.MAX_VALUE);
+        }
+
+        ReadResult readResult = store.read(partition, index, Math.max(count, config.getReadAheadCount()), config.getReadAheadSegmentSize());
+        ByteBuffer[] messages = readResult.getMessages();
+        if (readResult.getCode() != JoyQueueCode.SUCCESS || messages == null || messages.length == 0) {
+            // 单条消息超过了预读的大小，或者没有读到消息
+            return store.read(partition, index, count, Long.MAX_VALUE);
+        }
+
+        Segment segment = new Segment(index, messages);
+        holder.segment = segment;
+        cachedSize.addAndGet(segment.size - (current == null ? 0L : current.size));
+        return toReadResult(segment.slice(0, index + Math.max(1, count)));
+    }
+
+    /**
+     * 缓存超过上限时，按照最近访问时间淘汰，不淘汰刚刚预读的分区
+     */
+    private void evictIfNecessary(Holder current) {
+        if (cachedSize.get() <= config.getReadAheadCacheSize()) {
+            return;
+        }
+        List<Map.Entry<PartitionKey, Holder>> entries = new ArrayList<>(holders.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> {
+            Segment segment = entry.getValue().segment;
+            return segment == null ? 0L : segment.lastAccessTime;
+        }));
+        for (Map.Entry<PartitionKey, Holder> entry : entries) {
+            if (cachedSize.get() <= config.getReadAheadCacheSize()) {
+                break;
+            }
+            if (entry.getValue() != current) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void remove(PartitionKey key, Holder holder) {
+        synchronized (holder) {
+            if (holders.remove(key, holder)) {
+                Segment segment = holder.segment;
+                if (segment != null) {
+                    cachedSize.addAndGet(-segment.size);
+                }
+                holder.segment = null;
+                holder.removed = true;
+            }
+        }
+    }
+
+    private ReadResult toReadResult(ByteBuffer[] messages) {
+        ReadResult readResult = new ReadResult();
+        readResult.setCode(JoyQueueCode.SUCCESS);
+        readResult.setMessages(messages);
+        return readResult;
+    }
+
+    /**
+     * 分区，存储实例重建之后旧的缓存自然失效
+     */
+    private static class PartitionKey {
+        private final PartitionGroupStore store;
+        private final short partition;
+
+        PartitionKey(PartitionGroupStore store, short partition) {
+            this.store = store;
+            this.partition = partition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PartitionKey)) {
+                return false;
+            }
+            PartitionKey that = (PartitionKey) o;
+            return store == that.store && partition == that.partition;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + partition;
+        }
+    }
+
+    private static class Holder {
+        private volatile Segment segment;
+        // 已经从缓存中移除，不再预读
+        private boolean removed;
+    }
+
+    /**
+     * 一段连续的消息
+     */
+    private static class Segment {
+        // 第一条消息的序号
+        private final long startIndex;
+        // 最后一条消息之后的序号
+        private final long endIndex;
+        // 每条消息的序号，批消息为第一条的序号
+        private final long[] indices;
+        private final ByteBuffer[] messages;
+        private final long size;
+        private volatile long lastAccessTime;
+
+        Segment(long startIndex, ByteBuffer[] messages) {
+            this.startIndex = startIndex;
+            this.messages = messages;
+            this.indices = new long[messages.length];
+            long index = startIndex;
+            long size = 0L;
+            for (int i = 0; i < messages.length; i++) {
+                indices[i] = index;
+                index += BatchMessageParser.isBatch(messages[i]) ? BatchMessageParser.getBatchSize(messages[i]) : 1;
+                size += messages[i].remaining();
+            }
+            this.endIndex = index;
+            this.size = size;
+            this.lastAccessTime = SystemClock.now();
+        }
+
+        /**
+         * 从第from条消息开始，返回序号小于endIndex的消息
+         */
+        ByteBuffer[] slice(int from, long endIndex) {
+            int to = from;
+            while (to < messages.length && indices[to] < endIndex) {
+                to++;
+            }
+            ByteBuffer[] result = new ByteBuffer[to - from];
+            for (int i = from; i < to; i++) {
+                result[i - from] = messages[i].duplicate();
+            }
+            return result;
+        }
+    }
+
+    private static class HitStat {
+        private final LongAdder hit = new LongAdder();
+        private final LongAdder miss = new LongAdder();
+    }
+}
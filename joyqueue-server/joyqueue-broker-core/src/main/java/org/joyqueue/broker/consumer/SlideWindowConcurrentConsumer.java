@@ -19,6 +19,7 @@ import com.google.common.collect.Lists;
 import org.apache.commons.collections.CollectionUtils;
 import org.joyqueue.broker.archive.ArchiveManager;
 import org.joyqueue.broker.archive.ConsumeArchiveService;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.broker.buffer.Serializer;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.consumer.model.ConsumePartition;
@@ -30,7 +31,6 @@ import org.joyqueue.domain.PartitionGroup;
 import org.joyqueue.domain.TopicName;
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.exception.JoyQueueException;
-import org.joyqueue.message.BrokerMessage;
 import org.joyqueue.message.MessageLocation;
 import org.joyqueue.network.session.Connection;
 import org.joyqueue.network.session.Consumer;
@@ -57,14 +57,11 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -105,6 +102,8 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
     private ClusterManager clusterManager;
     // 延期帮助类
     private FilterMessageSupport filterMessageSupport;
+    // 消费预读缓存
+    private ReadAheadCache readAheadCache;
     // 重启进程需要重置拉取消息位置，这里维护是否已重置;K=分区,V=是否已重置
     private ConcurrentMap<ConsumePartition, Boolean> resetPullPositionFlag = new ConcurrentHashMap<>();
 
@@ -122,7 +121,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
     private final ScheduledExecutorService scheduledExecutorService;
 
     SlideWindowConcurrentConsumer(ClusterManager clusterManager, StoreService storeService, PartitionManager partitionManager,
-                                  MessageRetry messageRetry, PositionManager positionManager, FilterMessageSupport filterMessageSupport, ArchiveManager archiveManager,
+                                  MessageRetry messageRetry, PositionManager positionManager, FilterMessageSupport filterMessageSupport, ReadAheadCache readAheadCache, ArchiveManager archiveManager,
                                   ConsumeConfig consumeConfig, BrokerEventBus brokerEventBus) {
         this.clusterManager = clusterManager;
         this.storeService = storeService;
@@ -130,6 +129,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
         this.messageRetry = messageRetry;
         this.positionManager = positionManager;
         this.filterMessageSupport = filterMessageSupport;
+        this.readAheadCache = readAheadCache;
         this.archiveManager = archiveManager;
         this.consumeConfig = consumeConfig;
         this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ConcurrentConsumerClearExecutor", true));
@@ -547,13 +547,9 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
 
     private int count(List<ByteBuffer> buffers) {
         int count = 0;
+        MessageView view = new MessageView();
         for (ByteBuffer buffer : buffers) {
-            BrokerMessage header = Serializer.readBrokerMessageHeader(buffer);
-            if (header.isBatch()) {
-                count += header.getFlag();
-            } else {
-                count += 1;
-            }
+            count += view.wrap(buffer).getCount();
         }
         return count;
     }
@@ -620,7 +616,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
         try {
             int partitionGroup = clusterManager.getPartitionGroupId(TopicName.parse(consumer.getTopic()), partition);
             PartitionGroupStore store = storeService.getStore(consumer.getTopic(), partitionGroup);
-            ReadResult readRst = store.read(partition, index, count, Long.MAX_VALUE);
+            ReadResult readRst = readAheadCache.read(store, partition, index, count);
             if (readRst.getCode() == JoyQueueCode.SUCCESS) {
                 if (readRst.getMessages() != null) {
                     pullResult.setBuffers(Lists.newArrayList(readRst.getMessages()));
@@ -746,10 +742,10 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
      * 在分区上的并行消费滑动窗口
      */
     private static class SlideWindow {
-        private final NavigableMap<Long /* index */ , ConsumedMessages> consumedMessagesMap = new ConcurrentSkipListMap<>();
+        private final AckWindow<ConsumedMessages> ackWindow = new AckWindow<>();
         // 上一次检查是否有超时过期ConsumedMessages的时间戳
         private final AtomicLong lastCheckExpireTimestamp = new AtomicLong(0L);
-        // 最小检查过期时间间隔，避免频繁遍历consumedMessagesMap
+        // 最小检查过期时间间隔，避免频繁遍历ackWindow
         private static final long MIN_CHECK_EXPIRE_INTERVAL_MS = 1000L;
 
         // 估计可用的过期片段数量，不是百分之百准确，主要用于拦截不必要的遍历
@@ -763,7 +759,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
         }
 
         int concurrentCount() {
-            return consumedMessagesMap.size();
+            return ackWindow.size();
         }
 
         ConsumedMessages tryGetAndLockExpired(long ackTimeoutMs) {
@@ -777,7 +773,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
                         lastCheckExpireTimestamp.compareAndSet(timestamp, SystemClock.now())) {
                     // 检查超时过期的片段，并重置锁定状态
                     expiredCount.set(0);
-                    for (ConsumedMessages consumedMessages : consumedMessagesMap.values()) {
+                    for (ConsumedMessages consumedMessages : ackWindow.segments()) {
                         if(consumedMessages.isExpired()) {
                             expiredCount.incrementAndGet();
                         }
@@ -793,7 +789,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
             ConsumedMessages result = null;
             if (expiredCount.get() > 0) {
                 // 返回并锁定第一个可用的片段
-                result = consumedMessagesMap.values().stream()
+                result = ackWindow.segments().stream()
                         .filter(cm -> cm.tryLock(ackTimeoutMs)).findFirst().orElse(null);
                 if (null != result) {
                     expiredCount.decrementAndGet();
@@ -812,13 +808,13 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
                         nextPullIndex,
                         topic,
                         partition);
-                consumedMessagesMap.clear();
+                ackWindow.clear();
                 this.nextPullIndex = nextPullIndex;
                 isReset = true;
             }
             ConsumedMessages consumedMessages = new ConsumedMessages(nextPullIndex, count, timeoutMs, isReset);
             this.nextPullIndex += count;
-            consumedMessagesMap.put(nextPullIndex, consumedMessages);
+            ackWindow.add(consumedMessages);
             return consumedMessages;
         }
 
@@ -829,24 +825,17 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
         private AtomicInteger counter = new AtomicInteger(0);
 
         boolean ack(TopicName topic, String app, short partition, long startIndex, int count, PositionManager positionManager) throws JoyQueueException {
-            List<ConsumedMessages> toBeAcked = new LinkedList<>();
             boolean ret = false;
-            long curIndex = startIndex;
-            int remainingCount = count;
             ConsumedMessages consumedMessages;
-            while (remainingCount > 0 && (consumedMessages = consumedMessagesMap.get(curIndex)) != null) {
-                toBeAcked.add(consumedMessages);
-                curIndex += consumedMessages.count;
-                remainingCount -= consumedMessages.count;
-            }
-            if (remainingCount == 0 && toBeAcked.size() > 0) {
+            List<ConsumedMessages> toBeAcked = ackWindow.find(startIndex, count);
+            if (toBeAcked.size() > 0) {
                toBeAcked.forEach(ConsumedMessages::ack);
 
                // 如果确认的片段是滑动窗口的第一段，需要在分区上ack，并向尾部缩小滑动窗口
 
-               while (!consumedMessagesMap.isEmpty() && (consumedMessages = consumedMessagesMap.firstEntry().getValue()).isAcked()) {
+               while ((consumedMessages = ackWindow.first()) != null && consumedMessages.isAcked()) {
                    long lastMsgAckIndex = positionManager.getLastMsgAckIndex(topic, app, partition);
-                   consumedMessagesMap.remove(consumedMessages.getStartIndex());
+                   ackWindow.remove(consumedMessages);
                    if (lastMsgAckIndex >= consumedMessages.getStartIndex() && lastMsgAckIndex < consumedMessages.getStartIndex() + consumedMessages.getCount()) {
                        positionManager.updateLastMsgAckIndex(topic, app, partition,
                                consumedMessages.getStartIndex() + consumedMessages.getCount(), false);
@@ -878,7 +867,7 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
      * 在某个分区上连续的n条消息，并行消费ack最小单元。每次一个客户端请求消息的时候，对应发给客户端的一个PullResult。
      * 线程安全。
      */
-    private static class ConsumedMessages {
+    private static class ConsumedMessages implements AckWindow.Segment {
         static final int LOCKED = 0;
         static final int ACKED = 1;
         static final int EXPIRED = -1;
@@ -897,11 +886,13 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
             this.reset = reset;
         }
 
-        int getCount() {
+        @Override
+        public int getCount() {
             return count;
         }
 
-        long getStartIndex() {
+        @Override
+        public long getStartIndex() {
             return startIndex;
         }
 
@@ -929,7 +920,8 @@ public class SlideWindowConcurrentConsumer extends Service implements Concurrent
             return status.get() == EXPIRED;
         }
 
-        boolean isAcked() {
+        @Override
+        public boolean isAcked() {
             return status.get() == ACKED;
         }
 
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer;
+
+import org.joyqueue.network.session.Joint;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 粘性分区分配
+ * <p>
+ * 同一个主题和应用的消费者，在每个Broker上均分本地的分区，每个消费者只从分配给自己的分区拉取消息，
+ * 消费者之间不再竞争分区锁。
+ * 消费者每次拉取消息都会续约，超过租约时间没有拉取的消费者被移除；
+ * 消费者加入、离开或者分区变化时重新分配，重新分配时尽量保持分区原来的归属，只移动超出配额的分区。
+ * <p>
+ * 拉取消息时读取的是不可变的分配结果，只有需要重新分配的时候才加锁。
+ */
+class StickyPartitionAssignor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StickyPartitionAssignor.class);
+
+    // 续约的最小间隔
+    private static final long RENEW_INTERVAL_MS = 1000L;
+
+    // 消费者租约时间
+    private final long leaseTimeout;
+    private final long renewInterval;
+    // 主题和应用 -> 消费组
+    private final ConcurrentMap<Joint, Group> groups = new ConcurrentHashMap<>();
+
+    StickyPartitionAssignor(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+        this.renewInterval = Math.min(RENEW_INTERVAL_MS, leaseTimeout / 4);
+    }
+
+    /**
+     * 获取分配给消费者的分区，同时为消费者续约
+     *
+     * @param joint      主题和应用
+     * @param member     消费者ID
+     * @param partitions 本地的全部分区
+     * @return 分配给消费者的分区，消费者多于分区时可能为空
+     */
+    List<Short> assign(Joint joint, String member, List<Short> partitions) {
+        long now = SystemClock.now();
+        Group group = groups.computeIfAbsent(joint, key -> new Group(key));
+        Long renewTime = group.members.get(member);
+        if (renewTime == null || now - renewTime >= renewInterval) {
+            group.members.put(member, now);
+        }
+
+        Assignment assignment = group.assignment;
+        List<Short> assigned = assignment.memberPartitions.get(member);
+        if (assigned == null || now >= assignment.checkTime || !partitions.equals(assignment.partitions)) {
+            assignment = group.rebalance(member, partitions, now);
+            assigned = assignment.memberPartitions.get(member);
+        }
+        return assigned == null ? Collections.emptyList() : assigned;
+    }
+
+    /**
+     * 消费者离开，下一次拉取时重新分配
+     *
+     * @param joint  主题和应用
+     * @param member 消费者ID
+     */
+    void leave(Joint joint, String member) {
+        Group group = groups.get(joint);
+        if (group != null && group.members.remove(member) != null) {
+            group.expire();
+        }
+    }
+
+    /**
+     * 清理没有消费者的消费组
+     */
+    void cleanup() {
+        long now = SystemClock.now();
+        groups.entrySet().removeIf(entry -> {
+            Group group = entry.getValue();
+            return group.members.values().stream().allMatch(renewTime -> renewTime + leaseTimeout < now);
+        });
+    }
+
+    private class Group {
+        private final Joint joint;
+        // 消费者ID -> 最近一次续约的时间
+        private final ConcurrentMap<String, Long> members = new ConcurrentHashMap<>();
+        private volatile Assignment assignment = new Assignment(Collections.emptyList(), Collections.emptyMap(), 0L);
+
+        Group(Joint joint) {
+            this.joint = joint;
+        }
+
+        synchronized void expire() {
+            assignment = new Assignment(assignment.partitions, assignment.memberPartitions, 0L);
+        }
+
+        synchronized Assignment rebalance(String renewMember, List<Short> partitions, long now) {
+            members.put(renewMember, now);
+            members.entrySet().removeIf(entry -> entry.getValue() + leaseTimeout < now);
+            List<String> liveMembers = new ArrayList<>(members.keySet());
+
+            Assignment current = assignment;
+            long checkTime = now + leaseTimeout / 2;
+            if (current.partitions.equals(partitions) && current.memberPartitions.keySet().equals(new HashSet<>(liveMembers))) {
+                assignment = new Assignment(current.partitions, current.memberPartitions, checkTime);
+                return assignment;
+            }
+
+            // 分区原来的归属
+            Map<Short, String> previousOwners = new HashMap<>();
+            current.memberPartitions.forEach((member, owned) -> owned.forEach(partition -> previousOwners.put(partition, member)));
+
+            // 原来分区多的消费者优先获得多出来的一个配额，减少分区移动
+            liveMembers.sort(Comparator.<String>comparingInt(member -> current.memberPartitions.getOrDefault(member, Collections.emptyList()).size())
+                    .reversed().thenComparing(Comparator.naturalOrder()));
+            Map<String, Integer> quotas = new HashMap<>();
+            Map<String, List<Short>> memberPartitions = new HashMap<>();
+            for (int i = 0; i < liveMembers.size(); i++) {
+                String member = liveMembers.get(i);
+                quotas.put(member, partitions.size() / liveMembers.size() + (i < partitions.size() % liveMembers.size() ? 1 : 0));
+                memberPartitions.put(member, new ArrayList<>());
+            }
+
+            List<Short> unassigned = new ArrayList<>();
+            for (Short partition : partitions) {
+                String owner = previousOwners.get(partition);
+                List<Short> owned = owner == null ? null : memberPartitions.get(owner);
+                if (owned != null && owned.size() < quotas.get(owner)) {
+                    owned.add(partition);
+                } else {
+                    unassigned.add(partition);
+                }
+            }
+            int memberIndex = 0;
+            for (Short partition : unassigned) {
+                while (memberPartitions.get(liveMembers.get(memberIndex)).size() >= quotas.get(liveMembers.get(memberIndex))) {
+                    memberIndex++;
+                }
+                memberPartitions.get(liveMembers.get(memberIndex)).add(partition);
+            }
+
+            Map<String, List<Short>> result = new HashMap<>();
+            memberPartitions.forEach((member, owned) -> {
+                Collections.sort(owned);
+                result.put(member, Collections.unmodifiableList(owned));
+            });
+            assignment = new Assignment(new ArrayList<>(partitions), Collections.unmodifiableMap(result), checkTime);
+            logger.info("Rebalance partitions, topic: {}, app: {}, partitions: {}, assignment: {}",
+                    joint.getTopic(), joint.getApp(), partitions, result);
+            return assignment;
+        }
+    }
+
+    /**
+     * 不可变的分配结果
+     */
+    private static class Assignment {
+        // 参与分配的分区
+        private final List<Short> partitions;
+        // 消费者ID -> 分配的分区
+        private final Map<String, List<Short>> memberPartitions;
+        // 下一次检查租约的时间
+        private final long checkTime;
+
+        Assignment(List<Short> partitions, Map<String, List<Short>> memberPartitions, long checkTime) {
+            this.partitions = partitions;
+            this.memberPartitions = memberPartitions;
+            this.checkTime = checkTime;
+        }
+    }
+}
@@ -54,6 +54,21 @@ public class FilterPipeline<T extends MessageFilter> {
         hasFilter = true;
     }
 
+    /**
+     * 查找管道中指定类型的过滤器
+     *
+     * @param type 过滤器类型
+     * @return 第一个该类型的过滤器，没有返回null
+     */
+    public <F extends T> F getFilter(Class<F> type) {
+        for (T filter : pipeline) {
+            if (type.isInstance(filter)) {
+                return type.cast(filter);
+            }
+        }
+        return null;
+    }
+
     /**
      * 执行过滤
      *
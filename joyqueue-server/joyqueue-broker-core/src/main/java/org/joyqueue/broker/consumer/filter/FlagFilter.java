@@ -17,7 +17,7 @@ package org.joyqueue.broker.consumer.filter;
 
 import com.google.common.collect.Lists;
 import com.jd.laf.extension.Extension;
-import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.exception.JoyQueueException;
 import org.slf4j.Logger;
@@ -25,6 +25,8 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -38,6 +40,8 @@ public class FlagFilter implements MessageFilter {
     private final Logger logger = LoggerFactory.getLogger(FlagFilter.class);
     // 已编译好的正则表达式
     private Pattern pattern;
+    // 标签 -> 是否匹配，标签的取值很少，每个标签只匹配一次正则表达式
+    private volatile Map<Short, Boolean> matchCache = new ConcurrentHashMap<>();
 
     public FlagFilter() {
 
@@ -46,6 +50,7 @@ public class FlagFilter implements MessageFilter {
     @Override
     public void setRule(String rule) {
         this.pattern = Pattern.compile(rule);
+        this.matchCache = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -58,6 +63,16 @@ public class FlagFilter implements MessageFilter {
         return filterResult.getValidList();
     }
 
+    /**
+     * 标签是否匹配，没有标签的消息总是匹配
+     *
+     * @param flag 消息标签
+     * @return 是否匹配
+     */
+    public boolean match(short flag) {
+        return flag == 0 || matchCache.computeIfAbsent(flag, key -> pattern.matcher(String.valueOf(key)).matches());
+    }
+
     /**
      * 过滤处理
      * <br/>
@@ -76,19 +91,20 @@ public class FlagFilter implements MessageFilter {
         List<ByteBuffer> inValidList = Lists.newLinkedList(); // 无效队列
         boolean /* 有效到无效 */ valid2InvalidFlag = false,
                 /* 无效到有效 */ invalid2ValidFlag = false;
+        MessageView view = new MessageView();
 
         for (int i = 0; i < messages.size(); i++) {
             ByteBuffer buffer = messages.get(i);
             short flag;
             try {
-                flag = Serializer.readFlag(buffer);
+                flag = view.wrap(buffer).getFlag();
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
                 throw new JoyQueueException(JoyQueueCode.SE_SERIALIZER_ERROR, e);
             }
 
             // 是否匹配
-            boolean isMatch = (flag == 0 || pattern.matcher("" + flag).matches());
+            boolean isMatch = match(flag);
 
             if (isMatch) {
                 if (i == 0) {
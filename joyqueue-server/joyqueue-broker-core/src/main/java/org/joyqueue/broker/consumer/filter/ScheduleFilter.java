@@ -0,0 +1,115 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer.filter;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.joyqueue.broker.buffer.MessageView;
+import org.joyqueue.broker.producer.schedule.ScheduleManager;
+import org.joyqueue.exception.JoyQueueException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 定时消息过滤器
+ * <p>
+ * 定时消息的原始消息带有投递时间属性，到期后由ScheduleManager把去掉该属性的消息追加到分区，
+ * 所以消费时跳过并应答原始消息，不会提前消费，也不会阻塞后面的消息。
+ * 定时索引只在leader本地，原始消息记录到索引之后才能应答，否则应答后没有节点负责投递；
+ * 遇到还没有记录索引的原始消息时（例如刚成为leader还在重建索引）停在这条消息之前，等待下次拉取。
+ * 和FlagFilter一样只返回连续的一段消息，保证应答的消息是连续的。
+ * 通过MessageView直接在消息缓冲区上匹配属性键，不反序列化属性。
+ */
+public class ScheduleFilter implements MessageFilter {
+
+    private static final byte[] DELIVER_TIME_KEY = ScheduleManager.DELIVER_TIME.getBytes(Charsets.UTF_8);
+
+    private final Logger logger = LoggerFactory.getLogger(ScheduleFilter.class);
+
+    // 为null时不检查定时索引，总是跳过原始消息
+    private final ScheduleManager scheduleManager;
+
+    public ScheduleFilter() {
+        this(null);
+    }
+
+    public ScheduleFilter(ScheduleManager scheduleManager) {
+        this.scheduleManager = scheduleManager;
+    }
+
+    @Override
+    public void setRule(String rule) {
+    }
+
+    @Override
+    public List<ByteBuffer> filter(List<ByteBuffer> byteBufferList, FilterCallback filterCallback) throws JoyQueueException {
+        return filter(null, byteBufferList, filterCallback);
+    }
+
+    /**
+     * 过滤主题的定时消息，只跳过已经记录到定时索引的原始消息
+     *
+     * @param topic          主题，为null时不检查定时索引
+     * @param byteBufferList 消息
+     * @param filterCallback 应答跳过的原始消息
+     * @return 开头的原始消息之后连续的普通消息
+     */
+    public List<ByteBuffer> filter(String topic, List<ByteBuffer> byteBufferList, FilterCallback filterCallback) throws JoyQueueException {
+        int size = byteBufferList.size();
+        MessageView view = new MessageView();
+        // 开头连续的、已经记录索引的定时消息
+        int start = 0;
+        boolean blocked = false;
+        while (start < size && isScheduled(view, byteBufferList.get(start))) {
+            if (!isIndexed(topic, view)) {
+                blocked = true;
+                break;
+            }
+            start++;
+        }
+        // 之后连续的普通消息
+        int end = start;
+        while (!blocked && end < size && !isScheduled(view, byteBufferList.get(end))) {
+            end++;
+        }
+        if (start == 0 && end == size) {
+            return byteBufferList;
+        }
+        if (start > 0 && filterCallback != null) {
+            filterCallback.callback(Lists.newLinkedList(byteBufferList.subList(0, start)));
+        }
+        return Lists.newLinkedList(byteBufferList.subList(start, end));
+    }
+
+    private boolean isIndexed(String topic, MessageView view) {
+        return topic == null || scheduleManager == null || scheduleManager.isIndexed(topic, view.getPartition(), view.getIndex());
+    }
+
+    /**
+     * 是否是还没有投递的定时消息，无法解析的消息当作普通消息
+     */
+    private boolean isScheduled(MessageView view, ByteBuffer buffer) {
+        try {
+            return view.wrap(buffer).hasAttribute(DELIVER_TIME_KEY);
+        } catch (Exception e) {
+            logger.debug("Read message attributes exception", e);
+            return false;
+        }
+    }
+}
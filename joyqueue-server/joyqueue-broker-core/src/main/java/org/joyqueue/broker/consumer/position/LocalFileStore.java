@@ -22,7 +22,6 @@ import org.joyqueue.broker.consumer.model.ConsumePartition;
 import org.joyqueue.broker.consumer.position.model.Position;
 import org.joyqueue.network.session.Joint;
 import org.joyqueue.toolkit.concurrent.LoopThread;
-import org.joyqueue.toolkit.io.Files;
 import com.google.common.base.Charsets;
 import org.joyqueue.toolkit.lang.Close;
 import com.google.common.base.Preconditions;
@@ -33,14 +32,14 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -48,20 +47,37 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * 基于本地文件存储的消费位点快照
  * <p>
+ * 消费位置保存在二进制、追加写的{@link PositionLog}中，每次刷盘只追加变化的消费位置，
+ * 日志超过快照大小（至少COMPACT_MIN_LOG_SIZE）时合并成新的快照。
+ * 兼容旧版本的JSON文件：没有日志时从JSON文件恢复，第一次刷盘时写入快照并删除JSON文件。
+ * <p>
  * Created by chengzhiliang on 2019/2/27.
  */
 public class LocalFileStore implements PositionStore<ConsumePartition, Position> {
 
     private Logger logger = LoggerFactory.getLogger(LocalFileStore.class);
+    // 日志小于这个大小时不合并快照
+    private static final long COMPACT_MIN_LOG_SIZE = 4 * 1024 * 1024L;
 
     // 位置信号量
     private final Object[] fileUpdateLock = new Object[0];
     // 消费位置配置文件
     PositionConfig config;
-    // 消费消息序号文件
+    // 旧版本的消费消息序号文件(JSON)，只用于升级时恢复
     private File indexFile;
-    // 消费消息序号文件备份(双写)
+    // 旧版本的消费消息序号文件备份(双写)
     private File indexFileBack;
+    // 消费位置日志
+    private PositionLog positionLog;
+    // 已经写入日志的消费位置，值为[ackStartIndex, ackCurIndex, pullStartIndex, pullCurIndex]，持有fileUpdateLock时访问
+    private final Map<ConsumePartition, long[]> persistedPositions = new HashMap<>();
+    // 已经写入待刷盘的记录、还没有刷盘成功的消费位置和删除的消费分区，刷盘成功之后合并到persistedPositions，持有fileUpdateLock时访问
+    private final Map<ConsumePartition, long[]> pendingPositions = new HashMap<>();
+    private final Set<ConsumePartition> pendingRemovedPartitions = new HashSet<>();
+    // 已经删除、还未写入日志的消费分区
+    private final Set<ConsumePartition> removedPartitions = ConcurrentHashMap.newKeySet();
+    // 下一次刷盘时是否需要合并快照
+    private boolean compactRequired = false;
     // 快照文件目录
     private String basePath;
     // 消费者消费序号
@@ -92,9 +108,7 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
         this.config = new PositionConfig(basePath);
         this.indexFile = this.config.getPositionFile();
         this.indexFileBack = new File(this.indexFile.getParentFile(), this.indexFile.getName() + PositionConfig.BACK_SUFFIX);
-
-        Files.createFile(indexFile);
-        Files.createFile(indexFileBack);
+        this.positionLog = new PositionLog(this.indexFile.getParentFile());
 
         initConsumePositionCache();
 
@@ -116,7 +130,22 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
      * 初始化消费位置缓存
      */
     private void initConsumePositionCache() throws Exception {
-        ConcurrentMap<ConsumePartition, Position> recoverCache = recover();
+        ConcurrentMap<ConsumePartition, Position> recoverCache = new ConcurrentHashMap<>();
+        long validLogLength = 0L;
+        if (positionLog.exists()) {
+            validLogLength = positionLog.replay(recoverCache);
+        } else {
+            recoverCache = recoverFromJson();
+            // 从旧版本升级，第一次刷盘时写入快照
+            compactRequired = true;
+        }
+        synchronized (fileUpdateLock) {
+            positionLog.open(validLogLength);
+            persistedPositions.clear();
+            for (Map.Entry<ConsumePartition, Position> entry : recoverCache.entrySet()) {
+                persistedPositions.put(entry.getKey(), toArray(entry.getValue()));
+            }
+        }
         this.consumePositionCache = recoverCache;
     }
 
@@ -125,6 +154,18 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
         if (thread != null) {
             thread.stop();
         }
+        if (isStarted.get()) {
+            doFlush();
+        }
+        synchronized (fileUpdateLock) {
+            try {
+                if (null != positionLog) {
+                    positionLog.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Close position log exception.", e);
+            }
+        }
         isStarted.set(false);
 
         logger.info("LocalFileStore is stop.");
@@ -147,7 +188,11 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
 
     @Override
     public Position remove(ConsumePartition key) {
-        return consumePositionCache.remove(key);
+        Position position = consumePositionCache.remove(key);
+        if (null != position) {
+            removedPartitions.add(key);
+        }
+        return position;
     }
 
     @Override
@@ -166,56 +211,63 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
     }
 
     /**
-     * 刷新偏移量到磁盘
+     * 刷新偏移量到磁盘，只追加写入变化的消费位置
+     * 刷盘成功之后才更新已经写入日志的消费位置，刷盘失败时待写入的记录保留到下一次刷盘
      */
     protected void doFlush() {
-        Map<Joint, List<ConsumeBill>> jointListMap = cloneIndexCache(consumePositionCache);
-        dump(jointListMap);
-    }
-
-    /**
-     * 以线程安全的方式clone一份深拷贝
-     *
-     * @return
-     * @throws CloneNotSupportedException
-     */
-    private Map<Joint, List<ConsumeBill>> cloneIndexCache(ConcurrentMap<ConsumePartition, Position> consumePositionCache) {
-        Map<Joint, List<ConsumeBill>> copyOfConsumeBills = new HashMap<>(consumePositionCache.size());
-        for (Map.Entry<ConsumePartition, Position> entry : consumePositionCache.entrySet()) {
-            ConsumePartition consumePartition = entry.getKey();
-            String topic = consumePartition.getTopic();
-            String app = consumePartition.getApp();
-            short partition = consumePartition.getPartition();
-            int partitionGroup = consumePartition.getPartitionGroup();
-            Position position = entry.getValue();
-            Joint joint = new Joint(topic, app);
-            List<ConsumeBill> consumeBills = copyOfConsumeBills.get(joint);
-            if (consumeBills == null) {
-                consumeBills = new ArrayList<>();
-                copyOfConsumeBills.put(joint, consumeBills);
-            }
-            ConsumeBill consumeBill = new ConsumeBill(partitionGroup, partition, position);
-            consumeBills.add(consumeBill);
-        }
-        return copyOfConsumeBills;
-    }
-
-    /**
-     * 持久化快照
-     *
-     */
-    private void dump(Map<Joint, List<ConsumeBill>> jointListMap) {
         try {
-            String jsonStr = JSON.toJSONString(jointListMap);
             synchronized (fileUpdateLock) {
-                writeFile(indexFile, jsonStr);
-                writeFile(indexFileBack, jsonStr);
+                for (ConsumePartition consumePartition : removedPartitions) {
+                    removedPartitions.remove(consumePartition);
+                    boolean pending = null != pendingPositions.remove(consumePartition);
+                    if (pending || persistedPositions.containsKey(consumePartition)) {
+                        pendingRemovedPartitions.add(consumePartition);
+                        positionLog.remove(consumePartition);
+                    }
+                }
+                for (Map.Entry<ConsumePartition, Position> entry : consumePositionCache.entrySet()) {
+                    Position position = entry.getValue();
+                    long[] persisted = pendingPositions.get(entry.getKey());
+                    if (null == persisted && !pendingRemovedPartitions.contains(entry.getKey())) {
+                        persisted = persistedPositions.get(entry.getKey());
+                    }
+                    if (null == persisted || !isSame(persisted, position)) {
+                        long[] current = toArray(position);
+                        pendingPositions.put(entry.getKey(), current);
+                        positionLog.put(entry.getKey(), current[0], current[1], current[2], current[3]);
+                    }
+                }
+                positionLog.flush();
+
+                persistedPositions.keySet().removeAll(pendingRemovedPartitions);
+                persistedPositions.putAll(pendingPositions);
+                pendingRemovedPartitions.clear();
+                pendingPositions.clear();
+
+                // 日志超过快照大小时合并
+                if (compactRequired || positionLog.logSize() > Math.max(COMPACT_MIN_LOG_SIZE, positionLog.snapshotSize())) {
+                    positionLog.snapshot(persistedPositions);
+                    if (compactRequired) {
+                        indexFile.delete();
+                        indexFileBack.delete();
+                        compactRequired = false;
+                    }
+                }
             }
         } catch (Exception e) {
             logger.error("flush index error.", e);
         }
     }
 
+    private static boolean isSame(long[] persisted, Position position) {
+        return persisted[0] == position.getAckStartIndex() && persisted[1] == position.getAckCurIndex()
+                && persisted[2] == position.getPullStartIndex() && persisted[3] == position.getPullCurIndex();
+    }
+
+    private static long[] toArray(Position position) {
+        return new long[] {position.getAckStartIndex(), position.getAckCurIndex(), position.getPullStartIndex(), position.getPullCurIndex()};
+    }
+
     /**
      * 恢复快照
      *
@@ -223,7 +275,24 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
      * @throws IOException
      */
     public ConcurrentMap<ConsumePartition, Position> recover() throws IOException {
+        if (positionLog.exists()) {
+            ConcurrentMap<ConsumePartition, Position> consumePositionCache = new ConcurrentHashMap<>();
+            synchronized (fileUpdateLock) {
+                positionLog.replay(consumePositionCache);
+            }
+            return consumePositionCache;
+        }
+        return recoverFromJson();
+    }
+
+    /**
+     * 从旧版本的JSON文件恢复
+     */
+    private ConcurrentMap<ConsumePartition, Position> recoverFromJson() throws IOException {
         ConcurrentMap<ConsumePartition, Position> consumePositionCache = new ConcurrentHashMap<>();
+        if (!indexFile.isFile() && !indexFileBack.isFile()) {
+            return consumePositionCache;
+        }
 
         Map<Joint, List<ConsumeBill>> consumeBills;
         try {
@@ -251,23 +320,6 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
     }
 
 
-    /**
-     * 输出JSON到文件
-     *
-     * @param file    文件
-     * @param content 内容
-     * @throws IOException
-     */
-    private void writeFile(File file, String content) throws IOException {
-        FileWriter writer = new FileWriter(file);
-        try {
-            writer.write(content);
-            writer.flush();
-        } finally {
-            Close.close(writer);
-        }
-    }
-
     /**
      * 从文件读取数据
      *
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer.position;
+
+import org.joyqueue.broker.consumer.model.ConsumePartition;
+import org.joyqueue.broker.consumer.position.model.Position;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 二进制、追加写的消费位置日志。
+ * <p>
+ * 由快照文件和日志文件组成：日志文件只追加记录变化的消费位置，
+ * 日志文件超过一定大小后，把全部消费位置写入新的快照文件，然后清空日志文件。
+ * 恢复时先读取快照文件，再按顺序重放日志文件。
+ * <p>
+ * 每条记录的格式：[记录体长度(4)][记录体CRC32(4)][记录体]，
+ * 记录体：[类型(1)][主题长度(2)][主题][应用长度(2)][应用][分区(2)][分区分组(4)][ackStartIndex(8)][ackCurIndex(8)][pullStartIndex(8)][pullCurIndex(8)]，
+ * 删除记录的消费位置部分都是0。
+ * 日志末尾不完整或者校验失败的记录视为没有写完，恢复时截掉。
+ */
+class PositionLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PositionLog.class);
+    static final String SNAPSHOT_FILE = "index.snapshot";
+    static final String LOG_FILE = "index.log";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final byte TYPE_PUT = 1, TYPE_REMOVE = 2;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final CRC32 crc = new CRC32();
+    // 待写入日志的记录
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    // 使用RandomAccessFile而不是FileChannel读写，刷盘线程被中断时FileChannel会被关闭
+    private RandomAccessFile logRaf;
+
+    PositionLog(File directory) {
+        this.snapshotFile = new File(directory, SNAPSHOT_FILE);
+        this.logFile = new File(directory, LOG_FILE);
+    }
+
+    boolean exists() {
+        return snapshotFile.isFile() || logFile.isFile();
+    }
+
+    /**
+     * 读取快照并重放日志
+     *
+     * @param positions 恢复的消费位置
+     * @return 日志文件中有效数据的长度
+     * @throws IOException 发生IO异常时抛出
+     */
+    long replay(Map<ConsumePartition, Position> positions) throws IOException {
+        if (snapshotFile.isFile()) {
+            long length = replay(snapshotFile, positions);
+            if (length < snapshotFile.length()) {
+                throw new IOException(String.format("Corrupted snapshot file: %s, valid length: %d, file length: %d.",
+                        snapshotFile.getAbsolutePath(), length, snapshotFile.length()));
+            }
+        }
+        return logFile.isFile() ? replay(logFile, positions) : 0L;
+    }
+
+    private long replay(File file, Map<ConsumePartition, Position> positions) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        while (byteBuffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = byteBuffer.position();
+            int length = byteBuffer.getInt();
+            int checksum = byteBuffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || length > byteBuffer.remaining()) {
+                byteBuffer.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(data, byteBuffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                byteBuffer.position(start);
+                break;
+            }
+            byte type = byteBuffer.get();
+            String topic = getString(byteBuffer);
+            String app = getString(byteBuffer);
+            ConsumePartition consumePartition = new ConsumePartition(topic, app, byteBuffer.getShort());
+            consumePartition.setPartitionGroup(byteBuffer.getInt());
+            Position position = new Position(byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getLong());
+            if (type == TYPE_REMOVE) {
+                positions.remove(consumePartition);
+            } else {
+                positions.put(consumePartition, position);
+            }
+            byteBuffer.position(start + RECORD_HEADER_SIZE + length);
+        }
+        if (byteBuffer.position() < data.length) {
+            logger.warn("Ignore incomplete records at the end of position file: {}, valid length: {}, file length: {}.",
+                    file.getAbsolutePath(), byteBuffer.position(), data.length);
+        }
+        return byteBuffer.position();
+    }
+
+    /**
+     * 打开日志文件用于追加写入，截掉末尾不完整的记录
+     *
+     * @param validLength 日志文件中有效数据的长度
+     * @throws IOException 发生IO异常时抛出
+     */
+    void open(long validLength) throws IOException {
+        logRaf = new RandomAccessFile(logFile, "rw");
+        if (logRaf.length() > validLength) {
+            logRaf.setLength(validLength);
+        }
+        logRaf.seek(validLength);
+    }
+
+    void put(ConsumePartition consumePartition, long ackStartIndex, long ackCurIndex, long pullStartIndex, long pullCurIndex) {
+        write(TYPE_PUT, consumePartition, ackStartIndex, ackCurIndex, pullStartIndex, pullCurIndex);
+    }
+
+    void remove(ConsumePartition consumePartition) {
+        write(TYPE_REMOVE, consumePartition, 0L, 0L, 0L, 0L);
+    }
+
+    private void write(byte type, ConsumePartition consumePartition, long ackStartIndex, long ackCurIndex, long pullStartIndex, long pullCurIndex) {
+        byte[] topic = consumePartition.getTopic().getBytes(StandardCharsets.UTF_8);
+        byte[] app = consumePartition.getApp().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 2 + topic.length + 2 + app.length + 2 + 4 + 8 * 4;
+        ensureCapacity(RECORD_HEADER_SIZE + length);
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putShort((short) topic.length).put(topic);
+        buffer.putShort((short) app.length).put(app);
+        buffer.putShort(consumePartition.getPartition());
+        buffer.putInt(consumePartition.getPartitionGroup());
+        buffer.putLong(ackStartIndex).putLong(ackCurIndex).putLong(pullStartIndex).putLong(pullCurIndex);
+        crc.reset();
+        crc.update(buffer.array(), start + RECORD_HEADER_SIZE, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * 把待写入的记录追加到日志文件中。
+     * 写入失败时截掉已经写入的部分记录，保留待写入的记录，下次flush时重试
+     *
+     * @throws IOException 发生IO异常时抛出
+     */
+    void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        long start = logRaf.getFilePointer();
+        try {
+            logRaf.write(buffer.array(), 0, buffer.position());
+        } catch (IOException e) {
+            try {
+                logRaf.setLength(start);
+                logRaf.seek(start);
+            } catch (IOException t) {
+                e.addSuppressed(t);
+            }
+            throw e;
+        }
+        buffer.clear();
+    }
+
+    long logSize() throws IOException {
+        return logRaf.length();
+    }
+
+    long snapshotSize() {
+        return snapshotFile.length();
+    }
+
+    /**
+     * 把全部消费位置写入新的快照文件，然后清空日志文件。
+     * 写快照之前需要先flush，保证日志中的记录都已经包含在快照中。
+     *
+     * @param positions 全部消费位置，值为[ackStartIndex, ackCurIndex, pullStartIndex, pullCurIndex]
+     * @throws IOException 发生IO异常时抛出
+     */
+    void snapshot(Map<ConsumePartition, long[]> positions) throws IOException {
+        for (Map.Entry<ConsumePartition, long[]> entry : positions.entrySet()) {
+            long[] position = entry.getValue();
+            put(entry.getKey(), position[0], position[1], position[2], position[3]);
+        }
+        File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + TEMP_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            raf.setLength(0L);
+            raf.write(buffer.array(), 0, buffer.position());
+            raf.getFD().sync();
+        } finally {
+            buffer.clear();
+        }
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logRaf.setLength(0L);
+        logRaf.seek(0L);
+    }
+
+    private static String getString(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.getShort() & 0xFFFF];
+        byteBuffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != logRaf) {
+            logRaf.close();
+            logRaf = null;
+        }
+    }
+}
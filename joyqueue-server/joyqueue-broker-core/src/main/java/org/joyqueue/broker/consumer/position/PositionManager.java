@@ -221,6 +221,11 @@ public class PositionManager extends Service {
 
     /**
      * 消费位置复制，可覆盖
+     * 开启follower读时：
+     * 当前broker是leader时，收到的是follower读转发的应答位置，只更新比本地靠后并且版本相同的应答序号，
+     * 版本不同说明转发的应答是在leader重置应答位置之前的，直接丢弃
+     * 当前broker是follower时，收到的是leader复制的位置，版本相同时可能还没有包含本地转发给leader的应答，不能回退本地更新的应答序号，
+     * 版本不同说明leader重置了应答位置，以leader为准
      *
      * @param consumePositions
      * @return
@@ -230,11 +235,24 @@ public class PositionManager extends Service {
             if (consumePositions == null) {
                 return false;
             }
+            boolean followerRead = config.enableFollowerRead();
             // 替换内存中的位置信息
             Set<Map.Entry<ConsumePartition, Position>> entries = consumePositions.entrySet();
             entries.stream().forEach(entry -> {
                 ConsumePartition key = entry.getKey();
                 Position val = entry.getValue();
+                Position current = positionStore.get(key);
+                if (followerRead && current != null) {
+                    if (clusterManager.isLeader(key.getTopic(), key.getPartition())) {
+                        if (val.getVersion() == current.getVersion() && val.getAckCurIndex() > current.getAckCurIndex()) {
+                            current.setAckCurIndex(val.getAckCurIndex());
+                        }
+                        return;
+                    }
+                    if (val.getVersion() == current.getVersion() && current.getAckCurIndex() > val.getAckCurIndex()) {
+                        val.setAckCurIndex(current.getAckCurIndex());
+                    }
+                }
                 positionStore.put(key, val);
             });
 
@@ -301,6 +319,26 @@ public class PositionManager extends Service {
         return true;
     }
 
+    /**
+     * 重置指定分区的应答消息序号，同时更新位置的版本，
+     * 之前的版本上转发过来的应答不再合并到重置后的位置上
+     *
+     * @param topic     消费主题
+     * @param app       消费应用
+     * @param partition 消费分区
+     * @param index     应答消息序号
+     * @return 是否更新成功
+     */
+    public boolean resetLastMsgAckIndex(TopicName topic, String app, short partition, long index) throws JoyQueueException {
+        boolean result = updateLastMsgAckIndex(topic, app, partition, index);
+        Position position = positionStore.get(new ConsumePartition(topic.getFullName(), app, partition));
+        if (position != null) {
+            // 使用时间作为版本，重启之后版本从0开始也不会和之前的版本重复
+            position.setVersion(Math.max(SystemClock.now(), position.getVersion() + 1));
+        }
+        return result;
+    }
+
     /**
      * 检查更新的位置是否有效
      *
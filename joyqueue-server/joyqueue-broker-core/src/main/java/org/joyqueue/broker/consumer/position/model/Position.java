@@ -32,6 +32,8 @@ public class Position implements Cloneable {
     // 结束拉取序号
     private volatile long pullCurIndex;
     private volatile boolean ack = false;
+    // 应答序号被重置（按时间重置、手动设置应答位置）时更新的版本，不同版本的应答序号不能合并
+    private volatile long version;
 
     public Position() {
 
@@ -85,6 +87,14 @@ public class Position implements Cloneable {
         this.ack = ack;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -112,6 +122,7 @@ public class Position implements Cloneable {
         sb.append(", ackCurIndex=").append(ackCurIndex);
         sb.append(", pullStartIndex=").append(pullStartIndex);
         sb.append(", pullCurIndex=").append(pullCurIndex);
+        sb.append(", version=").append(version);
         sb.append('}');
         return sb.toString();
     }
@@ -105,6 +105,10 @@ public class ElectionConfig {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_CONSUME_POS_INTERVAL);
     }
 
+    public int getReplicateConsumePosFullInterval() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_CONSUME_POS_FULL_INTERVAL);
+    }
+
     public int getReplicateThreadNumMin() {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_THREAD_NUM_MIN);
     }
@@ -161,6 +165,42 @@ public class ElectionConfig {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.ENABLE_SHARED_HEARTBEAT);
     }
 
+    public int getReplicateWindowSize() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_WINDOW_SIZE);
+    }
+
+    public boolean enableBatchReplicate() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.ENABLE_BATCH_REPLICATE);
+    }
+
+    public int getBatchReplicateMaxSize() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.BATCH_REPLICATE_MAX_SIZE);
+    }
+
+    public int getBatchReplicateMaxInflight() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.BATCH_REPLICATE_MAX_INFLIGHT);
+    }
+
+    public boolean enableFollowerRead() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.ENABLE_FOLLOWER_READ);
+    }
+
+    public int getFollowerReadMaxLagTime() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.FOLLOWER_READ_MAX_LAG_TIME);
+    }
+
+    public long getCatchUpThreshold() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.CATCH_UP_THRESHOLD);
+    }
+
+    public int getCatchUpWindowSize() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.CATCH_UP_WINDOW_SIZE);
+    }
+
+    public int getCatchUpRateLimit() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.CATCH_UP_RATE_LIMIT);
+    }
+
     public void setListenPort(String port) {
         listenPort = Integer.valueOf(port);
     }
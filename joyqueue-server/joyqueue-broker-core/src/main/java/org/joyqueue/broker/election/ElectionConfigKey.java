@@ -36,6 +36,8 @@ public enum ElectionConfigKey implements PropertyDef {
     LISTEN_PORT("election.listen.port", 18001, Type.INT),
     TRANSFER_LEADER_TIMEOUT("election.transfer.leader.timeout", 1000 * 10, Type.INT),
     REPLICATE_CONSUME_POS_INTERVAL("election.replicate.consume.pos.interval", 1000 * 5, Type.INT),
+    // 消费位置只增量复制变化的条目，每隔这个时间全量复制一次
+    REPLICATE_CONSUME_POS_FULL_INTERVAL("election.replicate.consume.pos.full.interval", 1000 * 60, Type.INT),
     REPLICATE_THREAD_NUM_MIN("election.replicate.thread.num.min", 10, Type.INT),
     REPLICATE_THREAD_NUM_MAX("election.replicate.thread.num.max", 100, Type.INT),
     COMMAND_QUEUE_SIZE("election.command.queue.size", 1024, Type.INT),
@@ -50,6 +52,21 @@ public enum ElectionConfigKey implements PropertyDef {
     CONNECTION_TIMEOUT("election.connection.timeout", 100 * 1, Type.INT),
     CONNECTION_RETRY_DELAY("election.connection.retryDelay", 1000 * 10, Type.INT),
     ENABLE_SHARED_HEARTBEAT("election.enable.shared.heartbeat", false, Type.BOOLEAN),
+    // 合并发往同一节点的多个分区组的复制请求，需要所有节点都支持批量复制命令后再开启
+    ENABLE_BATCH_REPLICATE("election.enable.batch.replicate", false, Type.BOOLEAN),
+    BATCH_REPLICATE_MAX_SIZE("election.batch.replicate.max.size", 64, Type.INT),
+    BATCH_REPLICATE_MAX_INFLIGHT("election.batch.replicate.max.inflight", 2, Type.INT),
+    // 每个副本同时在途的复制请求数
+    REPLICATE_WINDOW_SIZE("election.replicate.window.size", 4, Type.INT),
+    // 与leader保持同步的follower为消费者提供读服务，在follower上的应答转发给leader
+    ENABLE_FOLLOWER_READ("election.enable.follower.read", false, Type.BOOLEAN),
+    // follower超过这个时间没有收到leader的复制请求，不再提供读服务
+    FOLLOWER_READ_MAX_LAG_TIME("election.follower.read.max.lag.time", 1000 * 3, Type.INT),
+    // 副本落后超过这个长度时进入追赶模式，使用更大的复制窗口，并且限制追赶的总流量
+    CATCH_UP_THRESHOLD("election.catch.up.threshold", 256 * 1024 * 1024L, Type.LONG),
+    CATCH_UP_WINDOW_SIZE("election.catch.up.window.size", 16, Type.INT),
+    // 每秒追赶复制的字节数，所有分区组共享，0表示不限制
+    CATCH_UP_RATE_LIMIT("election.catch.up.rate.limit", 0, Type.INT),
 
     ;
 
@@ -339,6 +339,16 @@ public class ElectionManager extends Service implements ElectionService, BrokerC
         return leaderElections.get(new TopicPartitionGroup(topic, partitionGroup));
     }
 
+    /**
+     * 本节点的broker id，获取不到时返回ElectionNode.INVALID_NODE_ID
+     *
+     * @return broker id
+     */
+    public int getLocalBrokerId() {
+        Integer brokerId = clusterManager == null ? null : clusterManager.getBrokerId();
+        return brokerId == null ? ElectionNode.INVALID_NODE_ID : brokerId;
+    }
+
     /**
      * 恢复选举的元数据
      *
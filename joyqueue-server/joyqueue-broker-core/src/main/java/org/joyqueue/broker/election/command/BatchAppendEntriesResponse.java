@@ -0,0 +1,55 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.command;
+
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.command.JoyQueuePayload;
+
+import java.util.List;
+
+/**
+ * 批量复制响应，顺序与批量复制请求中的复制请求一一对应
+ */
+public class BatchAppendEntriesResponse extends JoyQueuePayload {
+    private List<AppendEntriesResponse> responses;
+
+    public BatchAppendEntriesResponse() {
+    }
+
+    public BatchAppendEntriesResponse(List<AppendEntriesResponse> responses) {
+        this.responses = responses;
+    }
+
+    public List<AppendEntriesResponse> getResponses() {
+        return responses;
+    }
+
+    public void setResponses(List<AppendEntriesResponse> responses) {
+        this.responses = responses;
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder("batchAppendEntriesResponse:{")
+                .append("size:").append(responses == null ? 0 : responses.size())
+                .append("}").toString();
+    }
+}
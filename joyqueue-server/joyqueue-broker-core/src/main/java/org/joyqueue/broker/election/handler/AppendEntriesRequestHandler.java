@@ -90,24 +90,36 @@ public class AppendEntriesRequestHandler implements CommandHandler, Type {
                 logger.warn("Handle append entries request of topic {} partition group {} election is null",
                         request.getTopic(), request.getPartitionGroup());
                 return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE),
-                        new AppendEntriesResponse.Build().success(false).nextPosition(-1L).build());
+                        failResponse(request));
             }
 
             Command response =  leaderElection.handleAppendEntriesRequest(request);
             if (null == response) {
                 response = new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE),
-                        new AppendEntriesResponse.Build().success(false).nextPosition(-1L).build());
+                        failResponse(request));
             }
             return response;
         } catch (Exception e) {
             logger.warn("Handle append entries request of topic {} partition group {} fail",
                     request.getTopic(), request.getPartitionGroup(), e);
             return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE),
-                               new AppendEntriesResponse.Build().success(false).nextPosition(-1L).build());
+                               failResponse(request));
         }
 
     }
 
+    /**
+     * 处理失败时的响应，带上分区组、任期和本节点的id，leader据此定位是哪个副本的哪个分区组失败
+     *
+     * @param request 复制请求
+     * @return 失败的响应
+     */
+    public AppendEntriesResponse failResponse(AppendEntriesRequest request) {
+        return new AppendEntriesResponse.Build().topicPartitionGroup(request.getTopicPartitionGroup())
+                .term(request.getTerm()).replicaId(electionManager.getLocalBrokerId())
+                .success(false).nextPosition(-1L).build();
+    }
+
     @Override
     public int type() {
         return CommandType.RAFT_APPEND_ENTRIES_REQUEST;
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.handler;
+
+import com.google.common.base.Preconditions;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.Transport;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.Direction;
+import org.joyqueue.network.transport.command.Type;
+import org.joyqueue.network.transport.command.handler.CommandHandler;
+import org.joyqueue.network.transport.exception.TransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量复制请求处理
+ * 将批量请求拆分为各分区组的复制请求，逐个交给AppendEntriesRequestHandler处理，
+ * 响应按请求的顺序合并返回，单个分区组处理失败不影响其它分区组
+ */
+public class BatchAppendEntriesRequestHandler implements CommandHandler, Type {
+    private static Logger logger = LoggerFactory.getLogger(BatchAppendEntriesRequestHandler.class);
+
+    private AppendEntriesRequestHandler appendEntriesRequestHandler;
+
+    public BatchAppendEntriesRequestHandler(AppendEntriesRequestHandler appendEntriesRequestHandler) {
+        Preconditions.checkArgument(appendEntriesRequestHandler != null, "append entries request handler is null");
+        this.appendEntriesRequestHandler = appendEntriesRequestHandler;
+    }
+
+    @Override
+    public Command handle(Transport transport, Command command) throws TransportException {
+        if (!(command.getPayload() instanceof BatchAppendEntriesRequest)) {
+            throw new IllegalArgumentException();
+        }
+
+        BatchAppendEntriesRequest batchRequest = (BatchAppendEntriesRequest) command.getPayload();
+        if (batchRequest.getRequests() == null) {
+            logger.warn("Receive batch append entries request from {}, requests is null", transport.remoteAddress());
+            throw new TransportException("Batch append entries request payload is null",
+                    JoyQueueCode.CT_MESSAGE_BODY_NULL.getCode());
+        }
+
+        List<AppendEntriesResponse> responses = new ArrayList<>(batchRequest.getRequests().size());
+        for (AppendEntriesRequest request : batchRequest.getRequests()) {
+            responses.add(appendEntries(transport, request));
+        }
+        return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE),
+                new BatchAppendEntriesResponse(responses));
+    }
+
+    private AppendEntriesResponse appendEntries(Transport transport, AppendEntriesRequest request) {
+        try {
+            Command response = appendEntriesRequestHandler.handle(transport,
+                    new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST), request));
+            if (response != null && response.getPayload() instanceof AppendEntriesResponse) {
+                return (AppendEntriesResponse) response.getPayload();
+            }
+        } catch (Exception e) {
+            logger.warn("Handle batch append entries request of topic {} partition group {} fail",
+                    request.getTopic(), request.getPartitionGroup(), e);
+        }
+        return appendEntriesRequestHandler.failResponse(request);
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST;
+    }
+}
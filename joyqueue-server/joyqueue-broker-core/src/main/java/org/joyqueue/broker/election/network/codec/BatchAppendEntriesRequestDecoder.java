@@ -0,0 +1,49 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.network.codec;
+
+import io.netty.buffer.ByteBuf;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.codec.PayloadDecoder;
+import org.joyqueue.network.transport.command.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量复制请求解码
+ */
+public class BatchAppendEntriesRequestDecoder implements PayloadDecoder<JoyQueueHeader>, Type {
+    private final AppendEntriesRequestDecoder decoder = new AppendEntriesRequestDecoder();
+
+    @Override
+    public Object decode(final JoyQueueHeader header, final ByteBuf buffer) throws Exception {
+        int size = buffer.readInt();
+        List<AppendEntriesRequest> requests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            requests.add((AppendEntriesRequest) decoder.decode(header, buffer));
+        }
+        return new BatchAppendEntriesRequest(requests);
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST;
+    }
+}
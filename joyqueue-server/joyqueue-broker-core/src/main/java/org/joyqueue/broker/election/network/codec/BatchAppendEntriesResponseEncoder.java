@@ -0,0 +1,50 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.network.codec;
+
+import io.netty.buffer.ByteBuf;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.codec.PayloadEncoder;
+import org.joyqueue.network.transport.command.Type;
+
+import java.util.List;
+
+/**
+ * 批量复制响应编码，逐个复用复制响应的编码
+ */
+public class BatchAppendEntriesResponseEncoder implements PayloadEncoder<BatchAppendEntriesResponse>, Type {
+    private final AppendEntriesResponseEncoder encoder = new AppendEntriesResponseEncoder();
+
+    @Override
+    public void encode(final BatchAppendEntriesResponse payload, ByteBuf buffer) throws Exception {
+        List<AppendEntriesResponse> responses = payload.getResponses();
+        if (responses == null) {
+            buffer.writeInt(0);
+            return;
+        }
+        buffer.writeInt(responses.size());
+        for (AppendEntriesResponse response : responses) {
+            encoder.encode(response, buffer);
+        }
+    }
+
+    @Override
+    public int type() {
+        return CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE;
+    }
+}
@@ -1,6 +1,8 @@
 package org.joyqueue.broker.event;
 
 import org.joyqueue.broker.BrokerContext;
+import org.joyqueue.store.event.StoreCommitEvent;
+import org.joyqueue.store.event.StoreWriteEvent;
 import org.joyqueue.toolkit.concurrent.EventBus;
 import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.service.Service;
@@ -23,6 +25,10 @@ public class BrokerEventBus extends Service {
     @Override
     protected void validate() throws Exception {
         brokerContext.getStoreService().addListener((event) -> {
+            // 写入和提交事件频率很高，由关心的组件直接监听存储，不进入事件总线
+            if (event instanceof StoreWriteEvent || event instanceof StoreCommitEvent) {
+                return;
+            }
             publishEvent(event);
         });
     }
@@ -22,12 +22,21 @@ import org.joyqueue.broker.consumer.Consume;
 import org.joyqueue.broker.consumer.model.PullResult;
 import org.joyqueue.broker.monitor.SessionManager;
 import org.joyqueue.domain.TopicName;
+import org.joyqueue.event.EventType;
+import org.joyqueue.event.MetaEvent;
 import org.joyqueue.exception.JoyQueueCode;
 import org.joyqueue.network.session.Consumer;
 import org.joyqueue.network.session.Joint;
+import org.joyqueue.nsr.event.RemoveTopicEvent;
+import org.joyqueue.store.StoreService;
+import org.joyqueue.store.event.StoreCommitEvent;
+import org.joyqueue.store.event.StoreEvent;
+import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import org.joyqueue.toolkit.config.Property;
 import org.joyqueue.toolkit.config.PropertySupplier;
+import org.joyqueue.toolkit.delay.Timer;
+import org.joyqueue.toolkit.delay.TimerTask;
 import org.joyqueue.toolkit.service.Service;
 import org.joyqueue.toolkit.service.ServiceThread;
 import org.joyqueue.toolkit.time.SystemClock;
@@ -35,64 +44,90 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 长轮询管理
  * <p>
+ * 挂起的长轮询按照主题索引，存储的提交位置前进（有新消息可以消费）时，唤醒该主题上挂起的长轮询，由线程池重新拉取消息。
+ * 长轮询的过期和定期复查由时间轮定时器驱动：分区被其它消费者占用、延迟消费等情况不会触发提交事件，
+ * 挂起的长轮询每隔LONG_POLLING_RECHECK_INTERVAL复查一次。
+ * <p>
  * Created by chengzhiliang on 2018/8/16.
  */
 public class LongPollingManager extends Service {
     public static final String LONG_POLLING_QUEUE_SIZE = "broker.consume.long_polling_queue_size";
+    public static final String LONG_POLLING_THREADS = "broker.consume.long_polling_threads";
+    public static final String LONG_POLLING_RECHECK_INTERVAL = "broker.consume.long_polling_recheck_interval";
     //TODO 设置一个合理的值
     public static final int MAX_LONG_POLLING_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_LONG_POLLING_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final long DEFAULT_LONG_POLLING_RECHECK_INTERVAL = 1000L;
 
     protected static Logger logger = LoggerFactory.getLogger(LongPollingManager.class);
-    // 长轮询请求queue
-    protected Queue<LongPolling> longPollingQueue = new LinkedBlockingQueue<>();
+    // 挂起的长轮询，K=主题，V=该主题上挂起的长轮询
+    protected ConcurrentMap<String, Set<PollingTask>> pollingMap = new ConcurrentHashMap<>();
+    // 每个主题的提交事件计数，用于发现挂起过程中错过的提交事件
+    protected ConcurrentMap<String, AtomicLong> commitVersions = new ConcurrentHashMap<>();
+    // 长轮询总数
+    protected AtomicInteger pollingSize = new AtomicInteger(0);
     // 消费者长轮询数量
     protected ConcurrentMap<Joint, AtomicInteger> counter = new ConcurrentHashMap<>();
     // 消息获取。
     protected Consume consumeManager;
     // 会话管理器
     protected SessionManager sessionManager;
-    // 异步处理。
+    // 存储服务，监听提交事件
+    protected StoreService storeService;
+    // 推进时间轮的线程
     protected Thread guardThread = null;
     // 长轮询线程池
     protected ExecutorService executorService;
+    // 过期和复查定时器
+    protected Timer timer;
     // 集群管理器
     protected ClusterManager clusterManager;
     // 配置管理
     protected PropertySupplier propertySupplier;
+    // 提交事件监听器
+    protected EventListener<StoreEvent> commitListener = this::onStoreEvent;
+    // 元数据事件监听器，删除主题时清理提交事件计数
+    protected EventListener<MetaEvent> metaListener = this::onMetaEvent;
 
     public LongPollingManager(SessionManager sessionManager,
                               ClusterManager clusterManager,
                               Consume consumeManager,
+                              StoreService storeService,
                               PropertySupplier propertySupplier) {
         Preconditions.checkArgument(sessionManager != null, "sessionManager can not be null");
         Preconditions.checkArgument(clusterManager != null, "clusterManager can not be null");
         Preconditions.checkArgument(consumeManager != null, "consumeManager can not be null");
+        Preconditions.checkArgument(storeService != null, "storeService can not be null");
         Preconditions.checkArgument(propertySupplier != null, "propertySupplier can not be null");
 
         this.sessionManager = sessionManager;
         this.clusterManager = clusterManager;
         this.consumeManager = consumeManager;
+        this.storeService = storeService;
         this.propertySupplier = propertySupplier;
-        this.executorService = Executors.newSingleThreadExecutor(new NamedThreadFactory("LongPolling"));
+        this.executorService = Executors.newFixedThreadPool(getLongPollingThreads(), new NamedThreadFactory("LongPolling"));
+        this.timer = new Timer(executorService);
     }
 
     @Override
     protected void doStart() throws Exception {
         super.doStart();
         counter.clear();
-        // 守护进程，每100毫秒执行一次
-        guardThread = new Thread(new ServiceThread(this, 100) {
+        storeService.addListener(commitListener);
+        clusterManager.addListener(metaListener);
+        // 推进时间轮，触发过期和复查
+        guardThread = new Thread(new ServiceThread(this, 0) {
             @Override
             public boolean onException(Throwable e) {
                 logger.error(e.getMessage(), e);
@@ -101,8 +136,7 @@ public class LongPollingManager extends Service {
 
             @Override
             protected void execute() throws Exception {
-                // 处理长轮询
-                processHoldRequest();
+                timer.advanceClock(200L);
             }
         }, "LongPolling-Thread");
         guardThread.start();
@@ -112,6 +146,7 @@ public class LongPollingManager extends Service {
     @Override
     protected void doStop() {
         super.doStop();
+        storeService.removeListener(commitListener);
         if (guardThread != null) {
             guardThread.interrupt();
         }
@@ -137,6 +172,9 @@ public class LongPollingManager extends Service {
         return count;
     }
 
+    protected AtomicLong getCommitVersion(String topic) {
+        return commitVersions.computeIfAbsent(topic, k -> new AtomicLong(0L));
+    }
 
     /**
      * 添加长轮询请求
@@ -144,7 +182,7 @@ public class LongPollingManager extends Service {
      * @return 成功标示
      */
     public boolean suspend(LongPolling longPolling) {
-        logger.debug("longPolling info:[{}], longPollingQueueSize:[{}]", longPolling, longPollingQueue.size());
+        logger.debug("longPolling info:[{}], longPollingQueueSize:[{}]", longPolling, pollingSize.get());
 
         Consumer consumer = longPolling.getConsumer();
         if (consumer == null || longPolling.getLongPollingTimeout() == 0 || !isStarted()) {
@@ -159,17 +197,17 @@ public class LongPollingManager extends Service {
         }
 
         // 超过容量
-        if (longPollingQueue.size() >= getLongPollingQueueSize()) {
+        if (pollingSize.incrementAndGet() > getLongPollingQueueSize()) {
+            pollingSize.decrementAndGet();
             return false;
         }
 
-        // 入队
-        if (longPollingQueue.offer(longPolling)) {
-            // 增加消费长轮询计数器
-            count.incrementAndGet();
-            return true;
-        }
-        return false;
+        // 增加消费长轮询计数器
+        count.incrementAndGet();
+        // 调用方刚刚拉取过，挂起前的提交事件可能已经错过，先复查一次
+        PollingTask pollingTask = new PollingTask(longPolling);
+        executorService.execute(pollingTask::pull);
+        return true;
     }
 
     // 获取长轮训队列大小
@@ -181,96 +219,210 @@ public class LongPollingManager extends Service {
         return Converts.getInteger(property.getValue());
     }
 
+    // 获取长轮询线程数
+    private int getLongPollingThreads() {
+        Property property = propertySupplier.getProperty(LONG_POLLING_THREADS);
+        if (property == null) {
+            return DEFAULT_LONG_POLLING_THREADS;
+        }
+        return Converts.getInteger(property.getValue());
+    }
+
+    // 获取复查间隔
+    private long getLongPollingRecheckInterval() {
+        Property property = propertySupplier.getProperty(LONG_POLLING_RECHECK_INTERVAL);
+        if (property == null) {
+            return DEFAULT_LONG_POLLING_RECHECK_INTERVAL;
+        }
+        return Converts.getLong(property.getValue());
+    }
+
     /**
-     * 处理长轮询请求，检查是否过期，是否有数据了
+     * 提交位置前进，唤醒该主题上挂起的长轮询
      */
-    protected void processHoldRequest() throws Exception {
-        int size = longPollingQueue.size();
-        for (int i = 0; i < size; i++) {
-            if (!isStarted()) {
-                return;
-            }
-            long currentTime = SystemClock.now();
-            LongPolling longPolling = longPollingQueue.poll();
-            Consumer consumer = longPolling.getConsumer();
-            AtomicInteger count = counter.get(consumer.getJoint());
-            // 得到当前消费者
-            consumer = sessionManager.getConsumerById(consumer.getId());
-            if (consumer == null) {
-                // 消费者不存在了，则抛弃该长轮询
-                if (count != null) {
-                    // 减少计数器
-                    count.decrementAndGet();
-                }
-                longPolling.getLongPollingCallback().onExpire(longPolling.getConsumer());
-            } else if (longPolling.getExpire() <= currentTime) {
-                if (count != null) {
-                    // 减少计数器
-                    count.decrementAndGet();
-                }
-                // 长轮询过期了
-                longPolling.getLongPollingCallback().onExpire(consumer);
-            } else if (consumeManager.hasFreePartition(consumer)) {
-                // 有空闲队列
-                executorService.execute(new PullMessageTask(longPolling));
-            } else {
-                // 没有数据，则继续等待
-                longPollingQueue.offer(longPolling);
+    protected void onStoreEvent(StoreEvent event) {
+        if (!(event instanceof StoreCommitEvent)) {
+            return;
+        }
+        String topic = ((StoreCommitEvent) event).getTopic();
+        AtomicLong commitVersion = commitVersions.get(topic);
+        if (commitVersion == null) {
+            // 该主题上从来没有挂起过长轮询
+            return;
+        }
+        commitVersion.incrementAndGet();
+        Set<PollingTask> pollingTasks = pollingMap.get(topic);
+        if (pollingTasks == null || pollingTasks.isEmpty()) {
+            return;
+        }
+        for (PollingTask pollingTask : pollingTasks) {
+            if (pollingTask.tryWakeup()) {
+                executorService.execute(pollingTask::pull);
             }
         }
+    }
 
+    /**
+     * 主题删除后不会再有提交事件，清理该主题的提交事件计数
+     */
+    protected void onMetaEvent(MetaEvent event) {
+        if (event.getEventType() != EventType.REMOVE_TOPIC) {
+            return;
+        }
+        String topic = ((RemoveTopicEvent) event).getTopic().getName().getFullName();
+        commitVersions.remove(topic);
     }
 
     /**
-     * 重新拉取消息
+     * 挂起的长轮询。
+     * 状态：RUNNING 正在拉取消息；PARKED 挂起等待唤醒；DONE 已经应答或者过期。
+     * 只有把状态从PARKED修改为RUNNING的线程可以拉取消息，保证同一个长轮询不会被并发拉取，也不会重复应答。
      */
-    protected class PullMessageTask implements Runnable {
+    protected class PollingTask extends TimerTask {
+        private static final int RUNNING = 0;
+        private static final int PARKED = 1;
+        private static final int DONE = 2;
+
         private final LongPolling longPolling;
+        private final String topic;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
 
-        public PullMessageTask(LongPolling longPolling) {
+        PollingTask(LongPolling longPolling) {
             this.longPolling = longPolling;
+            this.topic = longPolling.getConsumer().getTopic();
         }
 
+        /**
+         * 尝试唤醒，成功后调用方负责拉取消息
+         */
+        boolean tryWakeup() {
+            if (state.compareAndSet(PARKED, RUNNING)) {
+                cancel();
+                unpark();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 定时器触发：过期或者复查
+         */
         @Override
         public void run() {
+            if (state.compareAndSet(PARKED, RUNNING)) {
+                unpark();
+                pull();
+            }
+        }
+
+        /**
+         * 重新拉取消息
+         */
+        void pull() {
             if (!isStarted()) {
                 return;
             }
             Consumer consumer = longPolling.getConsumer();
-            AtomicInteger count = counter.get(consumer.getJoint());
-            PullResult pullResult = null;
+            long commitVersion = getCommitVersion(topic).get();
             try {
-                // 取数据
-                pullResult = consumeManager.getMessage(consumer, longPolling.getCount(), longPolling.getAckTimeout());
-                if (pullResult != null && pullResult.getBuffers().size() > 0) {
-                    // 回调成功
-                    longPolling.getLongPollingCallback().onSuccess(consumer, pullResult);
-                    if (count != null) {
-                        count.decrementAndGet();
-                    }
-                } else if (isStarted()) {
-                    // 重入队列，等待再次轮询
-                    longPollingQueue.offer(longPolling);
+                // 得到当前消费者
+                Consumer currentConsumer = sessionManager.getConsumerById(consumer.getId());
+                if (currentConsumer == null) {
+                    // 消费者不存在了，则抛弃该长轮询
+                    expire(consumer);
+                    return;
                 }
-
-                if (!pullResult.getCode().equals(JoyQueueCode.SUCCESS)) {
-                    logger.error("getMessage error, code: {}, consumer: {}", pullResult.getCode(), consumer);
+                if (longPolling.getExpire() <= SystemClock.now()) {
+                    // 长轮询过期了
+                    expire(currentConsumer);
+                    return;
+                }
+                if (consumeManager.hasFreePartition(consumer)) {
+                    // 取数据
+                    PullResult pullResult = consumeManager.getMessage(consumer, longPolling.getCount(), longPolling.getAckTimeout());
+                    if (!pullResult.getCode().equals(JoyQueueCode.SUCCESS)) {
+                        logger.error("getMessage error, code: {}, consumer: {}", pullResult.getCode(), consumer);
+                    }
+                    if (pullResult.getBuffers().size() > 0) {
+                        // 回调成功
+                        if (finish()) {
+                            longPolling.getLongPollingCallback().onSuccess(consumer, pullResult);
+                        }
+                        return;
+                    }
                 }
+                // 没有数据，则继续等待
+                park(commitVersion);
             } catch (Throwable th) {
                 try {
                     logger.error("long pull error.", th);
-                    if (count != null) {
-                        count.decrementAndGet();
+                    if (finish()) {
+                        longPolling.getLongPollingCallback().onException(consumer, th);
                     }
-                    longPolling.getLongPollingCallback().onException(consumer, th);
                 } catch (Exception e) {
                     logger.error("ack long pull error.", e);
                 }
+            }
+        }
 
+        private void expire(Consumer consumer) throws Exception {
+            if (finish()) {
+                longPolling.getLongPollingCallback().onExpire(consumer);
+            }
+        }
+
+        /**
+         * 挂起，等待提交事件、复查或者过期
+         *
+         * @param commitVersion 本次拉取之前的提交事件计数
+         */
+        private void park(long commitVersion) {
+            if (!isStarted()) {
+                return;
+            }
+            delayMs = Math.min(longPolling.getExpire(), SystemClock.now() + getLongPollingRecheckInterval());
+            pollingMap.compute(topic, (k, pollingTasks) -> {
+                if (pollingTasks == null) {
+                    pollingTasks = ConcurrentHashMap.newKeySet();
+                }
+                pollingTasks.add(this);
+                return pollingTasks;
+            });
+            state.set(PARKED);
+            timer.add(this);
+            // 拉取之后、挂起之前有新的提交，立即重新拉取
+            if (getCommitVersion(topic).get() != commitVersion && tryWakeup()) {
+                executorService.execute(this::pull);
             }
         }
 
+        /**
+         * 从挂起的长轮询中移除，主题上没有挂起的长轮询时移除该主题
+         */
+        private void unpark() {
+            pollingMap.computeIfPresent(topic, (k, pollingTasks) -> {
+                pollingTasks.remove(this);
+                return pollingTasks.isEmpty() ? null : pollingTasks;
+            });
+        }
 
+        /**
+         * 结束长轮询，减少计数器
+         *
+         * @return 是否由当前线程结束
+         */
+        private boolean finish() {
+            if (state.getAndSet(DONE) == DONE) {
+                return false;
+            }
+            cancel();
+            unpark();
+            pollingSize.decrementAndGet();
+            AtomicInteger count = counter.get(longPolling.getConsumer().getJoint());
+            if (count != null) {
+                count.decrementAndGet();
+            }
+            return true;
+        }
     }
-
 }
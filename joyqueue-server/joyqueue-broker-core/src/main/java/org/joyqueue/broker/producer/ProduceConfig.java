@@ -18,10 +18,13 @@ package org.joyqueue.broker.producer;
 import org.joyqueue.broker.config.BrokerConfig;
 import org.joyqueue.toolkit.config.PropertySupplier;
 
+import java.io.File;
+
 /**
  * Created by chengzhiliang on 2018/10/30.
  */
 public class ProduceConfig {
+    private static final String SCHEDULE_DIR = "schedule";
     private PropertySupplier propertySupplier;
     private BrokerConfig brokerConfig;
 
@@ -81,6 +84,42 @@ public class ProduceConfig {
         return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.PRODUCE_BODY_LENGTH);
     }
 
+    public int getWritePressureLimit() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.PRODUCE_WRITE_PRESSURE_LIMIT);
+    }
+
+    public boolean getScheduleEnable(String topic) {
+        return (boolean) PropertySupplier.getValue(propertySupplier, ProducerConfigKey.SCHEDULE_ENABLE)
+                || (boolean) PropertySupplier.getValue(propertySupplier,
+                ProducerConfigKey.SCHEDULE_ENABLE_TOPIC_PREFIX.getName() + topic,
+                ProducerConfigKey.SCHEDULE_ENABLE_TOPIC_PREFIX.getType(),
+                ProducerConfigKey.SCHEDULE_ENABLE_TOPIC_PREFIX.getValue());
+    }
+
+    public long getScheduleSlot() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.SCHEDULE_SLOT);
+    }
+
+    public int getScheduleThreads() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.SCHEDULE_THREADS);
+    }
+
+    public long getScheduleRetryInterval() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.SCHEDULE_RETRY_INTERVAL);
+    }
+
+    public String getSchedulePath() {
+        return brokerConfig.getAndCreateDataPath() + File.separator + SCHEDULE_DIR;
+    }
+
+    public boolean getBufferPoolEnable() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.BUFFER_POOL_ENABLE);
+    }
+
+    public long getBufferPoolCapacity() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.BUFFER_POOL_CAPACITY);
+    }
+
     public boolean getLogDetail(String app) {
         return brokerConfig.getLogDetail(app);
     }
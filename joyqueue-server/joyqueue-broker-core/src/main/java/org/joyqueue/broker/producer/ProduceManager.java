@@ -20,9 +20,11 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.joyqueue.broker.BrokerContext;
 import org.joyqueue.broker.BrokerContextAware;
+import org.joyqueue.broker.buffer.MessageBufferPool;
 import org.joyqueue.broker.buffer.Serializer;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.monitor.BrokerMonitor;
+import org.joyqueue.broker.producer.schedule.ScheduleManager;
 import org.joyqueue.broker.producer.transaction.TransactionManager;
 import org.joyqueue.domain.PartitionGroup;
 import org.joyqueue.domain.QosLevel;
@@ -40,6 +42,7 @@ import org.joyqueue.store.PartitionGroupStore;
 import org.joyqueue.store.StoreService;
 import org.joyqueue.store.WriteRequest;
 import org.joyqueue.store.WriteResult;
+import org.joyqueue.toolkit.concurrent.EventFuture;
 import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.LoopThread;
 import org.joyqueue.toolkit.lang.Close;
@@ -58,6 +61,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 生产消息所依赖的服务,依赖
@@ -76,6 +80,8 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
 
     private TransactionManager transactionManager;
 
+    private ScheduleManager scheduleManager;
+
     private ClusterManager clusterManager;
 
     private StoreService store;
@@ -84,6 +90,8 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
 
     private BrokerContext brokerContext;
 
+    private MessageBufferPool bufferPool;
+
     private Metric metrics = null;
     private Metric.MetricInstance metric = null;
     private LoopThread metricThread = null;
@@ -103,6 +111,7 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
     protected void doStart() throws Exception {
         super.doStart();
         transactionManager.start();
+        scheduleManager.start();
         if(null != metricThread) {
             metricThread.start();
         }
@@ -137,6 +146,13 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
             clusterManager.start();
         }
         transactionManager = new TransactionManager(config, store, clusterManager, brokerMonitor);
+        scheduleManager = new ScheduleManager(config, store, clusterManager, brokerContext);
+        if (brokerContext != null) {
+            brokerContext.scheduleManager(scheduleManager);
+        }
+        if (config.getBufferPoolEnable()) {
+            bufferPool = new MessageBufferPool(config.getBufferPoolCapacity());
+        }
 
         if(config.getPrintMetricIntervalMs() > 0) {
             metrics = new Metric("input", 1, new String [] {"callback", "async"},new String[]{"tps"}, new String [] {"traffic"});
@@ -153,6 +169,7 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
     protected void doStop() {
         super.doStop();
         Close.close(transactionManager);
+        Close.close(scheduleManager);
         if(null != metricThread) {
             metricThread.stop();
         }
@@ -186,6 +203,8 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
         // 判断是否是事务消息
         String txId = msgs.get(0).getTxId();
         if (StringUtils.isNotEmpty(txId)) {
+            // 事务消息不支持定时投递
+            scheduleManager.unschedule(msgs);
             return writeTxMessage(producer, msgs, txId, endTime);
         } else {
             return writeMessages(producer, msgs, qosLevel, endTime);
@@ -218,6 +237,7 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
         qosLevel = getConfigQosLevel(producer, qosLevel);
 
         if (StringUtils.isNotEmpty(txId)) {
+            scheduleManager.unschedule(msgs);
             writeTxMessageAsync(producer, msgs, txId, timeout, eventListener);
         } else {
             writeMessagesAsync(producer, msgs, qosLevel, endTime, eventListener);
@@ -281,34 +301,46 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
             throw new JoyQueueException(JoyQueueCode.CN_NO_PERMISSION);
         }
         long startTime = SystemClock.now();
-        // 分配消息对于的分区分组
-        Map<PartitionGroup, List<WriteRequest>> dispatchedMsgs = dispatchPartition(msgs, partitions);
-        // 分区分组集合
-        /*
-        Set<PartitionGroup> partitionGroupSet = dispatchedMsgs.keySet();
-        PartitionGroup oneGroup = partitionGroupSet.stream().findFirst().get();
-        */
-        // 服务水平级别
-        for (Map.Entry<PartitionGroup, List<WriteRequest>> dispatchEntry : dispatchedMsgs.entrySet()) {
-            PartitionGroup partitionGroup = dispatchEntry.getKey();
-            List<WriteRequest> writeRequests = dispatchEntry.getValue();
-
-            PartitionGroupStore partitionStore = store.getStore(topic, partitionGroup.getGroup(), qosLevel);
-            // 异步写入磁盘
-            Future<WriteResult> writeResultFuture = partitionStore.asyncWrite(writeRequests.toArray(new WriteRequest[]{}));
-            // 同步等待写入完成
-            WriteResult writeResult = syncWait(writeResultFuture, endTime - SystemClock.now());
-            // 构造写入结果
-            if (writeResult.getCode().equals(JoyQueueCode.SUCCESS)) {
-                onPutMessage(topic, producer.getApp(), partitionGroup.getGroup(), startTime, writeRequests);
-            }
+        // 是否有定时投递的消息
+        boolean scheduled = scheduleManager.prepare(topic, msgs);
+        // 每个分区分组的池化缓冲区，写入完成并且处理完写入结果后释放
+        Map<PartitionGroup, MessageBufferPool.Batch> batches = newBatches(qosLevel);
+        try {
+            // 分配消息对于的分区分组
+            Map<PartitionGroup, List<WriteRequest>> dispatchedMsgs = dispatchPartition(msgs, partitions, batches);
+            // 服务水平级别
+            for (Map.Entry<PartitionGroup, List<WriteRequest>> dispatchEntry : dispatchedMsgs.entrySet()) {
+                PartitionGroup partitionGroup = dispatchEntry.getKey();
+                List<WriteRequest> writeRequests = dispatchEntry.getValue();
+
+                PartitionGroupStore partitionStore = store.getStore(topic, partitionGroup.getGroup(), qosLevel);
+                // 存储刷盘跟不上，直接拒绝写入，让生产者降低发送速度
+                if (isWritePressureHigh(partitionStore)) {
+                    putResult.addWriteResult((short) partitionGroup.getGroup(), new WriteResult(JoyQueueCode.SE_DISK_FLUSH_SLOW, null));
+                    continue;
+                }
+                // 异步写入磁盘
+                EventFuture<WriteResult> writeResultFuture = new EventFuture<>();
+                asyncWrite(partitionStore, getBatch(batches, partitionGroup), writeResultFuture, writeRequests);
+                // 同步等待写入完成
+                WriteResult writeResult = syncWait(writeResultFuture, endTime - SystemClock.now());
+                // 构造写入结果
+                if (writeResult.getCode().equals(JoyQueueCode.SUCCESS)) {
+                    if (scheduled) {
+                        scheduleManager.schedule(topic, partitionGroup.getGroup(), writeRequests, writeResult.getIndices());
+                    }
+                    onPutMessage(topic, producer.getApp(), partitionGroup.getGroup(), startTime, writeRequests);
+                }
 
-            putResult.addWriteResult((short) partitionGroup.getGroup(), writeResult);
+                putResult.addWriteResult((short) partitionGroup.getGroup(), writeResult);
 
-            if (config.getLogDetail(producer.getApp())) {
-                logger.info("writeMessages, topic: {}, app: {}, partitionGroup: {}, qosLevel: {}, size: {}, result: {}",
-                        producer.getTopic(), producer.getApp(), partitionGroup.getGroup(), qosLevel, writeRequests.size(), writeResult.getCode());
+                if (config.getLogDetail(producer.getApp())) {
+                    logger.info("writeMessages, topic: {}, app: {}, partitionGroup: {}, qosLevel: {}, size: {}, result: {}",
+                            producer.getTopic(), producer.getApp(), partitionGroup.getGroup(), qosLevel, writeRequests.size(), writeResult.getCode());
+                }
             }
+        } finally {
+            release(batches);
         }
 
         return putResult;
@@ -331,50 +363,65 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
             logger.error("no partitions available topic:%s", topic);
             throw new JoyQueueException(JoyQueueCode.CN_NO_PERMISSION);
         }
-        // 分配消息对于的分区分组
-        Map<PartitionGroup, List<WriteRequest>> dispatchedMsgs = dispatchPartition(msgs, partitions);
-        // 分区分组集合
-        /*
-        Set<PartitionGroup> partitionGroupSet = dispatchedMsgs.keySet();
-        PartitionGroup oneGroup = partitionGroupSet.stream().findFirst().get();
-        */
-        // 服务水平级别
-        for (Map.Entry<PartitionGroup, List<WriteRequest>> dispatchEntry : dispatchedMsgs.entrySet()) {
-            PartitionGroup partitionGroup = dispatchEntry.getKey();
-            if (logger.isDebugEnabled()) {
-                logger.debug("ProduceManager writeMessageAsync topic:[{}], partitionGroup:[{}]]", topic, partitionGroup);
-            }
-            List<WriteRequest> writeRequests = dispatchEntry.getValue();
-            PartitionGroupStore partitionStore = store.getStore(topic, partitionGroup.getGroup(), qosLevel);
-
-            long startTime = SystemClock.now();
-            // 异步写入磁盘
-            if (null != metric) {
-                long t0 = System.nanoTime();
-
-                partitionStore.asyncWrite(new MetricEventListener(t0, startTime, metric, eventListener, topic, app, partitionGroup.getGroup(), writeRequests),
-                        writeRequests.toArray(new WriteRequest[]{}));
-
-                long t1 = System.nanoTime();
-                metric.addCounter("tps", writeRequests.stream().map(WriteRequest::getBuffer).count());
-                metric.addTraffic("traffic", writeRequests.stream().map(WriteRequest::getBuffer).mapToInt(ByteBuffer::remaining).sum());
-                metric.addLatency("async", t1 - t0);
-            } else {
-                partitionStore.asyncWrite(event -> {
+        // 是否有定时投递的消息
+        boolean scheduled = scheduleManager.prepare(topic, msgs);
+        // 每个分区分组的池化缓冲区，写入回调处理完成后释放
+        Map<PartitionGroup, MessageBufferPool.Batch> batches = newBatches(qosLevel);
+        try {
+            // 分配消息对于的分区分组
+            Map<PartitionGroup, List<WriteRequest>> dispatchedMsgs = dispatchPartition(msgs, partitions, batches);
+            // 服务水平级别
+            for (Map.Entry<PartitionGroup, List<WriteRequest>> dispatchEntry : dispatchedMsgs.entrySet()) {
+                PartitionGroup partitionGroup = dispatchEntry.getKey();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("ProduceManager writeMessageAsync topic:[{}], partitionGroup:[{}]]", topic, partitionGroup);
+                }
+                List<WriteRequest> writeRequests = dispatchEntry.getValue();
+                // 写入成功后先记录定时索引，再应答生产者
+                EventListener<WriteResult> writeListener = !scheduled ? eventListener : event -> {
                     if (event.getCode().equals(JoyQueueCode.SUCCESS)) {
-                        onPutMessage(topic, app, partitionGroup.getGroup(), startTime, writeRequests);
-                    }
-                    if (config.getLogDetail(producer.getApp())) {
-                        logger.info("writeMessagesAsync, topic: {}, app: {}, partitionGroup: {}, qosLevel: {}, size: {}, result: {}",
-                                producer.getTopic(), producer.getApp(), partitionGroup.getGroup(), qosLevel, writeRequests.size(),event.getCode());
+                        scheduleManager.schedule(topic, partitionGroup.getGroup(), writeRequests, event.getIndices());
                     }
                     eventListener.onEvent(event);
-                }, writeRequests.toArray(new WriteRequest[]{}));
-            }
-
-            if (qosLevel.equals(QosLevel.ONE_WAY)) {
-                onPutMessage(topic, app, partitionGroup.getGroup(), startTime, writeRequests);
+                };
+                PartitionGroupStore partitionStore = store.getStore(topic, partitionGroup.getGroup(), qosLevel);
+                // 存储刷盘跟不上，直接拒绝写入，让生产者降低发送速度
+                if (isWritePressureHigh(partitionStore)) {
+                    eventListener.onEvent(new WriteResult(JoyQueueCode.SE_DISK_FLUSH_SLOW, null));
+                    continue;
+                }
+
+                long startTime = SystemClock.now();
+                // 异步写入磁盘
+                if (null != metric) {
+                    long t0 = System.nanoTime();
+
+                    asyncWrite(partitionStore, getBatch(batches, partitionGroup),
+                            new MetricEventListener(t0, startTime, metric, writeListener, topic, app, partitionGroup.getGroup(), writeRequests), writeRequests);
+
+                    long t1 = System.nanoTime();
+                    metric.addCounter("tps", writeRequests.stream().map(WriteRequest::getBuffer).count());
+                    metric.addTraffic("traffic", writeRequests.stream().map(WriteRequest::getBuffer).mapToInt(ByteBuffer::remaining).sum());
+                    metric.addLatency("async", t1 - t0);
+                } else {
+                    asyncWrite(partitionStore, getBatch(batches, partitionGroup), event -> {
+                        if (event.getCode().equals(JoyQueueCode.SUCCESS)) {
+                            onPutMessage(topic, app, partitionGroup.getGroup(), startTime, writeRequests);
+                        }
+                        if (config.getLogDetail(producer.getApp())) {
+                            logger.info("writeMessagesAsync, topic: {}, app: {}, partitionGroup: {}, qosLevel: {}, size: {}, result: {}",
+                                    producer.getTopic(), producer.getApp(), partitionGroup.getGroup(), qosLevel, writeRequests.size(),event.getCode());
+                        }
+                        writeListener.onEvent(event);
+                    }, writeRequests);
+                }
+
+                if (qosLevel.equals(QosLevel.ONE_WAY)) {
+                    onPutMessage(topic, app, partitionGroup.getGroup(), startTime, writeRequests);
+                }
             }
+        } finally {
+            release(batches);
         }
     }
 
@@ -435,6 +482,79 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
         }
     }
 
+    /**
+     * 创建池化缓冲区
+     * ONE_WAY和RECEIVE在写入磁盘之前就应答，写入完成后没有回调，无法确定释放时机，这两种服务水平不使用缓冲池
+     *
+     * @param qosLevel 服务水平
+     * @return 每个分区分组的池化缓冲区，不使用缓冲池时返回null
+     */
+    private Map<PartitionGroup, MessageBufferPool.Batch> newBatches(QosLevel qosLevel) {
+        if (bufferPool == null || qosLevel == QosLevel.ONE_WAY || qosLevel == QosLevel.RECEIVE) {
+            return null;
+        }
+        return new HashMap<>();
+    }
+
+    private MessageBufferPool.Batch getBatch(Map<PartitionGroup, MessageBufferPool.Batch> batches, PartitionGroup partitionGroup) {
+        return batches == null ? null : batches.get(partitionGroup);
+    }
+
+    /**
+     * 释放生产线程持有的引用
+     */
+    private void release(Map<PartitionGroup, MessageBufferPool.Batch> batches) {
+        if (batches != null) {
+            batches.values().forEach(MessageBufferPool.Batch::release);
+        }
+    }
+
+    /**
+     * 异步写入，存储回调处理完成之后释放存储持有的缓冲区引用
+     *
+     * @param partitionStore 存储
+     * @param batch          写入消息使用的池化缓冲区，可以为null
+     * @param eventListener  回调
+     * @param writeRequests  写入请求
+     */
+    private void asyncWrite(PartitionGroupStore partitionStore, MessageBufferPool.Batch batch, EventListener<WriteResult> eventListener, List<WriteRequest> writeRequests) {
+        WriteRequest[] requests = writeRequests.toArray(new WriteRequest[]{});
+        if (batch == null) {
+            partitionStore.asyncWrite(eventListener, requests);
+            return;
+        }
+        batch.retain();
+        AtomicBoolean released = new AtomicBoolean(false);
+        try {
+            partitionStore.asyncWrite(event -> {
+                try {
+                    eventListener.onEvent(event);
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        batch.release();
+                    }
+                }
+            }, requests);
+        } catch (RuntimeException e) {
+            // 写入请求没有进入存储
+            if (released.compareAndSet(false, true)) {
+                batch.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 存储写入压力是否达到限制，未开启限制时总是返回false
+     *
+     * @param partitionStore
+     * @return
+     */
+    private boolean isWritePressureHigh(PartitionGroupStore partitionStore) {
+        int limit = config.getWritePressureLimit();
+        return limit > 0 && partitionStore.writePressure() >= limit;
+    }
+
     /**
      * 同步等待
      *
@@ -459,10 +579,12 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
      *
      * @param messageList
      * @param partitionList
+     * @param batches 池化缓冲区，为null时使用堆内缓冲区
      * @return
      * @throws JoyQueueException
      */
-    private Map<PartitionGroup, List<WriteRequest>> dispatchPartition(List<BrokerMessage> messageList, List<Short> partitionList) throws JoyQueueException {
+    private Map<PartitionGroup, List<WriteRequest>> dispatchPartition(List<BrokerMessage> messageList, List<Short> partitionList,
+                                                                      Map<PartitionGroup, MessageBufferPool.Batch> batches) throws JoyQueueException {
         // 随机指定一个写入分区
         int index = (int) Math.floor(Math.random() * partitionList.size());
         short partition = partitionList.get(index);
@@ -485,7 +607,8 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
             if (msg.isBatch()) {
                 batchCount = msg.getFlag();
             }
-            writeRequestList.add(new WriteRequest(writePartition, convertBrokerMessage2RByteBuffer(msg), batchCount));
+            MessageBufferPool.Batch batch = batches == null ? null : batches.computeIfAbsent(writePartitionGroup, key -> bufferPool.newBatch());
+            writeRequestList.add(new WriteRequest(writePartition, convertBrokerMessage2RByteBuffer(msg, batch), batchCount));
         }
 
         return resultMap;
@@ -530,9 +653,20 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
      * @throws JoyQueueException
      */
     private ByteBuffer convertBrokerMessage2RByteBuffer(BrokerMessage brokerMessage) throws JoyQueueException {
+        return convertBrokerMessage2RByteBuffer(brokerMessage, null);
+    }
+
+    /**
+     * 将BrokerMessage转换成RByteBuffer
+     *
+     * @param brokerMessage
+     * @param batch 池化缓冲区，为null时使用堆内缓冲区
+     * @return
+     * @throws JoyQueueException
+     */
+    private ByteBuffer convertBrokerMessage2RByteBuffer(BrokerMessage brokerMessage, MessageBufferPool.Batch batch) throws JoyQueueException {
         int msgSize = Serializer.sizeOf(brokerMessage);
-        // todo bufferPool有问题，暂时直接创建
-        ByteBuffer allocate = ByteBuffer.allocate(msgSize);
+        ByteBuffer allocate = batch == null ? ByteBuffer.allocate(msgSize) : batch.allocate(msgSize);
         try {
             Serializer.write(brokerMessage, allocate, msgSize);
         } catch (Exception e) {
@@ -35,6 +35,25 @@ public enum ProducerConfigKey implements PropertyDef {
     // body长度
     PRODUCE_BODY_LENGTH("produce.body.length", 1024 * 1024 * 3, PropertyDef.Type.INT),
 
+    // 存储写入压力（百分比）达到这个值时直接拒绝写入，返回SE_DISK_FLUSH_SLOW，小于等于0时不限制，默认不限制
+    PRODUCE_WRITE_PRESSURE_LIMIT("produce.write.pressure.limit", 0, PropertyDef.Type.INT),
+
+    // 是否对所有主题开启定时投递，关闭时忽略消息上的投递时间属性，消费时也不再检查定时消息
+    SCHEDULE_ENABLE("produce.schedule.enable", false, PropertyDef.Type.BOOLEAN),
+    // 按主题开启定时投递
+    SCHEDULE_ENABLE_TOPIC_PREFIX("produce.schedule.enable.topic.", false, PropertyDef.Type.BOOLEAN),
+    // 定时索引的时间槽长度，同时也是提前加载到时间轮的时间窗口
+    SCHEDULE_SLOT("produce.schedule.slot", 1000L * 60, PropertyDef.Type.LONG),
+    // 定时投递线程数
+    SCHEDULE_THREADS("produce.schedule.threads", 4, PropertyDef.Type.INT),
+    // 定时投递失败（例如不是leader）后的重试间隔
+    SCHEDULE_RETRY_INTERVAL("produce.schedule.retry.interval", 1000L, PropertyDef.Type.LONG),
+
+    // 是否使用池化的直接内存序列化消息，只对写入完成后有回调的服务水平（PERSISTENCE及以上）生效
+    BUFFER_POOL_ENABLE("produce.buffer.pool.enable", true, PropertyDef.Type.BOOLEAN),
+    // 缓冲池最多同时占用的字节数，超过时使用堆内缓冲区
+    BUFFER_POOL_CAPACITY("produce.buffer.pool.capacity", 1024L * 1024 * 256, PropertyDef.Type.LONG),
+
     ;
 
 
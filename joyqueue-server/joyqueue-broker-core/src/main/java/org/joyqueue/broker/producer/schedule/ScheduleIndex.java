@@ -0,0 +1,245 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.producer.schedule;
+
+import org.joyqueue.toolkit.time.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 分区分组的定时消息索引。
+ * <p>
+ * 按照投递时间把索引划分到时间槽，每个时间槽一个文件，文件名是时间槽的起始时间（毫秒）。
+ * 每条索引固定ENTRY_SIZE字节：[投递时间(8)][分区(2)][消息序号(8)]，消息本身仍然在分区分组的日志中，
+ * 只有即将到期的时间槽才会被加载，未到期的定时消息不占用堆内存。
+ * 文件末尾不完整的索引视为没有写完，读取时忽略，追加时覆盖。
+ * 写入的时间槽文件保持打开，追加时不刷盘，由调用方批量调用flush刷盘，超过IDLE_TIMEOUT没有写入的文件会被关闭。
+ * <p>
+ * 非线程安全，由调用方加锁。
+ */
+class ScheduleIndex {
+    static final int ENTRY_SIZE = 8 + 2 + 8;
+    // 时间槽文件超过这个时间没有写入就关闭
+    static final long IDLE_TIMEOUT = 1000L;
+
+    private final File directory;
+    private final long slotMs;
+    // 打开的时间槽文件，K=时间槽
+    private final Map<Long, SlotFile> files = new HashMap<>();
+
+    ScheduleIndex(File directory, long slotMs) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException(String.format("create directory %s error.", directory.getPath()));
+        }
+        this.directory = directory;
+        this.slotMs = slotMs;
+    }
+
+    /**
+     * 投递时间所在的时间槽
+     */
+    long slot(long deliverTime) {
+        return deliverTime - deliverTime % slotMs;
+    }
+
+    long getSlotMs() {
+        return slotMs;
+    }
+
+    /**
+     * 追加索引，不刷盘
+     *
+     * @param entries 索引
+     * @throws IOException 发生IO异常时抛出
+     */
+    void append(List<Entry> entries) throws IOException {
+        Map<Long, ByteBuffer> slots = new TreeMap<>();
+        for (Entry entry : entries) {
+            ByteBuffer buffer = slots.computeIfAbsent(slot(entry.getDeliverTime()), slot -> ByteBuffer.allocate(entries.size() * ENTRY_SIZE));
+            buffer.putLong(entry.getDeliverTime());
+            buffer.putShort(entry.getPartition());
+            buffer.putLong(entry.getIndex());
+        }
+        long now = SystemClock.now();
+        for (Map.Entry<Long, ByteBuffer> slot : slots.entrySet()) {
+            SlotFile file = files.get(slot.getKey());
+            if (file == null) {
+                file = new SlotFile(FileChannel.open(file(slot.getKey()).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+                files.put(slot.getKey(), file);
+            }
+            long length = file.channel.size();
+            long position = length - length % ENTRY_SIZE;
+            ByteBuffer buffer = slot.getValue();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += file.channel.write(buffer, position);
+            }
+            file.dirty = true;
+            file.lastAppendTime = now;
+        }
+    }
+
+    /**
+     * 刷盘上次刷盘之后有写入的文件，并关闭长时间没有写入的文件
+     *
+     * @throws IOException 发生IO异常时抛出
+     */
+    void flush() throws IOException {
+        long now = SystemClock.now();
+        Iterator<SlotFile> iterator = files.values().iterator();
+        while (iterator.hasNext()) {
+            SlotFile file = iterator.next();
+            if (file.dirty) {
+                file.channel.force(false);
+                file.dirty = false;
+            } else if (now - file.lastAppendTime > IDLE_TIMEOUT) {
+                file.channel.close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 刷盘并关闭全部文件
+     *
+     * @throws IOException 发生IO异常时抛出
+     */
+    void close() throws IOException {
+        flush();
+        for (SlotFile file : files.values()) {
+            file.channel.close();
+        }
+        files.clear();
+    }
+
+    /**
+     * 按照时间顺序返回全部时间槽
+     */
+    List<Long> slots() {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<Long> slots = new ArrayList<>(files.length);
+        for (File file : files) {
+            try {
+                slots.add(Long.parseLong(file.getName()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(slots);
+        return slots;
+    }
+
+    /**
+     * 读取时间槽中的全部索引
+     *
+     * @param slot 时间槽
+     * @return 索引，时间槽不存在时返回空列表
+     * @throws IOException 发生IO异常时抛出
+     */
+    List<Entry> load(long slot) throws IOException {
+        File file = file(slot);
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int count = (int) (raf.length() / ENTRY_SIZE);
+            byte[] bytes = new byte[count * ENTRY_SIZE];
+            raf.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(buffer.getLong(), buffer.getShort(), buffer.getLong()));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * 删除已经全部投递的时间槽
+     */
+    void delete(long slot) {
+        SlotFile slotFile = files.remove(slot);
+        if (slotFile != null) {
+            try {
+                slotFile.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        File file = file(slot);
+        if (file.exists() && !file.delete()) {
+            throw new IllegalStateException(String.format("delete file %s error.", file.getPath()));
+        }
+    }
+
+    private File file(long slot) {
+        return new File(directory, String.valueOf(slot));
+    }
+
+    /**
+     * 打开的时间槽文件
+     */
+    private static class SlotFile {
+        private final FileChannel channel;
+        // 上次刷盘之后是否有写入
+        private boolean dirty;
+        private long lastAppendTime;
+
+        SlotFile(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 定时消息索引
+     */
+    static class Entry {
+        private final long deliverTime;
+        private final short partition;
+        private final long index;
+
+        Entry(long deliverTime, short partition, long index) {
+            this.deliverTime = deliverTime;
+            this.partition = partition;
+            this.index = index;
+        }
+
+        long getDeliverTime() {
+            return deliverTime;
+        }
+
+        short getPartition() {
+            return partition;
+        }
+
+        long getIndex() {
+            return index;
+        }
+    }
+}
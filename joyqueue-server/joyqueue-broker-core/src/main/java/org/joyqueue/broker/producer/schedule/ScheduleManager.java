@@ -0,0 +1,714 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.producer.schedule;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.joyqueue.broker.BrokerContext;
+import org.joyqueue.broker.buffer.MessageView;
+import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.broker.cluster.ClusterManager;
+import org.joyqueue.broker.consumer.model.ConsumePartition;
+import org.joyqueue.broker.consumer.position.PositionManager;
+import org.joyqueue.broker.consumer.position.model.Position;
+import org.joyqueue.broker.producer.ProduceConfig;
+import org.joyqueue.domain.QosLevel;
+import org.joyqueue.domain.TopicName;
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.store.PartitionGroupStore;
+import org.joyqueue.store.PositionUnderflowException;
+import org.joyqueue.store.ReadResult;
+import org.joyqueue.store.StoreService;
+import org.joyqueue.store.WriteRequest;
+import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.delay.Timer;
+import org.joyqueue.toolkit.delay.TimerTask;
+import org.joyqueue.toolkit.service.Service;
+import org.joyqueue.toolkit.service.ServiceThread;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 定时投递管理。
+ * <p>
+ * 生产者在消息属性DELIVER_TIME中指定投递时间（毫秒时间戳），消息照常写入分区，
+ * 写入成功后在分区分组的定时索引（ScheduleIndex）中记录投递时间、分区和消息序号，
+ * 索引先放入队列，由刷盘线程批量写入和刷盘，不占用存储的回调线程。
+ * 即将到期的时间槽被加载到时间轮，到期后从日志中读出原始消息，去掉投递时间属性，作为新消息追加到原分区；
+ * 消费时带有投递时间属性的原始消息总是被跳过（见ScheduleFilter），消费者只能看到到期后追加的消息。
+ * <p>
+ * 时间槽内的消息全部投递完成后删除时间槽文件，重启后从未删除的时间槽恢复，宕机时可能重复投递。
+ * 定时索引只保存在本地，只有分区分组的leader负责投递。成为leader后先从日志重建定时索引：
+ * 从所有消费者中最小的应答位置开始扫描，补上带有投递时间属性、还没有投递并且不在本地索引中的原始消息，
+ * 已投递的消息带有SCHEDULE_INDEX属性记录原始消息的序号。原始消息记录到索引之前，消费时不能应答（见isIndexed）。
+ */
+public class ScheduleManager extends Service {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleManager.class);
+    // 投递时间属性
+    public static final String DELIVER_TIME = "_deliverTime";
+    // 已投递消息的原始消息序号属性
+    public static final String SCHEDULE_INDEX = "_scheduleIndex";
+    private static final byte[] DELIVER_TIME_KEY = DELIVER_TIME.getBytes(Charsets.UTF_8);
+    private static final byte[] SCHEDULE_INDEX_KEY = SCHEDULE_INDEX.getBytes(Charsets.UTF_8);
+    // 重建定时索引时每次读取的消息条数
+    private static final int REBUILD_BATCH_SIZE = 100;
+    // 定时索引的刷盘间隔
+    private static final long FLUSH_INTERVAL = 10L;
+
+    private ProduceConfig config;
+    private StoreService store;
+    private ClusterManager clusterManager;
+    // 用于获取消费位置，可以为null
+    private BrokerContext brokerContext;
+    // 定时索引，K=主题/分区分组
+    private final ConcurrentMap<String, ScheduleGroup> groups = new ConcurrentHashMap<>();
+    private File base;
+    private ExecutorService executorService;
+    private Timer timer;
+    // 推进时间轮的线程
+    private Thread guardThread;
+    // 加载即将到期时间槽的线程
+    private LoopThread loadThread;
+    // 批量写入和刷盘定时索引的线程
+    private LoopThread flushThread;
+
+    public ScheduleManager(ProduceConfig config, StoreService store, ClusterManager clusterManager) {
+        this(config, store, clusterManager, null);
+    }
+
+    public ScheduleManager(ProduceConfig config, StoreService store, ClusterManager clusterManager, BrokerContext brokerContext) {
+        this.config = config;
+        this.store = store;
+        this.clusterManager = clusterManager;
+        this.brokerContext = brokerContext;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        base = new File(config.getSchedulePath());
+        recover();
+
+        executorService = Executors.newFixedThreadPool(config.getScheduleThreads(), new NamedThreadFactory("Schedule"));
+        timer = new Timer(executorService);
+        guardThread = new Thread(new ServiceThread(this, 0) {
+            @Override
+            public boolean onException(Throwable e) {
+                logger.error(e.getMessage(), e);
+                return true;
+            }
+
+            @Override
+            protected void execute() throws Exception {
+                timer.advanceClock(200L);
+            }
+        }, "Schedule-Thread");
+        guardThread.start();
+
+        long loadInterval = Math.max(config.getScheduleSlot() / 10, 100L);
+        loadThread = LoopThread.builder()
+                .sleepTime(loadInterval, loadInterval)
+                .name("Schedule-Load-Thread")
+                .onException(e -> logger.warn("Load schedule index exception:", e))
+                .doWork(this::load)
+                .build();
+        loadThread.start();
+
+        flushThread = LoopThread.builder()
+                .sleepTime(FLUSH_INTERVAL, FLUSH_INTERVAL)
+                .name("Schedule-Flush-Thread")
+                .onException(e -> logger.warn("Flush schedule index exception:", e))
+                .doWork(this::flush)
+                .build();
+        flushThread.start();
+        logger.info("ScheduleManager is started, groups: {}.", groups.size());
+    }
+
+    @Override
+    protected void doStop() {
+        super.doStop();
+        if (loadThread != null) {
+            loadThread.stop();
+        }
+        if (flushThread != null) {
+            flushThread.stop();
+        }
+        for (ScheduleGroup group : groups.values()) {
+            group.close();
+        }
+        if (guardThread != null) {
+            guardThread.interrupt();
+        }
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        groups.clear();
+        logger.info("ScheduleManager is stopped.");
+    }
+
+    /**
+     * 检查待写入的消息，去掉无效、已经过期或者没有开启定时投递时的投递时间属性
+     *
+     * @param topic 主题
+     * @param msgs 待写入的消息
+     * @return 是否有需要定时投递的消息
+     */
+    public boolean prepare(String topic, List<BrokerMessage> msgs) {
+        boolean scheduled = false;
+        boolean enable = isStarted() && config.getScheduleEnable(topic);
+        long now = SystemClock.now();
+        for (BrokerMessage msg : msgs) {
+            String deliverTime = msg.getAttribute(DELIVER_TIME);
+            if (deliverTime == null) {
+                continue;
+            }
+            if (enable && NumberUtils.toLong(deliverTime, 0L) > now) {
+                scheduled = true;
+            } else {
+                msg.getAttributes().remove(DELIVER_TIME);
+            }
+        }
+        return scheduled;
+    }
+
+    /**
+     * 去掉投递时间属性，用于不支持定时投递的消息，例如事务消息
+     *
+     * @param msgs 待写入的消息
+     */
+    public void unschedule(List<BrokerMessage> msgs) {
+        for (BrokerMessage msg : msgs) {
+            if (msg.getAttributes() != null) {
+                msg.getAttributes().remove(DELIVER_TIME);
+            }
+        }
+    }
+
+    /**
+     * 消息写入成功后记录定时索引，索引放入队列后立即返回
+     *
+     * @param topic          主题
+     * @param partitionGroup 分区分组
+     * @param writeRequests  写入请求
+     * @param indices        写入请求对应的消息序号
+     */
+    public void schedule(String topic, int partitionGroup, List<WriteRequest> writeRequests, long[] indices) {
+        if (indices == null || indices.length != writeRequests.size()) {
+            return;
+        }
+        List<ScheduleIndex.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < writeRequests.size(); i++) {
+            WriteRequest writeRequest = writeRequests.get(i);
+            long deliverTime = readDeliverTime(writeRequest.getBuffer());
+            if (deliverTime > 0) {
+                entries.add(new ScheduleIndex.Entry(deliverTime, writeRequest.getPartition(), indices[i]));
+            }
+        }
+        if (!entries.isEmpty()) {
+            getOrCreateGroup(topic, partitionGroup).add(entries);
+        }
+    }
+
+    /**
+     * 定时消息的原始消息是否已经记录到本节点的定时索引，记录之后消费时才能跳过并应答原始消息。
+     * 本节点不是leader，或者成为leader后还没有重建完定时索引时返回false，本地没有定时索引时创建，由加载线程重建。
+     *
+     * @param topic     主题
+     * @param partition 分区
+     * @param index     原始消息序号
+     * @return 是否已经记录索引
+     */
+    public boolean isIndexed(String topic, short partition, long index) {
+        if (!isStarted()) {
+            return false;
+        }
+        Integer partitionGroup = clusterManager.getPartitionGroupId(TopicName.parse(topic), partition);
+        if (partitionGroup == null) {
+            return false;
+        }
+        return getOrCreateGroup(topic, partitionGroup).isIndexed(partition, index);
+    }
+
+    protected long readDeliverTime(ByteBuffer buffer) {
+        try {
+            Map<String, String> attributes = Serializer.readAttributes(buffer);
+            return attributes == null ? 0L : NumberUtils.toLong(attributes.get(DELIVER_TIME), 0L);
+        } catch (Exception e) {
+            logger.warn("Read deliver time exception", e);
+            return 0L;
+        }
+    }
+
+    /**
+     * 把队列中的定时索引写入文件并刷盘
+     */
+    protected void flush() {
+        for (ScheduleGroup group : groups.values()) {
+            group.flush();
+        }
+    }
+
+    /**
+     * 从本地的定时索引目录恢复，目录结构：主题/分区分组/时间槽
+     */
+    protected void recover() {
+        File[] topics = base.listFiles(File::isDirectory);
+        if (topics == null) {
+            return;
+        }
+        for (File topic : topics) {
+            File[] partitionGroups = topic.listFiles(File::isDirectory);
+            if (partitionGroups == null) {
+                continue;
+            }
+            for (File partitionGroup : partitionGroups) {
+                if (NumberUtils.isDigits(partitionGroup.getName())) {
+                    getOrCreateGroup(topic.getName().replace('@', '/'), Integer.parseInt(partitionGroup.getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * 把即将到期的时间槽加载到时间轮，只加载本节点是leader的分区分组，成为leader后先异步重建定时索引
+     */
+    protected void load() throws IOException {
+        long now = SystemClock.now();
+        for (ScheduleGroup group : groups.values()) {
+            if (!clusterManager.isLeader(group.topic, group.partitionGroup)) {
+                group.unload();
+            } else if (group.isRebuilt()) {
+                group.load(now);
+            } else {
+                long generation = group.startRebuild();
+                if (generation >= 0) {
+                    executorService.execute(() -> rebuild(group, generation));
+                }
+            }
+        }
+    }
+
+    /**
+     * 从日志重建定时索引，失败时由加载线程重试
+     */
+    protected void rebuild(ScheduleGroup group, long generation) {
+        try {
+            PartitionGroupStore partitionGroupStore = store.getStore(group.topic, group.partitionGroup, QosLevel.REPLICATION);
+            if (partitionGroupStore == null) {
+                group.onRebuildFailed(generation);
+                return;
+            }
+            Map<Short, Long> ackIndices = getAckIndices(group);
+            Map<Short, Long> until = new HashMap<>();
+            List<ScheduleIndex.Entry> entries = new ArrayList<>();
+            for (Short partition : partitionGroupStore.listPartitions()) {
+                long right = partitionGroupStore.getRightIndex(partition);
+                long left = Math.max(partitionGroupStore.getLeftIndex(partition), ackIndices.getOrDefault(partition, 0L));
+                scan(partitionGroupStore, partition, left, right, entries);
+                until.put(partition, right);
+            }
+            group.onRebuilt(generation, entries, until);
+        } catch (Exception e) {
+            logger.warn("Rebuild schedule index exception, topic: {}, partitionGroup: {}", group.topic, group.partitionGroup, e);
+            group.onRebuildFailed(generation);
+        }
+    }
+
+    /**
+     * 每个分区所有消费者中最小的应答位置，之前的原始消息都已经被跳过并应答
+     */
+    protected Map<Short, Long> getAckIndices(ScheduleGroup group) {
+        Map<Short, Long> result = new HashMap<>();
+        PositionManager positionManager = brokerContext == null ? null : brokerContext.getPositionManager();
+        if (positionManager == null) {
+            return result;
+        }
+        Map<ConsumePartition, Position> positions = positionManager.getConsumePosition(TopicName.parse(group.topic), group.partitionGroup);
+        if (positions == null) {
+            return result;
+        }
+        for (Map.Entry<ConsumePartition, Position> entry : positions.entrySet()) {
+            result.merge(entry.getKey().getPartition(), entry.getValue().getAckCurIndex(), Math::min);
+        }
+        return result;
+    }
+
+    /**
+     * 扫描分区[left, right)内还没有投递的定时消息
+     */
+    protected void scan(PartitionGroupStore partitionGroupStore, short partition, long left, long right, List<ScheduleIndex.Entry> entries) throws Exception {
+        Map<Long, ScheduleIndex.Entry> scheduled = new LinkedHashMap<>();
+        Set<Long> delivered = new HashSet<>();
+        MessageView view = new MessageView();
+        long index = left;
+        while (index < right) {
+            ReadResult readResult = partitionGroupStore.read(partition, index, REBUILD_BATCH_SIZE, Long.MAX_VALUE);
+            if (readResult.getCode() != JoyQueueCode.SUCCESS || readResult.getMessages() == null || readResult.getMessages().length == 0) {
+                throw new IOException(String.format("Read partition %d from %d failed, code: %s", partition, index, readResult.getCode()));
+            }
+            for (ByteBuffer buffer : readResult.getMessages()) {
+                view.wrap(buffer);
+                index = view.getIndex() + view.getCount();
+                if (view.hasAttribute(DELIVER_TIME_KEY)) {
+                    long deliverTime = NumberUtils.toLong(view.getAttributes().get(DELIVER_TIME), 0L);
+                    if (deliverTime > 0) {
+                        scheduled.put(view.getIndex(), new ScheduleIndex.Entry(deliverTime, partition, view.getIndex()));
+                    }
+                } else if (view.hasAttribute(SCHEDULE_INDEX_KEY)) {
+                    delivered.add(NumberUtils.toLong(view.getAttributes().get(SCHEDULE_INDEX), -1L));
+                }
+            }
+        }
+        scheduled.keySet().removeAll(delivered);
+        entries.addAll(scheduled.values());
+    }
+
+    protected ScheduleGroup getOrCreateGroup(String topic, int partitionGroup) {
+        return groups.computeIfAbsent(topic + "/" + partitionGroup, key -> new ScheduleGroup(topic, partitionGroup,
+                new ScheduleIndex(new File(new File(base, topic.replace('/', '@')), String.valueOf(partitionGroup)), config.getScheduleSlot())));
+    }
+
+    /**
+     * 投递到期的消息：读出原始消息，去掉投递时间属性后追加到原分区
+     */
+    protected void deliver(ScheduleTask task) {
+        ScheduleGroup group = task.group;
+        ScheduleIndex.Entry entry = task.entry;
+        if (!isStarted() || !group.isValid(task.generation)) {
+            return;
+        }
+        if (!clusterManager.isLeader(group.topic, group.partitionGroup)) {
+            group.unload();
+            return;
+        }
+
+        try {
+            PartitionGroupStore partitionGroupStore = store.getStore(group.topic, group.partitionGroup, QosLevel.REPLICATION);
+            if (partitionGroupStore == null) {
+                group.unload();
+                return;
+            }
+            ReadResult readResult = partitionGroupStore.read(entry.getPartition(), entry.getIndex(), 1, Long.MAX_VALUE);
+            if (readResult.getCode() != JoyQueueCode.SUCCESS || readResult.getMessages() == null || readResult.getMessages().length == 0) {
+                logger.warn("Read scheduled message failed, topic: {}, partition: {}, index: {}, code: {}",
+                        group.topic, entry.getPartition(), entry.getIndex(), readResult.getCode());
+                task.retry();
+                return;
+            }
+
+            BrokerMessage message = Serializer.readBrokerMessage(readResult.getMessages()[0].slice());
+            message.getAttributes().remove(DELIVER_TIME);
+            message.getAttributes().put(SCHEDULE_INDEX, String.valueOf(entry.getIndex()));
+            // 以实际投递时间作为发送时间，存储时间是相对发送时间的int偏移，不能相差太久
+            message.setStartTime(SystemClock.now());
+            int size = Serializer.sizeOf(message);
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            Serializer.write(message, buffer, size);
+
+            partitionGroupStore.asyncWrite(event -> {
+                if (event.getCode() == JoyQueueCode.SUCCESS) {
+                    group.onDelivered(entry);
+                } else {
+                    logger.warn("Write scheduled message failed, topic: {}, partition: {}, index: {}, code: {}",
+                            group.topic, entry.getPartition(), entry.getIndex(), event.getCode());
+                    task.retry();
+                }
+            }, new WriteRequest(entry.getPartition(), buffer, message.isBatch() ? message.getFlag() : 1));
+        } catch (PositionUnderflowException e) {
+            logger.warn("Scheduled message is already deleted, topic: {}, partition: {}, index: {}",
+                    group.topic, entry.getPartition(), entry.getIndex());
+            group.onDelivered(entry);
+        } catch (Exception e) {
+            logger.warn("Deliver scheduled message exception, topic: {}, partition: {}, index: {}",
+                    group.topic, entry.getPartition(), entry.getIndex(), e);
+            task.retry();
+        }
+    }
+
+    /**
+     * 分区分组的定时索引和加载状态
+     */
+    protected class ScheduleGroup {
+        private final String topic;
+        private final int partitionGroup;
+        private final ScheduleIndex index;
+        // 已经加载到时间轮的时间范围（不含）
+        private long loadedUntil = 0L;
+        // 卸载后递增，卸载前放入时间轮的任务作废
+        private long generation = 0L;
+        // 已经加载的时间槽中还没有投递完成的消息数，K=时间槽
+        private final Map<Long, Integer> pending = new HashMap<>();
+        // 等待写入索引的定时消息
+        private final Queue<ScheduleIndex.Entry> appending = new ConcurrentLinkedQueue<>();
+        // 成为leader后是否已经从日志重建定时索引
+        private volatile boolean rebuilt = false;
+        // 是否正在重建定时索引
+        private boolean rebuilding = false;
+        // 重建时扫描到的位置（不含），之前的定时消息都已经记录到索引，K=分区
+        private final Map<Short, Long> rebuiltUntil = new ConcurrentHashMap<>();
+        // 已经写入索引的最大消息序号，K=分区
+        private final Map<Short, Long> flushedUntil = new ConcurrentHashMap<>();
+
+        ScheduleGroup(String topic, int partitionGroup, ScheduleIndex index) {
+            this.topic = topic;
+            this.partitionGroup = partitionGroup;
+            this.index = index;
+        }
+
+        /**
+         * 定时索引放入队列，等待刷盘线程写入
+         */
+        void add(List<ScheduleIndex.Entry> entries) {
+            appending.addAll(entries);
+        }
+
+        /**
+         * 写入并刷盘队列中的定时索引，投递时间在已加载范围内的直接放入时间轮
+         */
+        synchronized void flush() {
+            if (appending.isEmpty()) {
+                try {
+                    // 关闭长时间没有写入的索引文件
+                    index.flush();
+                } catch (IOException e) {
+                    logger.warn("Flush schedule index exception, topic: {}, partitionGroup: {}", topic, partitionGroup, e);
+                }
+                return;
+            }
+            List<ScheduleIndex.Entry> entries = new ArrayList<>();
+            ScheduleIndex.Entry next;
+            while ((next = appending.poll()) != null) {
+                // 重建扫描过的消息已经记录到索引
+                Long until = rebuiltUntil.get(next.getPartition());
+                if (until == null || next.getIndex() >= until) {
+                    entries.add(next);
+                }
+            }
+            boolean persisted = true;
+            try {
+                index.append(entries);
+                index.flush();
+            } catch (IOException e) {
+                // 索引写入失败时仍然放入时间轮，但是重启后无法恢复
+                logger.error("Append schedule index exception, topic: {}, partitionGroup: {}", topic, partitionGroup, e);
+                persisted = false;
+            }
+            for (ScheduleIndex.Entry entry : entries) {
+                if (!persisted || entry.getDeliverTime() < loadedUntil) {
+                    submit(entry);
+                }
+                flushedUntil.merge(entry.getPartition(), entry.getIndex(), Math::max);
+            }
+        }
+
+        boolean isRebuilt() {
+            return rebuilt;
+        }
+
+        /**
+         * 开始重建定时索引
+         *
+         * @return 当前的代数，已经在重建时返回-1
+         */
+        synchronized long startRebuild() {
+            if (rebuilding) {
+                return -1L;
+            }
+            rebuilding = true;
+            return generation;
+        }
+
+        /**
+         * 重建完成，写入扫描到的不在本地索引中的定时消息，重建期间卸载过时丢弃结果
+         */
+        synchronized void onRebuilt(long generation, List<ScheduleIndex.Entry> entries, Map<Short, Long> until) throws IOException {
+            if (this.generation != generation) {
+                return;
+            }
+            // 重建期间写入的索引已经在本地索引中
+            flush();
+            Set<String> indexed = new HashSet<>();
+            for (long slot : index.slots()) {
+                for (ScheduleIndex.Entry entry : index.load(slot)) {
+                    indexed.add(entry.getPartition() + "/" + entry.getIndex());
+                }
+            }
+            List<ScheduleIndex.Entry> missing = new ArrayList<>();
+            for (ScheduleIndex.Entry entry : entries) {
+                if (!indexed.contains(entry.getPartition() + "/" + entry.getIndex())) {
+                    missing.add(entry);
+                }
+            }
+            if (!missing.isEmpty()) {
+                index.append(missing);
+                index.flush();
+            }
+            rebuiltUntil.putAll(until);
+            rebuilding = false;
+            rebuilt = true;
+            logger.info("Schedule index is rebuilt, topic: {}, partitionGroup: {}, scanned: {}, appended: {}",
+                    topic, partitionGroup, entries.size(), missing.size());
+        }
+
+        synchronized void onRebuildFailed(long generation) {
+            if (this.generation == generation) {
+                rebuilding = false;
+            }
+        }
+
+        /**
+         * 原始消息是否已经记录到索引：重建扫描过，或者成为leader后写入并刷盘
+         */
+        boolean isIndexed(short partition, long index) {
+            if (!rebuilt) {
+                return false;
+            }
+            Long until = rebuiltUntil.get(partition);
+            if (until != null && index < until) {
+                return true;
+            }
+            Long flushed = flushedUntil.get(partition);
+            return flushed != null && index <= flushed;
+        }
+
+        /**
+         * 加载当前和下一个时间槽，已经过期的时间槽也一并加载
+         */
+        synchronized void load(long now) throws IOException {
+            long until = index.slot(now) + 2 * index.getSlotMs();
+            if (until <= loadedUntil) {
+                return;
+            }
+            for (long slot : index.slots()) {
+                if (slot >= until) {
+                    break;
+                }
+                if (slot < loadedUntil) {
+                    // 加载后又写入的索引已经直接放入时间轮
+                    continue;
+                }
+                for (ScheduleIndex.Entry entry : index.load(slot)) {
+                    submit(entry);
+                }
+            }
+            loadedUntil = until;
+        }
+
+        /**
+         * 不再是leader时卸载，已经放入时间轮的任务和正在进行的重建作废，再次成为leader时重新重建并从索引加载
+         */
+        synchronized void unload() {
+            if (loadedUntil > 0 || rebuilt || rebuilding) {
+                generation++;
+                loadedUntil = 0L;
+                pending.clear();
+                rebuilt = false;
+                rebuilding = false;
+                rebuiltUntil.clear();
+                flushedUntil.clear();
+            }
+        }
+
+        /**
+         * 写入队列中剩余的索引并关闭索引文件
+         */
+        synchronized void close() {
+            flush();
+            try {
+                index.close();
+            } catch (IOException e) {
+                logger.warn("Close schedule index exception, topic: {}, partitionGroup: {}", topic, partitionGroup, e);
+            }
+        }
+
+        synchronized boolean isValid(long generation) {
+            return this.generation == generation;
+        }
+
+        /**
+         * 投递完成，时间槽内的消息全部投递完成后删除时间槽
+         */
+        synchronized void onDelivered(ScheduleIndex.Entry entry) {
+            long slot = index.slot(entry.getDeliverTime());
+            Integer count = pending.get(slot);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                pending.put(slot, count - 1);
+            } else {
+                pending.remove(slot);
+                index.delete(slot);
+            }
+        }
+
+        private void submit(ScheduleIndex.Entry entry) {
+            pending.merge(index.slot(entry.getDeliverTime()), 1, Integer::sum);
+            timer.add(new ScheduleTask(this, entry, generation));
+        }
+    }
+
+    /**
+     * 时间轮中的定时投递任务
+     */
+    protected class ScheduleTask extends TimerTask {
+        private final ScheduleGroup group;
+        private final ScheduleIndex.Entry entry;
+        private final long generation;
+
+        ScheduleTask(ScheduleGroup group, ScheduleIndex.Entry entry, long generation) {
+            this.group = group;
+            this.entry = entry;
+            this.generation = generation;
+            this.delayMs = entry.getDeliverTime();
+        }
+
+        @Override
+        public void run() {
+            deliver(this);
+        }
+
+        /**
+         * 投递失败，间隔一段时间后重试
+         */
+        void retry() {
+            if (isStarted() && group.isValid(generation)) {
+                delayMs = SystemClock.now() + config.getScheduleRetryInterval();
+                timer.add(this);
+            }
+        }
+    }
+}
@@ -15,8 +15,14 @@
  */
 package org.joyqueue.broker.replication;
 
+import org.joyqueue.broker.consumer.model.ConsumePartition;
+import org.joyqueue.broker.consumer.position.model.Position;
 import org.joyqueue.broker.election.TopicPartitionGroup;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * author: zhuduohui
@@ -53,6 +59,30 @@ public class Replica {
 
     private long lastAppendTime;
 
+    // 以下为流水线复制的发送状态
+    // 下一个复制请求的起始位置，在途请求的数据不再重复发送
+    private long sendPosition = 0;
+    // 在途的复制请求数
+    private int inflight = 0;
+    // 发送状态被重置（复制失败、成为leader）之后递增，之前发出的请求的响应不再处理
+    private int epoch = 0;
+    // 没有数据需要复制，等待写入唤醒
+    private boolean waiting = false;
+    private long waitSeq = 0;
+    // 保证同一个副本的复制请求按位置顺序发送
+    private final Lock sendLock = new ReentrantLock();
+
+    // 以下为消费位置的增量复制状态
+    // 副本已经确认的消费位置，只复制与之不同的条目
+    private final Map<ConsumePartition, Position> ackedConsumePositions = new HashMap<>();
+    // 复制状态被重置（成为leader）之后递增，之前发出的请求的响应不再处理
+    private int consumePosEpoch = 0;
+    private boolean replicatingConsumePos = false;
+    private long lastFullReplicateConsumePosTime;
+
+    // 是否处于追赶模式
+    private boolean catchingUp = false;
+
     Replica(int replicaId, String address) {
         this.replicaId = replicaId;
         this.address = address;
@@ -110,6 +140,27 @@ public class Replica {
         this.nextPosition = nextPosition;
     }
 
+    /**
+     * 处理复制成功的响应
+     * 日志匹配之后流水线复制的响应可能乱序返回，过期的响应直接丢弃，写入位置和下一个复制位置只前进不后退
+     * @param writePosition 副本的写入位置
+     * @param nextPosition 副本的下一个复制位置
+     * @return 响应是否有效，过期的响应返回false
+     */
+    synchronized boolean onAppendSuccess(long writePosition, long nextPosition) {
+        if (!match) {
+            this.writePosition = writePosition;
+            this.nextPosition = nextPosition;
+            return true;
+        }
+        if (nextPosition < this.nextPosition) {
+            return false;
+        }
+        this.writePosition = Math.max(this.writePosition, writePosition);
+        this.nextPosition = nextPosition;
+        return true;
+    }
+
 
     public boolean isMatch() {
         return match;
@@ -151,6 +202,185 @@ public class Replica {
         this.lastAppendTime = lastAppendTime;
     }
 
+    Lock sendLock() {
+        return sendLock;
+    }
+
+    synchronized long sendPosition() {
+        return sendPosition;
+    }
+
+    synchronized int inflight() {
+        return inflight;
+    }
+
+    synchronized int epoch() {
+        return epoch;
+    }
+
+    /**
+     * 重置发送状态，从position开始重新复制，之前在途请求的响应都将被忽略
+     * @param position 重新复制的起始位置
+     */
+    synchronized void resetSend(long position) {
+        epoch++;
+        inflight = 0;
+        sendPosition = position;
+    }
+
+    /**
+     * 记录发出一个复制请求
+     * @param epoch 生成请求时的发送状态
+     * @param nextSendPosition 请求数据的结束位置
+     * @return 期间发送状态被重置返回false，请求不应再发送
+     */
+    synchronized boolean onSend(int epoch, long nextSendPosition) {
+        if (this.epoch != epoch) {
+            return false;
+        }
+        inflight++;
+        sendPosition = nextSendPosition;
+        return true;
+    }
+
+    /**
+     * 复制请求完成
+     * @param epoch 发送请求时的发送状态
+     * @return 请求是否属于当前的发送状态
+     */
+    synchronized boolean onComplete(int epoch) {
+        if (this.epoch != epoch) {
+            return false;
+        }
+        inflight--;
+        return true;
+    }
+
+    /**
+     * 开始等待写入唤醒
+     * @return 等待序号，已经在等待时返回-1
+     */
+    synchronized long startWaiting() {
+        if (waiting) {
+            return -1;
+        }
+        waiting = true;
+        return ++waitSeq;
+    }
+
+    /**
+     * 结束等待
+     * @return 之前是否在等待
+     */
+    synchronized boolean stopWaiting() {
+        if (!waiting) {
+            return false;
+        }
+        waiting = false;
+        return true;
+    }
+
+    /**
+     * 结束指定序号的等待，用于等待超时
+     * @param waitSeq 等待序号
+     * @return 是否结束了该序号的等待
+     */
+    synchronized boolean stopWaiting(long waitSeq) {
+        if (!waiting || this.waitSeq != waitSeq) {
+            return false;
+        }
+        waiting = false;
+        return true;
+    }
+
+    /**
+     * 开始一次消费位置复制
+     * @return 当前的复制状态，上一次复制还未完成时返回-1
+     */
+    synchronized int startReplicateConsumePos() {
+        if (replicatingConsumePos) {
+            return -1;
+        }
+        replicatingConsumePos = true;
+        return consumePosEpoch;
+    }
+
+    /**
+     * 计算需要复制到副本的消费位置
+     * @param consumePositions 当前的消费位置
+     * @param full 是否全量复制
+     * @return 与副本已确认的位置不同的条目，全量复制时返回所有条目
+     */
+    synchronized Map<ConsumePartition, Position> consumePosDelta(Map<ConsumePartition, Position> consumePositions, boolean full) {
+        if (full) {
+            ackedConsumePositions.clear();
+        } else {
+            // 取消订阅的应用不再比较
+            ackedConsumePositions.keySet().retainAll(consumePositions.keySet());
+        }
+        Map<ConsumePartition, Position> delta = new HashMap<>();
+        consumePositions.forEach((partition, position) -> {
+            Position acked = ackedConsumePositions.get(partition);
+            if (position != null && (!position.equals(acked) || position.getVersion() != acked.getVersion())) {
+                // 复制的是当前位置的快照，之后的更新在下一次复制时比较
+                Position snapshot = new Position(position.getAckStartIndex(), position.getAckCurIndex(),
+                        position.getPullStartIndex(), position.getPullCurIndex());
+                snapshot.setVersion(position.getVersion());
+                delta.put(partition, snapshot);
+            }
+        });
+        return delta;
+    }
+
+    /**
+     * 消费位置复制完成
+     * @param epoch 开始复制时的复制状态
+     * @param consumePositions 复制的消费位置
+     * @param success 副本是否确认
+     */
+    synchronized void onReplicateConsumePos(int epoch, Map<ConsumePartition, Position> consumePositions, boolean success) {
+        if (this.consumePosEpoch != epoch) {
+            return;
+        }
+        if (success) {
+            ackedConsumePositions.putAll(consumePositions);
+        } else {
+            // 不确定副本上的位置，下一次复制所有条目
+            ackedConsumePositions.clear();
+        }
+        replicatingConsumePos = false;
+    }
+
+    /**
+     * 重置消费位置复制状态，下一次复制所有条目
+     */
+    synchronized void resetReplicateConsumePos() {
+        consumePosEpoch++;
+        ackedConsumePositions.clear();
+        replicatingConsumePos = false;
+    }
+
+    /**
+     * 设置追赶模式
+     * @param catchingUp 是否处于追赶模式
+     * @return 模式是否发生了变化
+     */
+    synchronized boolean catchingUp(boolean catchingUp) {
+        if (this.catchingUp == catchingUp) {
+            return false;
+        }
+        this.catchingUp = catchingUp;
+        return true;
+    }
+
+    void lastFullReplicateConsumePosTime(long lastFullReplicateConsumePosTime) {
+        this.lastFullReplicateConsumePosTime = lastFullReplicateConsumePosTime;
+    }
+
+    long lastFullReplicateConsumePosTime() {
+        return lastFullReplicateConsumePosTime;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder("Replica:{").append("replicaId:").append(replicaId)
@@ -158,6 +388,9 @@ public class Replica {
                 .append(", writePosition:").append(writePosition)
                 .append(", commitPosition:").append(commitPosition)
                 .append(", nextPosition:").append(nextPosition)
+                .append(", sendPosition:").append(sendPosition)
+                .append(", inflight:").append(inflight)
+                .append(", catchingUp:").append(catchingUp)
                 .append(", match:").append(match)
                 .append(", lastAppendSuccessTime:").append(lastAppendSuccessTime)
                 .append(", lastReplicateConsumePosTime:").append(lastReplicateConsumePosTime).toString();
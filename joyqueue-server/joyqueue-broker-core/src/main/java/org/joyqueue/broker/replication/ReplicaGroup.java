@@ -88,6 +88,12 @@ public class ReplicaGroup extends Service {
     private int currentTerm;
 
     private int transferee = ElectionNode.INVALID_NODE_ID;
+
+    // 作为follower时最近一次成功处理leader复制请求的时间和其中leader的提交位置
+    private volatile long lastLeaderAppendTime;
+    private volatile long leaderCommitPosition;
+    // 作为follower时在当前任期内通过复制请求确认与leader一致的日志位置，没有确认过时为-1
+    private volatile long matchedPosition = -1L;
     private long timeoutNowPosition = 0;
 
     private ReplicableStore replicableStore;
@@ -105,6 +111,7 @@ public class ReplicaGroup extends Service {
 
     private static final long ONE_SECOND_NANO = 1000 * 1000 * 1000;
     private static final long ONE_MS_NANO     = 1000 * 1000;
+    private static final long CATCH_UP_THROTTLE_DELAY_NANO = 10 * ONE_MS_NANO;
     private static final int MAX_PROCESS_TIME =  300 * 1000;
 
     ReplicaGroup(TopicPartitionGroup topicPartitionGroup, ReplicationManager replicationManager,
@@ -189,6 +196,7 @@ public class ReplicaGroup extends Service {
             //至少复制一个消息，保证没有消息的时候也能将原先的消息复制到slave
             long nextReplicate = replicableStore.position(replicableStore.rightPosition(), -1);
             newReplica.nextPosition(nextReplicate);
+            newReplica.resetSend(nextReplicate);
 
             replicas.add(newReplica);
 
@@ -254,6 +262,19 @@ public class ReplicaGroup extends Service {
         return this.state == ElectionNode.State.LEADER;
     }
 
+    /**
+     * 是否可以作为follower为消费者提供读服务
+     * 需要开启follower读，最近收到过leader的复制请求，并且当前任期内已经确认与leader一致的日志
+     * 包含了leader提交的所有消息，读取的范围由本地的提交位置限制
+     *
+     * @return follower是否可读
+     */
+    public boolean isFollowerReadable() {
+        return state == FOLLOWER && electionConfig.enableFollowerRead()
+                && SystemClock.now() - lastLeaderAppendTime <= electionConfig.getFollowerReadMaxLagTime()
+                && matchedPosition >= 0 && matchedPosition >= leaderCommitPosition;
+    }
+
     /**
      * 是否需要复制，kafka的coordinators不需要复制
      * @return if topic need replicate
@@ -288,11 +309,20 @@ public class ReplicaGroup extends Service {
         long writePosition = replicableStore.rightPosition();
         replicas.forEach(r -> {
             r.nextPosition(writePosition);
+            r.resetSend(writePosition);
+            r.resetReplicateConsumePos();
             r.setMatch(false);
         });
 
         state = LEADER;
 
+        // 之前在途请求的响应都将被忽略，重新开始向各副本复制
+        if (replicateResponseQueue != null) {
+            replicas.stream()
+                    .filter(r -> r.replicaId() != localReplicaId)
+                    .forEach(r -> replicateResponseQueue.put(new DelayedCommand(0, r.replicaId())));
+        }
+
         logger.info("Partition group {}/node {} become leader, term is {}, left position is {}, " +
                         "writePosition is {}, commit position is {}",
                 topicPartitionGroup, leaderId, term, replicableStore.leftPosition(),
@@ -315,13 +345,19 @@ public class ReplicaGroup extends Service {
         currentTerm = term;
         this.leaderId = leaderId;
 
+        // 重新同步之后才提供读服务，之前转发给其它节点的应答位置重新全量转发
+        lastLeaderAppendTime = 0;
+        matchedPosition = -1L;
+        replicas.forEach(Replica::resetReplicateConsumePos);
+
     }
 
     /**
      * 复制消息的线程
-     * 1. 通过一个阻塞队列保证收到副本的复制消息响应继续复制下一批消息
-     * 2. 当阻塞队列中有数据时，给该副本发送复制消息
-     * 3. 每隔一定时间复制消费位置
+     * 1. 通过一个阻塞队列驱动复制，收到副本的复制消息响应、有新消息写入时向队列中放入该副本的命令
+     * 2. 当阻塞队列中有数据时，给该副本发送复制消息，在途请求数不超过复制窗口
+     * 3. 没有数据需要复制时等待写入唤醒，等待超时后检查心跳
+     * 4. 每隔一定时间复制消费位置
      */
     class ReplicateThread extends Thread {
         private ReplicateThread(String name) {
@@ -345,6 +381,13 @@ public class ReplicaGroup extends Service {
                     }
 
                     DelayedCommand command = replicateResponseQueue.take();
+                    if (command.waitSeq() > 0) {
+                        // 等待超时，已经被写入唤醒的不再处理
+                        Replica replica = getReplica(command.replicaId());
+                        if (replica == null || !replica.stopWaiting(command.waitSeq())) {
+                            continue;
+                        }
+                    }
                     if (command.replicaId() == localReplicaId) {
                         replicateLocal();
                         continue;
@@ -386,22 +429,44 @@ public class ReplicaGroup extends Service {
     }
 
     /**
-     * 如果只有一个节点，直接commit
+     * 如果只有一个节点，直接commit，然后等待写入唤醒
      */
     private void replicateLocal() {
-        long delayTimeNs;
-        if (replicas.size() == 1) {
+        Replica replica = getReplica(localReplicaId);
+        if (replicas.size() != 1 || replica == null) {
+            replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, localReplicaId));
+            return;
+        }
+
+        while (true) {
             if (replicableStore.commitPosition() < replicableStore.rightPosition()) {
                 replicableStore.commit(replicableStore.rightPosition());
-                delayTimeNs = 0;
-            } else {
-                delayTimeNs = ONE_MS_NANO / 5;
             }
-        } else {
-            delayTimeNs = ONE_SECOND_NANO;
+            long waitSeq = replica.startWaiting();
+            if (waitSeq < 0) {
+                return;
+            }
+            // 设置等待之后再检查一次，避免错过设置等待之前的写入
+            if (replicableStore.commitPosition() < replicableStore.rightPosition() && replica.stopWaiting(waitSeq)) {
+                continue;
+            }
+            replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, localReplicaId, waitSeq));
+            return;
         }
+    }
 
-        replicateResponseQueue.put(new DelayedCommand(delayTimeNs, localReplicaId));
+    /**
+     * 消息写入完成，唤醒等待写入的副本
+     */
+    void onWrite() {
+        if (state != LEADER && state != TRANSFERRING) {
+            return;
+        }
+        for (Replica replica : replicas) {
+            if (replica.stopWaiting()) {
+                replicateResponseQueue.put(new DelayedCommand(0, replica.replicaId()));
+            }
+        }
     }
 
     /**
@@ -411,39 +476,16 @@ public class ReplicaGroup extends Service {
     private void replicateMessage(Replica replica) {
         try {
             replicateExecutor.submit(() -> {
+                replica.sendLock().lock();
                 try {
-                    long startTimeUs = usTime();
-
-                    AppendEntriesRequest request = generateAppendEntriesRequest(replica);
-                    if (request == null) {
-                        if (!electionConfig.enableSharedHeartbeat()) {
-                            if (SystemClock.now() - replica.getLastAppendTime() >= electionConfig.getHeartbeatTimeout()) {
-                                request = generateHeartbeatRequest(replica);
-                            }
-                        }
-                        if (request == null) {
-                            replicateResponseQueue.put(new DelayedCommand(ONE_MS_NANO, replica.replicaId()));
-                            return;
-                        }
-                    }
-
-                    JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST);
-
-                    if (!replica.isMatch() || logger.isDebugEnabled()) {
-                        logger.info("Partition group {}/node {} send append entries request {} to node {}, " +
-                                        "read entries elapse {} us",
-                                topicPartitionGroup, leaderId, request, replica.replicaId(), usTime() - startTimeUs);
-                    }
-
-                    replica.setLastAppendTime(SystemClock.now());
-                    this.sendCommand(replica.getAddress(), new Command(header, request),
-                            electionConfig.getSendCommandTimeout(),
-                            new AppendEntriesRequestCallback(replica, startTimeUs, request.getEntriesLength()));
-
+                    sendAppendEntries(replica);
                 } catch (Throwable t) {
                     logger.warn("Partition group {}/ node {} send append entries to {} fail",
                             topicPartitionGroup, localReplicaId, replica.replicaId(), t);
+                    replica.resetSend(replica.nextPosition());
                     replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                } finally {
+                    replica.sendLock().unlock();
                 }
             });
         } catch (Exception e) {
@@ -453,6 +495,111 @@ public class ReplicaGroup extends Service {
         }
     }
 
+    /**
+     * 流水线复制：在途请求数小于复制窗口时，从上一个请求的结束位置继续发送复制请求，
+     * 日志还没有匹配时窗口为1，逐个请求确认匹配位置。
+     * 副本落后较多时进入追赶模式，使用更大的复制窗口，追赶的流量受全局限制。
+     * 有在途请求时由响应继续驱动复制，没有数据需要复制时等待写入唤醒，等待超时后检查心跳。
+     * @param replica 副本
+     * @throws Exception 异常
+     */
+    private void sendAppendEntries(Replica replica) throws Exception {
+        boolean rechecked = false;
+        while (true) {
+            boolean catchUp = isCatchingUp(replica);
+            int windowSize = !replica.isMatch() ? 1 :
+                    Math.max(1, catchUp ? electionConfig.getCatchUpWindowSize() : electionConfig.getReplicateWindowSize());
+            boolean throttled = false;
+            while (replica.inflight() < windowSize) {
+                if (catchUp && !replicationManager.tryAcquireCatchUp(electionConfig.getMaxReplicateLength())) {
+                    throttled = true;
+                    break;
+                }
+                long startTimeUs = usTime();
+                int epoch = replica.epoch();
+                long sendPosition = replica.sendPosition();
+
+                AppendEntriesRequest request = generateAppendEntriesRequest(replica);
+                if (request == null) {
+                    if (replica.inflight() == 0 && !electionConfig.enableSharedHeartbeat()
+                            && SystemClock.now() - replica.getLastAppendTime() >= electionConfig.getHeartbeatTimeout()) {
+                        request = generateHeartbeatRequest(replica);
+                    }
+                    if (request == null) {
+                        break;
+                    }
+                }
+
+                long nextSendPosition = request.getEntriesLength() > 0 ?
+                        request.getStartPosition() + request.getEntriesLength() : sendPosition;
+                if (!replica.onSend(epoch, nextSendPosition)) {
+                    // 生成请求期间发送状态被重置，从新的位置重新生成
+                    continue;
+                }
+
+                if (!replica.isMatch() || logger.isDebugEnabled()) {
+                    logger.info("Partition group {}/node {} send append entries request {} to node {}, " +
+                                    "read entries elapse {} us",
+                            topicPartitionGroup, leaderId, request, replica.replicaId(), usTime() - startTimeUs);
+                }
+
+                replica.setLastAppendTime(SystemClock.now());
+                AppendEntriesRequestCallback callback = new AppendEntriesRequestCallback(replica, startTimeUs,
+                        request.getEntriesLength(), epoch, nextSendPosition);
+                if (electionConfig.enableBatchReplicate()) {
+                    replicationManager.appendEntries(replica.getAddress(), request, callback);
+                } else {
+                    JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST);
+                    this.sendCommand(replica.getAddress(), new Command(header, request),
+                            electionConfig.getSendCommandTimeout(), callback);
+                }
+            }
+
+            if (replica.inflight() > 0) {
+                // 响应返回后继续复制
+                return;
+            }
+            if (throttled) {
+                // 追赶流量超过限制，稍后再试
+                replicateResponseQueue.put(new DelayedCommand(CATCH_UP_THROTTLE_DELAY_NANO, replica.replicaId()));
+                return;
+            }
+
+            long waitSeq = replica.startWaiting();
+            if (waitSeq < 0) {
+                return;
+            }
+            // 设置等待之后再检查一次，避免错过设置等待之前的写入
+            if (replica.sendPosition() < replicableStore.rightPosition() && replica.stopWaiting(waitSeq)) {
+                if (!rechecked) {
+                    rechecked = true;
+                    continue;
+                }
+                // 写入位置已经前进但是还读不到数据，稍后再试
+                replicateResponseQueue.put(new DelayedCommand(ONE_MS_NANO, replica.replicaId()));
+                return;
+            }
+            replicateResponseQueue.put(new DelayedCommand(
+                    electionConfig.getHeartbeatTimeout() * ONE_MS_NANO, replica.replicaId(), waitSeq));
+            return;
+        }
+    }
+
+    /**
+     * 副本落后超过阈值时进入追赶模式，追上之后回到正常复制
+     * @param replica 副本
+     * @return 是否处于追赶模式
+     */
+    private boolean isCatchingUp(Replica replica) {
+        long lag = replicableStore.rightPosition() - replica.sendPosition();
+        boolean catchUp = replica.isMatch() && electionConfig.getCatchUpThreshold() > 0 && lag > electionConfig.getCatchUpThreshold();
+        if (replica.catchingUp(catchUp)) {
+            logger.info("Partition group {}/node {} replica {} {} catching up, lag is {}",
+                    topicPartitionGroup, localReplicaId, replica.replicaId(), catchUp ? "start" : "stop", lag);
+        }
+        return catchUp;
+    }
+
     /**
      * 构造复制消息请求
      * @param replica 副本
@@ -462,7 +609,7 @@ public class ReplicaGroup extends Service {
     private AppendEntriesRequest generateAppendEntriesRequest(Replica replica) throws Exception {
 
         long leftPosition = replicableStore.leftPosition();
-        long startPosition = Math.max(replica.nextPosition(), leftPosition);
+        long startPosition = Math.max(replica.sendPosition(), leftPosition);
 
         if (startPosition >= replicableStore.rightPosition()) {
             return null;
@@ -477,6 +624,7 @@ public class ReplicaGroup extends Service {
             long oldPosition = startPosition;
             startPosition = getPrevPosition(startPosition);
             replica.nextPosition(startPosition);
+            replica.resetSend(startPosition);
             logger.info("Partition group {}/node {} get prev position of {} return {}, left position is {}",
                     topicPartitionGroup, localReplicaId, oldPosition, startPosition, leftPosition);
             entries = replicableStore.readEntryBuffer(startPosition, electionConfig.getMaxReplicateLength());
@@ -512,7 +660,8 @@ public class ReplicaGroup extends Service {
      */
     private AppendEntriesRequest generateHeartbeatRequest(Replica replica) {
         return AppendEntriesRequest.Build.create()
-                .partitionGroup(topicPartitionGroup).term(currentTerm).leader(leaderId).build();
+                .partitionGroup(topicPartitionGroup).term(currentTerm).leader(leaderId)
+                .commitPosition(replicableStore.commitPosition()).build();
     }
 
     /**
@@ -522,16 +671,25 @@ public class ReplicaGroup extends Service {
         private Replica replica;
         private long startTimeUs;
         private int entriesLength;
+        private int epoch;
+        private long expectedNextPosition;
 
-        AppendEntriesRequestCallback(Replica replica, long startTimeUs, int entriesLength) {
+        AppendEntriesRequestCallback(Replica replica, long startTimeUs, int entriesLength, int epoch, long expectedNextPosition) {
             this.replica = replica;
             this.startTimeUs = startTimeUs;
             this.entriesLength = entriesLength;
+            this.epoch = epoch;
+            this.expectedNextPosition = expectedNextPosition;
         }
 
         @Override
         public void onSuccess(Command request, Command response) {
+            // 发送状态已经重置，忽略之前在途请求的响应
+            boolean current = replica.onComplete(epoch);
             try {
+                if (!current) {
+                    return;
+                }
                 if (!(request.getPayload() instanceof AppendEntriesRequest)
                         || !(response.getPayload() instanceof AppendEntriesResponse)) {
                     return;
@@ -560,7 +718,23 @@ public class ReplicaGroup extends Service {
                     return;
                 }
 
-                processAppendEntriesResponse(appendEntriesResponse, replica);
+                if (entriesLength == 0) {
+                    // 心跳响应只说明副本存活，不更新复制位置
+                    replica.lastAppendSuccessTime(SystemClock.now());
+                    if (!appendEntriesResponse.isSuccess()) {
+                        // 副本在当前任期还没有确认日志一致，从前一条消息开始重新复制来匹配日志
+                        replica.setMatch(false);
+                        replica.nextPosition(getPrevPosition(replica.nextPosition()));
+                        replica.resetSend(replica.nextPosition());
+                    }
+                    return;
+                }
+
+                boolean valid = processAppendEntriesResponse(appendEntriesResponse, replica);
+                if (valid && (!appendEntriesResponse.isSuccess() || appendEntriesResponse.getNextPosition() != expectedNextPosition)) {
+                    // 日志不匹配或者副本的位置和预期不一致，丢弃在途的请求，从副本的位置重新复制
+                    replica.resetSend(replica.nextPosition());
+                }
 
                 brokerMonitor.onReplicateMessage(topicPartitionGroup.getTopic(), topicPartitionGroup.getPartitionGroupId(),
                         1, entriesLength, usTime() - startTimeUs);
@@ -569,13 +743,19 @@ public class ReplicaGroup extends Service {
                 logger.info("Partition group {}/node {} process append entries reponse fail",
                         topicPartitionGroup, localReplicaId, e);
             } finally {
-                replicateResponseQueue.put(new DelayedCommand(0, replica.replicaId()));
+                if (current) {
+                    replicateResponseQueue.put(new DelayedCommand(0, replica.replicaId()));
+                }
             }
         }
 
         @Override
         public void onException(Command request, Throwable cause) {
+            boolean current = replica.onComplete(epoch);
             try {
+                if (!current) {
+                    return;
+                }
                 if (!(request.getPayload() instanceof AppendEntriesRequest)) {
                     TopicPartitionGroup tpg = ReplicaGroup.this.topicPartitionGroup;
                     logger.error("Replicate failure. topicPartitionGroup {}", tpg == null ? "null" : tpg.toString(), cause);
@@ -592,8 +772,12 @@ public class ReplicaGroup extends Service {
                 logger.warn("Partition group {}/node {} send append entries onException fail, request is {}",
                         topicPartitionGroup, localReplicaId, request, e);
             } finally {
-                replicateResponseQueue.put(
-                        new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                if (current) {
+                    // 丢弃在途的请求，从已确认的位置重新复制
+                    replica.resetSend(replica.nextPosition());
+                    replicateResponseQueue.put(
+                            new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                }
             }
         }
     }
@@ -603,7 +787,7 @@ public class ReplicaGroup extends Service {
      * Update the commit position as the majority value of all replica's write position
      * @param response 写入记录响应
      */
-    private synchronized void processAppendEntriesResponse(AppendEntriesResponse response, Replica replica) {
+    private synchronized boolean processAppendEntriesResponse(AppendEntriesResponse response, Replica replica) {
         replica.lastAppendSuccessTime(SystemClock.now());
 
         if (!response.isSuccess()) {
@@ -612,11 +796,15 @@ public class ReplicaGroup extends Service {
             } else {
                 replica.nextPosition(getPrevPosition(response.getNextPosition()));
             }
-            return;
+            return true;
         }
 
-        replica.writePosition(response.getWritePosition());
-        replica.nextPosition(response.getNextPosition());
+        if (!replica.onAppendSuccess(response.getWritePosition(), response.getNextPosition())) {
+            logger.debug("Partition group {}/node {} ignore stale append entries response from {}, next position is {}, " +
+                            "current next position is {}",
+                    topicPartitionGroup, localReplicaId, replica.replicaId(), response.getNextPosition(), replica.nextPosition());
+            return false;
+        }
         replica.setMatch(true);
 
         if (transferee != ElectionNode.INVALID_NODE_ID && replica.nextPosition() >= timeoutNowPosition) {
@@ -635,6 +823,7 @@ public class ReplicaGroup extends Service {
             logger.info("Partition group {}/node {} commit position is {}",
                     topicPartitionGroup, localReplicaId, replicableStore.commitPosition());
         }
+        return true;
     }
 
     /**
@@ -646,17 +835,35 @@ public class ReplicaGroup extends Service {
         if (now - replica.lastReplicateConsumePosTime() < electionConfig.getReplicateConsumePosInterval()) {
             return;
         }
+        // 上一次复制还未完成时不再发送，未确认的位置在下一次复制时比较
+        int epoch = replica.startReplicateConsumePos();
+        if (epoch < 0) {
+            return;
+        }
         replica.lastReplicateConsumePosTime(now);
 
+        // 只复制副本确认之后变化的位置，定期全量复制一次
+        boolean full = now - replica.lastFullReplicateConsumePosTime() >= electionConfig.getReplicateConsumePosFullInterval();
+        if (full) {
+            replica.lastFullReplicateConsumePosTime(now);
+        }
+
         try {
             replicateExecutor.submit(() -> {
                 try {
                     long replicateStartTime = SystemClock.now();
-                    Map<ConsumePartition, Position> consumePositions = consume.getConsumePositionByGroup(TopicName.parse(topicPartitionGroup.getTopic()),
+                    Map<ConsumePartition, Position> allConsumePositions = consume.getConsumePositionByGroup(TopicName.parse(topicPartitionGroup.getTopic()),
                             topicPartitionGroup.getPartitionGroupId());
-                    if (consumePositions == null) {
+                    if (allConsumePositions == null) {
                         logger.debug("Partition group {}/node {} get consumer info return null",
                                 topicPartitionGroup, localReplicaId);
+                        replica.onReplicateConsumePos(epoch, null, false);
+                        return;
+                    }
+
+                    Map<ConsumePartition, Position> consumePositions = replica.consumePosDelta(allConsumePositions, full);
+                    if (consumePositions.isEmpty()) {
+                        replica.onReplicateConsumePos(epoch, consumePositions, true);
                         return;
                     }
 
@@ -669,7 +876,7 @@ public class ReplicaGroup extends Service {
                     }
 
                     this.sendCommand(replica.getAddress(), new Command(header, request),
-                            electionConfig.getSendCommandTimeout(), new ReplicateConsumePosRequestCallback(replica));
+                            electionConfig.getSendCommandTimeout(), new ReplicateConsumePosRequestCallback(replica, epoch, consumePositions));
 
                     long elapsed = SystemClock.now() - now;
                     if (elapsed > 5) {
@@ -677,32 +884,56 @@ public class ReplicaGroup extends Service {
                                 topicPartitionGroup.toString(), elapsed, SystemClock.now() - replicateStartTime);
                     }
                 } catch (Exception e) {
+                    replica.onReplicateConsumePos(epoch, null, false);
                     logger.warn("Partition group {}/node {} send replicate consume pos message fail",
                             topicPartitionGroup, localReplicaId, e);
                 }
             });
         } catch (Exception e) {
+            replica.onReplicateConsumePos(epoch, null, false);
             logger.warn("Partition group {}/node {} replicate consume position task failed",
                     topicPartitionGroup, localReplicaId, e);
         }
     }
 
+    /**
+     * 开启follower读时，把在follower上应答的消费位置转发给leader
+     * leader只接受比本地更靠后的应答位置
+     * @param leaderId leader id
+     */
+    private void maybeForwardConsumePos(int leaderId) {
+        if (!electionConfig.enableFollowerRead()) {
+            return;
+        }
+        Replica leader = getReplica(leaderId);
+        if (leader == null) {
+            return;
+        }
+        maybeReplicateConsumePos(leader);
+    }
+
     /**
      * Callback of replicate consume pos request command
      */
     private class ReplicateConsumePosRequestCallback implements CommandCallback {
         private Replica replica;
+        private int epoch;
+        private Map<ConsumePartition, Position> consumePositions;
 
-        ReplicateConsumePosRequestCallback(Replica replica) {
+        ReplicateConsumePosRequestCallback(Replica replica, int epoch, Map<ConsumePartition, Position> consumePositions) {
             this.replica = replica;
+            this.epoch = epoch;
+            this.consumePositions = consumePositions;
         }
 
         @Override
         public void onSuccess(Command request, Command responseCommand) {
             if (!(responseCommand.getPayload() instanceof ReplicateConsumePosResponse)) {
+                replica.onReplicateConsumePos(epoch, consumePositions, false);
                 return;
             }
             ReplicateConsumePosResponse response = (ReplicateConsumePosResponse)responseCommand.getPayload();
+            replica.onReplicateConsumePos(epoch, consumePositions, response.isSuccess());
             if (!response.isSuccess()) {
                 logger.info("Partition group {}/node {} replicate consume pos to {} fail",
                         topicPartitionGroup, localReplicaId, replica.replicaId());
@@ -711,6 +942,7 @@ public class ReplicaGroup extends Service {
 
         @Override
         public void onException(Command request, Throwable cause) {
+            replica.onReplicateConsumePos(epoch, consumePositions, false);
             logger.info("Partition group {}/node {} replicate consume pos to {} fail",
                     topicPartitionGroup, localReplicaId, replica.replicaId(), cause);
         }
@@ -743,6 +975,19 @@ public class ReplicaGroup extends Service {
 
                 long startTimeUs = usTime();
 
+                if (entriesLength == 0) {
+                    // 心跳请求不匹配也不截断日志，只提交到当前任期内已经确认一致的位置，
+                    // 还没有确认时返回失败，由leader重新复制来匹配日志
+                    if (matchedPosition < 0) {
+                        nextPosition = -1L;
+                        success = false;
+                        break;
+                    }
+                    nextPosition = replicableStore.rightPosition();
+                    replicableStore.commit(Math.min(request.getCommitPosition(), matchedPosition));
+                    break;
+                }
+
                 if (!matchPosition(request.getStartPosition(), request.getLeftPosition(), request.getPrevTerm(),
                         request.getPrevPosition(), request.isMatch())) {
                     if (request.getStartPosition() > replicableStore.rightPosition()) {
@@ -758,6 +1003,7 @@ public class ReplicaGroup extends Service {
                     } else {
                         nextPosition = -1;
                     }
+                    matchedPosition = -1L;
                     success = false;
                     break;
                 }
@@ -785,7 +1031,10 @@ public class ReplicaGroup extends Service {
                             replicableStore.rightPosition(), request.getLeftPosition(), usTime() - startTimeUs);
                 }
 
+                // 写入过程中失败可能已经截断了日志，写入成功之前不再认为日志一致
+                matchedPosition = -1L;
                 nextPosition = replicableStore.appendEntryBuffer(request.getEntries());
+                matchedPosition = nextPosition;
 
                 if (logger.isDebugEnabled() || usTime() - startTimeUs > MAX_PROCESS_TIME) {
                     logger.info("Partition group {}/node {}, append entries from {}, position is {}, entry length is {}, " +
@@ -815,6 +1064,15 @@ public class ReplicaGroup extends Service {
             }
         } while(false);
 
+        if (success) {
+            // 只有当前任期内确认过日志一致之后才更新，未匹配的日志不能提供读服务
+            if (matchedPosition >= 0) {
+                lastLeaderAppendTime = SystemClock.now();
+                leaderCommitPosition = request.getCommitPosition();
+            }
+            maybeForwardConsumePos(request.getLeaderId());
+        }
+
         AppendEntriesResponse response = AppendEntriesResponse.Build.create().topicPartitionGroup(topicPartitionGroup)
                 .term(currentTerm).writePosition(replicableStore.rightPosition()).nextPosition(nextPosition)
                 .replicaId(localReplicaId).success(success).entriesTerm(request.getEntriesTerm())
@@ -1011,11 +1269,18 @@ public class ReplicaGroup extends Service {
         private long startTimeNs;
         private long delayTimeNs;
         private int replicaId;
+        // 大于0表示等待写入唤醒的超时命令
+        private long waitSeq;
 
         DelayedCommand(long delayTimeNs, int replicaId) {
+            this(delayTimeNs, replicaId, 0);
+        }
+
+        DelayedCommand(long delayTimeNs, int replicaId, long waitSeq) {
             this.startTimeNs = System.nanoTime();
             this.delayTimeNs = delayTimeNs;
             this.replicaId = replicaId;
+            this.waitSeq = waitSeq;
         }
 
         @Override
@@ -1039,6 +1304,10 @@ public class ReplicaGroup extends Service {
         int replicaId() {
             return replicaId;
         }
+
+        long waitSeq() {
+            return waitSeq;
+        }
     }
 
     private long usTime() {
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.replication;
+
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.TransportClient;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.CommandCallback;
+import org.joyqueue.network.transport.command.Direction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 到一个节点的批量复制会话
+ *
+ * 所有分区组发往同一节点的复制请求先放入队列，由当前抢到发送权的线程合并为一个批量复制命令发送，
+ * 在途的批量命令数达到上限时请求在队列中累积，等在途命令返回后再合并发送，
+ * 这样节点之间的复制命令数不再随分区组数线性增长。
+ * 批量响应按顺序拆分后回调各分区组自己的回调，请求和响应的单位仍然是单个分区组。
+ */
+class ReplicationBatchSession {
+    protected static final Logger logger = LoggerFactory.getLogger(ReplicationBatchSession.class);
+
+    private final String address;
+    private final ReplicationTransportSession session;
+    private final int maxBatchSize;
+    private final int maxInflight;
+    private final int timeout;
+
+    private final Queue<PendingRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+    private final AtomicInteger inflight = new AtomicInteger(0);
+
+    ReplicationBatchSession(String address, TransportClient transportClient, int maxBatchSize, int maxInflight, int timeout) {
+        this.address = address;
+        this.session = new ReplicationTransportSession(address, transportClient);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxInflight = Math.max(1, maxInflight);
+        this.timeout = timeout;
+    }
+
+    /**
+     * 添加复制请求，请求在合并发送后通过callback回调
+     * @param request 复制请求
+     * @param callback 单个分区组复制请求的回调
+     */
+    void appendEntries(AppendEntriesRequest request, CommandCallback callback) {
+        pendingRequests.add(new PendingRequest(request, callback));
+        flush();
+    }
+
+    int pendingSize() {
+        return pendingRequests.size();
+    }
+
+    void stop() {
+        session.stop();
+    }
+
+    private void flush() {
+        while (!pendingRequests.isEmpty() && inflight.get() < maxInflight) {
+            if (!sending.compareAndSet(false, true)) {
+                // 其它线程正在发送，会把刚加入的请求一起发送
+                return;
+            }
+            try {
+                while (!pendingRequests.isEmpty() && inflight.get() < maxInflight) {
+                    List<PendingRequest> batch = new ArrayList<>(Math.min(maxBatchSize, pendingRequests.size()));
+                    PendingRequest pendingRequest;
+                    while (batch.size() < maxBatchSize && (pendingRequest = pendingRequests.poll()) != null) {
+                        batch.add(pendingRequest);
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    inflight.incrementAndGet();
+                    send(batch);
+                }
+            } finally {
+                sending.set(false);
+            }
+        }
+    }
+
+    private void send(List<PendingRequest> batch) {
+        List<AppendEntriesRequest> requests = new ArrayList<>(batch.size());
+        for (PendingRequest pendingRequest : batch) {
+            requests.add(pendingRequest.request);
+        }
+        Command command = new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST),
+                new BatchAppendEntriesRequest(requests));
+        BatchCallback callback = new BatchCallback(batch);
+        try {
+            session.sendCommand(command, timeout, callback);
+        } catch (Exception e) {
+            callback.onException(command, e);
+        }
+    }
+
+    /**
+     * 批量复制命令的回调，拆分后回调各分区组的回调
+     */
+    private class BatchCallback implements CommandCallback {
+        private final List<PendingRequest> batch;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        BatchCallback(List<PendingRequest> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSuccess(Command request, Command response) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            inflight.decrementAndGet();
+            try {
+                List<AppendEntriesResponse> responses = null;
+                if (response.getPayload() instanceof BatchAppendEntriesResponse) {
+                    responses = ((BatchAppendEntriesResponse) response.getPayload()).getResponses();
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingRequest pendingRequest = batch.get(i);
+                    if (responses == null || i >= responses.size()) {
+                        pendingRequest.onException(new IllegalStateException(
+                                String.format("Batch append entries response of %s missing entry %d", address, i)));
+                    } else {
+                        pendingRequest.onSuccess(responses.get(i));
+                    }
+                }
+            } finally {
+                flush();
+            }
+        }
+
+        @Override
+        public void onException(Command request, Throwable cause) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            inflight.decrementAndGet();
+            try {
+                logger.warn("Send batch append entries request of {} partition groups to {} failed",
+                        batch.size(), address, cause);
+                for (PendingRequest pendingRequest : batch) {
+                    pendingRequest.onException(cause);
+                }
+            } finally {
+                flush();
+            }
+        }
+    }
+
+    private static class PendingRequest {
+        private final AppendEntriesRequest request;
+        private final CommandCallback callback;
+
+        PendingRequest(AppendEntriesRequest request, CommandCallback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void onSuccess(AppendEntriesResponse response) {
+            try {
+                callback.onSuccess(command(),
+                        new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE), response));
+            } catch (Throwable t) {
+                logger.warn("Process append entries response of {} fail", request.getTopicPartitionGroup(), t);
+            }
+        }
+
+        void onException(Throwable cause) {
+            try {
+                callback.onException(command(), cause);
+            } catch (Throwable t) {
+                logger.warn("Process append entries exception of {} fail", request.getTopicPartitionGroup(), t);
+            }
+        }
+
+        private Command command() {
+            return new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST), request);
+        }
+    }
+}
@@ -16,19 +16,25 @@
 package org.joyqueue.broker.replication;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
 import org.joyqueue.broker.config.BrokerConfig;
 import org.joyqueue.broker.consumer.Consume;
 import org.joyqueue.broker.election.DefaultElectionNode;
 import org.joyqueue.broker.election.ElectionConfig;
 import org.joyqueue.broker.election.ElectionException;
 import org.joyqueue.broker.election.TopicPartitionGroup;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.broker.monitor.BrokerMonitor;
 import org.joyqueue.broker.network.support.BrokerTransportClientFactory;
 import org.joyqueue.network.transport.Transport;
 import org.joyqueue.network.transport.TransportClient;
+import org.joyqueue.network.transport.command.CommandCallback;
 import org.joyqueue.network.transport.config.ClientConfig;
 import org.joyqueue.store.StoreService;
+import org.joyqueue.store.event.StoreEvent;
+import org.joyqueue.store.event.StoreWriteEvent;
 import org.joyqueue.store.replication.ReplicableStore;
+import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import org.joyqueue.toolkit.lang.Close;
 import org.joyqueue.toolkit.service.Service;
@@ -58,6 +64,7 @@ public class ReplicationManager extends Service {
     private ElectionConfig electionConfig;
     private BrokerConfig brokerConfig;
     private final ConcurrentHashMap<String, Transport> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ReplicationBatchSession> batchSessions = new ConcurrentHashMap<>();
 
     private StoreService storeService;
     private Consume consume;
@@ -66,6 +73,9 @@ public class ReplicationManager extends Service {
     private ExecutorService replicateExecutor;
     private ScheduledExecutorService replicateTimerExecutor;
     private BlockingDeque replicateQueue;
+    private final EventListener<StoreEvent> storeEventListener = this::onStoreEvent;
+    // 追赶复制的流量限制，所有分区组共享
+    private RateLimiter catchUpRateLimiter;
 
     public ReplicationManager(ElectionConfig electionConfig, BrokerConfig brokerConfig, StoreService storeService,
                               Consume consume, BrokerMonitor brokerMonitor) {
@@ -102,6 +112,12 @@ public class ReplicationManager extends Service {
 
         replicateTimerExecutor = Executors.newScheduledThreadPool(electionConfig.getTimerScheduleThreadNum());
 
+        if (electionConfig.getCatchUpRateLimit() > 0) {
+            catchUpRateLimiter = RateLimiter.create(electionConfig.getCatchUpRateLimit());
+        }
+
+        storeService.addListener(storeEventListener);
+
         replicateTimerExecutor.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
@@ -126,6 +142,11 @@ public class ReplicationManager extends Service {
 
     @Override
     public void doStop() {
+        storeService.removeListener(storeEventListener);
+        for (ReplicationBatchSession batchSession : batchSessions.values()) {
+            batchSession.stop();
+        }
+        batchSessions.clear();
         Close.close(transportClient);
         Close.close(replicateExecutor);
 
@@ -174,6 +195,54 @@ public class ReplicationManager extends Service {
         replicaGroups.remove(topicPartitionGroup);
     }
 
+    /**
+     * 消息写入后唤醒对应分区组的复制，在写入线程中同步调用，不能阻塞
+     * @param event 存储事件
+     */
+    protected void onStoreEvent(StoreEvent event) {
+        if (!(event instanceof StoreWriteEvent)) {
+            return;
+        }
+        StoreWriteEvent writeEvent = (StoreWriteEvent) event;
+        ReplicaGroup replicaGroup = replicaGroups.get(new TopicPartitionGroup(writeEvent.getTopic(), writeEvent.getGroup()));
+        if (replicaGroup == null) {
+            return;
+        }
+        try {
+            replicaGroup.onWrite();
+        } catch (Exception e) {
+            logger.warn("Replica group of topic {} partition group {} process write event fail",
+                    writeEvent.getTopic(), writeEvent.getGroup(), e);
+        }
+    }
+
+    /**
+     * 批量复制，发往同一节点的各分区组的复制请求合并发送
+     * @param address 目标broker地址, ip + ":" + port
+     * @param request 复制请求
+     * @param callback 复制请求的回调
+     */
+    void appendEntries(String address, AppendEntriesRequest request, CommandCallback callback) {
+        ReplicationBatchSession batchSession = batchSessions.get(address);
+        if (batchSession == null) {
+            batchSession = batchSessions.computeIfAbsent(address, key -> {
+                logger.info("Replication manager create batch session of {}", key);
+                return new ReplicationBatchSession(key, transportClient, electionConfig.getBatchReplicateMaxSize(),
+                        electionConfig.getBatchReplicateMaxInflight(), electionConfig.getSendCommandTimeout());
+            });
+        }
+        batchSession.appendEntries(request, callback);
+    }
+
+    /**
+     * 获取追赶复制的流量
+     * @param bytes 复制的字节数
+     * @return 是否获取成功，没有限制时总是成功
+     */
+    boolean tryAcquireCatchUp(int bytes) {
+        return catchUpRateLimiter == null || catchUpRateLimiter.tryAcquire(bytes);
+    }
+
     public ReplicaGroup getReplicaGroup(String topic, int partitionGroup) {
         ReplicaGroup replicaGroup = replicaGroups.get(new TopicPartitionGroup(topic, partitionGroup));
         if (replicaGroup == null) {
@@ -133,11 +133,13 @@ public class ClusterStoreService extends Service implements StoreService, LifeCy
     @Override
     public void addListener(EventListener<StoreEvent> listener) {
         eventBus.addListener(listener);
+        storeService.addListener(listener);
     }
 
     @Override
     public void removeListener(EventListener<StoreEvent> listener) {
         eventBus.removeListener(listener);
+        storeService.removeListener(listener);
     }
 
     @Override
@@ -145,6 +147,11 @@ public class ClusterStoreService extends Service implements StoreService, LifeCy
         return storeService.partitionGroupExists(topic, partitionGroup);
     }
 
+    @Override
+    public long partitionGroupDiskSize(String topic, int partitionGroup) {
+        return storeService.partitionGroupDiskSize(topic, partitionGroup);
+    }
+
     @Override
     public boolean topicExists(String topic) {
         return storeService.topicExists(topic);
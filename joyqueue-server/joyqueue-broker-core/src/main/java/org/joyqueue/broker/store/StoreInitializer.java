@@ -41,13 +41,17 @@ import org.joyqueue.store.PartitionGroupStore;
 import org.joyqueue.store.StoreService;
 import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import org.joyqueue.toolkit.format.Format;
 import org.joyqueue.toolkit.service.Service;
+import org.joyqueue.toolkit.time.SystemClock;
 import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,6 +59,8 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * StoreInitializer
@@ -91,11 +97,24 @@ public class StoreInitializer extends Service implements EventListener<MetaEvent
         if (CollectionUtils.isEmpty(replicas)) {
             return;
         }
+        // 恢复前扫描磁盘，按照数据量从大到小的顺序提交恢复任务，避免最大的PartitionGroup最后才开始恢复，拖慢整体恢复时间
+        Map<Replica, Long> diskSizes = new HashMap<>(replicas.size());
+        for (Replica replica : replicas) {
+            diskSizes.put(replica, storeService.partitionGroupDiskSize(replica.getTopic().getFullName(), replica.getGroup()));
+        }
+        List<Replica> sortedReplicas = new ArrayList<>(replicas);
+        sortedReplicas.sort(Comparator.comparingLong((Replica replica) -> diskSizes.get(replica)).reversed());
+        long totalSize = diskSizes.values().stream().mapToLong(Long::longValue).sum();
+        AtomicLong recoveredSize = new AtomicLong(0L);
+        AtomicInteger recoveredCount = new AtomicInteger(0);
+        long startTime = SystemClock.now();
+        logger.info("Restoring {} partition groups, total size: {}...", replicas.size(), Format.formatSize(totalSize));
+
         // 并行恢复所有的PartitionGroup
         ExecutorService executor = Executors.newFixedThreadPool(32, new NamedThreadFactory("Store-recover-threads"));
         try {
             CompletableFuture.allOf(
-                    replicas.stream()
+                    sortedReplicas.stream()
                             .map(replica -> CompletableFuture.runAsync(() -> {
                                 try {
                                     PartitionGroup group = clusterManager.getPartitionGroupByGroup(replica.getTopic(), replica.getGroup());
@@ -109,6 +128,9 @@ public class StoreInitializer extends Service implements EventListener<MetaEvent
                                     doRestore(group, replica, broker);
                                 } catch (Exception e) {
                                     throw new CompletionException(e);
+                                } finally {
+                                    logRestoreProgress(replicas.size(), recoveredCount.incrementAndGet(),
+                                            totalSize, recoveredSize.addAndGet(diskSizes.get(replica)), startTime);
                                 }
                                     }, executor)
                             ).toArray(CompletableFuture[]::new)
@@ -118,6 +140,13 @@ public class StoreInitializer extends Service implements EventListener<MetaEvent
         }
     }
 
+    private void logRestoreProgress(int totalCount, int recoveredCount, long totalSize, long recoveredSize, long startTime) {
+        long takes = SystemClock.now() - startTime;
+        long eta = recoveredSize > 0 ? (totalSize - recoveredSize) * takes / recoveredSize / 1000 : -1L;
+        logger.info("Partition groups restored: {}/{}, size: {}/{}, takes: {}s, ETA: {}s.",
+                recoveredCount, totalCount, Format.formatSize(recoveredSize), Format.formatSize(totalSize), takes / 1000, eta);
+    }
+
     protected void doRestore(PartitionGroup group, Replica replica, Broker broker) throws Exception {
         if (config.getForceRestore()) { // 强制恢复，如果磁盘上没有这个PartitionGroup，则新建一个
             logger.info("force restore topic {}, group.no {} group {}", replica.getTopic().getFullName(), replica.getGroup(), group);
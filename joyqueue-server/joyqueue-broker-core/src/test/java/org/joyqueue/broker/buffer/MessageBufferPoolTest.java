@@ -0,0 +1,82 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.buffer;
+
+import io.netty.util.IllegalReferenceCountException;
+import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.toolkit.network.IpUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+public class MessageBufferPoolTest {
+
+    @Test
+    public void releaseTest() throws Exception {
+        MessageBufferPool pool = new MessageBufferPool(1024 * 1024);
+        MessageBufferPool.Batch batch = pool.newBatch();
+
+        BrokerMessage message = new BrokerMessage();
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setText("text");
+        message.setBusinessId("businessId");
+        int size = Serializer.sizeOf(message);
+        ByteBuffer buffer = batch.allocate(size);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(size, buffer.limit());
+
+        Serializer.write(message, buffer, size);
+        Assert.assertEquals("businessId", Serializer.readBrokerMessage(buffer.duplicate()).getBusinessId());
+        Assert.assertEquals(size, pool.getUsed());
+        Assert.assertEquals(1, pool.getOutstanding());
+
+        // 生产线程和存储各持有一个引用
+        batch.retain();
+        Assert.assertFalse(batch.release());
+        Assert.assertEquals(size, pool.getUsed());
+        Assert.assertTrue(batch.release());
+        Assert.assertEquals(0, pool.getUsed());
+        Assert.assertEquals(0, pool.getOutstanding());
+
+        try {
+            batch.release();
+            Assert.fail();
+        } catch (IllegalReferenceCountException e) {
+            Assert.assertEquals(0, batch.refCnt());
+        }
+    }
+
+    @Test
+    public void capacityTest() {
+        MessageBufferPool pool = new MessageBufferPool(100);
+        MessageBufferPool.Batch batch = pool.newBatch();
+
+        Assert.assertTrue(batch.allocate(60).isDirect());
+        // 超过容量使用堆内缓冲区
+        ByteBuffer buffer = batch.allocate(60);
+        Assert.assertFalse(buffer.isDirect());
+        Assert.assertEquals(60, buffer.remaining());
+        Assert.assertEquals(1, pool.getFallbacks());
+        Assert.assertEquals(60, pool.getUsed());
+
+        batch.release();
+        Assert.assertEquals(0, pool.getUsed());
+        Assert.assertTrue(pool.newBatch().allocate(100).isDirect());
+    }
+}
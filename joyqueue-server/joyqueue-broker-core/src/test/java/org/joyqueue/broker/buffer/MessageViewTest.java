@@ -0,0 +1,180 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.buffer;
+
+import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.message.SourceType;
+import org.joyqueue.toolkit.network.IpUtil;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+public class MessageViewTest {
+
+    private BrokerMessage createMessage(long index, boolean batch) {
+        BrokerMessage message = new BrokerMessage();
+        message.setPartition((short) 3);
+        message.setMsgIndexNo(index);
+        message.setTerm(7);
+        message.setPriority((byte) 2);
+        message.setStartTime(1000L + index);
+        message.setStoreTime(20);
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setSource(SourceType.KAFKA.getValue());
+        message.setBatch(batch);
+        message.setFlag(batch ? (short) 5 : (short) 9);
+        message.setText("text-" + index);
+        message.setBusinessId("businessId-" + index);
+        message.setAttribute("Test", "TestTest");
+        message.setExtension("Test".getBytes());
+        message.setApp("app");
+        return message;
+    }
+
+    private ByteBuffer write(BrokerMessage... messages) throws Exception {
+        int total = 0;
+        for (BrokerMessage message : messages) {
+            total += Serializer.sizeOf(message);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(total);
+        for (BrokerMessage message : messages) {
+            int size = Serializer.sizeOf(message);
+            ByteBuffer slice = buffer.slice();
+            Serializer.write(message, slice, size);
+            buffer.position(buffer.position() + size);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void readTest() throws Exception {
+        ByteBuffer buffer = write(createMessage(100, false), createMessage(101, true));
+        MessageView view = new MessageView();
+
+        for (int i = 0; i < 2; i++) {
+            int position = buffer.position();
+            view.wrap(buffer);
+            ByteBuffer copy = buffer.duplicate();
+            BrokerMessage expected = Serializer.readBrokerMessage(copy);
+
+            Assert.assertEquals(expected.getSize(), view.getSize());
+            Assert.assertEquals(expected.getPartition(), view.getPartition());
+            Assert.assertEquals(expected.getMsgIndexNo(), view.getIndex());
+            Assert.assertEquals(expected.getTerm(), view.getTerm());
+            Assert.assertEquals(expected.getPriority(), view.getPriority());
+            Assert.assertEquals(expected.getStartTime(), view.getStartTime());
+            Assert.assertEquals(expected.getStoreTime(), view.getStoreTime());
+            Assert.assertEquals(expected.getFlag(), view.getFlag());
+            Assert.assertEquals(expected.getSource(), view.getSource());
+            Assert.assertEquals(expected.isBatch(), view.isBatch());
+            Assert.assertEquals(expected.isCompressed(), view.isCompressed());
+            Assert.assertEquals(expected.isBatch() ? expected.getFlag() : 1, view.getCount());
+            Assert.assertArrayEquals(expected.getByteBody(), view.getBody());
+            Assert.assertEquals(expected.getByteBody().length, view.getBodyBuffer().remaining());
+            Assert.assertEquals(expected.getBusinessId(), view.getBusinessId());
+            Assert.assertEquals(expected.getAttributes(), view.getAttributes());
+            Assert.assertArrayEquals(expected.getExtension(), view.getExtension());
+            Assert.assertEquals(expected.getApp(), view.getApp());
+
+            // 视图不改变缓冲区位置
+            Assert.assertEquals(position, buffer.position());
+            buffer.position(position + view.getSize());
+        }
+    }
+
+    @Test
+    public void emptyFieldsTest() throws Exception {
+        BrokerMessage message = new BrokerMessage();
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setBody(new byte[0]);
+        ByteBuffer buffer = write(message);
+
+        MessageView view = new MessageView(buffer);
+        Assert.assertEquals(0, view.getBody().length);
+        Assert.assertEquals("", view.getBusinessId());
+        Assert.assertNull(view.getAttributes());
+        Assert.assertEquals(0, view.getExtension().length);
+        Assert.assertEquals("", view.getApp());
+        Assert.assertFalse(view.hasAttribute("Test".getBytes()));
+    }
+
+    @Test
+    public void hasAttributeTest() throws Exception {
+        BrokerMessage message = createMessage(1, false);
+        message.setAttribute("aTest", "Test=");
+        message.setAttribute("Key", "x\nTest=y");
+        MessageView view = new MessageView(write(message));
+        Assert.assertTrue(view.hasAttribute("Test".getBytes()));
+        Assert.assertTrue(view.hasAttribute("aTest".getBytes()));
+        Assert.assertTrue(view.hasAttribute("Key".getBytes()));
+        Assert.assertFalse(view.hasAttribute("Tes".getBytes()));
+        Assert.assertFalse(view.hasAttribute("TestTest".getBytes()));
+
+        // 值中的换行被转义，不会被当作属性键
+        message.getAttributes().remove("Test");
+        view.wrap(write(message));
+        Assert.assertFalse(view.hasAttribute("Test".getBytes()));
+    }
+
+    /**
+     * 比较物化BrokerMessage和使用视图读取同样字段时，每条消息分配的内存
+     */
+    @Ignore
+    @Test
+    public void allocationTest() throws Exception {
+        int count = 100000;
+        BrokerMessage[] messages = new BrokerMessage[count];
+        for (int i = 0; i < count; i++) {
+            messages[i] = createMessage(i, false);
+        }
+        ByteBuffer buffer = write(messages);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int round = 0; round < 5; round++) {
+            long sum = 0;
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            ByteBuffer in = buffer.duplicate();
+            while (in.hasRemaining()) {
+                BrokerMessage message = Serializer.readBrokerMessage(in);
+                sum += message.getFlag() + message.getStartTime() + message.getByteBody().length + message.getExtension().length;
+            }
+            long materializeBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+            long materializeTime = System.nanoTime() - start;
+
+            allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            MessageView view = new MessageView();
+            in = buffer.duplicate();
+            while (in.hasRemaining()) {
+                view.wrap(in);
+                sum += view.getFlag() + view.getStartTime() + view.getBody().length + view.getExtension().length;
+                in.position(in.position() + view.getSize());
+            }
+            long viewBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+            long viewTime = System.nanoTime() - start;
+
+            System.out.println(String.format("round %d, materialize: %d bytes/msg %d ns/msg, view: %d bytes/msg %d ns/msg, checksum: %d",
+                    round, materializeBytes / count, materializeTime / count, viewBytes / count, viewTime / count, sum));
+        }
+    }
+}
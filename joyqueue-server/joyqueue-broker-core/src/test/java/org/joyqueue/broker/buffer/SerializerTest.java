@@ -23,6 +23,7 @@ import org.junit.Test;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Map;
 
 /**
  * @author lining11
@@ -127,4 +128,27 @@ public class SerializerTest {
         Assert.assertEquals(sendTime, 100l);
     }
 
+    @Test
+    public void readAttributes() throws Exception {
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setText("text");
+        message.setBusinessId("businessId");
+        message.setAttribute("Test","TestTest");
+        message.setExtension("Test".getBytes());
+
+        int size = Serializer.sizeOf(message);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        Serializer.write(message, buffer ,size);
+
+        Map<String, String> attributes = Serializer.readAttributes(buffer);
+        Assert.assertEquals("TestTest", attributes.get("Test"));
+        Assert.assertEquals(0, buffer.position());
+
+        message.getAttributes().clear();
+        buffer = ByteBuffer.allocate(Serializer.sizeOf(message));
+        Serializer.write(message, buffer, buffer.capacity());
+        Assert.assertNull(Serializer.readAttributes(buffer));
+    }
+
 }
@@ -37,6 +37,11 @@ public class StoreServiceStub implements StoreService {
         return false;
     }
 
+    @Override
+    public long partitionGroupDiskSize(String topic, int partitionGroup) {
+        return 0;
+    }
+
     @Override
     public boolean topicExists(String topic) {
         return false;
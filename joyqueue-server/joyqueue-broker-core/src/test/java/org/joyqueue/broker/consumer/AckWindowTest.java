@@ -0,0 +1,136 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class AckWindowTest {
+
+    @Test
+    public void findTest() {
+        AckWindow<TestSegment> ackWindow = new AckWindow<>();
+        ackWindow.add(new TestSegment(0, 10));
+        ackWindow.add(new TestSegment(10, 5));
+        ackWindow.add(new TestSegment(15, 20));
+        Assert.assertEquals(3, ackWindow.size());
+
+        Assert.assertEquals(1, ackWindow.find(10, 5).size());
+        Assert.assertEquals(2, ackWindow.find(0, 15).size());
+        Assert.assertEquals(3, ackWindow.find(0, 35).size());
+        Assert.assertTrue(ackWindow.find(0, 12).isEmpty());
+        Assert.assertTrue(ackWindow.find(5, 5).isEmpty());
+        Assert.assertTrue(ackWindow.find(15, 30).isEmpty());
+    }
+
+    @Test
+    public void commitTest() {
+        AckWindow<TestSegment> ackWindow = new AckWindow<>();
+        for (int i = 0; i < 5; i++) {
+            ackWindow.add(new TestSegment(i * 10, 10));
+        }
+        ackWindow.get(20).acked = true;
+        ackWindow.get(10).acked = true;
+        Assert.assertEquals(0L, commit(ackWindow, 0L));
+
+        ackWindow.get(0).acked = true;
+        Assert.assertEquals(30L, commit(ackWindow, 0L));
+        Assert.assertEquals(2, ackWindow.size());
+        Assert.assertEquals(30L, ackWindow.first().getStartIndex());
+
+        ackWindow.clear();
+        Assert.assertTrue(ackWindow.isEmpty());
+        Assert.assertEquals(0, ackWindow.size());
+        Assert.assertNull(ackWindow.first());
+    }
+
+    /**
+     * 在途片段数量分别为10、1k、100k时，乱序应答的性能
+     */
+    @Ignore
+    @Test
+    public void ackPerfTest() {
+        for (int outstanding : new int[] {10, 1000, 100000}) {
+            int rounds = Math.max(1, 1000000 / outstanding);
+            List<Integer> order = new ArrayList<>(outstanding);
+            for (int i = 0; i < outstanding; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, new Random(outstanding));
+
+            AckWindow<TestSegment> ackWindow = new AckWindow<>();
+            long ackIndex = 0L, acks = 0L;
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                long base = ackIndex;
+                for (int i = 0; i < outstanding; i++) {
+                    ackWindow.add(new TestSegment(base + i * 10L, 10));
+                }
+                for (int i : order) {
+                    TestSegment segment = ackWindow.get(base + i * 10L);
+                    segment.acked = true;
+                    ackIndex = commit(ackWindow, ackIndex);
+                    acks++;
+                }
+            }
+            long takes = System.nanoTime() - start;
+            Assert.assertTrue(ackWindow.isEmpty());
+            System.out.println(String.format("Outstanding segments: %d, acks: %d, %.1f ns/ack.",
+                    outstanding, acks, (double) takes / acks));
+        }
+    }
+
+    private static long commit(AckWindow<TestSegment> ackWindow, long ackIndex) {
+        TestSegment segment;
+        while ((segment = ackWindow.first()) != null && segment.isAcked() && segment.getStartIndex() == ackIndex) {
+            ackWindow.remove(segment);
+            ackIndex += segment.getCount();
+        }
+        return ackIndex;
+    }
+
+    private static class TestSegment implements AckWindow.Segment {
+        private final long startIndex;
+        private final int count;
+        private boolean acked = false;
+
+        TestSegment(long startIndex, int count) {
+            this.startIndex = startIndex;
+            this.count = count;
+        }
+
+        @Override
+        public long getStartIndex() {
+            return startIndex;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean isAcked() {
+            return acked;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package org.joyqueue.broker.consumer;
 
 import com.google.common.collect.Lists;
 import org.joyqueue.broker.cluster.ClusterManager;
+import org.joyqueue.broker.config.Configuration;
 import org.joyqueue.broker.consumer.model.ConsumePartition;
 import org.joyqueue.broker.monitor.SessionManager;
 import org.joyqueue.domain.TopicName;
@@ -194,4 +195,43 @@ public class PartitionManagerTest {
         boolean b1 = partitionManager.hasFreePartition(consumer);
         Assert.assertEquals(false, b1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void occupyContention() {
+        List<Short> partitions = Lists.newArrayList((short) 0, (short) 1, (short) 2);
+        CasPartitionManager competing = new CasPartitionManager(clusterManager, sessionManager);
+        Assert.assertTrue(pullAll(competing, partitions) > 0);
+
+        Configuration conf = new Configuration();
+        conf.addProperty(ConsumeConfigKey.PARTITION_ASSIGN_STICKY.getName(), "true");
+        CasPartitionManager sticky = new CasPartitionManager(clusterManager, sessionManager, new ConsumeConfig(conf));
+        // 先让每个消费者加入，分配稳定之后不再有竞争
+        for (int i = 0; i < 10; i++) {
+            sticky.getAssignedPartitions(newConsumer(i), partitions);
+        }
+        Assert.assertEquals(0, pullAll(sticky, partitions));
+    }
+
+    /**
+     * 10个消费者依次拉取，每个消费者按顺序尝试占用分区直到成功，返回占用失败的次数
+     */
+    private long pullAll(CasPartitionManager manager, List<Short> partitions) {
+        for (int i = 0; i < 10; i++) {
+            Consumer consumer = newConsumer(i);
+            for (short partition : manager.getAssignedPartitions(consumer, partitions)) {
+                if (manager.tryOccupyPartition(consumer, partition, occupyTimeout)) {
+                    break;
+                }
+            }
+        }
+        return manager.getOccupyFailCount();
+    }
+
+    private Consumer newConsumer(int i) {
+        Consumer consumer = new Consumer();
+        consumer.setId("c" + i);
+        consumer.setTopic("topic");
+        consumer.setApp("app");
+        return consumer;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer;
+
+import org.joyqueue.broker.config.Configuration;
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.store.PartitionGroupStore;
+import org.joyqueue.store.ReadResult;
+import org.joyqueue.store.message.BatchMessageParser;
+import org.joyqueue.store.message.MessageParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReadAheadCacheTest {
+
+    private static final int MESSAGE_SIZE = MessageParser.getFixedAttributesLength();
+
+    private final NavigableMap<Long, ByteBuffer> messages = new TreeMap<>();
+    private final AtomicLong rightIndex = new AtomicLong();
+    private final AtomicInteger storeReads = new AtomicInteger();
+    private PartitionGroupStore store;
+    private ReadAheadCache cache;
+
+    @Before
+    public void before() throws Exception {
+        Configuration conf = new Configuration();
+        conf.addProperty(ConsumeConfigKey.READ_AHEAD_COUNT.getName(), "50");
+        conf.addProperty(ConsumeConfigKey.READ_AHEAD_CACHE_SIZE.getName(), String.valueOf(80L * MESSAGE_SIZE));
+        cache = new ReadAheadCache(new ConsumeConfig(conf));
+
+        store = Mockito.mock(PartitionGroupStore.class);
+        Mockito.when(store.getTopic()).thenReturn("test");
+        Mockito.when(store.getRightIndex(Mockito.anyShort())).thenAnswer(invocation -> rightIndex.get());
+        Mockito.when(store.read(Mockito.anyShort(), Mockito.anyLong(), Mockito.anyInt(), Mockito.anyLong())).thenAnswer(invocation -> {
+            storeReads.incrementAndGet();
+            long index = invocation.getArgument(1);
+            int count = invocation.getArgument(2);
+            long maxSize = invocation.getArgument(3);
+            List<ByteBuffer> result = new ArrayList<>();
+            long size = 0L;
+            for (ByteBuffer message : messages.subMap(index, true, index + count, false).values()) {
+                if ((size += message.remaining()) >= maxSize) {
+                    break;
+                }
+                result.add(message.duplicate());
+            }
+            ReadResult readResult = new ReadResult();
+            readResult.setCode(JoyQueueCode.SUCCESS);
+            readResult.setMessages(result.toArray(new ByteBuffer[0]));
+            return readResult;
+        });
+        append(100, 1);
+    }
+
+    private void append(int count, int batchSize) {
+        for (int i = 0; i < count; i++) {
+            ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+            if (batchSize > 1) {
+                BatchMessageParser.setBatch(message, true);
+                BatchMessageParser.setBatchSize(message, (short) batchSize);
+            }
+            messages.put(rightIndex.getAndAdd(batchSize), message);
+        }
+    }
+
+    private ReadResult read(long index, int count) throws Exception {
+        return cache.read(store, (short) 0, index, count);
+    }
+
+    @Test
+    public void shareTest() throws Exception {
+        ReadResult first = read(0L, 10);
+        ReadResult second = read(0L, 10);
+        Assert.assertEquals(1, storeReads.get());
+        Assert.assertEquals(10, first.getMessages().length);
+        Assert.assertEquals(10, second.getMessages().length);
+        Assert.assertEquals(0.5D, cache.getHitRatio("test"), 0.0001D);
+
+        // 每次返回独立的position
+        first.getMessages()[0].position(MESSAGE_SIZE);
+        Assert.assertEquals(MESSAGE_SIZE, second.getMessages()[0].remaining());
+        Assert.assertEquals(MESSAGE_SIZE, read(0L, 1).getMessages()[0].remaining());
+
+        Assert.assertEquals(10, read(40L, 10).getMessages().length);
+        Assert.assertEquals(1, storeReads.get());
+    }
+
+    @Test
+    public void tailTest() throws Exception {
+        read(0L, 10);
+        // 超出缓存的末尾，从请求的位置重新预读
+        Assert.assertEquals(10, read(45L, 10).getMessages().length);
+        Assert.assertEquals(2, storeReads.get());
+        // 落后的消费者直接读存储，不替换缓存
+        Assert.assertEquals(10, read(0L, 10).getMessages().length);
+        Assert.assertEquals(10, read(50L, 10).getMessages().length);
+        Assert.assertEquals(3, storeReads.get());
+
+        // 读到分区尾部
+        Assert.assertEquals(5, read(95L, 10).getMessages().length);
+        Assert.assertEquals(4, storeReads.get());
+        Assert.assertEquals(5, read(95L, 10).getMessages().length);
+        Assert.assertEquals(4, storeReads.get());
+
+        // 写入新消息之后重新预读
+        append(10, 1);
+        Assert.assertEquals(10, read(95L, 10).getMessages().length);
+        Assert.assertEquals(5, storeReads.get());
+        Assert.assertEquals(10, read(100L, 10).getMessages().length);
+        Assert.assertEquals(5, storeReads.get());
+
+        // 分区回滚之后不再使用缓存
+        rightIndex.set(100L);
+        read(95L, 5);
+        Assert.assertEquals(6, storeReads.get());
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        append(10, 5);
+        Assert.assertEquals(10, read(100L, 50).getMessages().length);
+        Assert.assertEquals(1, storeReads.get());
+        Assert.assertEquals(2, read(105L, 10).getMessages().length);
+        Assert.assertEquals(1, storeReads.get());
+        // 序号在批消息中间
+        read(107L, 10);
+        Assert.assertEquals(2, storeReads.get());
+    }
+
+    @Test
+    public void evictTest() throws Exception {
+        read(0L, 10);
+        Assert.assertEquals(50L * MESSAGE_SIZE, cache.getCachedSize());
+        cache.read(store, (short) 1, 0L, 10);
+        Assert.assertTrue(cache.getCachedSize() <= 80L * MESSAGE_SIZE);
+        // 第一个分区的缓存已经被淘汰
+        read(10L, 10);
+        Assert.assertEquals(3, storeReads.get());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer;
+
+import com.google.common.collect.Lists;
+import org.joyqueue.network.session.Joint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class StickyPartitionAssignorTest {
+
+    private final Joint joint = new Joint("topic", "app");
+    private final List<Short> partitions = Lists.newArrayList((short) 0, (short) 1, (short) 2, (short) 3, (short) 4);
+
+    @Test
+    public void assignTest() {
+        StickyPartitionAssignor assignor = new StickyPartitionAssignor(60000L);
+        Assert.assertEquals(partitions, assignor.assign(joint, "c1", partitions));
+
+        // 新消费者加入，只移动超出配额的分区
+        List<Short> c2 = assignor.assign(joint, "c2", partitions);
+        List<Short> c1 = assignor.assign(joint, "c1", partitions);
+        Assert.assertEquals(2, c2.size());
+        Assert.assertEquals(3, c1.size());
+        Assert.assertEquals(Lists.newArrayList((short) 0, (short) 1, (short) 2), c1);
+        assertDisjoint(partitions, c1, c2);
+
+        List<Short> c3 = assignor.assign(joint, "c3", partitions);
+        c1 = assignor.assign(joint, "c1", partitions);
+        c2 = assignor.assign(joint, "c2", partitions);
+        assertDisjoint(partitions, c1, c2, c3);
+        Assert.assertEquals(1, c3.size());
+
+        // 消费者离开，它的分区分给其它消费者，其它分区不动
+        List<Short> oldC1 = c1;
+        assignor.leave(joint, "c2");
+        c1 = assignor.assign(joint, "c1", partitions);
+        c3 = assignor.assign(joint, "c3", partitions);
+        assertDisjoint(partitions, c1, c3);
+        Assert.assertTrue(c1.containsAll(oldC1));
+
+        // 消费者比分区多
+        for (int i = 0; i < 10; i++) {
+            assignor.assign(joint, "m" + i, partitions);
+        }
+        int assigned = 0;
+        for (int i = 0; i < 10; i++) {
+            assigned += assignor.assign(joint, "m" + i, partitions).size();
+        }
+        assigned += assignor.assign(joint, "c1", partitions).size() + assignor.assign(joint, "c3", partitions).size();
+        Assert.assertEquals(partitions.size(), assigned);
+    }
+
+    @Test
+    public void partitionChangeTest() {
+        StickyPartitionAssignor assignor = new StickyPartitionAssignor(60000L);
+        assignor.assign(joint, "c1", partitions);
+        assignor.assign(joint, "c2", partitions);
+
+        List<Short> newPartitions = new ArrayList<>(partitions);
+        newPartitions.add((short) 5);
+        assertDisjoint(newPartitions, assignor.assign(joint, "c1", newPartitions), assignor.assign(joint, "c2", newPartitions));
+    }
+
+    @Test
+    public void leaseTest() throws Exception {
+        StickyPartitionAssignor assignor = new StickyPartitionAssignor(100L);
+        assignor.assign(joint, "c1", partitions);
+        assignor.assign(joint, "c2", partitions);
+        Assert.assertTrue(assignor.assign(joint, "c1", partitions).size() < partitions.size());
+
+        // c2不再拉取，租约过期后分区全部给c1
+        Thread.sleep(300L);
+        Assert.assertEquals(partitions, assignor.assign(joint, "c1", partitions));
+    }
+
+    @SafeVarargs
+    private final void assertDisjoint(List<Short> partitions, List<Short>... assignments) {
+        Set<Short> all = new HashSet<>();
+        int count = 0;
+        for (List<Short> assignment : assignments) {
+            all.addAll(assignment);
+            count += assignment.size();
+        }
+        Assert.assertEquals(partitions.size(), count);
+        Assert.assertEquals(new HashSet<>(partitions), all);
+    }
+}
@@ -158,4 +158,23 @@ public class FlagFilterTest {
 
         Assert.assertEquals(1, filter.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void match() {
+        flagFilter.setRule("[5, 9]");
+        Assert.assertTrue(flagFilter.match((short) 0));
+        Assert.assertTrue(flagFilter.match((short) 5));
+        Assert.assertFalse(flagFilter.match((short) 6));
+        Assert.assertTrue(flagFilter.match((short) 5));
+
+        // 修改规则后重新匹配
+        flagFilter.setRule("[6]");
+        Assert.assertFalse(flagFilter.match((short) 5));
+        Assert.assertTrue(flagFilter.match((short) 6));
+
+        FilterPipeline<MessageFilter> pipeline = new FilterPipeline<>("test");
+        Assert.assertNull(pipeline.getFilter(FlagFilter.class));
+        pipeline.register(flagFilter);
+        Assert.assertSame(flagFilter, pipeline.getFilter(FlagFilter.class));
+    }
+}
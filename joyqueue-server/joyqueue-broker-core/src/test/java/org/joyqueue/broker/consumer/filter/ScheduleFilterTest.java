@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.consumer.filter;
+
+import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.broker.producer.schedule.ScheduleManager;
+import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.toolkit.network.IpUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScheduleFilterTest {
+
+    final ScheduleFilter scheduleFilter = new ScheduleFilter();
+
+    @Test
+    public void filter() throws Exception {
+        // 0, 1 定时；2, 3 普通；4 定时；5 普通
+        List<ByteBuffer> byteBufferList = new ArrayList<>();
+        boolean[] scheduled = {true, true, false, false, true, false};
+        for (int i = 0; i < scheduled.length; i++) {
+            byteBufferList.add(build(i, scheduled[i]));
+        }
+
+        List<ByteBuffer> acked = new ArrayList<>();
+        List<ByteBuffer> filter1 = scheduleFilter.filter(byteBufferList, acked::addAll);
+        Assert.assertEquals(2, acked.size());
+        Assert.assertEquals(0, Serializer.readIndex(acked.get(0)));
+        Assert.assertEquals(2, filter1.size());
+        Assert.assertEquals(2, Serializer.readIndex(filter1.get(0)));
+        Assert.assertEquals(3, Serializer.readIndex(filter1.get(1)));
+
+        acked.clear();
+        List<ByteBuffer> filter2 = scheduleFilter.filter(byteBufferList.subList(4, 6), acked::addAll);
+        Assert.assertEquals(1, acked.size());
+        Assert.assertEquals(1, filter2.size());
+        Assert.assertEquals(5, Serializer.readIndex(filter2.get(0)));
+
+        acked.clear();
+        List<ByteBuffer> filter3 = scheduleFilter.filter(byteBufferList.subList(2, 4), acked::addAll);
+        Assert.assertEquals(0, acked.size());
+        Assert.assertEquals(2, filter3.size());
+    }
+
+    @Test
+    public void filterNotIndexed() throws Exception {
+        // 0 定时且已记录索引；1 定时但还没有记录索引；2 普通
+        List<ByteBuffer> byteBufferList = new ArrayList<>();
+        boolean[] scheduled = {true, true, false};
+        for (int i = 0; i < scheduled.length; i++) {
+            byteBufferList.add(build(i, scheduled[i]));
+        }
+        ScheduleFilter indexedFilter = new ScheduleFilter(new ScheduleManager(null, null, null) {
+            @Override
+            public boolean isIndexed(String topic, short partition, long index) {
+                return index == 0;
+            }
+        });
+
+        List<ByteBuffer> acked = new ArrayList<>();
+        List<ByteBuffer> filter1 = indexedFilter.filter("test", byteBufferList, acked::addAll);
+        Assert.assertEquals(1, acked.size());
+        Assert.assertEquals(0, Serializer.readIndex(acked.get(0)));
+        Assert.assertTrue(filter1.isEmpty());
+
+        // 还没有记录索引的定时消息之前没有可以跳过的消息
+        acked.clear();
+        List<ByteBuffer> filter2 = indexedFilter.filter("test", byteBufferList.subList(1, 3), acked::addAll);
+        Assert.assertTrue(acked.isEmpty());
+        Assert.assertTrue(filter2.isEmpty());
+    }
+
+    private ByteBuffer build(long index, boolean scheduled) throws Exception {
+        BrokerMessage message = new BrokerMessage();
+        message.setMsgIndexNo(index);
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setText("text");
+        if (scheduled) {
+            message.setAttribute(ScheduleManager.DELIVER_TIME, String.valueOf(System.currentTimeMillis() + 60000));
+        }
+        int size = Serializer.sizeOf(message);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        Serializer.write(message, buffer, size);
+        return buffer;
+    }
+}
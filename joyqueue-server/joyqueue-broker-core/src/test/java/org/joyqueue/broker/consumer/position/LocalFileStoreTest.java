@@ -122,6 +122,32 @@ public class LocalFileStoreTest {
         Assert.assertEquals(position.toString(), positionVal.toString());
     }
 
+    @Test
+    public void recoverFromLog() throws Exception {
+        ConsumePartition removed = new ConsumePartition("topic", "app", (short) 2);
+        localFileStore.put(consumePartition, position);
+        localFileStore.put(removed, new Position(1, 1, 1, 1));
+        localFileStore.forceFlush();
+
+        // 消费位置是原地修改的，刷盘时需要识别出变化
+        position.setAckCurIndex(100L);
+        position.setPullCurIndex(200L);
+        localFileStore.remove(removed);
+        localFileStore.forceFlush();
+        localFileStore.stop();
+
+        LocalFileStore recoverStore = new LocalFileStore();
+        recoverStore.setBasePath(base.getAbsolutePath());
+        recoverStore.start();
+        try {
+            Position positionVal = recoverStore.get(consumePartition);
+            Assert.assertEquals(position.toString(), positionVal.toString());
+            Assert.assertNull(recoverStore.get(removed));
+        } finally {
+            recoverStore.stop();
+        }
+    }
+
     private static void deleteFolder(File folder) {
         File[] files = folder.listFiles();
         if (files != null) { //some JVMs return null for empty dirs
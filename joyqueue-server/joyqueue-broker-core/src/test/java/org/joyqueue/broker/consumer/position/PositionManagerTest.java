@@ -15,6 +15,21 @@
  */
 package org.joyqueue.broker.consumer.position;
 
+import org.joyqueue.broker.cluster.ClusterManager;
+import org.joyqueue.broker.consumer.ConsumeConfig;
+import org.joyqueue.broker.consumer.model.ConsumePartition;
+import org.joyqueue.broker.consumer.position.model.Position;
+import org.joyqueue.domain.TopicName;
+import org.joyqueue.store.PartitionGroupStore;
+import org.joyqueue.store.StoreService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
 /**
  * Created by chengzhiliang on 2019/3/11.
  */
@@ -22,6 +37,117 @@ package org.joyqueue.broker.consumer.position;
 //@RunWith(PowerMockRunner.class)
 public class PositionManagerTest {
 
+    @Test
+    public void followerKeepLocalAckTest() throws Exception {
+        TopicName topic = TopicName.parse("topic");
+        String app = "app";
+        short partition = 0;
+        ConsumePartition consumePartition = new ConsumePartition(topic.getFullName(), app, partition);
+        File base = Files.createTempDirectory("position_store").toFile();
+
+        ClusterManager clusterManager = Mockito.mock(ClusterManager.class);
+        Mockito.when(clusterManager.isLeader(Mockito.anyString(), Mockito.anyShort())).thenReturn(false);
+        Mockito.when(clusterManager.getPartitionGroupId(Mockito.any(TopicName.class), Mockito.anyShort())).thenReturn(1);
+        PartitionGroupStore store = Mockito.mock(PartitionGroupStore.class);
+        Mockito.when(store.getLeftIndex(Mockito.anyShort())).thenReturn(0L);
+        Mockito.when(store.getRightIndex(Mockito.anyShort())).thenReturn(1000L);
+        StoreService storeService = Mockito.mock(StoreService.class);
+        Mockito.when(storeService.getStore(Mockito.anyString(), Mockito.anyInt())).thenReturn(store);
+        ConsumeConfig consumeConfig = Mockito.mock(ConsumeConfig.class);
+        Mockito.when(consumeConfig.getConsumePositionPath()).thenReturn(base.getAbsolutePath());
+        Mockito.when(consumeConfig.getIndexFlushInterval()).thenReturn(1000 * 60);
+        Mockito.when(consumeConfig.enableFollowerRead()).thenReturn(true);
+
+        PositionManager positionManager = new PositionManager(clusterManager, storeService, consumeConfig);
+        positionManager.start();
+        try {
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 10, 0, 10)));
+            Assert.assertEquals(10, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            // follower上应答之后，leader复制过来的位置还没有包含这次应答
+            positionManager.updateLastMsgAckIndex(topic, app, partition, 20);
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 10, 0, 10)));
+            Assert.assertEquals(20, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            // leader的应答位置更靠后时正常覆盖
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 30, 0, 30)));
+            Assert.assertEquals(30, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            // leader重置了应答位置，版本不同时以leader为准
+            positionManager.updateLastMsgAckIndex(topic, app, partition, 40);
+            Position reset = new Position(0, 5, 0, 5);
+            reset.setVersion(1);
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, reset));
+            Assert.assertEquals(5, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            // 没有开启follower读时直接覆盖
+            Mockito.when(consumeConfig.enableFollowerRead()).thenReturn(false);
+            positionManager.updateLastMsgAckIndex(topic, app, partition, 20);
+            Position replicated = new Position(0, 10, 0, 10);
+            replicated.setVersion(1);
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, replicated));
+            Assert.assertEquals(10, positionManager.getLastMsgAckIndex(topic, app, partition));
+        } finally {
+            positionManager.stop();
+            for (File file : base.listFiles()) {
+                file.delete();
+            }
+            base.delete();
+        }
+    }
+
+    @Test
+    public void leaderIgnoreStaleForwardedAckTest() throws Exception {
+        TopicName topic = TopicName.parse("topic");
+        String app = "app";
+        short partition = 0;
+        ConsumePartition consumePartition = new ConsumePartition(topic.getFullName(), app, partition);
+        File base = Files.createTempDirectory("position_store").toFile();
+
+        ClusterManager clusterManager = Mockito.mock(ClusterManager.class);
+        Mockito.when(clusterManager.isLeader(Mockito.anyString(), Mockito.anyShort())).thenReturn(true);
+        Mockito.when(clusterManager.getPartitionGroupId(Mockito.any(TopicName.class), Mockito.anyShort())).thenReturn(1);
+        PartitionGroupStore store = Mockito.mock(PartitionGroupStore.class);
+        Mockito.when(store.getLeftIndex(Mockito.anyShort())).thenReturn(0L);
+        Mockito.when(store.getRightIndex(Mockito.anyShort())).thenReturn(1000L);
+        StoreService storeService = Mockito.mock(StoreService.class);
+        Mockito.when(storeService.getStore(Mockito.anyString(), Mockito.anyInt())).thenReturn(store);
+        ConsumeConfig consumeConfig = Mockito.mock(ConsumeConfig.class);
+        Mockito.when(consumeConfig.getConsumePositionPath()).thenReturn(base.getAbsolutePath());
+        Mockito.when(consumeConfig.getIndexFlushInterval()).thenReturn(1000 * 60);
+        Mockito.when(consumeConfig.enableFollowerRead()).thenReturn(true);
+
+        PositionManager positionManager = new PositionManager(clusterManager, storeService, consumeConfig);
+        positionManager.start();
+        try {
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 10, 0, 10)));
+            Assert.assertEquals(10, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            // follower转发的应答只前进不后退
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 20, 0, 20)));
+            Assert.assertEquals(20, positionManager.getLastMsgAckIndex(topic, app, partition));
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 15, 0, 15)));
+            Assert.assertEquals(20, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            // 重置应答位置之后，之前版本上转发过来的应答不再合并
+            positionManager.resetLastMsgAckIndex(topic, app, partition, 5);
+            Assert.assertEquals(5, positionManager.getLastMsgAckIndex(topic, app, partition));
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, new Position(0, 30, 0, 30)));
+            Assert.assertEquals(5, positionManager.getLastMsgAckIndex(topic, app, partition));
+
+            Position forwarded = new Position(0, 30, 0, 30);
+            forwarded.setVersion(positionManager.getPosition(topic, app, partition).getVersion());
+            positionManager.setConsumePosition(Collections.singletonMap(consumePartition, forwarded));
+            Assert.assertEquals(30, positionManager.getLastMsgAckIndex(topic, app, partition));
+        } finally {
+            positionManager.stop();
+            for (File file : base.listFiles()) {
+                file.delete();
+            }
+            base.delete();
+        }
+    }
+
 //    TopicName topic = new TopicName("topic");
 //    String app = "app";
 //    short partition = 0;
@@ -20,6 +20,8 @@ import org.joyqueue.broker.consumer.position.model.Position;
 import org.joyqueue.broker.election.TopicPartitionGroup;
 import org.joyqueue.broker.election.command.AppendEntriesRequest;
 import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
 import org.joyqueue.broker.election.command.ReplicateConsumePosRequest;
 import org.joyqueue.broker.election.command.ReplicateConsumePosResponse;
 import org.joyqueue.broker.election.command.TimeoutNowRequest;
@@ -30,6 +32,10 @@ import org.joyqueue.broker.election.network.codec.AppendEntriesRequestDecoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesRequestEncoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesResponseDecoder;
 import org.joyqueue.broker.election.network.codec.AppendEntriesResponseEncoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesRequestDecoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesRequestEncoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesResponseDecoder;
+import org.joyqueue.broker.election.network.codec.BatchAppendEntriesResponseEncoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosRequestDecoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosRequestEncoder;
 import org.joyqueue.broker.election.network.codec.ReplicateConsumePosResponseDecoder;
@@ -49,7 +55,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ElectionCommandCodecTest {
@@ -158,6 +166,72 @@ public class ElectionCommandCodecTest {
         //Assert.assertEquals(decodeResponse.getTopicPartitionGroup().getPartitionGroupId(), topicPartitionGroup.getPartitionGroupId());
     }
 
+    @Test
+    public void testBatchAppendEntriesCodec() throws Exception {
+        List<AppendEntriesRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer entries = ByteBuffer.allocate(4);
+            entries.putInt(i);
+            entries.flip();
+            requests.add(AppendEntriesRequest.Build.create()
+                    .partitionGroup(new TopicPartitionGroup("test" + i, i))
+                    .term(i + 1).leader(30).startPosition(i * 100L)
+                    .commitPosition(i * 10L).entries(entries)
+                    .build());
+        }
+        // 心跳请求没有记录
+        requests.add(AppendEntriesRequest.Build.create()
+                .partitionGroup(new TopicPartitionGroup("heartbeat", 9)).term(5).leader(30).build());
+
+        ByteBuf byteBuf = Unpooled.buffer(512);
+        new BatchAppendEntriesRequestEncoder().encode(new BatchAppendEntriesRequest(requests), byteBuf);
+
+        JoyQueueHeader header = new JoyQueueHeader(new BatchAppendEntriesRequest().type());
+        BatchAppendEntriesRequest decodeRequest = (BatchAppendEntriesRequest) new BatchAppendEntriesRequestDecoder().decode(header, byteBuf);
+
+        Assert.assertEquals(requests.size(), decodeRequest.getRequests().size());
+        for (int i = 0; i < 3; i++) {
+            AppendEntriesRequest request = decodeRequest.getRequests().get(i);
+            Assert.assertEquals("test" + i, request.getTopic());
+            Assert.assertEquals(i, request.getPartitionGroup());
+            Assert.assertEquals(i + 1, request.getTerm());
+            Assert.assertEquals(i * 100L, request.getStartPosition());
+            Assert.assertEquals(i * 10L, request.getCommitPosition());
+            Assert.assertEquals(i, request.getEntries().getInt());
+        }
+        AppendEntriesRequest heartbeat = decodeRequest.getRequests().get(3);
+        Assert.assertEquals("heartbeat", heartbeat.getTopic());
+        Assert.assertEquals(0, heartbeat.getEntriesLength());
+        Assert.assertFalse(byteBuf.isReadable());
+    }
+
+    @Test
+    public void testBatchAppendEntriesResponseCodec() throws Exception {
+        List<AppendEntriesResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(AppendEntriesResponse.Build.create()
+                    .term(i).success(i % 2 == 0).nextPosition(i * 100L)
+                    .writePosition(i * 100L + 1).replicaId(i)
+                    .build());
+        }
+
+        ByteBuf byteBuf = Unpooled.buffer(512);
+        new BatchAppendEntriesResponseEncoder().encode(new BatchAppendEntriesResponse(responses), byteBuf);
+
+        JoyQueueHeader header = new JoyQueueHeader(new BatchAppendEntriesResponse().type());
+        BatchAppendEntriesResponse decodeResponse = (BatchAppendEntriesResponse) new BatchAppendEntriesResponseDecoder().decode(header, byteBuf);
+
+        Assert.assertEquals(responses.size(), decodeResponse.getResponses().size());
+        for (int i = 0; i < 3; i++) {
+            AppendEntriesResponse response = decodeResponse.getResponses().get(i);
+            Assert.assertEquals(i, response.getTerm());
+            Assert.assertEquals(i % 2 == 0, response.isSuccess());
+            Assert.assertEquals(i * 100L, response.getNextPosition());
+            Assert.assertEquals(i * 100L + 1, response.getWritePosition());
+            Assert.assertEquals(i, response.getReplicaId());
+        }
+    }
+
     @Test
     public void testReplicateConsumePosRequestCodec() throws Exception {
         Map<ConsumePartition, Position> consumePositions = new HashMap<>();
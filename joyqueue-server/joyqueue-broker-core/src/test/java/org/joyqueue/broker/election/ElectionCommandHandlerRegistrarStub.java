@@ -17,6 +17,7 @@ package org.joyqueue.broker.election;
 
 import org.joyqueue.broker.config.Configuration;
 import org.joyqueue.broker.election.handler.AppendEntriesRequestHandler;
+import org.joyqueue.broker.election.handler.BatchAppendEntriesRequestHandler;
 import org.joyqueue.broker.election.handler.ReplicateConsumePosRequestHandler;
 import org.joyqueue.broker.election.handler.TimeoutNowRequestHandler;
 import org.joyqueue.broker.election.handler.VoteRequestHandler;
@@ -30,7 +31,9 @@ import org.joyqueue.network.transport.command.support.DefaultCommandHandlerFacto
 public class ElectionCommandHandlerRegistrarStub {
     public static CommandHandlerFactory register(ElectionManager electionManager, DefaultCommandHandlerFactory commandHandlerFactory) {
         commandHandlerFactory.register(CommandType.RAFT_VOTE_REQUEST, new VoteRequestHandler(electionManager));
-        commandHandlerFactory.register(CommandType.RAFT_APPEND_ENTRIES_REQUEST, new AppendEntriesRequestHandler(electionManager));
+        AppendEntriesRequestHandler appendEntriesRequestHandler = new AppendEntriesRequestHandler(electionManager);
+        commandHandlerFactory.register(CommandType.RAFT_APPEND_ENTRIES_REQUEST, appendEntriesRequestHandler);
+        commandHandlerFactory.register(CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST, new BatchAppendEntriesRequestHandler(appendEntriesRequestHandler));
         commandHandlerFactory.register(CommandType.RAFT_TIMEOUT_NOW_REQUEST, new TimeoutNowRequestHandler(electionManager));
         commandHandlerFactory.register(CommandType.REPLICATE_CONSUME_POS_REQUEST, new ReplicateConsumePosRequestHandler(
                 new ElectionConfig(new Configuration()), new ConsumeStub()));
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.election.handler;
+
+import org.joyqueue.broker.election.ElectionManager;
+import org.joyqueue.broker.election.LeaderElection;
+import org.joyqueue.broker.election.TopicPartitionGroup;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.Transport;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.Direction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class BatchAppendEntriesRequestHandlerTest {
+
+    private AppendEntriesRequest request(int partitionGroup) {
+        return AppendEntriesRequest.Build.create().partitionGroup(new TopicPartitionGroup("topic", partitionGroup))
+                .term(3).leader(1).build();
+    }
+
+    @Test
+    public void partialFailTest() throws Exception {
+        ElectionManager electionManager = Mockito.mock(ElectionManager.class);
+        Mockito.when(electionManager.getLocalBrokerId()).thenReturn(2);
+
+        LeaderElection success = Mockito.mock(LeaderElection.class);
+        Mockito.when(success.handleAppendEntriesRequest(Mockito.any(AppendEntriesRequest.class))).thenAnswer(invocation -> {
+            AppendEntriesRequest request = invocation.getArgument(0);
+            return new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_APPEND_ENTRIES_RESPONSE),
+                    AppendEntriesResponse.Build.create().topicPartitionGroup(request.getTopicPartitionGroup())
+                            .term(request.getTerm()).replicaId(2).success(true).nextPosition(100L).build());
+        });
+        LeaderElection fail = Mockito.mock(LeaderElection.class);
+        Mockito.when(fail.handleAppendEntriesRequest(Mockito.any(AppendEntriesRequest.class)))
+                .thenThrow(new IllegalStateException());
+        Mockito.when(electionManager.getLeaderElection("topic", 0)).thenReturn(success);
+        Mockito.when(electionManager.getLeaderElection("topic", 1)).thenReturn(fail);
+        // 分区组2在本节点上没有选举
+        Mockito.when(electionManager.getLeaderElection("topic", 3)).thenReturn(success);
+
+        BatchAppendEntriesRequestHandler handler = new BatchAppendEntriesRequestHandler(new AppendEntriesRequestHandler(electionManager));
+        List<AppendEntriesRequest> requests = Arrays.asList(request(0), request(1), request(2), request(3));
+        Command response = handler.handle(Mockito.mock(Transport.class),
+                new Command(new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_BATCH_APPEND_ENTRIES_REQUEST),
+                        new BatchAppendEntriesRequest(requests)));
+
+        // 单个分区组处理失败不影响其它分区组，响应和请求按顺序一一对应
+        List<AppendEntriesResponse> responses = ((BatchAppendEntriesResponse) response.getPayload()).getResponses();
+        Assert.assertEquals(requests.size(), responses.size());
+        for (int i = 0; i < requests.size(); i++) {
+            AppendEntriesResponse appendEntriesResponse = responses.get(i);
+            Assert.assertEquals(requests.get(i).getTopicPartitionGroup(), appendEntriesResponse.getTopicPartitionGroup());
+            Assert.assertEquals(3, appendEntriesResponse.getTerm());
+            Assert.assertEquals(2, appendEntriesResponse.getReplicaId());
+        }
+        Assert.assertTrue(responses.get(0).isSuccess());
+        Assert.assertFalse(responses.get(1).isSuccess());
+        Assert.assertEquals(-1L, responses.get(1).getNextPosition());
+        Assert.assertFalse(responses.get(2).isSuccess());
+        Assert.assertTrue(responses.get(3).isSuccess());
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.polling;
+
+import org.joyqueue.broker.cluster.ClusterManager;
+import org.joyqueue.broker.config.Configuration;
+import org.joyqueue.broker.consumer.Consume;
+import org.joyqueue.broker.consumer.model.PullResult;
+import org.joyqueue.broker.monitor.SessionManager;
+import org.joyqueue.domain.Topic;
+import org.joyqueue.domain.TopicName;
+import org.joyqueue.network.session.Consumer;
+import org.joyqueue.nsr.event.RemoveTopicEvent;
+import org.joyqueue.store.StoreService;
+import org.joyqueue.store.event.StoreCommitEvent;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LongPollingManagerTest {
+    private static final String TOPIC = "topic";
+
+    private Consumer consumer = new Consumer("consumer-1", TOPIC, "app");
+    private AtomicBoolean hasMessage = new AtomicBoolean(false);
+    private LongPollingManager longPollingManager;
+
+    @Before
+    public void setup() throws Exception {
+        SessionManager sessionManager = Mockito.mock(SessionManager.class);
+        Mockito.when(sessionManager.getConsumerById(consumer.getId())).thenReturn(consumer);
+        ClusterManager clusterManager = Mockito.mock(ClusterManager.class);
+        Mockito.when(clusterManager.getLocalPartitions(Mockito.any(TopicName.class))).thenReturn(Arrays.asList((short) 0, (short) 1));
+        Consume consume = Mockito.mock(Consume.class);
+        Mockito.when(consume.hasFreePartition(consumer)).thenReturn(true);
+        Mockito.when(consume.getMessage(Mockito.eq(consumer), Mockito.anyInt(), Mockito.anyInt())).thenAnswer(invocation ->
+                new PullResult(consumer, (short) 0, hasMessage.get() ?
+                        Collections.singletonList(ByteBuffer.allocate(1)) : Collections.emptyList()));
+
+        Configuration configuration = new Configuration();
+        // 复查间隔足够长，只有提交事件可以唤醒
+        configuration.addProperty(LongPollingManager.LONG_POLLING_RECHECK_INTERVAL, String.valueOf(60 * 1000));
+        longPollingManager = new LongPollingManager(sessionManager, clusterManager, consume,
+                Mockito.mock(StoreService.class), configuration);
+        longPollingManager.start();
+    }
+
+    @After
+    public void tearDown() {
+        longPollingManager.stop();
+    }
+
+    @Test
+    public void wakeupTest() throws Exception {
+        RecordCallback callback = new RecordCallback();
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 30 * 1000, callback)));
+        waitParked();
+
+        hasMessage.set(true);
+        longPollingManager.onStoreEvent(new StoreCommitEvent(TOPIC, 0, 100L));
+        Assert.assertTrue(callback.success.await(5, TimeUnit.SECONDS));
+
+        // 主题上没有挂起的长轮询之后移除
+        Assert.assertFalse(longPollingManager.pollingMap.containsKey(TOPIC));
+        Assert.assertEquals(0, longPollingManager.pollingSize.get());
+    }
+
+    @Test
+    public void expireTest() throws Exception {
+        RecordCallback callback = new RecordCallback();
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 500, callback)));
+        Assert.assertTrue(callback.expire.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, callback.success.getCount());
+
+        Assert.assertFalse(longPollingManager.pollingMap.containsKey(TOPIC));
+        Assert.assertEquals(0, longPollingManager.pollingSize.get());
+    }
+
+    @Test
+    public void removeTopicTest() throws Exception {
+        RecordCallback callback = new RecordCallback();
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 500, callback)));
+        Assert.assertTrue(callback.expire.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(longPollingManager.commitVersions.containsKey(TOPIC));
+
+        Topic topic = new Topic();
+        topic.setName(TopicName.parse(TOPIC));
+        longPollingManager.onMetaEvent(new RemoveTopicEvent(topic, Collections.emptyList()));
+        Assert.assertFalse(longPollingManager.commitVersions.containsKey(TOPIC));
+    }
+
+    private void waitParked() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!longPollingManager.pollingMap.containsKey(TOPIC) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(longPollingManager.pollingMap.containsKey(TOPIC));
+    }
+
+    private static class RecordCallback implements LongPollingCallback {
+        private CountDownLatch success = new CountDownLatch(1);
+        private CountDownLatch expire = new CountDownLatch(1);
+
+        @Override
+        public void onSuccess(Consumer consumer, PullResult pullResult) {
+            success.countDown();
+        }
+
+        @Override
+        public void onExpire(Consumer consumer) {
+            expire.countDown();
+        }
+
+        @Override
+        public void onException(Consumer consumer, Throwable throwable) {
+        }
+    }
+}
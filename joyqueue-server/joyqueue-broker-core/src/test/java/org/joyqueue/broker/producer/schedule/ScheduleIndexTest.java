@@ -0,0 +1,114 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.producer.schedule;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class ScheduleIndexTest {
+
+    private File directory;
+
+    @Before
+    public void before() throws Exception {
+        directory = Files.createTempDirectory("schedule").toFile();
+    }
+
+    @After
+    public void after() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void appendAndLoad() throws Exception {
+        ScheduleIndex index = new ScheduleIndex(directory, 1000L);
+        index.append(Arrays.asList(
+                new ScheduleIndex.Entry(2500L, (short) 1, 10L),
+                new ScheduleIndex.Entry(1200L, (short) 2, 20L),
+                new ScheduleIndex.Entry(2100L, (short) 1, 11L)));
+        index.append(Arrays.asList(new ScheduleIndex.Entry(1999L, (short) 3, 30L)));
+
+        Assert.assertEquals(Arrays.asList(1000L, 2000L), index.slots());
+
+        List<ScheduleIndex.Entry> slot1 = index.load(1000L);
+        Assert.assertEquals(2, slot1.size());
+        Assert.assertEquals(1200L, slot1.get(0).getDeliverTime());
+        Assert.assertEquals(2, slot1.get(0).getPartition());
+        Assert.assertEquals(20L, slot1.get(0).getIndex());
+        Assert.assertEquals(30L, slot1.get(1).getIndex());
+
+        List<ScheduleIndex.Entry> slot2 = index.load(2000L);
+        Assert.assertEquals(2, slot2.size());
+        Assert.assertEquals(10L, slot2.get(0).getIndex());
+        Assert.assertEquals(11L, slot2.get(1).getIndex());
+
+        index.delete(1000L);
+        Assert.assertEquals(Arrays.asList(2000L), index.slots());
+        Assert.assertTrue(index.load(1000L).isEmpty());
+        index.close();
+    }
+
+    @Test
+    public void flushAndClose() throws Exception {
+        ScheduleIndex index = new ScheduleIndex(directory, 1000L);
+        index.append(Arrays.asList(new ScheduleIndex.Entry(1100L, (short) 0, 1L)));
+        index.flush();
+        // 文件保持打开，继续追加
+        index.append(Arrays.asList(new ScheduleIndex.Entry(1200L, (short) 0, 2L)));
+        index.flush();
+        Assert.assertEquals(2, index.load(1000L).size());
+
+        index.close();
+        index.append(Arrays.asList(new ScheduleIndex.Entry(1300L, (short) 0, 3L)));
+        index.close();
+        List<ScheduleIndex.Entry> entries = index.load(1000L);
+        Assert.assertEquals(3, entries.size());
+        Assert.assertEquals(3L, entries.get(2).getIndex());
+    }
+
+    @Test
+    public void incompleteEntry() throws Exception {
+        ScheduleIndex index = new ScheduleIndex(directory, 1000L);
+        index.append(Arrays.asList(new ScheduleIndex.Entry(1100L, (short) 0, 1L)));
+
+        // 模拟写了一半的索引
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, "1000"), "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[5]);
+        }
+        Assert.assertEquals(1, index.load(1000L).size());
+
+        index.append(Arrays.asList(new ScheduleIndex.Entry(1200L, (short) 0, 2L)));
+        List<ScheduleIndex.Entry> entries = index.load(1000L);
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(2L, entries.get(1).getIndex());
+        index.close();
+    }
+}
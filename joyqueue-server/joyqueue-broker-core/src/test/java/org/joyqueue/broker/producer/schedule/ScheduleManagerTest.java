@@ -0,0 +1,159 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.producer.schedule;
+
+import org.joyqueue.broker.buffer.Serializer;
+import org.joyqueue.domain.QosLevel;
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.message.BrokerMessage;
+import org.joyqueue.store.PartitionGroupStore;
+import org.joyqueue.store.ReadResult;
+import org.joyqueue.store.StoreService;
+import org.joyqueue.toolkit.network.IpUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ScheduleManagerTest {
+
+    private static final String TOPIC = "test_schedule";
+
+    private File directory;
+    private ScheduleIndex index;
+    private ScheduleManager.ScheduleGroup group;
+    private ScheduleManager scheduleManager;
+
+    @Before
+    public void before() throws Exception {
+        directory = Files.createTempDirectory("schedule").toFile();
+        index = new ScheduleIndex(directory, 1000L);
+
+        // 0 普通；1, 2, 4 定时；3 是1投递后的消息；4 已经在本地索引中
+        List<ByteBuffer> messages = new ArrayList<>();
+        messages.add(build(0, null, null));
+        messages.add(build(1, 5000L, null));
+        messages.add(build(2, 6000L, null));
+        messages.add(build(3, null, 1L));
+        messages.add(build(4, 7000L, null));
+        index.append(Arrays.asList(new ScheduleIndex.Entry(7000L, (short) 0, 4L)));
+
+        PartitionGroupStore partitionGroupStore = Mockito.mock(PartitionGroupStore.class);
+        Mockito.when(partitionGroupStore.listPartitions()).thenReturn(new Short[] {0});
+        Mockito.when(partitionGroupStore.getLeftIndex((short) 0)).thenReturn(0L);
+        Mockito.when(partitionGroupStore.getRightIndex((short) 0)).thenReturn((long) messages.size());
+        Mockito.when(partitionGroupStore.read(Mockito.eq((short) 0), Mockito.anyLong(), Mockito.anyInt(), Mockito.anyLong())).thenAnswer(invocation -> {
+            int start = (int) (long) invocation.getArgument(1);
+            ReadResult readResult = new ReadResult();
+            readResult.setCode(JoyQueueCode.SUCCESS);
+            readResult.setMessages(messages.subList(start, messages.size()).stream().map(ByteBuffer::duplicate).toArray(ByteBuffer[]::new));
+            return readResult;
+        });
+        StoreService store = Mockito.mock(StoreService.class);
+        Mockito.when(store.getStore(TOPIC, 1, QosLevel.REPLICATION)).thenReturn(partitionGroupStore);
+
+        scheduleManager = new ScheduleManager(null, store, null);
+        group = scheduleManager.new ScheduleGroup(TOPIC, 1, index);
+    }
+
+    @After
+    public void after() throws Exception {
+        index.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void rebuild() throws Exception {
+        Assert.assertFalse(group.isIndexed((short) 0, 2L));
+
+        long generation = group.startRebuild();
+        Assert.assertEquals(-1L, group.startRebuild());
+        scheduleManager.rebuild(group, generation);
+
+        Assert.assertTrue(group.isRebuilt());
+        // 1已经投递，4已经在索引中
+        Assert.assertEquals(new HashSet<>(Arrays.asList(2L, 4L)), indexed());
+        Assert.assertTrue(group.isIndexed((short) 0, 2L));
+        Assert.assertFalse(group.isIndexed((short) 0, 5L));
+
+        // 重建期间写入的2已经扫描过，只写入6
+        group.add(Arrays.asList(new ScheduleIndex.Entry(6000L, (short) 0, 2L), new ScheduleIndex.Entry(8000L, (short) 0, 6L)));
+        group.flush();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(2L, 4L, 6L)), indexed());
+        Assert.assertTrue(group.isIndexed((short) 0, 6L));
+
+        // 卸载后需要重新重建
+        group.unload();
+        Assert.assertFalse(group.isRebuilt());
+        Assert.assertFalse(group.isIndexed((short) 0, 2L));
+    }
+
+    @Test
+    public void rebuildAfterUnload() throws Exception {
+        long generation = group.startRebuild();
+        group.unload();
+        scheduleManager.rebuild(group, generation);
+
+        // 重建期间卸载，结果作废
+        Assert.assertFalse(group.isRebuilt());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(4L)), indexed());
+        Assert.assertTrue(group.startRebuild() >= 0);
+    }
+
+    private Set<Long> indexed() throws Exception {
+        Set<Long> result = new HashSet<>();
+        for (long slot : index.slots()) {
+            for (ScheduleIndex.Entry entry : index.load(slot)) {
+                result.add(entry.getIndex());
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer build(long index, Long deliverTime, Long scheduleIndex) throws Exception {
+        BrokerMessage message = new BrokerMessage();
+        message.setMsgIndexNo(index);
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setText("text");
+        if (deliverTime != null) {
+            message.setAttribute(ScheduleManager.DELIVER_TIME, String.valueOf(deliverTime));
+        }
+        if (scheduleIndex != null) {
+            message.setAttribute(ScheduleManager.SCHEDULE_INDEX, String.valueOf(scheduleIndex));
+        }
+        int size = Serializer.sizeOf(message);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        Serializer.write(message, buffer, size);
+        return buffer;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.replication;
+
+import org.joyqueue.broker.consumer.model.ConsumePartition;
+import org.joyqueue.broker.consumer.position.model.Position;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ReplicaTest {
+
+    @Test
+    public void outOfOrderAppendResponseTest() {
+        Replica replica = new Replica(2, "127.0.0.1:50088");
+        replica.setMatch(true);
+        Assert.assertTrue(replica.onAppendSuccess(100, 100));
+
+        // 流水线发出的三个请求的响应乱序返回
+        Assert.assertTrue(replica.onAppendSuccess(300, 300));
+        Assert.assertFalse(replica.onAppendSuccess(200, 200));
+        Assert.assertEquals(300, replica.writePosition());
+        Assert.assertEquals(300, replica.nextPosition());
+
+        Assert.assertTrue(replica.onAppendSuccess(400, 400));
+        Assert.assertFalse(replica.onAppendSuccess(150, 150));
+        Assert.assertEquals(400, replica.writePosition());
+        Assert.assertEquals(400, replica.nextPosition());
+    }
+
+    @Test
+    public void notMatchAppendResponseTest() {
+        Replica replica = new Replica(2, "127.0.0.1:50088");
+        replica.writePosition(500);
+        replica.nextPosition(500);
+
+        // 日志匹配之前以副本返回的位置为准，允许回退
+        Assert.assertTrue(replica.onAppendSuccess(200, 200));
+        Assert.assertEquals(200, replica.writePosition());
+        Assert.assertEquals(200, replica.nextPosition());
+    }
+
+    private Map<ConsumePartition, Position> consumePositions() {
+        Map<ConsumePartition, Position> positions = new HashMap<>();
+        positions.put(new ConsumePartition("topic", "app", (short) 0), new Position(0, 10, 0, 10));
+        positions.put(new ConsumePartition("topic", "app", (short) 1), new Position(0, 20, 0, 20));
+        return positions;
+    }
+
+    @Test
+    public void consumePosDeltaTest() {
+        Replica replica = new Replica(2, "127.0.0.1:50088");
+        Map<ConsumePartition, Position> positions = consumePositions();
+
+        int epoch = replica.startReplicateConsumePos();
+        Map<ConsumePartition, Position> delta = replica.consumePosDelta(positions, false);
+        Assert.assertEquals(2, delta.size());
+        // 上一次复制还未完成时不再发送
+        Assert.assertEquals(-1, replica.startReplicateConsumePos());
+        replica.onReplicateConsumePos(epoch, delta, true);
+
+        // 副本已经确认，位置没有变化时不需要复制
+        epoch = replica.startReplicateConsumePos();
+        Assert.assertTrue(epoch >= 0);
+        delta = replica.consumePosDelta(positions, false);
+        Assert.assertTrue(delta.isEmpty());
+        replica.onReplicateConsumePos(epoch, delta, true);
+
+        // 只复制变化的条目，版本变化也需要复制
+        ConsumePartition changed = new ConsumePartition("topic", "app", (short) 0);
+        ConsumePartition reset = new ConsumePartition("topic", "app", (short) 1);
+        positions.get(changed).setAckCurIndex(15);
+        positions.get(reset).setVersion(1);
+        epoch = replica.startReplicateConsumePos();
+        delta = replica.consumePosDelta(positions, false);
+        Assert.assertEquals(2, delta.size());
+        Assert.assertEquals(15, delta.get(changed).getAckCurIndex());
+        Assert.assertEquals(1, delta.get(reset).getVersion());
+        replica.onReplicateConsumePos(epoch, delta, true);
+
+        epoch = replica.startReplicateConsumePos();
+        Assert.assertTrue(replica.consumePosDelta(positions, false).isEmpty());
+        replica.onReplicateConsumePos(epoch, null, false);
+    }
+
+    @Test
+    public void consumePosFailTest() {
+        Replica replica = new Replica(2, "127.0.0.1:50088");
+        Map<ConsumePartition, Position> positions = consumePositions();
+
+        int epoch = replica.startReplicateConsumePos();
+        replica.onReplicateConsumePos(epoch, replica.consumePosDelta(positions, false), true);
+
+        // 复制失败之后不确定副本上的位置，下一次复制所有条目
+        epoch = replica.startReplicateConsumePos();
+        positions.get(new ConsumePartition("topic", "app", (short) 0)).setAckCurIndex(15);
+        replica.onReplicateConsumePos(epoch, replica.consumePosDelta(positions, false), false);
+
+        epoch = replica.startReplicateConsumePos();
+        Assert.assertTrue(epoch >= 0);
+        Assert.assertEquals(2, replica.consumePosDelta(positions, false).size());
+    }
+
+    @Test
+    public void consumePosStaleEpochTest() {
+        Replica replica = new Replica(2, "127.0.0.1:50088");
+        Map<ConsumePartition, Position> positions = consumePositions();
+
+        int staleEpoch = replica.startReplicateConsumePos();
+        Map<ConsumePartition, Position> staleDelta = replica.consumePosDelta(positions, false);
+
+        // 角色变化之后重置，之前的复制的响应不再处理
+        replica.resetReplicateConsumePos();
+        int epoch = replica.startReplicateConsumePos();
+        Assert.assertNotEquals(staleEpoch, epoch);
+        replica.onReplicateConsumePos(staleEpoch, staleDelta, true);
+        // 旧的响应不能结束当前的复制
+        Assert.assertEquals(-1, replica.startReplicateConsumePos());
+
+        Map<ConsumePartition, Position> delta = replica.consumePosDelta(positions, false);
+        Assert.assertEquals(2, delta.size());
+        replica.onReplicateConsumePos(epoch, delta, true);
+        Assert.assertTrue(replica.startReplicateConsumePos() >= 0);
+    }
+
+    @Test
+    public void consumePosFullTest() {
+        Replica replica = new Replica(2, "127.0.0.1:50088");
+        Map<ConsumePartition, Position> positions = consumePositions();
+
+        int epoch = replica.startReplicateConsumePos();
+        replica.onReplicateConsumePos(epoch, replica.consumePosDelta(positions, false), true);
+
+        // 全量复制时不管副本是否确认过都复制所有条目
+        epoch = replica.startReplicateConsumePos();
+        Map<ConsumePartition, Position> delta = replica.consumePosDelta(positions, true);
+        Assert.assertEquals(2, delta.size());
+        replica.onReplicateConsumePos(epoch, delta, true);
+
+        // 取消订阅的条目不再比较
+        positions.remove(new ConsumePartition("topic", "app", (short) 1));
+        epoch = replica.startReplicateConsumePos();
+        Assert.assertTrue(replica.consumePosDelta(positions, false).isEmpty());
+        Assert.assertEquals(1, replica.consumePosDelta(positions, true).size());
+    }
+}
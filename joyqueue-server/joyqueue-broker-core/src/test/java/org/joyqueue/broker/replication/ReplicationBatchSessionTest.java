@@ -0,0 +1,186 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.broker.replication;
+
+import org.joyqueue.broker.election.TopicPartitionGroup;
+import org.joyqueue.broker.election.command.AppendEntriesRequest;
+import org.joyqueue.broker.election.command.AppendEntriesResponse;
+import org.joyqueue.broker.election.command.BatchAppendEntriesRequest;
+import org.joyqueue.broker.election.command.BatchAppendEntriesResponse;
+import org.joyqueue.network.command.CommandType;
+import org.joyqueue.network.transport.Transport;
+import org.joyqueue.network.transport.TransportClient;
+import org.joyqueue.network.transport.codec.JoyQueueHeader;
+import org.joyqueue.network.transport.command.Command;
+import org.joyqueue.network.transport.command.CommandCallback;
+import org.joyqueue.network.transport.command.Direction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplicationBatchSessionTest {
+    private static final String ADDRESS = "127.0.0.1:50088";
+
+    private List<Command> sentCommands = new ArrayList<>();
+    private List<CommandCallback> sentCallbacks = new ArrayList<>();
+    private TransportClient transportClient;
+
+    @Before
+    public void setup() throws Exception {
+        Transport transport = Mockito.mock(Transport.class);
+        Mockito.doAnswer(invocation -> {
+            sentCommands.add(invocation.getArgument(0));
+            sentCallbacks.add(invocation.getArgument(2));
+            return null;
+        }).when(transport).async(Mockito.any(Command.class), Mockito.anyLong(), Mockito.any(CommandCallback.class));
+        transportClient = Mockito.mock(TransportClient.class);
+        Mockito.when(transportClient.createTransport(ADDRESS)).thenReturn(transport);
+    }
+
+    private AppendEntriesRequest request(int partitionGroup) {
+        return AppendEntriesRequest.Build.create().partitionGroup(new TopicPartitionGroup("topic", partitionGroup))
+                .term(1).leader(1).build();
+    }
+
+    private AppendEntriesResponse response(int partitionGroup) {
+        return AppendEntriesResponse.Build.create().topicPartitionGroup(new TopicPartitionGroup("topic", partitionGroup))
+                .term(1).replicaId(2).success(true).build();
+    }
+
+    private List<AppendEntriesRequest> sentRequests(int index) {
+        return ((BatchAppendEntriesRequest) sentCommands.get(index).getPayload()).getRequests();
+    }
+
+    private void complete(int index, List<AppendEntriesResponse> responses) {
+        sentCallbacks.get(index).onSuccess(sentCommands.get(index),
+                new Command(new JoyQueueHeader(Direction.RESPONSE, CommandType.RAFT_BATCH_APPEND_ENTRIES_RESPONSE),
+                        new BatchAppendEntriesResponse(responses)));
+    }
+
+    @Test
+    public void batchAndInflightTest() {
+        ReplicationBatchSession session = new ReplicationBatchSession(ADDRESS, transportClient, 2, 1, 1000);
+        List<Integer> completed = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            session.appendEntries(request(i), new RecordCallback(completed, null));
+        }
+
+        // 在途的批量命令达到上限，其它请求在队列中累积
+        Assert.assertEquals(1, sentCommands.size());
+        Assert.assertEquals(1, sentRequests(0).size());
+        Assert.assertEquals(4, session.pendingSize());
+
+        // 在途命令返回之后按批量大小合并发送
+        complete(0, responses(sentRequests(0)));
+        Assert.assertEquals(2, sentCommands.size());
+        Assert.assertEquals(2, sentRequests(1).size());
+        Assert.assertEquals(2, session.pendingSize());
+
+        complete(1, responses(sentRequests(1)));
+        Assert.assertEquals(3, sentCommands.size());
+        Assert.assertEquals(2, sentRequests(2).size());
+        Assert.assertEquals(0, session.pendingSize());
+
+        complete(2, responses(sentRequests(2)));
+        Assert.assertEquals(3, sentCommands.size());
+
+        // 各分区组的回调按请求的顺序执行
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            expected.add(i);
+        }
+        Assert.assertEquals(expected, completed);
+    }
+
+    @Test
+    public void missingResponseTest() {
+        ReplicationBatchSession session = new ReplicationBatchSession(ADDRESS, transportClient, 3, 1, 1000);
+        List<Integer> completed = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        // 第一个请求单独发送，之后的三个请求合并为一个批量命令
+        for (int i = 0; i < 4; i++) {
+            session.appendEntries(request(i), new RecordCallback(completed, failed));
+        }
+        complete(0, responses(sentRequests(0)));
+        Assert.assertEquals(3, sentRequests(1).size());
+
+        // 批量响应缺少的条目按失败回调
+        List<AppendEntriesResponse> responses = responses(sentRequests(1));
+        responses.remove(2);
+        complete(1, responses);
+
+        Assert.assertEquals(3, completed.size());
+        Assert.assertEquals(1, failed.size());
+        Assert.assertEquals(3, (int) failed.get(0));
+    }
+
+    @Test
+    public void exceptionTest() {
+        ReplicationBatchSession session = new ReplicationBatchSession(ADDRESS, transportClient, 2, 1, 1000);
+        List<Integer> completed = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            session.appendEntries(request(i), new RecordCallback(completed, failed));
+        }
+
+        // 批量命令失败时批量中的所有请求都按失败回调，然后继续发送队列中的请求
+        sentCallbacks.get(0).onException(sentCommands.get(0), new IllegalStateException());
+        Assert.assertEquals(1, failed.size());
+        Assert.assertEquals(2, sentCommands.size());
+
+        // 重复的回调被忽略
+        sentCallbacks.get(0).onException(sentCommands.get(0), new IllegalStateException());
+        Assert.assertEquals(1, failed.size());
+
+        complete(1, responses(sentRequests(1)));
+        Assert.assertEquals(2, completed.size());
+    }
+
+    private List<AppendEntriesResponse> responses(List<AppendEntriesRequest> requests) {
+        List<AppendEntriesResponse> responses = new ArrayList<>();
+        for (AppendEntriesRequest request : requests) {
+            responses.add(response(request.getPartitionGroup()));
+        }
+        return responses;
+    }
+
+    private static class RecordCallback implements CommandCallback {
+        private List<Integer> completed;
+        private List<Integer> failed;
+
+        RecordCallback(List<Integer> completed, List<Integer> failed) {
+            this.completed = completed;
+            this.failed = failed;
+        }
+
+        @Override
+        public void onSuccess(Command request, Command response) {
+            AppendEntriesRequest appendEntriesRequest = (AppendEntriesRequest) request.getPayload();
+            AppendEntriesResponse appendEntriesResponse = (AppendEntriesResponse) response.getPayload();
+            Assert.assertEquals(appendEntriesRequest.getTopicPartitionGroup(), appendEntriesResponse.getTopicPartitionGroup());
+            completed.add(appendEntriesRequest.getPartitionGroup());
+        }
+
+        @Override
+        public void onException(Command request, Throwable cause) {
+            failed.add(((AppendEntriesRequest) request.getPayload()).getPartitionGroup());
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.commons.collections.CollectionUtils;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.broker.buffer.Serializer;
 import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.consumer.Consume;
@@ -58,6 +59,7 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -191,12 +193,13 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
         int currentBytes = 0;
 
         // 判断总体长度
+        MessageView messageView = new MessageView();
         while (currentBytes < maxBytes && offset < maxIndex) {
-            List<BrokerMessage> messages = null;
+            List<ByteBuffer> buffers = null;
             try {
-                messages = doFetchMessage(consumer, partition, offset, batchSize);
+                buffers = doFetchMessage(consumer, partition, offset, batchSize);
 
-                if (CollectionUtils.isEmpty(messages)) {
+                if (CollectionUtils.isEmpty(buffers)) {
                     break;
                 }
 
@@ -204,18 +207,19 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
                 int currentBatchSize = 0;
 
                 // 消息转换
-                for (BrokerMessage message : messages) {
-                    currentBytes += message.getSize();
-                    KafkaBrokerMessage kafkaBrokerMessage = KafkaMessageConverter.toKafkaBrokerMessage(topic.getFullName(), partition, message);
-                    kafkaBrokerMessages.add(kafkaBrokerMessage);
-
-                    // 如果是批量，跳过批量条数
-                    if (kafkaBrokerMessage.isBatch()) {
-                        skipOffset += kafkaBrokerMessage.getFlag();
-                        currentBatchSize += kafkaBrokerMessage.getFlag();
-                    } else {
-                        skipOffset += 1;
-                        currentBatchSize += 1;
+                for (ByteBuffer buffer : buffers) {
+                    currentBytes += messageView.wrap(buffer).getSize();
+                    for (KafkaBrokerMessage kafkaBrokerMessage : convertMessage(topic, partition, messageView)) {
+                        kafkaBrokerMessages.add(kafkaBrokerMessage);
+
+                        // 如果是批量，跳过批量条数
+                        if (kafkaBrokerMessage.isBatch()) {
+                            skipOffset += kafkaBrokerMessage.getFlag();
+                            currentBatchSize += kafkaBrokerMessage.getFlag();
+                        } else {
+                            skipOffset += 1;
+                            currentBatchSize += 1;
+                        }
                     }
                 }
 
@@ -239,7 +243,7 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
         return fetchResponsePartitionData;
     }
 
-    private List<BrokerMessage> doFetchMessage(Consumer consumer, int partition, long offset, int batchSize) throws Exception {
+    private List<ByteBuffer> doFetchMessage(Consumer consumer, int partition, long offset, int batchSize) throws Exception {
         PullResult pullResult = consume.getMessage(consumer, (short) partition, offset, batchSize);
         if (pullResult.getCode() != JoyQueueCode.SUCCESS) {
             logger.warn("fetch message error, consumer: {}, partition: {}, offset: {}, batchSize: {}, code: {}", consumer, partition, offset, batchSize, pullResult.getCode());
@@ -248,12 +252,19 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
         if (pullResult.size() == 0) {
             return null;
         }
-        List<BrokerMessage> brokerMessages = Lists.newArrayListWithCapacity(pullResult.getBuffers().size());
-        for (ByteBuffer buffer : pullResult.getBuffers()) {
-            BrokerMessage brokerMessage = Serializer.readBrokerMessage(buffer);
-            brokerMessages.add(brokerMessage);
+        return pullResult.getBuffers();
+    }
+
+    /**
+     * kafka来源的消息直接从存储格式转换，不反序列化成BrokerMessage，其它来源的消息需要经过消息转换
+     */
+    private List<KafkaBrokerMessage> convertMessage(TopicName topic, int partition, MessageView messageView) throws Exception {
+        if (messageView.getSource() == SourceType.KAFKA.getValue()) {
+            return Collections.singletonList(KafkaMessageConverter.toKafkaBrokerMessage(topic.getFullName(), partition, messageView));
         }
-        return messageConvertSupport.convert(brokerMessages, SourceType.KAFKA.getValue());
+        BrokerMessage brokerMessage = Serializer.readBrokerMessage(messageView.getBuffer().duplicate());
+        List<BrokerMessage> brokerMessages = messageConvertSupport.convert(brokerMessage, SourceType.KAFKA.getValue());
+        return KafkaMessageConverter.toKafkaBrokerMessage(topic.getFullName(), partition, brokerMessages);
     }
 
     @Override
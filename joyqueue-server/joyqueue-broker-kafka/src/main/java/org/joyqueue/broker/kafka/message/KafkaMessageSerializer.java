@@ -51,19 +51,22 @@ public class KafkaMessageSerializer extends AbstractKafkaMessageSerializer {
         if (brokerMessage.getSource() != SourceType.KAFKA.getValue()) {
             return;
         }
+        readExtension(brokerMessage.getExtension(), kafkaBrokerMessage);
+    }
 
-        byte magic = getExtensionMagic(brokerMessage.getExtension());
+    public static void readExtension(byte[] extension, KafkaBrokerMessage kafkaBrokerMessage) {
+        byte magic = getExtensionMagic(extension);
         kafkaBrokerMessage.setMagic(magic);
         if (magic == INVALID_EXTENSION_MAGIC) {
             return;
         }
 
         if (magic == MESSAGE_MAGIC_V0) {
-            KafkaMessageV0Serializer.readExtension(brokerMessage, kafkaBrokerMessage);
+            KafkaMessageV0Serializer.readExtension(extension, kafkaBrokerMessage);
         } else if (magic == MESSAGE_MAGIC_V1) {
-            KafkaMessageV1Serializer.readExtension(brokerMessage, kafkaBrokerMessage);
+            KafkaMessageV1Serializer.readExtension(extension, kafkaBrokerMessage);
         } else if (magic == MESSAGE_MAGIC_V2) {
-            KafkaMessageV2Serializer.readExtension(brokerMessage, kafkaBrokerMessage);
+            KafkaMessageV2Serializer.readExtension(extension, kafkaBrokerMessage);
         } else {
             throw new UnsupportedOperationException(String.format("readExtension unsupported magic, magic: %s", magic));
         }
@@ -17,6 +17,7 @@ package org.joyqueue.broker.kafka.message.converter;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import org.joyqueue.broker.buffer.MessageView;
 import org.joyqueue.broker.kafka.message.KafkaBrokerMessage;
 import org.joyqueue.broker.kafka.message.KafkaMessageSerializer;
 import org.joyqueue.message.BrokerMessage;
@@ -56,6 +57,20 @@ public class KafkaMessageConverter {
         return kafkaBrokerMessage;
     }
 
+    /**
+     * 直接从存储消息的视图转换，不反序列化整条消息，只用于kafka来源的消息
+     */
+    public static KafkaBrokerMessage toKafkaBrokerMessage(String topic, int partition, MessageView messageView) {
+        KafkaBrokerMessage kafkaBrokerMessage = new KafkaBrokerMessage();
+        kafkaBrokerMessage.setOffset(messageView.getIndex());
+        kafkaBrokerMessage.setKey(messageView.getBusinessIdBytes());
+        kafkaBrokerMessage.setValue(messageView.getBody());
+        kafkaBrokerMessage.setBatch(messageView.isBatch());
+        kafkaBrokerMessage.setFlag(messageView.getFlag());
+        KafkaMessageSerializer.readExtension(messageView.getExtension(), kafkaBrokerMessage);
+        return kafkaBrokerMessage;
+    }
+
     public static List<BrokerMessage> toBrokerMessages(String topic, int partition, String clientId, InetSocketAddress clientAddress, List<KafkaBrokerMessage> kafkaBrokerMessages) {
         List<BrokerMessage> result = Lists.newLinkedList();
         byte[] clientAddressBytes = IpUtil.toByte(clientAddress);
@@ -52,7 +52,10 @@ public class KafkaMessageV2Serializer extends AbstractKafkaMessageSerializer {
     }
 
     public static void readExtension(BrokerMessage brokerMessage, KafkaBrokerMessage kafkaBrokerMessage) {
-        byte[] extension = brokerMessage.getExtension();
+        readExtension(brokerMessage.getExtension(), kafkaBrokerMessage);
+    }
+
+    public static void readExtension(byte[] extension, KafkaBrokerMessage kafkaBrokerMessage) {
         if (ArrayUtils.isEmpty(extension)) {
             return;
         }
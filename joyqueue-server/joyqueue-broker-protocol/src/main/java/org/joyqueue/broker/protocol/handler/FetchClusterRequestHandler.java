@@ -19,6 +19,7 @@ import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Maps;
 import org.joyqueue.broker.BrokerContext;
 import org.joyqueue.broker.BrokerContextAware;
+import org.joyqueue.broker.cluster.ClusterManager;
 import org.joyqueue.broker.cluster.ClusterNameService;
 import org.joyqueue.broker.config.BrokerConfig;
 import org.joyqueue.broker.helper.SessionHelper;
@@ -152,15 +153,19 @@ public class FetchClusterRequestHandler implements JoyQueueCommandHandler, Type,
             result.setType(consumer.getTopicType());
         }
 
+        // 只消费的应用可以从同机房的follower读取
+        boolean followerRead = (producer == null && consumer != null);
+
         result.setCode(JoyQueueCode.SUCCESS);
-        result.setPartitionGroups(convertTopicPartitionGroups(connection, topicConfig.getPartitionGroups().values(), brokers));
+        result.setPartitionGroups(convertTopicPartitionGroups(connection, topicConfig.getPartitionGroups().values(), brokers, followerRead));
         return result;
     }
 
-    protected Map<Integer, TopicPartitionGroup> convertTopicPartitionGroups(Connection connection, Collection<PartitionGroup> partitionGroups, Map<Integer, BrokerNode> brokers) {
+    protected Map<Integer, TopicPartitionGroup> convertTopicPartitionGroups(Connection connection, Collection<PartitionGroup> partitionGroups,
+                                                                            Map<Integer, BrokerNode> brokers, boolean followerRead) {
         Map<Integer, TopicPartitionGroup> result = Maps.newLinkedHashMap();
         for (PartitionGroup partitionGroup : partitionGroups) {
-            TopicPartitionGroup topicPartitionGroup = convertTopicPartitionGroup(connection, partitionGroup, brokers);
+            TopicPartitionGroup topicPartitionGroup = convertTopicPartitionGroup(connection, partitionGroup, brokers, followerRead);
             if (topicPartitionGroup != null) {
                 result.put(partitionGroup.getGroup(), topicPartitionGroup);
             }
@@ -168,13 +173,23 @@ public class FetchClusterRequestHandler implements JoyQueueCommandHandler, Type,
         return result;
     }
 
-    protected TopicPartitionGroup convertTopicPartitionGroup(Connection connection, PartitionGroup partitionGroup, Map<Integer, BrokerNode> brokers) {
+    protected TopicPartitionGroup convertTopicPartitionGroup(Connection connection, PartitionGroup partitionGroup,
+                                                             Map<Integer, BrokerNode> brokers, boolean followerRead) {
         Map<Short, TopicPartition> partitions = Maps.newLinkedHashMap();
+        int leader = partitionGroup.getLeader();
 
         Broker leaderBroker = partitionGroup.getLeaderBroker();
         if (leaderBroker != null) {
             DataCenter brokerDataCenter = clusterNameService.getNameService().getDataCenter(leaderBroker.getIp());
-            brokers.put(partitionGroup.getLeader(), BrokerNodeConverter.convertBrokerNode(leaderBroker, brokerDataCenter, connection.getRegion()));
+            BrokerNode leaderNode = BrokerNodeConverter.convertBrokerNode(leaderBroker, brokerDataCenter, connection.getRegion());
+            BrokerNode followerNode = (followerRead && !leaderNode.isNearby() ? getReadableFollower(connection, partitionGroup) : null);
+            if (followerNode != null) {
+                // leader不在客户端所在的机房，由当前broker上同步的follower提供读服务
+                leader = followerNode.getId();
+                brokers.put(leader, followerNode);
+            } else {
+                brokers.put(leader, leaderNode);
+            }
         }
 
         for (Short partition : partitionGroup.getPartitions()) {
@@ -183,11 +198,26 @@ public class FetchClusterRequestHandler implements JoyQueueCommandHandler, Type,
 
         TopicPartitionGroup result = new TopicPartitionGroup();
         result.setId(partitionGroup.getGroup());
-        result.setLeader(partitionGroup.getLeader());
+        result.setLeader(leader);
         result.setPartitions(partitions);
         return result;
     }
 
+    /**
+     * 当前broker是分区组的follower，和客户端在同一个机房，并且与leader保持同步时，返回当前broker
+     * follower不再同步时拒绝读请求，客户端重新获取元数据后回到leader
+     */
+    protected BrokerNode getReadableFollower(Connection connection, PartitionGroup partitionGroup) {
+        ClusterManager clusterManager = brokerContext.getClusterManager();
+        if (clusterManager == null || clusterManager.isLeader(partitionGroup) || !clusterManager.isReadable(partitionGroup)) {
+            return null;
+        }
+        Broker localBroker = clusterManager.getBroker();
+        DataCenter localDataCenter = clusterNameService.getNameService().getDataCenter(localBroker.getIp());
+        BrokerNode localNode = BrokerNodeConverter.convertBrokerNode(localBroker, localDataCenter, connection.getRegion());
+        return (localNode.isNearby() ? localNode : null);
+    }
+
     protected TopicPartition convertTopicPartition(PartitionGroup partitionGroup, short partition) {
         TopicPartition result = new TopicPartition();
         result.setId(partition);
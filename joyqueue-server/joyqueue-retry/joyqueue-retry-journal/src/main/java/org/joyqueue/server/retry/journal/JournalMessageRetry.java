@@ -0,0 +1,262 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.server.retry.journal;
+
+import com.jd.laf.extension.Extension;
+import org.joyqueue.domain.TopicName;
+import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.exception.JoyQueueException;
+import org.joyqueue.server.retry.api.MessageRetry;
+import org.joyqueue.server.retry.api.RetryPolicyProvider;
+import org.joyqueue.server.retry.journal.config.JournalRetryConfigKey;
+import org.joyqueue.server.retry.model.RetryMessageModel;
+import org.joyqueue.server.retry.model.RetryStatus;
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.config.Property;
+import org.joyqueue.toolkit.config.PropertySupplier;
+import org.joyqueue.toolkit.retry.RetryPolicy;
+import org.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 基于本地日志的消息重试。
+ *
+ * 每个主题和应用一个重试日志（RetryJournal），重试消息追加写入日志，
+ * 成功、失败和过期只追加定长的状态记录，到期索引在内存中维护，
+ * 不再需要像数据库实现那样按状态轮询和逐条更新。
+ */
+@Extension("JournalRetry")
+public class JournalMessageRetry implements MessageRetry<Long> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalMessageRetry.class);
+    private static final String DEFAULT_DIR = "retry";
+    // 默认30天过期
+    private static final long DEFAULT_EXPIRE_TIME = 30 * 24 * 3600 * 1000L;
+
+    // 主题/应用 -> 重试日志
+    private final ConcurrentMap<String, RetryJournal> journals = new ConcurrentHashMap<>();
+    private File base;
+    private PositioningStore.Config config;
+    private long compactSize;
+    private PreloadBufferPool bufferPool;
+    // 重试策略
+    private RetryPolicyProvider retryPolicyProvider;
+    private volatile boolean isStartFlag = false;
+
+    @Override
+    public void setSupplier(PropertySupplier supplier) {
+        String path = PropertySupplier.getValue(supplier, JournalRetryConfigKey.PATH);
+        if (path == null || path.isEmpty()) {
+            Property property = supplier.getProperty(Property.APPLICATION_DATA_PATH);
+            String dataPath = property == null ? null : property.getString();
+            if (dataPath == null || dataPath.isEmpty()) {
+                dataPath = System.getProperty("user.home") + File.separator + ".joyqueue";
+            }
+            path = dataPath + File.separator + DEFAULT_DIR;
+        }
+        base = new File(path);
+        config = new PositioningStore.Config(PropertySupplier.getValue(supplier, JournalRetryConfigKey.FILE_SIZE));
+        compactSize = PropertySupplier.getValue(supplier, JournalRetryConfigKey.COMPACT_SIZE);
+    }
+
+    @Override
+    public void setRetryPolicyProvider(RetryPolicyProvider retryPolicyProvider) {
+        this.retryPolicyProvider = retryPolicyProvider;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (!base.isDirectory() && !base.mkdirs()) {
+            throw new IOException(String.format("Failed to create directory: %s.", base.getAbsolutePath()));
+        }
+        bufferPool = PreloadBufferPool.getInstance();
+        isStartFlag = true;
+        logger.info("journal retry manager is started, path: {}", base.getAbsolutePath());
+    }
+
+    @Override
+    public boolean isStarted() {
+        return isStartFlag;
+    }
+
+    @Override
+    public void stop() {
+        isStartFlag = false;
+        synchronized (journals) {
+            for (RetryJournal journal : journals.values()) {
+                journal.close();
+            }
+            journals.clear();
+        }
+        logger.info("journal retry manager is stopped");
+    }
+
+    @Override
+    public void addRetry(List<RetryMessageModel> retryMessageModelList) throws JoyQueueException {
+        if (retryMessageModelList == null || retryMessageModelList.isEmpty()) {
+            return;
+        }
+        // 同一个主题和应用的重试一次写入
+        Map<String, List<RetryMessageModel>> groups = new LinkedHashMap<>();
+        for (RetryMessageModel model : retryMessageModelList) {
+            groups.computeIfAbsent(key(model.getTopic(), model.getApp()), k -> new ArrayList<>()).add(model);
+        }
+        long now = SystemClock.now();
+        for (List<RetryMessageModel> models : groups.values()) {
+            String topic = models.get(0).getTopic();
+            String app = models.get(0).getApp();
+            RetryPolicy retryPolicy = retryPolicyProvider.getPolicy(TopicName.parse(topic), app);
+            try {
+                getOrCreateJournal(topic, app, true).add(models, now, getExpireTime(retryPolicy, now),
+                        retryPolicy.getTime(now, 1, now));
+            } catch (IOException e) {
+                throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR.getMessage() + ",topic:" + topic + ",app:" + app, e,
+                        JoyQueueCode.SE_IO_ERROR.getCode());
+            }
+        }
+    }
+
+    /**
+     * 获取重试消息的过期时间，和数据库实现一致，默认30天过期
+     */
+    private long getExpireTime(RetryPolicy retryPolicy, long currentTime) {
+        long expireTime = retryPolicy.getExpireTime() != null ? retryPolicy.getExpireTime() : 0;
+        return currentTime + (expireTime > 0 ? expireTime : DEFAULT_EXPIRE_TIME);
+    }
+
+    @Override
+    public void retrySuccess(String topic, String app, Long[] messageIds) throws JoyQueueException {
+        mark(topic, app, messageIds, RetryStatus.RETRY_SUCCESS);
+    }
+
+    @Override
+    public void retryError(String topic, String app, Long[] messageIds) throws JoyQueueException {
+        mark(topic, app, messageIds, RetryStatus.RETRY_ING);
+    }
+
+    @Override
+    public void retryExpire(String topic, String app, Long[] messageIds) throws JoyQueueException {
+        mark(topic, app, messageIds, RetryStatus.RETRY_EXPIRE);
+    }
+
+    private void mark(String topic, String app, Long[] messageIds, RetryStatus status) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty() || messageIds == null || messageIds.length == 0) {
+            return;
+        }
+        try {
+            RetryJournal journal = getOrCreateJournal(topic, app, false);
+            if (journal == null) {
+                return;
+            }
+            long now = SystemClock.now();
+            RetryPolicy retryPolicy = status == RetryStatus.RETRY_ING ? retryPolicyProvider.getPolicy(TopicName.parse(topic), app) : null;
+            List<RetryJournal.Mark> changes = new ArrayList<>(messageIds.length);
+            for (Long messageId : messageIds) {
+                RetryJournal.Retry retry = messageId == null ? null : journal.get(messageId);
+                if (retry == null) {
+                    continue;
+                }
+                int retryCount = retry.retryCount + 1;
+                if (retryPolicy == null) {
+                    changes.add(new RetryJournal.Mark(retry.id, status.getValue(), retry.retryTime, retryCount));
+                    continue;
+                }
+                // 计算下次重试时间，超过重试策略或者过期时间的标记为过期
+                long nextRetryTime = retryPolicy.getTime(now, retryCount, retry.createTime);
+                if (nextRetryTime <= 0 || nextRetryTime >= retry.expireTime) {
+                    changes.add(new RetryJournal.Mark(retry.id, RetryStatus.RETRY_EXPIRE.getValue(), retry.retryTime, retryCount));
+                } else {
+                    changes.add(new RetryJournal.Mark(retry.id, RetryStatus.RETRY_ING.getValue(), nextRetryTime, retryCount));
+                }
+            }
+            if (!changes.isEmpty()) {
+                journal.mark(changes);
+            }
+        } catch (IOException e) {
+            throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR, e);
+        }
+    }
+
+    @Override
+    public List<RetryMessageModel> getRetry(String topic, String app, short count, long startIndex) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty() || count <= 0) {
+            return new ArrayList<>(0);
+        }
+        try {
+            RetryJournal journal = getOrCreateJournal(topic, app, false);
+            if (journal == null) {
+                return new ArrayList<>(0);
+            }
+            return journal.due(SystemClock.now(), (int) Math.max(0, startIndex), count);
+        } catch (IOException e) {
+            throw new JoyQueueException(String.format("%s topic:%s,app:%s,count:%d", JoyQueueCode.SE_IO_ERROR.getMessage(), topic, app, count),
+                    e, JoyQueueCode.SE_IO_ERROR.getCode());
+        }
+    }
+
+    @Override
+    public int countRetry(String topic, String app) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty()) {
+            return 0;
+        }
+        try {
+            RetryJournal journal = getOrCreateJournal(topic, app, false);
+            return journal == null ? 0 : journal.count();
+        } catch (IOException e) {
+            throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR, e);
+        }
+    }
+
+    /**
+     * 获取重试日志，第一次访问时从磁盘恢复
+     *
+     * @param create 不存在时是否创建
+     */
+    private RetryJournal getOrCreateJournal(String topic, String app, boolean create) throws IOException {
+        String key = key(topic, app);
+        RetryJournal journal = journals.get(key);
+        if (journal != null) {
+            return journal;
+        }
+        synchronized (journals) {
+            journal = journals.get(key);
+            if (journal == null) {
+                File dir = new File(new File(base, topic.replace(File.separatorChar, '@')), app.replace(File.separatorChar, '@'));
+                if (!create && !dir.isDirectory()) {
+                    return null;
+                }
+                journal = new RetryJournal(topic, app, dir, config, bufferPool, compactSize);
+                journals.put(key, journal);
+            }
+            return journal;
+        }
+    }
+
+    private String key(String topic, String app) {
+        return topic + "/" + app;
+    }
+}
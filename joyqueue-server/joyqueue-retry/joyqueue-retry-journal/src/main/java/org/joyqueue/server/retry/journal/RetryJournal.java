@@ -0,0 +1,433 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.server.retry.journal;
+
+import org.joyqueue.domain.Partition;
+import org.joyqueue.server.retry.model.RetryMessageModel;
+import org.joyqueue.server.retry.model.RetryStatus;
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 一个主题和应用的重试日志。
+ *
+ * 由两个PositioningStore组成：
+ * 消息日志（log）：追加写入重试消息，消息在日志中的位置就是重试ID；
+ * 状态日志（marks）：批量追加重试成功、失败（下次重试时间）和过期的状态变化，每条定长。
+ *
+ * 内存中只保存未完成的重试（不含消息内容），按照（下次重试时间，ID）排序作为到期索引，
+ * 读取到期的重试时再从消息日志中读取消息内容。
+ * 所有未完成重试都已经越过的消息日志文件直接删除；状态日志超过compactSize后，
+ * 用未完成重试的快照写一个新的状态日志替换旧的。
+ */
+class RetryJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RetryJournal.class);
+    private static final String LOG_DIR = "log";
+    private static final String MARKS_DIR_PREFIX = "marks.";
+    private static final String MARKS_TEMP_DIR = "marks.tmp";
+    // 快照记录：ID小于这个位置、并且之后没有RETRY_ING状态记录的重试都已经完成
+    private static final byte MARK_BASE = Byte.MAX_VALUE;
+    // length(4) + id(8) + status(1) + retryTime(8) + retryCount(4) + length(4)
+    static final int MARK_SIZE = 29;
+    private static final int RECOVER_BATCH_SIZE = 1024;
+
+    private final String topic;
+    private final String app;
+    private final File base;
+    private final PositioningStore.Config config;
+    private final PreloadBufferPool bufferPool;
+    private final long compactSize;
+    private final PositioningStore<ByteBuffer> log;
+    private PositioningStore<ByteBuffer> marks;
+    private long marksGeneration;
+
+    // ID -> 未完成的重试
+    private final TreeMap<Long, Retry> pending = new TreeMap<>();
+    // 按照下次重试时间排序的到期索引
+    private final NavigableSet<Retry> dueIndex = new TreeSet<>();
+
+    RetryJournal(String topic, String app, File base, PositioningStore.Config config, PreloadBufferPool bufferPool, long compactSize) throws IOException {
+        this.topic = topic;
+        this.app = app;
+        this.base = base;
+        this.config = config;
+        this.bufferPool = bufferPool;
+        this.compactSize = compactSize;
+        this.log = new PositioningStore<>(mkdirs(new File(base, LOG_DIR)), config, bufferPool, new RetryLogSerializer());
+        this.log.recover();
+        recoverMarks();
+        recoverPending();
+        logger.info("Retry journal of topic: {}, app: {} recovered, pending: {}, log: [{}, {}).",
+                topic, app, pending.size(), log.left(), log.right());
+    }
+
+    synchronized void add(List<RetryMessageModel> models, long createTime, long expireTime, long retryTime) throws IOException {
+        List<Retry> retries = new ArrayList<>(models.size());
+        for (RetryMessageModel model : models) {
+            long id = log.right();
+            log.append(serialize(model, createTime, expireTime, retryTime));
+            retries.add(new Retry(id, createTime, expireTime, retryTime, 0));
+        }
+        flush(log);
+        for (Retry retry : retries) {
+            pending.put(retry.id, retry);
+            dueIndex.add(retry);
+        }
+    }
+
+    /**
+     * 按照下次重试时间顺序读取到期的重试，已经过期的重试顺便标记为过期
+     */
+    synchronized List<RetryMessageModel> due(long now, int offset, int count) throws IOException {
+        List<RetryMessageModel> result = new ArrayList<>(count);
+        List<Retry> expired = null;
+        int skipped = 0;
+        for (Retry retry : dueIndex) {
+            if (retry.retryTime > now || result.size() >= count) {
+                break;
+            }
+            if (retry.expireTime <= now) {
+                if (null == expired) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(retry);
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            result.add(deserialize(retry.id, log.read(retry.id)));
+        }
+        if (null != expired) {
+            List<Mark> expireMarks = new ArrayList<>(expired.size());
+            for (Retry retry : expired) {
+                expireMarks.add(new Mark(retry.id, RetryStatus.RETRY_EXPIRE.getValue(), retry.retryTime, retry.retryCount));
+            }
+            mark(expireMarks);
+        }
+        return result;
+    }
+
+    synchronized Retry get(long id) {
+        return pending.get(id);
+    }
+
+    synchronized int count() {
+        return pending.size();
+    }
+
+    /**
+     * 批量写入状态变化并应用到内存中，写入之后检查是否需要压缩
+     */
+    synchronized void mark(List<Mark> changes) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>(changes.size());
+        for (Mark change : changes) {
+            if (pending.containsKey(change.id)) {
+                buffers.add(serialize(change));
+            }
+        }
+        if (buffers.isEmpty()) {
+            return;
+        }
+        marks.append(buffers);
+        flush(marks);
+        for (Mark change : changes) {
+            apply(change);
+        }
+        compact();
+    }
+
+    private void apply(Mark change) {
+        Retry retry = pending.get(change.id);
+        if (null == retry) {
+            return;
+        }
+        dueIndex.remove(retry);
+        if (change.status == RetryStatus.RETRY_ING.getValue()) {
+            retry.retryTime = change.retryTime;
+            retry.retryCount = change.retryCount;
+            dueIndex.add(retry);
+        } else {
+            pending.remove(change.id);
+        }
+    }
+
+    private void compact() throws IOException {
+        // 第一个未完成的重试之前的消息日志文件都可以删除
+        // 至少保留最后一个文件，否则恢复时无法确定日志的结束位置
+        long deleteTo = Math.min(pending.isEmpty() ? log.right() : pending.firstKey(), log.right() - 1);
+        if (deleteTo > log.left()) {
+            log.physicalDeleteTo(deleteTo);
+        }
+
+        long marksSize = marks.right() - marks.left();
+        if (marksSize < compactSize || marksSize < 2L * MARK_SIZE * (pending.size() + 1)) {
+            return;
+        }
+        File tempDir = new File(base, MARKS_TEMP_DIR);
+        deleteDir(tempDir);
+        PositioningStore<ByteBuffer> snapshot = new PositioningStore<>(mkdirs(tempDir), config, bufferPool, new RetryLogSerializer());
+        try {
+            snapshot.recover();
+            List<ByteBuffer> buffers = new ArrayList<>(pending.size() + 1);
+            buffers.add(serialize(new Mark(log.right(), MARK_BASE, 0L, 0)));
+            for (Retry retry : pending.values()) {
+                buffers.add(serialize(new Mark(retry.id, RetryStatus.RETRY_ING.getValue(), retry.retryTime, retry.retryCount)));
+            }
+            snapshot.append(buffers);
+            flush(snapshot);
+        } finally {
+            snapshot.close();
+        }
+        File marksDir = new File(base, MARKS_DIR_PREFIX + (marksGeneration + 1));
+        if (!tempDir.renameTo(marksDir)) {
+            throw new IOException(String.format("Failed to rename %s to %s.", tempDir.getAbsolutePath(), marksDir.getAbsolutePath()));
+        }
+        PositioningStore<ByteBuffer> previous = marks;
+        marks = new PositioningStore<>(marksDir, config, bufferPool, new RetryLogSerializer());
+        marks.recover();
+        previous.close();
+        deleteDir(previous.base());
+        marksGeneration++;
+        logger.info("Retry marks of topic: {}, app: {} compacted from {} to {} bytes.", topic, app, marksSize, marks.right());
+    }
+
+    private void recoverMarks() throws IOException {
+        deleteDir(new File(base, MARKS_TEMP_DIR));
+        // 只保留最新的状态日志，旧的是压缩之后还没来得及删除的
+        File[] dirs = base.listFiles(file -> file.isDirectory() && file.getName().startsWith(MARKS_DIR_PREFIX));
+        marksGeneration = 0L;
+        if (null != dirs) {
+            for (File dir : dirs) {
+                marksGeneration = Math.max(marksGeneration, generation(dir));
+            }
+            for (File dir : dirs) {
+                if (generation(dir) < marksGeneration) {
+                    deleteDir(dir);
+                }
+            }
+        }
+        marks = new PositioningStore<>(mkdirs(new File(base, MARKS_DIR_PREFIX + marksGeneration)), config, bufferPool, new RetryLogSerializer());
+        marks.recover();
+    }
+
+    private void recoverPending() throws IOException {
+        Map<Long, Mark> lastMarks = new HashMap<>();
+        long completedBefore = 0L;
+        for (long position = marks.left(); position < marks.right(); ) {
+            List<ByteBuffer> buffers = marks.batchRead(position, RECOVER_BATCH_SIZE);
+            for (ByteBuffer buffer : buffers) {
+                position += buffer.remaining();
+                Mark mark = deserializeMark(buffer);
+                if (mark.status == MARK_BASE) {
+                    completedBefore = mark.id;
+                } else {
+                    lastMarks.put(mark.id, mark);
+                }
+            }
+        }
+
+        for (long position = log.left(); position < log.right(); ) {
+            List<ByteBuffer> buffers = log.batchRead(position, RECOVER_BATCH_SIZE);
+            for (ByteBuffer buffer : buffers) {
+                long id = position;
+                position += buffer.remaining();
+                Mark mark = lastMarks.get(id);
+                Retry retry = null;
+                if (null != mark) {
+                    if (mark.status == RetryStatus.RETRY_ING.getValue()) {
+                        retry = new Retry(id, buffer.getLong(4), buffer.getLong(12), mark.retryTime, mark.retryCount);
+                    }
+                } else if (id >= completedBefore) {
+                    retry = new Retry(id, buffer.getLong(4), buffer.getLong(12), buffer.getLong(20), 0);
+                }
+                if (null != retry) {
+                    pending.put(id, retry);
+                    dueIndex.add(retry);
+                }
+            }
+        }
+    }
+
+    /**
+     * length(4) + createTime(8) + expireTime(8) + retryTime(8) + sendTime(8) + partition(2) + index(8)
+     * + businessId(2 + n) + brokerMessage(4 + n) + exception(4 + n) + length(4)
+     */
+    private ByteBuffer serialize(RetryMessageModel model, long createTime, long expireTime, long retryTime) {
+        byte[] businessId = null == model.getBusinessId() ? new byte[0] : model.getBusinessId().getBytes(StandardCharsets.UTF_8);
+        byte[] message = null == model.getBrokerMessage() ? new byte[0] : model.getBrokerMessage();
+        byte[] exception = null == model.getException() ? new byte[0] : model.getException();
+        int length = 4 + 8 + 8 + 8 + 8 + 2 + 8 + 2 + businessId.length + 4 + message.length + 4 + exception.length + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        buffer.putLong(createTime);
+        buffer.putLong(expireTime);
+        buffer.putLong(retryTime);
+        buffer.putLong(model.getSendTime());
+        buffer.putShort(model.getPartition());
+        buffer.putLong(model.getIndex());
+        buffer.putShort((short) businessId.length);
+        buffer.put(businessId);
+        buffer.putInt(message.length);
+        buffer.put(message);
+        buffer.putInt(exception.length);
+        buffer.put(exception);
+        buffer.putInt(length);
+        buffer.flip();
+        return buffer;
+    }
+
+    private RetryMessageModel deserialize(long id, ByteBuffer buffer) {
+        buffer.position(4 + 8 + 8 + 8);
+        RetryMessageModel model = new RetryMessageModel();
+        model.setTopic(topic);
+        model.setApp(app);
+        // 和数据库实现一样，用分区消息序号暂存重试ID
+        model.setPartition(Partition.RETRY_PARTITION_ID);
+        model.setIndex(id);
+        model.setSendTime(buffer.getLong());
+        // 原始的分区和序号
+        buffer.getShort();
+        buffer.getLong();
+        byte[] businessId = new byte[buffer.getShort()];
+        buffer.get(businessId);
+        model.setBusinessId(businessId.length == 0 ? null : new String(businessId, StandardCharsets.UTF_8));
+        byte[] message = new byte[buffer.getInt()];
+        buffer.get(message);
+        model.setBrokerMessage(message);
+        byte[] exception = new byte[buffer.getInt()];
+        buffer.get(exception);
+        model.setException(exception);
+        return model;
+    }
+
+    private ByteBuffer serialize(Mark mark) {
+        ByteBuffer buffer = ByteBuffer.allocate(MARK_SIZE);
+        buffer.putInt(MARK_SIZE);
+        buffer.putLong(mark.id);
+        buffer.put(mark.status);
+        buffer.putLong(mark.retryTime);
+        buffer.putInt(mark.retryCount);
+        buffer.putInt(MARK_SIZE);
+        buffer.flip();
+        return buffer;
+    }
+
+    private Mark deserializeMark(ByteBuffer buffer) {
+        return new Mark(buffer.getLong(4), buffer.get(12), buffer.getLong(13), buffer.getInt(21));
+    }
+
+    private void flush(PositioningStore<ByteBuffer> store) throws IOException {
+        while (store.flush()) {
+        }
+        store.force();
+    }
+
+    private long generation(File dir) {
+        try {
+            return Long.parseLong(dir.getName().substring(MARKS_DIR_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static File mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(String.format("Failed to create directory: %s.", dir.getAbsolutePath()));
+        }
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else if (!file.delete()) {
+                    logger.warn("Delete file {} failed.", file.getAbsolutePath());
+                }
+            }
+        }
+        if (dir.exists() && !dir.delete()) {
+            logger.warn("Delete directory {} failed.", dir.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        log.close();
+        marks.close();
+    }
+
+    /**
+     * 未完成的重试
+     */
+    static class Retry implements Comparable<Retry> {
+        final long id;
+        final long createTime;
+        final long expireTime;
+        long retryTime;
+        int retryCount;
+
+        Retry(long id, long createTime, long expireTime, long retryTime, int retryCount) {
+            this.id = id;
+            this.createTime = createTime;
+            this.expireTime = expireTime;
+            this.retryTime = retryTime;
+            this.retryCount = retryCount;
+        }
+
+        @Override
+        public int compareTo(Retry o) {
+            int result = Long.compare(retryTime, o.retryTime);
+            return result != 0 ? result : Long.compare(id, o.id);
+        }
+    }
+
+    /**
+     * 重试状态的变化
+     */
+    static class Mark {
+        final long id;
+        final byte status;
+        final long retryTime;
+        final int retryCount;
+
+        Mark(long id, short status, long retryTime, int retryCount) {
+            this.id = id;
+            this.status = (byte) status;
+            this.retryTime = retryTime;
+            this.retryCount = retryCount;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.server.retry.journal;
+
+import org.joyqueue.store.PartialLogException;
+import org.joyqueue.store.ReadException;
+import org.joyqueue.store.file.LogSerializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 重试日志的序列化：length(4) + 数据 + length(4)。
+ *
+ * 恢复时PositioningStore从文件末尾逐字节向前查找第一条能读出的日志，
+ * 只有开头的长度的话，数据中间的任意4个字节都可能被当成长度读出来，
+ * 所以在结尾重复一次长度，两处一致才认为是一条完整的日志。
+ */
+class RetryLogSerializer implements LogSerializer<ByteBuffer> {
+    // 开头和结尾的长度
+    static final int OVERHEAD = 2 * Integer.BYTES;
+
+    @Override
+    public ByteBuffer read(ByteBuffer src, int length) {
+        if (src.remaining() < Integer.BYTES) {
+            throw new ReadException();
+        }
+        int len = length < 0 ? check(src, src.position(), src.remaining()) : length;
+        if (src.remaining() < len) {
+            throw new PartialLogException();
+        }
+        byte[] bytes = new byte[len];
+        src.get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public int trim(ByteBuffer src, int length) {
+        int pos = 0;
+        int remaining;
+        while ((remaining = src.remaining() - pos) >= OVERHEAD && pos < length) {
+            try {
+                pos += check(src, src.position() + pos, remaining);
+            } catch (PartialLogException e) {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 校验position处的一条日志，返回日志长度
+     */
+    private int check(ByteBuffer src, int position, int remaining) {
+        int len = src.getInt(position);
+        if (len <= OVERHEAD) {
+            throw new ReadException();
+        }
+        if (remaining < len) {
+            throw new PartialLogException();
+        }
+        if (src.getInt(position + len - Integer.BYTES) != len) {
+            throw new ReadException();
+        }
+        return len;
+    }
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        return buffer.remaining();
+    }
+
+    @Override
+    public int append(ByteBuffer from, ByteBuffer to) {
+        int length = from.remaining();
+        from.mark();
+        to.put(from);
+        from.reset();
+        return length;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.server.retry.journal.config;
+
+import org.joyqueue.toolkit.config.PropertyDef;
+
+/**
+ * 本地日志重试的配置项
+ */
+public enum JournalRetryConfigKey implements PropertyDef {
+
+    // 重试日志的存储目录，为空时使用应用数据目录下的retry目录
+    PATH("retry.journal.path", "", Type.STRING),
+    // 重试日志单个文件的大小
+    FILE_SIZE("retry.journal.file.size", 16 * 1024 * 1024, Type.INT),
+    // 状态日志超过这个大小时，用当前未完成的重试生成快照并滚动
+    COMPACT_SIZE("retry.journal.compact.size", 64 * 1024 * 1024L, Type.LONG);
+
+    private String name;
+    private Object value;
+    private Type type;
+
+    JournalRetryConfigKey(String name, Object value, Type type) {
+        this.name = name;
+        this.value = value;
+        this.type = type;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public Type getType() {
+        return type;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.server.retry.journal;
+
+import org.joyqueue.server.retry.journal.config.JournalRetryConfigKey;
+import org.joyqueue.server.retry.model.RetryMessageModel;
+import org.joyqueue.toolkit.config.PropertySupplier;
+import org.joyqueue.toolkit.retry.RetryPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JournalMessageRetryTest {
+    private static final String TOPIC = "test_topic";
+    private static final String APP = "test_app";
+    private File base;
+    private JournalMessageRetry messageRetry;
+
+    @Before
+    public void before() throws Exception {
+        base = Files.createTempDirectory("journal_retry").toFile();
+        messageRetry = create(64 * 1024L);
+    }
+
+    @After
+    public void after() {
+        messageRetry.stop();
+        delete(base);
+    }
+
+    private JournalMessageRetry create(long compactSize) throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(JournalRetryConfigKey.PATH.getName(), base.getAbsolutePath());
+        properties.put(JournalRetryConfigKey.FILE_SIZE.getName(), 16 * 1024);
+        properties.put(JournalRetryConfigKey.COMPACT_SIZE.getName(), compactSize);
+        JournalMessageRetry retry = new JournalMessageRetry();
+        retry.setSupplier(new PropertySupplier.MapSupplier(properties));
+        // 没有重试间隔，最多重试2次
+        retry.setRetryPolicyProvider((topic, app) -> new RetryPolicy(0, 2));
+        retry.start();
+        return retry;
+    }
+
+    @Test
+    public void retryLifecycle() throws Exception {
+        messageRetry.addRetry(models(3));
+        Assert.assertEquals(3, messageRetry.countRetry(TOPIC, APP));
+
+        List<RetryMessageModel> retries = messageRetry.getRetry(TOPIC, APP, (short) 10, 0L);
+        Assert.assertEquals(3, retries.size());
+        Assert.assertEquals("business-1", retries.get(1).getBusinessId());
+        Assert.assertArrayEquals("message-1".getBytes(), retries.get(1).getBrokerMessage());
+        Assert.assertEquals(2, messageRetry.getRetry(TOPIC, APP, (short) 10, 1L).size());
+
+        long first = retries.get(0).getIndex();
+        long second = retries.get(1).getIndex();
+        long third = retries.get(2).getIndex();
+        messageRetry.retrySuccess(TOPIC, APP, new Long[]{first});
+        messageRetry.retryExpire(TOPIC, APP, new Long[]{third});
+        Assert.assertEquals(1, messageRetry.countRetry(TOPIC, APP));
+
+        // 第2次失败之后仍然可以重试，第3次失败超过最大重试次数
+        messageRetry.retryError(TOPIC, APP, new Long[]{second});
+        Assert.assertEquals(1, messageRetry.countRetry(TOPIC, APP));
+        messageRetry.retryError(TOPIC, APP, new Long[]{second});
+        Assert.assertEquals(1, messageRetry.countRetry(TOPIC, APP));
+        messageRetry.retryError(TOPIC, APP, new Long[]{second});
+        Assert.assertEquals(0, messageRetry.countRetry(TOPIC, APP));
+        Assert.assertTrue(messageRetry.getRetry(TOPIC, APP, (short) 10, 0L).isEmpty());
+    }
+
+    @Test
+    public void recover() throws Exception {
+        messageRetry.addRetry(models(10));
+        List<RetryMessageModel> retries = messageRetry.getRetry(TOPIC, APP, (short) 10, 0L);
+        messageRetry.retrySuccess(TOPIC, APP, new Long[]{retries.get(0).getIndex(), retries.get(5).getIndex()});
+        messageRetry.retryError(TOPIC, APP, new Long[]{retries.get(1).getIndex()});
+        messageRetry.stop();
+
+        messageRetry = create(64 * 1024L);
+        Assert.assertEquals(8, messageRetry.countRetry(TOPIC, APP));
+        List<RetryMessageModel> recovered = messageRetry.getRetry(TOPIC, APP, (short) 10, 0L);
+        Assert.assertEquals(8, recovered.size());
+        for (RetryMessageModel model : recovered) {
+            Assert.assertNotEquals(retries.get(0).getIndex(), model.getIndex());
+            Assert.assertNotEquals(retries.get(5).getIndex(), model.getIndex());
+        }
+        // 恢复之后保留了重试次数
+        messageRetry.retryError(TOPIC, APP, new Long[]{retries.get(1).getIndex()});
+        messageRetry.retryError(TOPIC, APP, new Long[]{retries.get(1).getIndex()});
+        Assert.assertEquals(7, messageRetry.countRetry(TOPIC, APP));
+    }
+
+    @Test
+    public void compact() throws Exception {
+        messageRetry.stop();
+        messageRetry = create(RetryJournal.MARK_SIZE * 100L);
+
+        List<Long> kept = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messageRetry.addRetry(models(20));
+            List<RetryMessageModel> retries = messageRetry.getRetry(TOPIC, APP, Short.MAX_VALUE, 0L);
+            for (RetryMessageModel retry : retries) {
+                if (retry.getIndex() % 7 == 0 && !kept.contains(retry.getIndex())) {
+                    kept.add(retry.getIndex());
+                } else if (!kept.contains(retry.getIndex())) {
+                    messageRetry.retrySuccess(TOPIC, APP, new Long[]{retry.getIndex()});
+                }
+            }
+        }
+        Assert.assertEquals(kept.size(), messageRetry.countRetry(TOPIC, APP));
+        messageRetry.stop();
+
+        messageRetry = create(RetryJournal.MARK_SIZE * 100L);
+        Assert.assertEquals(kept.size(), messageRetry.countRetry(TOPIC, APP));
+        List<Long> recovered = new ArrayList<>();
+        for (RetryMessageModel retry : messageRetry.getRetry(TOPIC, APP, Short.MAX_VALUE, 0L)) {
+            recovered.add(retry.getIndex());
+        }
+        Assert.assertEquals(kept.size(), recovered.size());
+        Assert.assertTrue(recovered.containsAll(kept));
+
+        File[] marks = new File(new File(base, TOPIC), APP).listFiles(file -> file.getName().startsWith("marks."));
+        Assert.assertNotNull(marks);
+        Assert.assertEquals(1, marks.length);
+        Assert.assertNotEquals("marks.0", marks[0].getName());
+    }
+
+    private List<RetryMessageModel> models(int count) {
+        List<RetryMessageModel> models = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RetryMessageModel model = new RetryMessageModel();
+            model.setTopic(TOPIC);
+            model.setApp(APP);
+            model.setBusinessId("business-" + i);
+            model.setPartition((short) 1);
+            model.setIndex(i);
+            model.setSendTime(System.currentTimeMillis());
+            model.setBrokerMessage(("message-" + i).getBytes());
+            model.setException(new byte[0]);
+            models.add(model);
+        }
+        return models;
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            Arrays.stream(files).forEach(this::delete);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import org.joyqueue.exception.JoyQueueCode;
+
+/**
+ * 读消息文件位置的结果
+ * @see PartitionGroupStore#readFileRegions(short, long, int, long)
+ */
+public class FileRegionReadResult {
+    /**
+     * 状态码
+     */
+    private JoyQueueCode code;
+
+    /**
+     * 消息所在的文件位置，相邻的消息合并为一段
+     */
+    private StoreFileRegion[] regions;
+
+    /**
+     * 读到的消息数量，批消息按一条计算
+     */
+    private int count;
+
+    /**
+     * 读到的所有消息的长度之和
+     */
+    private long size;
+
+    /**
+     * 读到的最后一条消息之后的下一条消息的索引序号
+     */
+    private long nextIndex;
+
+    /**
+     * 给定index超过队尾，说明暂时没有消息可以消费了。
+     */
+    private boolean eop;
+
+    public JoyQueueCode getCode() {
+        return code;
+    }
+
+    public void setCode(JoyQueueCode code) {
+        this.code = code;
+    }
+
+    public StoreFileRegion[] getRegions() {
+        return regions;
+    }
+
+    public void setRegions(StoreFileRegion[] regions) {
+        this.regions = regions;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getNextIndex() {
+        return nextIndex;
+    }
+
+    public void setNextIndex(long nextIndex) {
+        this.nextIndex = nextIndex;
+    }
+
+    public boolean isEop() {
+        return eop;
+    }
+
+    public void setEop(boolean eop) {
+        this.eop = eop;
+    }
+}
@@ -20,6 +20,7 @@ import org.joyqueue.toolkit.concurrent.EventListener;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
 
 /**
  * Partition group存储，每个Partition group属于唯一的一个Topic，在Topic范围内拥有唯一的序号，包含多个Partition。
@@ -116,6 +117,13 @@ public interface PartitionGroupStore {
      */
     void asyncWrite(EventListener<WriteResult> eventListener, WriteRequest... writeRequests);
 
+    /**
+     * 当前的写入压力：内存中未刷盘的数据占写入准入上限的百分比。
+     * 准入上限根据刷盘速度动态调整，大于等于100时新的写入需要等待刷盘，调用方可以提前拒绝写入。
+     * @return 写入压力百分比
+     */
+    int writePressure();
+
 
 
     /**
@@ -132,5 +140,29 @@ public interface PartitionGroupStore {
      */
     ReadResult read(short partition, long index, int count, long maxSize) throws IOException;
 
+    /**
+     * 非阻塞批量读取消息在存储文件中的位置，用于零拷贝发送消息，参数和{@link #read(short, long, int, long)}相同。
+     * 只返回已经提交并且已经刷盘的消息，还在内存中未刷盘的消息需要用{@link #read(short, long, int, long)}读取。
+     * 调用方需要尽快发送返回的文件数据，文件有可能被过期清理删除。
+     * @param partition partition序号
+     * @param index partition内的全局消息序号
+     * @param count 要求读取的消息数量，当count < 1 时，按count ==1处理。
+     * @param maxSize 返回所有消息的长度之和最大值。参数不大于0时，不限制最大长度。
+     * @return 消息所在的文件位置
+     * @see FileRegionReadResult
+     */
+    FileRegionReadResult readFileRegions(short partition, long index, int count, long maxSize) throws IOException;
+
+    /**
+     * 用标签索引跳过标签（消息头中的FLAG）不匹配的消息，只读取索引，不读取消息。
+     * 只跳过已经提交的消息，并且不会停在批消息的中间。
+     * @param partition partition序号
+     * @param index partition内的全局消息序号
+     * @param maxCount 最多跳过的消息数量
+     * @param flagMatcher 标签是否匹配
+     * @return 从index开始连续的标签不匹配的消息数量，没有标签索引的消息按照匹配处理。
+     */
+    int skipUnmatched(short partition, long index, int maxCount, IntPredicate flagMatcher) throws IOException;
+
 
 }
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store;
+
+import java.io.File;
+
+/**
+ * 一段连续的数据在存储文件中的位置。
+ * 可以直接把文件中的这段数据发送出去（例如：Netty DefaultFileRegion / sendfile），不需要把数据复制到内存中。
+ */
+public class StoreFileRegion {
+    /**
+     * 数据所在的文件
+     */
+    private final File file;
+    /**
+     * 数据在文件中的起始位置，包含文件头
+     */
+    private final long position;
+    /**
+     * 数据长度
+     */
+    private final int length;
+
+    public StoreFileRegion(File file, long position, int length) {
+        this.file = file;
+        this.position = position;
+        this.length = length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * 如果region紧跟在当前数据之后，合并成一段数据
+     * @param region 下一段数据
+     * @return 合并后的数据，不能合并时返回null
+     */
+    public StoreFileRegion merge(StoreFileRegion region) {
+        if (file.equals(region.file) && position + length == region.position) {
+            return new StoreFileRegion(file, position, length + region.length);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "StoreFileRegion{" +
+                "file=" + file +
+                ", position=" + position +
+                ", length=" + length +
+                '}';
+    }
+}
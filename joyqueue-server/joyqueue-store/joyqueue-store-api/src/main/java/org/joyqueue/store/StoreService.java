@@ -39,6 +39,14 @@ public interface StoreService {
      */
     boolean partitionGroupExists(String topic, int partitionGroup);
 
+    /**
+     * Partition group 消息文件在磁盘上占用的大小，用于恢复前估算恢复耗时。
+     * @param topic Topic
+     * @param partitionGroup Partition group
+     * @return 消息文件的总大小，Partition group不存在时返回0
+     */
+    long partitionGroupDiskSize(String topic, int partitionGroup);
+
     /**
      * 判断Topic 目录是否存在，
      * 以磁盘上的Partition group目录为准。
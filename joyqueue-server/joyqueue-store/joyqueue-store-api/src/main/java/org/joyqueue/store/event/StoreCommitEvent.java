@@ -0,0 +1,46 @@
+package org.joyqueue.store.event;
+
+/**
+ * 提交位置前进事件，提交位置之前的消息可以被消费。
+ * 由提交线程同步发布，监听器不能阻塞。
+ */
+public class StoreCommitEvent extends StoreEvent {
+
+    private String topic;
+    private int group;
+    private long commitPosition;
+
+    public StoreCommitEvent() {
+
+    }
+
+    public StoreCommitEvent(String topic, int group, long commitPosition) {
+        this.topic = topic;
+        this.group = group;
+        this.commitPosition = commitPosition;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public int getGroup() {
+        return group;
+    }
+
+    public void setGroup(int group) {
+        this.group = group;
+    }
+
+    public long getCommitPosition() {
+        return commitPosition;
+    }
+
+    public void setCommitPosition(long commitPosition) {
+        this.commitPosition = commitPosition;
+    }
+}
@@ -0,0 +1,46 @@
+package org.joyqueue.store.event;
+
+/**
+ * 消息写入完成事件，写入位置前进，Leader可以开始复制新写入的消息。
+ * 由写入线程同步发布，监听器不能阻塞。
+ */
+public class StoreWriteEvent extends StoreEvent {
+
+    private String topic;
+    private int group;
+    private long rightPosition;
+
+    public StoreWriteEvent() {
+
+    }
+
+    public StoreWriteEvent(String topic, int group, long rightPosition) {
+        this.topic = topic;
+        this.group = group;
+        this.rightPosition = rightPosition;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public int getGroup() {
+        return group;
+    }
+
+    public void setGroup(int group) {
+        this.group = group;
+    }
+
+    public long getRightPosition() {
+        return rightPosition;
+    }
+
+    public void setRightPosition(long rightPosition) {
+        this.rightPosition = rightPosition;
+    }
+}
@@ -19,20 +19,30 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.serializer.SerializerFeature;
 import org.joyqueue.domain.QosLevel;
 import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.store.event.StoreCommitEvent;
+import org.joyqueue.store.event.StoreWriteEvent;
+import org.joyqueue.store.event.StoreEvent;
 import org.joyqueue.store.file.Checkpoint;
 import org.joyqueue.store.file.DiskFullException;
 import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.store.file.RollBackException;
 import org.joyqueue.store.file.StoreMessageSerializer;
+import org.joyqueue.store.index.FlagIndex;
+import org.joyqueue.store.index.IndexArray;
 import org.joyqueue.store.index.IndexItem;
+import org.joyqueue.store.index.IndexScanner;
 import org.joyqueue.store.index.IndexSerializer;
+import org.joyqueue.store.index.TimeIndex;
 import org.joyqueue.store.message.BatchMessageParser;
 import org.joyqueue.store.message.MessageParser;
+import org.joyqueue.store.nsm.VirtualThread;
+import org.joyqueue.store.nsm.VirtualThreadExecutor;
 import org.joyqueue.store.replication.ReplicableStore;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.joyqueue.toolkit.concurrent.CasLock;
 import org.joyqueue.toolkit.concurrent.EventListener;
 import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import org.joyqueue.toolkit.format.Format;
 import org.joyqueue.toolkit.metric.Metric;
 import org.joyqueue.toolkit.service.Service;
@@ -57,14 +67,21 @@ import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -84,6 +101,17 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     private static final Logger logger = LoggerFactory.getLogger(PartitionGroupStoreManager.class);
     // 回调超时
     private static final long EVENT_TIMEOUT_MILLS = 60 * 1000L;
+    // 读取索引时复用的IndexArray，避免每次读取都为每条索引创建对象
+    private static final ThreadLocal<IndexArray> INDEX_ARRAY = ThreadLocal.withInitial(() -> new IndexArray(1024));
+    // 顺序读取时，预加载当前读取位置之后这么多条索引所在的文件
+    private static final long INDEX_PREFETCH_DISTANCE = 16 * 1024L;
+    // 重建索引时，每批最多解析的消息数量
+    private static final int RECOVER_BATCH_SIZE = 4096;
+    // 重建索引时，打印进度的时间间隔
+    private static final long RECOVER_PROGRESS_INTERVAL_MS = 10 * 1000L;
+    // 所有Partition Group共享的索引预加载线程
+    private static final ExecutorService INDEX_PREFETCH_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("IndexPrefetchThread", true));
     // Journal store
     private final PositioningStore<ByteBuffer> store;
     // Partition Group所在的目录
@@ -112,6 +140,15 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     private final LoopThread writeLoopThread, flushLoopThread;
     // 记录Metric的线程
     private final LoopThread metricThread;
+    // 共享的虚拟线程执行器，不为null时，写入、刷盘和Metric任务都由它来调度，不再为每个Partition Group创建线程。
+    private final VirtualThreadExecutor virtualThreadExecutor;
+    // 写入、刷盘和Metric的虚拟线程，仅在使用虚拟线程执行器时有效
+    private final VirtualThread writeVirtualThread, flushVirtualThread, metricVirtualThread;
+    // 共享的fsync执行器，为null时刷盘线程不主动fsync，PERSISTENCE以数据写入PageCache为准。
+    private final Executor forceExecutor;
+    private final AtomicBoolean forcePending = new AtomicBoolean(false); // 是否有已提交但还未执行完的fsync任务
+    // 上一次打印Metric的时间
+    private long lastPrintMetricTimestamp = 0L;
     // 写入消息缓冲队列
     private final BlockingQueue<WriteCommand> writeCommandCache;
     // 复制位置，也就是提交位置。指向Journal store的绝对偏移量。
@@ -134,14 +171,42 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     private volatile boolean isDiskFull = false; // 磁盘是否满了？
     private static final long CHECK_DISK_SPACE_COOL_DOWN = 1000L; // 最频繁每1秒检查一次磁盘空间。
     private static final long FLUSH_CHECKPOINT_INTERVAL_MS = 60 * 1000L; // 最频繁每1分钟更新一次CheckPoint
+    private static final long FLUSH_SAMPLE_INTERVAL_MS = 100L; // 刷盘速度的采样周期
+    private static final long DIRTY_DRAIN_TIME_MS = 1000L; // 写入准入上限：刷盘线程在这个时间内能写完的数据量
+    private static final int MIN_DIRTY_LIMIT_RATIO = 8; // 写入准入上限最小为 maxDirtySize / 8
+    private static final long MAX_PARK_MS = 10L; // 等待刷盘时每次最多阻塞的时长
     private long lastFlushCheckpointTimestamp = 0L; // 上一次更新CheckPoint文件的时间。
     static final String CHECKPOINT_FILE= "checkpoint.json";
     private int lastEntryTerm = -1; // 最新一条消息的term
+    private volatile long dirtyLimit; // 写入准入上限，内存中未刷盘的数据超过这个值时写入需要等待刷盘，不超过config.maxDirtySize
+    private volatile Thread flushWaiter = null; // 正在等待刷盘的写入线程
+    private long flushSampleBytes = 0L, flushSampleNanos = 0L, flushSampleTimestamp = 0L; // 刷盘速度采样，只在刷盘线程中访问
     private final CasLock flushLock = new CasLock(); // 刷盘锁，刷盘、回滚的时候需要持有这个锁。
     private final ReadWriteLock rollbackLock = new ReentrantReadWriteLock();
+    // 写入完成、提交位置前进时通知的监听器，为null时不通知
+    private volatile EventListener<StoreEvent> storeEventListener;
 
     public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
                                       PreloadBufferPool bufferPool) {
+        this(topic, partitionGroup, base, config, bufferPool, null);
+    }
+
+    /**
+     * @param virtualThreadExecutor 共享的虚拟线程执行器，为null时，每个Partition Group使用独立的写入、刷盘线程。
+     */
+    public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
+                                      PreloadBufferPool bufferPool, VirtualThreadExecutor virtualThreadExecutor) {
+        this(topic, partitionGroup, base, config, bufferPool, virtualThreadExecutor, null);
+    }
+
+    /**
+     * @param virtualThreadExecutor 共享的虚拟线程执行器，为null时，每个Partition Group使用独立的写入、刷盘线程。
+     * @param forceExecutor 共享的fsync执行器，不为null时刷盘和fsync流水线执行，
+     *                      PERSISTENCE级别的写入在数据fsync到磁盘后才返回。
+     */
+    public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
+                                      PreloadBufferPool bufferPool, VirtualThreadExecutor virtualThreadExecutor,
+                                      Executor forceExecutor) {
         this.base = base;
         this.topic = topic;
         this.partitionGroup = partitionGroup;
@@ -153,57 +218,84 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         this.callbackMap.put(QosLevel.REPLICATION, new CallbackPositioningBelt());
         this.callbackMap.put(QosLevel.ALL, new CallbackPositioningBelt());
         StoreMessageSerializer storeMessageSerializer = new StoreMessageSerializer(config.maxMessageLength);
-        this.store = new PositioningStore<>(base, config.storeConfig, bufferPool, storeMessageSerializer);
+        this.store = new PositioningStore<>(base, config.storeConfig, bufferPool, storeMessageSerializer, topic);
         if (!base.isDirectory()) {
             throw new StoreInitializeException(String.format("Partition group directory: %s not available!", base.getAbsolutePath()));
         }
         term = getMaxTerm(store);
+        this.virtualThreadExecutor = virtualThreadExecutor;
+        this.forceExecutor = forceExecutor;
+        this.dirtyLimit = config.maxDirtySize;
+        initMetrics(config);
+
+        if (null != virtualThreadExecutor) {
+            this.writeVirtualThread = this::writeVirtual;
+            this.flushVirtualThread = this::flushOnce;
+            this.metricVirtualThread = this::printMetricVirtual;
+            this.writeLoopThread = null;
+            this.flushLoopThread = null;
+            this.metricThread = null;
+        } else {
+            this.writeVirtualThread = null;
+            this.flushVirtualThread = null;
+            this.metricVirtualThread = null;
+
+            this.writeLoopThread = LoopThread.builder()
+                    .name(String.format("WriteThread-%s-%d", topic, partitionGroup))
+                    .doWork(this::write)
+                    .sleepTime(0, 0)
+                    .onException(e -> {
+                        logger.warn("Write Exception: ", e);
+                        try {
+                          Thread.sleep(10);
+                        } catch (InterruptedException ignored) {}
+                    })
+                    .build();
+            this.flushLoopThread = LoopThread.builder()
+                    .name(String.format("FlushThread-%s-%d", topic, partitionGroup))
+                    .doWork(this::flush)
+                    .sleepTime(config.flushIntervalMs, config.flushIntervalMs)
+                    .onException(e -> logger.warn("Flush Exception: ", e))
+                    .build();
+            this.metricThread = config.printMetricIntervalMs > 0 ? LoopThread.builder()
+                    .sleepTime(config.printMetricIntervalMs, config.printMetricIntervalMs)
+                    .name("Metric-Thread")
+                    .onException(e -> logger.warn("Exception:", e))
+                    .doWork(this::printMetric).build() : null;
+        }
+    }
 
-        this.writeLoopThread = LoopThread.builder()
-                .name(String.format("WriteThread-%s-%d", topic, partitionGroup))
-                .doWork(this::write)
-                .sleepTime(0, 0)
-                .onException(e -> {
-                    logger.warn("Write Exception: ", e);
-                    try {
-                      Thread.sleep(10);
-                    } catch (InterruptedException ignored) {}
-                })
-                .build();
-        this.flushLoopThread = LoopThread.builder()
-                .name(String.format("FlushThread-%s-%d", topic, partitionGroup))
-                .doWork(this::flush)
-                .sleepTime(config.flushIntervalMs, config.flushIntervalMs)
-                .onException(e -> logger.warn("Flush Exception: ", e))
-                .build();
-        this.metricThread = initMetrics(config);
-    }
-
-    private LoopThread initMetrics(Config config) {
+    private void initMetrics(Config config) {
         if (config.printMetricIntervalMs > 0) {
             produceMetrics = new Metric("WriteMetric-" + topic + "-" + partitionGroup, 1,
-                    new String[]{"WriteLatency", "FlushLatency"}, new String[]{"WriteCount", "FlushCount"},
-                    new String[]{"WriteTraffic", "FlushTraffic"});
+                    new String[]{"WriteLatency", "FlushLatency", "FsyncLatency"}, new String[]{"WriteCount", "FlushCount", "FsyncCount"},
+                    new String[]{"WriteTraffic", "FlushTraffic", "FsyncTraffic"});
             produceMetric = produceMetrics.getMetricInstances().get(0);
             consumeMetrics = new Metric("ReadMetric-" + topic + "-" + partitionGroup, 1,
                     new String[]{"ReadLatency"}, new String[]{"ReadCount"},
                     new String[]{"ReadTraffic"});
             consumeMetric = consumeMetrics.getMetricInstances().get(0);
+        }
+    }
 
-            return LoopThread.builder()
-                    .sleepTime(config.printMetricIntervalMs, config.printMetricIntervalMs)
-                    .name("Metric-Thread")
-                    .onException(e -> logger.warn("Exception:", e))
-                    .doWork(() -> {
-                        consumeMetrics.reportAndReset();
-                        produceMetrics.reportAndReset();
-                        logger.info("{}-{} WriteCommandCache size: {}, dirty size: {}/{}.",
-                                topic, partitionGroup, writeCommandCache.size(),
-                                store.right() - store.flushPosition(), config.maxDirtySize);
-                    }).build();
-        } else {
-            return null;
+    private void printMetric() {
+        consumeMetrics.reportAndReset();
+        produceMetrics.reportAndReset();
+        logger.info("{}-{} WriteCommandCache size: {}, dirty size: {}/{}/{}.",
+                topic, partitionGroup, writeCommandCache.size(),
+                dirtySize(), dirtyLimit, config.maxDirtySize);
+    }
+
+    /**
+     * 虚拟线程模式下定期打印Metric，不到打印时间直接返回。
+     * @return 总是返回false，让出物理线程。
+     */
+    private boolean printMetricVirtual() {
+        if (SystemClock.now() - lastPrintMetricTimestamp >= config.printMetricIntervalMs) {
+            lastPrintMetricTimestamp = SystemClock.now();
+            printMetric();
         }
+        return false;
     }
 
     /**
@@ -275,66 +367,105 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     }
 
     /**
-     * 从indexPosition到store.right()重新构建索引
+     * 从indexPosition到store.right()重新构建索引。
+     * 直接在消息文件的缓存页上顺序解析消息头，每批最多解析RECOVER_BATCH_SIZE条消息，
+     * 每个分区的索引按批写入，每隔RECOVER_PROGRESS_INTERVAL_MS打印一次进度和预计剩余时间。
      * @throws IOException 出现IO异常时抛出
      */
     private void recoverIndices() throws IOException {
+        long startPosition = indexPosition;
+        long startTime = SystemClock.now();
+        long lastProgressTime = startTime;
+        IndexScanner scanner = new IndexScanner(RECOVER_BATCH_SIZE);
+        Map<Short, List<IndexItem>> pendingIndices = new HashMap<>();
 
         while (indexPosition < store.right()) {
-            ByteBuffer byteBuffer = store.read(indexPosition);
-            if (null == byteBuffer)
+            scanner.reset(indexPosition);
+            store.read(indexPosition, store.right() - indexPosition, scanner);
+            if (scanner.size() == 0) {
                 throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), indexPosition));
-            IndexItem indexItem = IndexItem.parseMessage(byteBuffer, indexPosition);
-            Partition partition = partitionMap.get(indexItem.getPartition());
+            }
+
+            for (int i = 0; i < scanner.size(); i++) {
+                Partition partition = partitionMap.get(scanner.partition(i));
+
+                // 如果分区不存在，可能变更过分区，忽略这条消息继续
+                if (null == partition) {
+                    indexPosition += scanner.length(i);
+                    continue;
+                }
+
+                PositioningStore<IndexItem> indexStore = partition.store;
+                List<IndexItem> pending = pendingIndices.computeIfAbsent(scanner.partition(i), k -> new ArrayList<>());
+                long indexItemPosition = scanner.index(i) * IndexItem.STORAGE_SIZE;
+                long nextIndexPosition = indexStore.right() + (long) pending.size() * IndexItem.STORAGE_SIZE;
+
+                if (nextIndexPosition == 0 || indexItemPosition < nextIndexPosition) {
+                    // 如果当前分区没有索引，或者当前分区的下一条索引大于即将写入的索引，
+                    // 删除当前索引之后的所有索引。
+                    appendIndices(indexStore, pending);
+                    indexStore.setRight(indexItemPosition);
+                } else if (indexItemPosition > nextIndexPosition) {
+                    // 正常情况下不会出现索引不连续
+                    throw new WriteException(
+                            String.format(
+                                    "Index must be continuous, store: %s, partition: %d, next index of the partition: %s，index in log: %s, log position: %s, log: \n%s",
+                                    this.base, scanner.partition(i),
+                                    Format.formatWithComma(nextIndexPosition / IndexItem.STORAGE_SIZE),
+                                    Format.formatWithComma(scanner.index(i)),
+                                    Format.formatWithComma(indexPosition),
+                                    MessageParser.getString(store.read(indexPosition))));
+                }
 
-            // 如果分区不存在，可能变更过分区，忽略这条消息继续
-            if(null == partition) {
+                // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
+                IndexItem indexItem = new IndexItem(scanner.partition(i), scanner.index(i), scanner.length(i), scanner.offset(i));
+                int count = scanner.batchSize(i) > 0 ? scanner.batchSize(i) : 1;
+                for (int j = 0; j < count; j++) {
+                    pending.add(indexItem);
+                }
+                partition.timeIndex.append(indexItem.getIndex(), scanner.timestamp(i));
+                partition.flagIndex.append(indexItem.getIndex(), scanner.flag(i), count);
                 indexPosition += indexItem.getLength();
-                continue;
             }
 
-            PositioningStore<IndexItem> indexStore = partition.store;
-            long indexItemPosition = indexItem.getIndex() * IndexItem.STORAGE_SIZE;
-
-            if (indexStore.right() == 0 || indexItemPosition < indexStore.right()) {
-                // 如果当前分区没有索引，或者当前分区的下一条索引大于即将写入的索引，
-                // 删除当前索引之后的所有索引。
-                indexStore.setRight(indexItemPosition);
-            } else if ( indexItemPosition > indexStore.right()) {
-                // 正常情况下不会出现索引不连续
-                throw new WriteException(
-                        String.format(
-                                "Index must be continuous, store: %s, partition: %d, next index of the partition: %s，index in log: %s, log position: %s, log: \n%s",
-                                this.base, indexItem.getPartition(),
-
-                                Format.formatWithComma(indexStore.right() / IndexItem.STORAGE_SIZE),
-                                Format.formatWithComma(indexItem.getIndex()),
-                                Format.formatWithComma(indexPosition),
-                                MessageParser.getString(byteBuffer)));
-            }
-
-            // 写入索引
-            if (BatchMessageParser.isBatch(byteBuffer)) {
-                short batchSize = BatchMessageParser.getBatchSize(byteBuffer);
-                indexItem.setBatchMessage(true);
-                indexItem.setBatchMessageSize(batchSize);
-            }
-            writeIndex(indexItem, partition.store);
-
-            // 每写入10M索引，执行一次刷盘
-            if (indexStore.right() - indexStore.flushPosition() >= 10 * 1024 * 1024) {
-                indexStore.flush();
-                logger.info("Recovering index, topic: {}, group: {}, Write position: {}, index position: {}",
-                        topic, partitionGroup, store.right(), indexPosition);
+            // 按批写入索引，每写入10M索引，执行一次刷盘
+            for (Map.Entry<Short, List<IndexItem>> entry : pendingIndices.entrySet()) {
+                Partition partition = partitionMap.get(entry.getKey());
+                PositioningStore<IndexItem> indexStore = partition.store;
+                appendIndices(indexStore, entry.getValue());
+                partition.flagIndex.commit();
+                if (indexStore.right() - indexStore.flushPosition() >= 10 * 1024 * 1024) {
+                    indexStore.flush();
+                }
+            }
+
+            long now = SystemClock.now();
+            if (now - lastProgressTime >= RECOVER_PROGRESS_INTERVAL_MS) {
+                lastProgressTime = now;
+                long recovered = indexPosition - startPosition, total = store.right() - startPosition;
+                logger.info("Recovering index, topic: {}, group: {}, progress: {}/{} ({}%), ETA: {}s.",
+                        topic, partitionGroup, Format.formatWithComma(recovered), Format.formatWithComma(total),
+                        recovered * 100 / total, (total - recovered) * (now - startTime) / Math.max(1L, recovered) / 1000);
             }
         }
 
         for (Partition partition : partitionMap.values()) {
             PositioningStore<IndexItem> indexStore = partition.store;
-            if (indexStore.right() > indexStore.flushPosition()) {
+            while (indexStore.right() > indexStore.flushPosition()) {
                 indexStore.flush();
             }
         }
+        if (indexPosition > startPosition) {
+            logger.info("Index recovered, topic: {}, group: {}, size: {}, takes: {}ms.",
+                    topic, partitionGroup, Format.formatWithComma(indexPosition - startPosition), SystemClock.now() - startTime);
+        }
+    }
+
+    private void appendIndices(PositioningStore<IndexItem> indexStore, List<IndexItem> indexItems) throws IOException {
+        if (!indexItems.isEmpty()) {
+            indexStore.append(indexItems);
+            indexItems.clear();
+        }
     }
 
     private void rollbackPartitions(long messagePosition) throws IOException {
@@ -450,7 +581,7 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
 
             File partitionBase = new File(indexBase, String.valueOf(partitionIndex));
             PositioningStore<IndexItem> indexStore =
-                    new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer());
+                    new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer(), topic);
             // 恢复索引存储
             indexStore.recover();
 
@@ -476,8 +607,14 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
 
             indexStore.setRight(validPosition + IndexItem.STORAGE_SIZE);
 
+            // 恢复时间索引，截掉超出分区索引的部分
+            TimeIndex timeIndex = new TimeIndex(partitionBase, config.timeIndexStoreConfig, bufferPool, TimeIndex.DEFAULT_INTERVAL, topic);
+            timeIndex.recover(indexStore.right() / IndexItem.STORAGE_SIZE);
+            // 恢复标签索引
+            FlagIndex flagIndex = new FlagIndex(partitionBase, config.flagIndexStoreConfig, bufferPool, topic);
+            flagIndex.recover(indexStore.right() / IndexItem.STORAGE_SIZE);
 
-            partitionMap.put(partitionIndex, new Partition(indexStore));
+            partitionMap.put(partitionIndex, new Partition(indexStore, timeIndex, flagIndex));
 
             if (indexStore.right() - indexStore.left() > 0) {
 
@@ -595,9 +732,13 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
             File partitionBase = new File(base, "index" + File.separator + partition);
             if (partitionBase.mkdirs()) {
                 PositioningStore<IndexItem> indexStore =
-                        new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer());
+                        new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer(), topic);
                 indexStore.recover();
-                partitionMap.put(partition, new Partition(indexStore));
+                TimeIndex timeIndex = new TimeIndex(partitionBase, config.timeIndexStoreConfig, bufferPool, TimeIndex.DEFAULT_INTERVAL, topic);
+                timeIndex.recover(indexStore.right() / IndexItem.STORAGE_SIZE);
+                FlagIndex flagIndex = new FlagIndex(partitionBase, config.flagIndexStoreConfig, bufferPool, topic);
+                flagIndex.recover(indexStore.right() / IndexItem.STORAGE_SIZE);
+                partitionMap.put(partition, new Partition(indexStore, timeIndex, flagIndex));
             } else {
                 throw new IOException(String.format("Create directory: %s failed!", partitionBase.getAbsolutePath()));
             }
@@ -608,44 +749,41 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         long t0 = System.nanoTime();
         ReadResult readResult = new ReadResult();
         checkPartition(partition);
-        PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
-        List<IndexItem> indexItemList = indexStore.batchRead(index * IndexItem.STORAGE_SIZE, count);
+        IndexArray indexArray = readIndices(partitionMap.get(partition), index, count);
 
         long size = 0L;
-        readResult.setEop(indexItemList.size() < count);
-        List<ByteBuffer> buffers = new ArrayList<>(count);
-        IndexItem lastIndexItem = null;
-        for (int i = 0; i < indexItemList.size(); i++) {
-            IndexItem indexItem = indexItemList.get(i);
-            // 如果索引的offset和上一条相同，说明它们是同一批消息，直接跳过即可
-            if (null != lastIndexItem && indexItem.getOffset() == lastIndexItem.getOffset()) {
-                continue;
-            }
-            if (indexItem.getOffset() >= commitPosition()) {
+        readResult.setEop(indexArray.indexCount() < count);
+        List<ByteBuffer> buffers = new ArrayList<>(indexArray.size());
+        // 同一批消息的索引已经合并，每个i对应一条消息
+        long currentIndex = index;
+        for (int i = 0; i < indexArray.size(); currentIndex += indexArray.count(i), i++) {
+            long offset = indexArray.offset(i);
+            int length = indexArray.length(i);
+            if (offset >= commitPosition()) {
                 continue;
             }
             try {
                 ByteBuffer log;
                 try {
-                    log = store.read(indexItem.getOffset(), indexItem.getLength());
-                    if (MessageParser.getInt(log, MessageParser.LENGTH) != indexItem.getLength()) {
+                    log = store.read(offset, length);
+                    if (MessageParser.getInt(log, MessageParser.LENGTH) != length) {
                         logger.warn("索引中消息长度不正确！index: {} , offset: {}, message length (from index/from message): {}/{}, partition: {}, store: {}.",
-                                Format.formatWithComma(index + i),
-                                Format.formatWithComma(indexItem.getOffset()),
-                                indexItem.getLength(), MessageParser.getInt(log, MessageParser.LENGTH),
+                                Format.formatWithComma(currentIndex),
+                                Format.formatWithComma(offset),
+                                length, MessageParser.getInt(log, MessageParser.LENGTH),
                                 partition,
                                 base.getAbsolutePath());
-                        log = store.read(indexItem.getOffset());
+                        log = store.read(offset);
                     }
                 } catch (Throwable t) {
                     logger.warn("Exception on read, try to read without length! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
-                            Format.formatWithComma(index + i),
-                            Format.formatWithComma(indexItem.getOffset()),
-                            indexItem.getLength(),
+                            Format.formatWithComma(currentIndex),
+                            Format.formatWithComma(offset),
+                            length,
                             partition,
                             base.getAbsolutePath(),
                             t);
-                    log = store.read(indexItem.getOffset());
+                    log = store.read(offset);
                 }
 
                 if (null != log) {
@@ -655,15 +793,14 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
                         break;
                     }
                 } else {
-                    throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), indexItem.getOffset()));
+                    throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), offset));
                 }
-                lastIndexItem = indexItem;
 
             } catch (Throwable t) {
                 logger.warn("Exception on read! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
-                        Format.formatWithComma(index + i),
-                        Format.formatWithComma(indexItem.getOffset()),
-                        indexItem.getLength(),
+                        Format.formatWithComma(currentIndex),
+                        Format.formatWithComma(offset),
+                        length,
                         partition,
                         base.getAbsolutePath(),
                         t);
@@ -681,6 +818,137 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         return readResult;
     }
 
+    /**
+     * 批量读取索引，直接在索引文件的缓存页上解析，不创建IndexItem对象，同一批消息的索引合并为一条。
+     * 返回的IndexArray是线程内复用的，下次调用时会被覆盖。
+     * 顺序读取时，在后台预加载后面的索引文件。
+     */
+    private IndexArray readIndices(Partition partition, long index, int count) throws IOException {
+        count = Math.max(1, count);
+        IndexArray indexArray = INDEX_ARRAY.get();
+        indexArray.clear();
+        partition.store.read(index * IndexItem.STORAGE_SIZE, (long) count * IndexItem.STORAGE_SIZE, indexArray);
+
+        long nextIndex = index + indexArray.indexCount();
+        if (partition.nextReadIndex == index) {
+            partition.prefetch(nextIndex + INDEX_PREFETCH_DISTANCE);
+        }
+        partition.nextReadIndex = nextIndex;
+        return indexArray;
+    }
+
+    /**
+     * 读取消息在文件中的位置，用于零拷贝发送消息。
+     * 遇到尚未提交或者尚未刷盘的消息时停止读取。
+     * @see PartitionGroupStore#readFileRegions(short, long, int, long)
+     */
+    public FileRegionReadResult readFileRegions(short partition, long index, int count, long maxSize) throws IOException {
+        long t0 = System.nanoTime();
+        FileRegionReadResult readResult = new FileRegionReadResult();
+        checkPartition(partition);
+        PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
+        IndexArray indexArray = readIndices(partitionMap.get(partition), index, count);
+
+        long size = 0L;
+        int messageCount = 0;
+        long nextIndex = index;
+        readResult.setEop(indexArray.indexCount() < count);
+        List<StoreFileRegion> regions = new ArrayList<>();
+        StoreFileRegion lastRegion = null;
+        long lastOffset = -1L;
+        // 同一批消息的索引已经合并，每个i对应一条消息
+        for (int i = 0; i < indexArray.size(); i++) {
+            long offset = indexArray.offset(i);
+            int length = indexArray.length(i);
+            if (offset >= commitPosition()) {
+                break;
+            }
+            StoreFileRegion region = store.fileRegion(offset, length);
+            if (null == region) {
+                break;
+            }
+            if (maxSize > 0 && messageCount > 0 && size + length >= maxSize) {
+                break;
+            }
+            size += length;
+            messageCount++;
+            nextIndex += indexArray.count(i);
+
+            StoreFileRegion merged = null == lastRegion ? null : lastRegion.merge(region);
+            if (null != merged) {
+                regions.set(regions.size() - 1, merged);
+                lastRegion = merged;
+            } else {
+                regions.add(region);
+                lastRegion = region;
+            }
+            lastOffset = offset;
+        }
+
+        // 最后一条消息是批消息时，它的索引有可能没有全部读出来，继续跳过这批消息剩余的索引
+        if (lastOffset >= 0 && nextIndex == index + indexArray.indexCount()) {
+            while (nextIndex * IndexItem.STORAGE_SIZE < indexStore.right()
+                    && indexStore.read(nextIndex * IndexItem.STORAGE_SIZE).getOffset() == lastOffset) {
+                nextIndex++;
+            }
+        }
+
+        readResult.setRegions(regions.toArray(new StoreFileRegion[0]));
+        readResult.setCount(messageCount);
+        readResult.setSize(size);
+        readResult.setNextIndex(nextIndex);
+        readResult.setCode(JoyQueueCode.SUCCESS);
+        if (null != consumeMetric) {
+            consumeMetric.addCounter("ReadCount", messageCount);
+            consumeMetric.addLatency("ReadLatency", System.nanoTime() - t0);
+            consumeMetric.addTraffic("ReadTraffic", size);
+        }
+        return readResult;
+    }
+
+    /**
+     * 用标签索引跳过标签不匹配的消息。
+     * @see PartitionGroupStore#skipUnmatched(short, long, int, IntPredicate)
+     */
+    public int skipUnmatched(short partition, long index, int maxCount, IntPredicate flagMatcher) throws IOException {
+        checkPartition(partition);
+        Partition p = partitionMap.get(partition);
+        PositioningStore<IndexItem> indexStore = p.store;
+        long leftIndex = indexStore.left() / IndexItem.STORAGE_SIZE;
+        long rightIndex = indexStore.right() / IndexItem.STORAGE_SIZE;
+        if (index < leftIndex || index >= rightIndex) {
+            return 0;
+        }
+        int count = p.flagIndex.countUnmatched(index, (int) Math.min(maxCount, rightIndex - index), flagMatcher);
+        if (count == 0) {
+            return 0;
+        }
+
+        // 只跳过已经提交的消息，已提交的消息是前缀，折半查找最后一条已提交的消息
+        long commitPosition = commitPosition();
+        if (indexStore.read((index + count - 1) * IndexItem.STORAGE_SIZE).getOffset() >= commitPosition) {
+            int lo = 0, hi = count - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (indexStore.read((index + mid - 1) * IndexItem.STORAGE_SIZE).getOffset() < commitPosition) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            count = lo;
+        }
+
+        // 不停在批消息的中间，批消息的所有索引指向同一条消息
+        if (count > 0 && index + count < rightIndex) {
+            long nextOffset = indexStore.read((index + count) * IndexItem.STORAGE_SIZE).getOffset();
+            while (count > 0 && indexStore.read((index + count - 1) * IndexItem.STORAGE_SIZE).getOffset() == nextOffset) {
+                count--;
+            }
+        }
+        return count;
+    }
+
     private void checkPartition(short partition) {
         if (!partitionMap.containsKey(partition))
             throw new ReadException(String.format("No such partition: %d in topic: %s, partition group: %d.", partition, topic, partitionGroup));
@@ -728,10 +996,10 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
                     indexItem.setBatchMessage(true);
                     indexItem.setBatchMessageSize(batchSize);
                 }
-                writeIndex(indexItem, partition.store);
+                writeIndex(indexItem, partition, getStorageTimestamp(byteBuffer), MessageParser.getShort(byteBuffer, MessageParser.FLAG));
 
                 // 唤醒刷盘线程
-                flushLoopThread.wakeup();
+                wakeupFlushThread();
             }
         } catch (Throwable t) {
             onWriteException(start, partitionSnapshot , t);
@@ -745,13 +1013,17 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
                 .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().store.right()));
     }
 
-    private void writeIndex(IndexItem indexItem, PositioningStore<IndexItem> indexStore) throws IOException {
+    private void writeIndex(IndexItem indexItem, Partition partition, long timestamp, short flag) throws IOException {
+        PositioningStore<IndexItem> indexStore = partition.store;
         if (indexItem.isBatchMessage()) {
             // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
             appendBatchMessageIndices(indexStore, indexItem);
         } else {
             indexStore.append(indexItem);
         }
+        partition.timeIndex.append(indexItem.getIndex(), timestamp);
+        partition.flagIndex.append(indexItem.getIndex(), flag, indexItem.isBatchMessage() ? indexItem.getBatchMessageSize() : 1);
+        partition.flagIndex.commit();
         indexPosition += indexItem.getLength();
     }
 
@@ -768,6 +1040,10 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
      * 从写入请求队列中获取写入请求，单线程写入消息。
      */
     private void write() {
+        if (config.groupCommitMaxCount > 1) {
+            groupWrite();
+            return;
+        }
         WriteCommand writeCommand = null;
 
         // 加写锁，防止Leader切换的时候，和复制线程并发写入
@@ -798,6 +1074,7 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
                 long[] indices = write(writeCommand.messages);
                 // 处理回调
                 handleCallback(writeCommand, store.right(), indices);
+                fireWriteEvent();
             }
             long t1 = System.nanoTime();
 //
@@ -825,6 +1102,190 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         }
     }
 
+    /**
+     * 组提交：从写入请求队列中一次取出多个写入请求，合并成一次连续的Journal写入，
+     * 每个分区的索引也合并成一次写入，最后统一处理所有请求的回调。
+     * 每次合并的请求数量不超过config.groupCommitMaxCount，
+     * 除第一个请求外，合并的消息总长度不超过config.groupCommitMaxBytes。
+     */
+    private void groupWrite() {
+        List<WriteCommand> writeCommands = new ArrayList<>();
+
+        // 加写锁，防止Leader切换的时候，和复制线程并发写入
+        if(!writeLock.tryLock()) {
+            throw new IllegalStateException("Acquire write lock failed!");
+        }
+        // 检查Store状态
+        verifyState(true);
+
+        try {
+            // 获取写入请求，第一个请求阻塞等待，之后只取已经在队列中的请求
+            WriteCommand writeCommand = writeCommandCache.take();
+            writeCommands.add(writeCommand);
+            int size = writeCommand.size();
+            int count = writeCommand.messages.length;
+            while (writeCommands.size() < config.groupCommitMaxCount
+                    && null != (writeCommand = writeCommandCache.peek())
+                    && size + writeCommand.size() <= config.groupCommitMaxBytes
+                    && null != (writeCommand = writeCommandCache.poll())) {
+                writeCommands.add(writeCommand);
+                size += writeCommand.size();
+                count += writeCommand.messages.length;
+            }
+
+            // 记录Metric
+            if (null != produceMetric) {
+                produceMetric.addTraffic("WriteTraffic", size);
+            }
+            long t0 = System.nanoTime();
+
+            // 如果内存中脏数据过多，需要等待刷盘线程
+            if (waitForFlush()) {
+                // 超时，写入失败
+                onWriteCommandsEvent(writeCommands, JoyQueueCode.SE_WRITE_TIMEOUT);
+            } else if (writeCommands.size() == 1) {
+                // 只有一个请求，不需要合并
+                writeCommand = writeCommands.get(0);
+                long[] indices = write(writeCommand.messages);
+                handleCallback(writeCommand, store.right(), indices);
+                fireWriteEvent();
+            } else {
+                long[][] indices = write(writeCommands, count);
+                // 所有请求的数据在同一次写入中完成，使用相同的位置一次性处理回调
+                long position = store.right();
+                for (int i = 0; i < writeCommands.size(); i++) {
+                    handleCallback(writeCommands.get(i), position, indices[i]);
+                }
+                fireWriteEvent();
+            }
+            long t1 = System.nanoTime();
+
+            if (null != produceMetric) {
+                produceMetric.addLatency("WriteLatency", t1 - t0);
+                produceMetric.addCounter("WriteCount", writeCommands.size());
+            }
+        } catch (DiskFullException e) {
+            onWriteCommandsEvent(writeCommands, JoyQueueCode.SE_DISK_FULL);
+            logger.warn("Write failed, cause: disk full! Store: {}.", base.getAbsolutePath());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            onWriteCommandsEvent(writeCommands, JoyQueueCode.CY_STATUS_ERROR);
+            logger.warn("Write failed, cause: store disabled! Store: {}.", base.getAbsolutePath());
+        } catch (Throwable t) {
+            onWriteCommandsEvent(writeCommands, JoyQueueCode.SE_WRITE_FAILED);
+            logger.warn("Write failed, cause: exception! Store: {}.", base.getAbsolutePath(), t);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 将多个写入请求的消息在一次加锁中连续写入Journal，并按分区批量写入索引。
+     * 消息直接写入Journal文件的缓冲区，不再合并到中间缓冲区。
+     * @param writeCommands 写入请求
+     * @param count 所有消息的总数量
+     * @return 每个写入请求中消息的索引序号
+     * @throws IOException 发生IO异常时抛出
+     */
+    private long[][] write(List<WriteCommand> writeCommands, int count) throws IOException {
+
+        // 记录Journal和每个分区当前位置，用于回滚
+        long start = store.right();
+        Map<Short, Long> partitionSnapshot = createPartitionSnapshot();
+
+        long position = start;
+        List<ByteBuffer> journal = new ArrayList<>(count);
+        Map<Short, IndexBatch> indexBatches = new HashMap<>();
+        long[][] indices = new long[writeCommands.size()][];
+
+        try {
+            for (int i = 0; i < writeCommands.size(); i++) {
+                ByteBuffer[] byteBuffers = writeCommands.get(i).messages;
+                indices[i] = new long[byteBuffers.length];
+                for (int j = 0; j < byteBuffers.length; j++) {
+                    ByteBuffer byteBuffer = byteBuffers[j].slice();
+
+                    // 检查消息是否超长
+                    if (byteBuffer.remaining() > config.maxMessageLength) {
+                        throw new WriteException(String.format("Message too large! Message length: %d, limit: %d", byteBuffer.remaining(), config.maxMessageLength));
+                    }
+                    // 生成索引
+                    IndexItem indexItem = IndexItem.parseMessage(byteBuffer, position);
+                    IndexBatch indexBatch = indexBatches.get(indexItem.getPartition());
+                    if (null == indexBatch) {
+                        indexBatch = new IndexBatch(partitionMap.get(indexItem.getPartition()));
+                        indexBatches.put(indexItem.getPartition(), indexBatch);
+                    }
+                    indices[i][j] = indexBatch.nextIndex();
+                    // 把索引序号写入消息中
+                    MessageParser.setLong(byteBuffer, MessageParser.INDEX, indices[i][j]);
+                    indexItem.setIndex(indices[i][j]);
+                    if (BatchMessageParser.isBatch(byteBuffer)) {
+                        short batchSize = BatchMessageParser.getBatchSize(byteBuffer);
+                        indexItem.setBatchMessage(true);
+                        indexItem.setBatchMessageSize(batchSize);
+                    }
+                    updateLastEntryTerm(byteBuffer);
+                    indexBatch.add(indexItem, getStorageTimestamp(byteBuffer), MessageParser.getShort(byteBuffer, MessageParser.FLAG));
+
+                    position += byteBuffer.remaining();
+                    journal.add(byteBuffer);
+                }
+            }
+
+            // 一次写入所有消息
+            store.append(journal);
+
+            // 每个分区一次写入所有索引
+            for (IndexBatch indexBatch : indexBatches.values()) {
+                indexBatch.writeTo();
+            }
+
+            // 唤醒刷盘线程
+            wakeupFlushThread();
+        } catch (Throwable t) {
+            onWriteException(start, partitionSnapshot , t);
+            throw t;
+        }
+        return indices;
+    }
+
+    private void onWriteCommandsEvent(List<WriteCommand> writeCommands, JoyQueueCode code) {
+        for (WriteCommand writeCommand : writeCommands) {
+            if (writeCommand.eventListener != null) {
+                writeCommand.eventListener.onEvent(new WriteResult(code, null));
+            }
+        }
+    }
+
+    /**
+     * 虚拟线程模式下的写入，每次处理一个写入请求。
+     * 与{@link #write()}不同，队列为空或者脏数据过多时不阻塞等待，直接让出物理线程，
+     * 避免占满执行器的物理线程导致刷盘任务无法执行。
+     *
+     * @return true：处理了一个写入请求，false：没有可以处理的写入请求。
+     */
+    private boolean writeVirtual() {
+        WriteCommand writeCommand = writeCommandCache.peek();
+        if (null == writeCommand) {
+            return false;
+        }
+        if (isDirtyFull()) {
+            // 脏数据过多，等待刷盘完成后由刷盘任务唤醒，这里只处理已经超时的写入请求。
+            if (SystemClock.now() - writeCommand.timestamp > config.writeTimeoutMs && writeCommandCache.remove(writeCommand)) {
+                if (writeCommand.eventListener != null) {
+                    writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_TIMEOUT, null));
+                }
+                return true;
+            }
+            wakeupFlushThread();
+            return false;
+        }
+        write();
+        return true;
+    }
+
     private void verifyState(boolean expectedState) {
         if(enabled.get() != expectedState) {
             throw new IllegalStateException();
@@ -833,19 +1294,71 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
 
     /**
      * 如果内存中脏数据过多，需要等待刷盘线程。
+     * 等待期间写入线程阻塞，刷盘线程每次写入数据后唤醒写入线程。
      *
      * 满足如下任一一个条件退出等待并返回：
-     * 1. 一部分数据已经写入磁盘，脏数据大小小于config.maxDirtySize，返回false；
-     * 2. 超时，返回true；
-     * @return true：超时。false：脏数据大小小于config.maxDirtySize。
+     * 1. 一部分数据已经写入磁盘，脏数据大小小于dirtyLimit，返回false；
+     * 2. 超时或者线程被中断，返回true；
+     * @return true：超时。false：脏数据大小小于dirtyLimit。
      */
     private boolean waitForFlush() {
-
+        if (!isDirtyFull()) {
+            return false;
+        }
         long t0 = SystemClock.now();
-        while (store.right() - store.flushPosition() >= config.maxDirtySize && SystemClock.now() - t0 <= config.writeTimeoutMs) {
-            Thread.yield();
+        flushWaiter = Thread.currentThread();
+        try {
+            while (isDirtyFull()) {
+                long waitMs = config.writeTimeoutMs - (SystemClock.now() - t0);
+                if (waitMs < 0 || Thread.currentThread().isInterrupted()) {
+                    return true;
+                }
+                wakeupFlushThread();
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.min(waitMs, MAX_PARK_MS)));
+            }
+            return false;
+        } finally {
+            flushWaiter = null;
+        }
+    }
+
+    private long dirtySize() {
+        return store.right() - store.flushPosition();
+    }
+
+    private boolean isDirtyFull() {
+        return dirtySize() >= dirtyLimit;
+    }
+
+    /**
+     * 当前的写入压力：内存中未刷盘的数据占写入准入上限的百分比。
+     */
+    int writePressure() {
+        return (int) (dirtySize() * 100 / Math.max(1L, dirtyLimit));
+    }
+
+    /**
+     * 根据刷盘线程实际写入的速度调整写入准入上限，让内存中的脏数据可以在DIRTY_DRAIN_TIME_MS内写入磁盘。
+     * 只统计刷盘线程在写文件上花费的时间，刷盘线程空闲不会拉低速度。
+     * @param flushBytes 本次刷盘写入的数据长度
+     * @param flushNanos 本次刷盘的耗时
+     */
+    private void updateDirtyLimit(long flushBytes, long flushNanos) {
+        flushSampleBytes += flushBytes;
+        flushSampleNanos += flushNanos;
+        long now = SystemClock.now();
+        if (now - flushSampleTimestamp >= FLUSH_SAMPLE_INTERVAL_MS) {
+            if (flushSampleBytes > 0 && flushSampleNanos > 0) {
+                long bytesPerMs = flushSampleBytes * TimeUnit.MILLISECONDS.toNanos(1L) / flushSampleNanos;
+                long limit = Math.max(config.maxDirtySize / MIN_DIRTY_LIMIT_RATIO,
+                        Math.min(config.maxDirtySize, bytesPerMs * DIRTY_DRAIN_TIME_MS));
+                // 平滑调整，避免一次采样的抖动
+                dirtyLimit = (dirtyLimit + limit) / 2;
+            }
+            flushSampleBytes = 0L;
+            flushSampleNanos = 0L;
+            flushSampleTimestamp = now;
         }
-        return SystemClock.now() - t0 > config.writeTimeoutMs;
     }
 
     private void handleCallback(WriteCommand writeCommand, long position, long[] indices) {
@@ -864,27 +1377,7 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
             try {
                 boolean flushed;
                 do {
-                    long t0 = System.nanoTime();
-                    long before = store.flushPosition();
-
-                    //执行Journal和Index刷盘操作，返回值标识是否有数据写入了磁盘
-                    flushed = store.flush() | flushIndices();
-
-                    // 记录Metric
-                    if (null != produceMetric && flushed) {
-                        long t1 = System.nanoTime();
-                        produceMetric.addTraffic("FlushTraffic", store.flushPosition() - before);
-                        produceMetric.addLatency("FlushLatency", t1 - t0);
-                        produceMetric.addCounter("FlushCount", 1);
-                    }
-
-                    // 执行回调
-                    if (flushed) {
-                        callbackMap.get(QosLevel.PERSISTENCE).callbackBefore(flushPosition());
-                    }
-
-                    // 定期更新CheckPoint
-                    flushCheckpointPeriodically();
+                    flushed = doFlush();
                 } while (flushed && isStarted());
             } catch (IOException e) {
                 logger.warn("Exception:", e);
@@ -894,11 +1387,134 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         }
     }
 
+    /**
+     * 虚拟线程模式下的刷盘，每次只刷一轮，避免长时间占用物理线程。
+     * @return 是否有数据被写入磁盘
+     */
+    private boolean flushOnce() {
+        boolean flushed = false;
+        if(flushLock.tryLock()) {
+            try {
+                flushed = doFlush();
+            } catch (IOException e) {
+                logger.warn("Exception:", e);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        // 脏数据减少了，唤醒可能在等待刷盘的写入任务
+        if (flushed && !writeCommandCache.isEmpty()) {
+            virtualThreadExecutor.wakeup(writeVirtualThread);
+        }
+        return flushed;
+    }
+
+    /**
+     * 执行一轮Journal和Index刷盘，调用前需要持有flushLock。
+     * @return 是否有数据被写入磁盘
+     */
+    private boolean doFlush() throws IOException {
+        long t0 = System.nanoTime();
+        long before = store.flushPosition();
+
+        //执行Journal和Index刷盘操作，返回值标识是否有数据写入了磁盘
+        boolean flushed = store.flush();
+        long flushBytes = store.flushPosition() - before;
+        if (flushBytes > 0) {
+            updateDirtyLimit(flushBytes, System.nanoTime() - t0);
+            // 脏数据减少了，唤醒等待刷盘的写入线程
+            Thread waiter = flushWaiter;
+            if (null != waiter) {
+                LockSupport.unpark(waiter);
+            }
+        }
+        flushed = flushIndices() | flushed;
+
+        // 记录Metric
+        if (null != produceMetric && flushed) {
+            long t1 = System.nanoTime();
+            produceMetric.addTraffic("FlushTraffic", store.flushPosition() - before);
+            produceMetric.addLatency("FlushLatency", t1 - t0);
+            produceMetric.addCounter("FlushCount", 1);
+        }
+
+        // 执行回调，开启fsync时由fsync任务执行回调
+        if (flushed) {
+            if (null == forceExecutor) {
+                callbackMap.get(QosLevel.PERSISTENCE).callbackBefore(flushPosition());
+            } else {
+                requestForce();
+            }
+        }
+
+        // 定期更新CheckPoint
+        flushCheckpointPeriodically();
+        return flushed;
+    }
+
+    /**
+     * 提交一个fsync任务，如果已经有任务在排队或执行，不再重复提交：
+     * 任务执行时会fsync当时所有已刷盘的数据，多次刷盘合并为一次fsync。
+     */
+    private void requestForce() {
+        if (forcePending.compareAndSet(false, true)) {
+            try {
+                forceExecutor.execute(this::force);
+            } catch (RejectedExecutionException e) {
+                forcePending.set(false);
+                logger.warn("Submit fsync task rejected, store: {}.", base.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * 在fsync线程中执行，fsync期间刷盘线程继续将数据写入PageCache。
+     */
+    private void force() {
+        boolean forced = false;
+        try {
+            forced = doForce();
+        } catch (Throwable t) {
+            logger.warn("Fsync exception, store: {}.", base.getAbsolutePath(), t);
+        } finally {
+            forcePending.set(false);
+        }
+        // fsync期间又有新的数据刷盘，继续下一轮fsync
+        if (forced && store.forcePosition() < store.flushPosition()) {
+            requestForce();
+        }
+    }
+
+    private boolean doForce() throws IOException {
+        long t0 = System.nanoTime();
+        long forceSize = store.force();
+        if (forceSize > 0) {
+            if (null != produceMetric) {
+                produceMetric.addTraffic("FsyncTraffic", forceSize);
+                produceMetric.addLatency("FsyncLatency", System.nanoTime() - t0);
+                produceMetric.addCounter("FsyncCount", 1);
+            }
+            callbackMap.get(QosLevel.PERSISTENCE).callbackBefore(persistPosition());
+            return true;
+        }
+        return false;
+    }
+
+    private void wakeupFlushThread() {
+        if (null != virtualThreadExecutor) {
+            virtualThreadExecutor.wakeup(flushVirtualThread);
+        } else {
+            flushLoopThread.wakeup();
+        }
+    }
+
     private boolean flushIndices() {
         try {
             boolean flushed = false;
             for (Partition partition : partitionMap.values()) {
                 flushed = partition.store.flush() || flushed;
+                flushed = partition.timeIndex.flush() || flushed;
+                flushed = partition.flagIndex.flush() || flushed;
             }
             return flushed;
         } catch (Exception e) {
@@ -976,6 +1592,9 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         // 放入队列中，如果队列满，阻塞等待
         try {
             this.writeCommandCache.put(writeCommand);
+            if (null != virtualThreadExecutor) {
+                virtualThreadExecutor.wakeup(writeVirtualThread);
+            }
         } catch (InterruptedException e) {
             logger.warn("Exception: ", e);
             if (eventListener != null)
@@ -1041,6 +1660,13 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
                     }
                 }
 
+                // 删除已经被删除的索引对应的时间索引和标签索引
+                Partition indexPartition = partitionMap.get(p);
+                if (null != indexPartition) {
+                    deletedSize += indexPartition.timeIndex.physicalDeleteTo(indexStore.left() / IndexItem.STORAGE_SIZE);
+                    deletedSize += indexPartition.flagIndex.physicalDeleteTo(indexStore.left() / IndexItem.STORAGE_SIZE);
+                }
+
                 try {
                     long storeMinMessagePosition = indexStore.read(indexStore.left()).getOffset();
                     if (minMessagePosition < 0 || minMessagePosition > storeMinMessagePosition) {
@@ -1061,6 +1687,23 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         return deletedSize;
     }
 
+    /**
+     * 分层存储：上传消息和索引中写满的文件，删除已经上传的较早的本地文件。
+     * 未开启分层存储时直接返回。
+     *
+     * @return 本次删除本地副本的文件数量
+     * @throws IOException 发生IO异常时抛出
+     */
+    public int offload() throws IOException {
+        int offloaded = store.offload();
+        for (Partition partition : partitionMap.values()) {
+            offloaded += partition.store.offload();
+            offloaded += partition.timeIndex.offload();
+            offloaded += partition.flagIndex.offload();
+        }
+        return offloaded;
+    }
+
     /**
      *
      * @param indexStore  partition index store
@@ -1107,7 +1750,7 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     @Override
     protected void doStart() throws Exception {
         if (config.printMetricIntervalMs > 0) {
-            metricThread.start();
+            startMetricThread();
         }
         startFlushThread();
         if (enabled.get()) {
@@ -1115,15 +1758,29 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         }
     }
 
+    private void startMetricThread() {
+        if (null != virtualThreadExecutor) {
+            virtualThreadExecutor.start(metricVirtualThread, String.format("Metric-%s-%d", topic, partitionGroup));
+        } else {
+            metricThread.start();
+        }
+    }
 
     private void startFlushThread() {
-       flushLoopThread.start();
+        if (null != virtualThreadExecutor) {
+            virtualThreadExecutor.start(flushVirtualThread, String.format("Flush-%s-%d", topic, partitionGroup));
+        } else {
+            flushLoopThread.start();
+        }
     }
 
 
     private void startWriteThread() {
-
-        this.writeLoopThread.start();
+        if (null != virtualThreadExecutor) {
+            virtualThreadExecutor.start(writeVirtualThread, String.format("Write-%s-%d", topic, partitionGroup));
+        } else {
+            this.writeLoopThread.start();
+        }
     }
 
     @Override
@@ -1144,11 +1801,23 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
             logSafe("Stopping flush thread {}-{}...", topic, partitionGroup);
 
             stopFlushThread();
+            if (null != forceExecutor) {
+                // 等待正在执行的fsync任务结束，然后fsync剩余的数据
+                while (!forcePending.compareAndSet(false, true)) {
+                    //noinspection BusyWait
+                    Thread.sleep(10);
+                }
+                try {
+                    doForce();
+                } finally {
+                    forcePending.set(false);
+                }
+            }
             flushCheckpoint();
 
             if (config.printMetricIntervalMs > 0) {
                 logSafe("Stopping metric threads {}-{}...", topic, partitionGroup);
-                metricThread.stop();
+                stopMetricThread();
             }
             System.out.println("Store stopped. " + base.getAbsolutePath());
             logSafe("Store stopped {}-{}.", topic, partitionGroup);
@@ -1174,12 +1843,36 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     }
 
 
+    private void stopMetricThread() {
+        if (null != virtualThreadExecutor) {
+            stopVirtualThread(metricVirtualThread);
+        } else {
+            metricThread.stop();
+        }
+    }
+
     private void stopFlushThread() {
-        flushLoopThread.stop();
+        if (null != virtualThreadExecutor) {
+            stopVirtualThread(flushVirtualThread);
+        } else {
+            flushLoopThread.stop();
+        }
     }
 
     private void stopWriteThread() {
-        writeLoopThread.stop();
+        if (null != virtualThreadExecutor) {
+            stopVirtualThread(writeVirtualThread);
+        } else {
+            writeLoopThread.stop();
+        }
+    }
+
+    private void stopVirtualThread(VirtualThread virtualThread) {
+        try {
+            virtualThreadExecutor.stop(virtualThread);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public long getLeftIndex(short partition) {
@@ -1243,8 +1936,11 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     public void disable() {
         if (enabled.get()) {
             stopWriteThread();
-            writeCommandCache.clear();
             enabled.set(false);
+            // 队列中还没有写入的请求直接失败，回调中释放调用方持有的缓冲区
+            List<WriteCommand> writeCommands = new ArrayList<>(writeCommandCache.size());
+            writeCommandCache.drainTo(writeCommands);
+            onWriteCommandsEvent(writeCommands, JoyQueueCode.SE_WRITE_FAILED);
         }
     }
 
@@ -1265,6 +1961,8 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         try {
             for (Partition partition : partitionMap.values()) {
                 partition.store.setRight(0L);
+                partition.timeIndex.truncate(0L);
+                partition.flagIndex.truncate(0L);
             }
             store.clear(position);
         } finally {
@@ -1289,6 +1987,8 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
             if (clearIndexStore) {
                 for (Partition partition : partitionMap.values()) {
                     partition.store.setRight(0L);
+                    partition.timeIndex.truncate(0L);
+                    partition.flagIndex.truncate(0L);
                 }
             } else {
                 rollbackPartitions(position);
@@ -1325,6 +2025,13 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         return store.flushPosition();
     }
 
+    /**
+     * PERSISTENCE级别认为数据已经持久化的位置：开启fsync时是fsync的位置，否则是刷盘的位置。
+     */
+    long persistPosition() {
+        return null == forceExecutor ? store.flushPosition() : store.forcePosition();
+    }
+
     /**
      * 集群提交的位置 flushPosition <= commitPosition
      */
@@ -1398,36 +2105,54 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
                 // 写入消息
                 long position = store.appendByteBuffer(byteBuffer.asReadOnlyBuffer());
 
-                // 写入索引
+                // 写入索引：解析出全部消息的索引之后，每个分区的索引一次批量写入
+                Map<Short, List<IndexItem>> pendingIndices = new HashMap<>();
+                long indexedLength = 0L;
                 while (byteBuffer.hasRemaining()) {
                     IndexItem indexItem = IndexItem.parseMessage(byteBuffer, start + byteBuffer.position());
                     Partition partition = partitionMap.get(indexItem.getPartition());
-                    if (partition.store.right() == 0L) {
+                    List<IndexItem> pending = pendingIndices.computeIfAbsent(indexItem.getPartition(), k -> new ArrayList<>());
+                    long nextIndexPosition = partition.store.right() + (long) pending.size() * IndexItem.STORAGE_SIZE;
+                    if (nextIndexPosition == 0L) {
                         // 如果当前分区没有消息，以这条消息记录的索引序号为准
                         partition.store.setRight(indexItem.getIndex() * IndexItem.STORAGE_SIZE);
-                    } else if (indexItem.getIndex() * IndexItem.STORAGE_SIZE != partition.store.right()) {
+                    } else if (indexItem.getIndex() * IndexItem.STORAGE_SIZE != nextIndexPosition) {
                         // 检查索引序号在分区内是否连续
                         throw new WriteException(
                                 String.format(
                                         "Index must be continuous, store: %s, partition: %d, next index of the partition: %s，index in log: %s, log position: %s, log: \n%s",
                                         this.base, indexItem.getPartition(),
-                                        Format.formatWithComma(partition.store.right() / IndexItem.STORAGE_SIZE),
+                                        Format.formatWithComma(nextIndexPosition / IndexItem.STORAGE_SIZE),
                                         Format.formatWithComma(indexItem.getIndex()),
                                         Format.formatWithComma(start + byteBuffer.position()),
                                         MessageParser.getString(byteBuffer)));
                     }
 
+                    int count = 1;
                     if (BatchMessageParser.isBatch(byteBuffer)) {
                         short batchSize = BatchMessageParser.getBatchSize(byteBuffer);
                         indexItem.setBatchMessage(true);
                         indexItem.setBatchMessageSize(batchSize);
+                        count = batchSize;
                     }
 
-                    writeIndex(indexItem, partition.store);
+                    // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
+                    for (int i = 0; i < count; i++) {
+                        pending.add(indexItem);
+                    }
+                    partition.timeIndex.append(indexItem.getIndex(), getStorageTimestamp(byteBuffer));
+                    partition.flagIndex.append(indexItem.getIndex(), MessageParser.getShort(byteBuffer, MessageParser.FLAG), count);
+                    indexedLength += indexItem.getLength();
                     updateLastEntryTerm(byteBuffer);
                     byteBuffer.position(byteBuffer.position() + indexItem.getLength());
                     counter++;
                 }
+                for (Map.Entry<Short, List<IndexItem>> entry : pendingIndices.entrySet()) {
+                    Partition partition = partitionMap.get(entry.getKey());
+                    appendIndices(partition.store, entry.getValue());
+                    partition.flagIndex.commit();
+                }
+                indexPosition += indexedLength;
 
                 // 记录Metric
                 if (null != produceMetric) {
@@ -1481,10 +2206,13 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     private void rollback(long position, Map<Short, Long> partitionSnapshot) throws IOException{
         flushLock.waitAndLock();
         try {
-            // 回滚分区索引
+            // 回滚分区索引，时间索引和标签索引在分区索引之前写入，一起截掉，不留下没有分区索引的条目
             partitionSnapshot.forEach((partition, snapshotPosition) -> {
                 try {
-                    partitionMap.get(partition).store.setRight(snapshotPosition);
+                    Partition p = partitionMap.get(partition);
+                    p.store.setRight(snapshotPosition);
+                    p.timeIndex.truncate(snapshotPosition / IndexItem.STORAGE_SIZE);
+                    p.flagIndex.truncate(snapshotPosition / IndexItem.STORAGE_SIZE);
                 } catch (Throwable e) {
                     logger.warn("Rollback partition failed! " +
                                     "topic: {}, group: {}, partition: {}, rollback position: {}, current position: {}, store: {}.",
@@ -1532,10 +2260,14 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
             belt = this.callbackMap.get(QosLevel.REPLICATION);
             belt.callbackBefore(this.commitPosition());
 
+            EventListener<StoreEvent> listener = storeEventListener;
+            if (null != listener) {
+                listener.onEvent(new StoreCommitEvent(topic, partitionGroup, position));
+            }
         }
 
         belt = this.callbackMap.get(QosLevel.ALL);
-        belt.callbackBefore(Math.min(this.flushPosition(), this.commitPosition()));
+        belt.callbackBefore(Math.min(this.persistPosition(), this.commitPosition()));
 
     }
 
@@ -1565,6 +2297,27 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         return store.left();
     }
 
+    /**
+     * 设置写入完成、提交位置前进时通知的监听器，监听器在写入线程和提交线程中同步调用
+     */
+    void setStoreEventListener(EventListener<StoreEvent> storeEventListener) {
+        this.storeEventListener = storeEventListener;
+    }
+
+    /**
+     * 消息写入完成，通知复制线程
+     */
+    private void fireWriteEvent() {
+        EventListener<StoreEvent> listener = storeEventListener;
+        if (null != listener) {
+            try {
+                listener.onEvent(new StoreWriteEvent(topic, partitionGroup, store.right()));
+            } catch (Throwable t) {
+                logger.warn("Fire write event exception, topic: {}, group: {}.", topic, partitionGroup, t);
+            }
+        }
+    }
+
     public long rightPosition() {
         return store.right();
     }
@@ -1574,6 +2327,8 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         if (null != store) store.close();
         for (Partition partition : partitionMap.values()) {
             partition.store.close();
+            partition.timeIndex.close();
+            partition.flagIndex.close();
         }
     }
 
@@ -1585,9 +2340,23 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
     public long getIndex(short partition, long timestamp) {
 
         try {
-            if (partitionMap.containsKey(partition)) {
-                PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
-                long searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, indexStore.left() / IndexItem.STORAGE_SIZE, indexStore.right() / IndexItem.STORAGE_SIZE - 1);
+            Partition p = partitionMap.get(partition);
+            if (null != p) {
+                PositioningStore<IndexItem> indexStore = p.store;
+                long leftIndex = indexStore.left() / IndexItem.STORAGE_SIZE;
+                long rightIndex = indexStore.right() / IndexItem.STORAGE_SIZE - 1;
+                if (rightIndex < leftIndex) {
+                    return -1L;
+                }
+
+                // 先用时间索引缩小查找范围，再在范围内折半查找
+                long[] range = p.timeIndex.narrow(timestamp, leftIndex, rightIndex);
+                long searchedIndex;
+                if (range[0] < range[1]) {
+                    searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, range[0], range[1]);
+                } else {
+                    searchedIndex = timestamp <= getStorageTimestamp(store, indexStore, range[0]) ? range[0] : -1L;
+                }
 
                 // 考虑到有可能出现连续n条消息时间相同，找到这n条消息的第一条
                 while (searchedIndex - 1 >= indexStore.left() && timestamp <= getStorageTimestamp(store, indexStore, searchedIndex - 1)) {
@@ -1602,13 +2371,17 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         return -1L;
     }
 
+    private static long getStorageTimestamp(ByteBuffer message) {
+        return MessageParser.getLong(message, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(message, MessageParser.STORAGE_TIMESTAMP);
+    }
+
     private long getStorageTimestamp(PositioningStore<ByteBuffer> journalStore,
                                      PositioningStore<IndexItem> indexStore,
                                      long index) throws IOException {
         IndexItem indexItem = indexStore.read(index * IndexItem.STORAGE_SIZE);
         ByteBuffer journal = journalStore.read(indexItem.getOffset(), indexItem.getLength());
 
-        return MessageParser.getLong(journal, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(journal, MessageParser.STORAGE_TIMESTAMP);
+        return getStorageTimestamp(journal);
     }
 
     // 折半查找
@@ -1665,10 +2438,37 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
 
     private static class Partition {
         private final PositioningStore<IndexItem> store;
+        private final TimeIndex timeIndex;
+        private final FlagIndex flagIndex;
+        private volatile long nextReadIndex = -1L; // 上次读取结束的位置，用于判断是否顺序读取
+        private final AtomicBoolean prefetching = new AtomicBoolean(false);
 
-
-        private Partition(PositioningStore<IndexItem> store) {
+        private Partition(PositioningStore<IndexItem> store, TimeIndex timeIndex, FlagIndex flagIndex) {
             this.store = store;
+            this.timeIndex = timeIndex;
+            this.flagIndex = flagIndex;
+        }
+
+        /**
+         * 如果index所在的索引文件还没有加载，在后台线程中加载，同一时刻每个分区最多只有一个预加载任务。
+         */
+        private void prefetch(long index) {
+            long position = index * IndexItem.STORAGE_SIZE;
+            if (position < store.right() && prefetching.compareAndSet(false, true)) {
+                try {
+                    INDEX_PREFETCH_EXECUTOR.execute(() -> {
+                        try {
+                            store.prefetch(position);
+                        } catch (Throwable t) {
+                            logger.debug("Prefetch index exception, position: {}.", position, t);
+                        } finally {
+                            prefetching.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    prefetching.set(false);
+                }
+            }
         }
 
         private void rollbackTo(long messagePosition) throws IOException {
@@ -1690,15 +2490,68 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
 
     }
 
+    /**
+     * 组提交时，一个分区在本批次中新增的索引
+     */
+    private class IndexBatch {
+        private final Partition partition;
+        private final List<IndexItem> indexItems = new ArrayList<>();
+        private long nextIndex;
+        private int entries = 0;
+
+        private IndexBatch(Partition partition) {
+            this.partition = partition;
+            this.nextIndex = partition.store.right() / IndexItem.STORAGE_SIZE;
+        }
+
+        private long nextIndex() {
+            return nextIndex;
+        }
+
+        private void add(IndexItem indexItem, long timestamp, short flag) throws IOException {
+            // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
+            int count = indexItem.isBatchMessage() ? indexItem.getBatchMessageSize() : 1;
+            indexItems.add(indexItem);
+            nextIndex += count;
+            entries += count;
+            partition.timeIndex.append(indexItem.getIndex(), timestamp);
+            partition.flagIndex.append(indexItem.getIndex(), flag, count);
+        }
+
+        private void writeTo() throws IOException {
+            ByteBuffer indexBuffer = ByteBuffer.allocate(entries * IndexItem.STORAGE_SIZE);
+            for (IndexItem indexItem : indexItems) {
+                int count = indexItem.isBatchMessage() ? indexItem.getBatchMessageSize() : 1;
+                for (int i = 0; i < count; i++) {
+                    indexItem.serializeTo(indexBuffer);
+                }
+                indexPosition += indexItem.getLength();
+            }
+            indexBuffer.flip();
+            partition.store.appendByteBuffer(indexBuffer);
+            partition.flagIndex.commit();
+        }
+    }
+
     private static class WriteCommand {
         private final QosLevel qosLevel;
         private final EventListener<WriteResult> eventListener;
         private final ByteBuffer[] messages;
+        private final long timestamp;
 
         private WriteCommand(QosLevel qosLevel, EventListener<WriteResult> eventListener, ByteBuffer[] messages) {
             this.qosLevel = qosLevel;
             this.eventListener = eventListener;
             this.messages = messages;
+            this.timestamp = SystemClock.now();
+        }
+
+        private int size() {
+            int size = 0;
+            for (ByteBuffer message : messages) {
+                size += message.remaining();
+            }
+            return size;
         }
     }
 
@@ -1710,6 +2563,8 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         public static final long DEFAULT_WRITE_TIMEOUT_MS = 3000L;
         public static final long DEFAULT_MAX_DIRTY_SIZE = 10L * 1024 * 1024;
         public static final long DEFAULT_PRINT_METRIC_INTERVAL_MS = 0L;
+        public static final int DEFAULT_GROUP_COMMIT_MAX_COUNT = 0;
+        public static final int DEFAULT_GROUP_COMMIT_MAX_BYTES = 1024 * 1024;
 
         /**
          * 允许脏数据的最大长度，超过这个长度就阻塞写入。
@@ -1741,8 +2596,22 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
          */
         private final long printMetricIntervalMs;
 
+        /**
+         * 组提交每次最多合并的写入请求数量，小于等于1时不开启组提交
+         */
+        private final int groupCommitMaxCount;
+
+        /**
+         * 组提交每次最多合并的消息总长度，不能超过消息文件的大小
+         */
+        private final int groupCommitMaxBytes;
+
         private final PositioningStore.Config storeConfig;
         private final PositioningStore.Config indexStoreConfig;
+        // 时间索引的存储配置，由分区索引的存储配置生成
+        private final PositioningStore.Config timeIndexStoreConfig;
+        // 标签索引的存储配置，由分区索引的存储配置生成
+        private final PositioningStore.Config flagIndexStoreConfig;
 
         public Config() {
 
@@ -1756,14 +2625,26 @@ public class PartitionGroupStoreManager extends Service implements ReplicableSto
         public Config(int maxMessageLength, int writeRequestCacheSize, long flushIntervalMs,
                       long writeTimeoutMs, long maxDirtySize, long printMetricIntervalMs,
                       PositioningStore.Config storeConfig, PositioningStore.Config indexStoreConfig) {
+            this(maxMessageLength, writeRequestCacheSize, flushIntervalMs, writeTimeoutMs, maxDirtySize, printMetricIntervalMs,
+                    DEFAULT_GROUP_COMMIT_MAX_COUNT, DEFAULT_GROUP_COMMIT_MAX_BYTES, storeConfig, indexStoreConfig);
+        }
+
+        public Config(int maxMessageLength, int writeRequestCacheSize, long flushIntervalMs,
+                      long writeTimeoutMs, long maxDirtySize, long printMetricIntervalMs,
+                      int groupCommitMaxCount, int groupCommitMaxBytes,
+                      PositioningStore.Config storeConfig, PositioningStore.Config indexStoreConfig) {
             this.maxMessageLength = maxMessageLength;
             this.writeRequestCacheSize = writeRequestCacheSize;
             this.flushIntervalMs = flushIntervalMs;
             this.writeTimeoutMs = writeTimeoutMs;
             this.maxDirtySize = maxDirtySize;
             this.printMetricIntervalMs = printMetricIntervalMs;
+            this.groupCommitMaxCount = groupCommitMaxCount;
+            this.groupCommitMaxBytes = groupCommitMaxBytes;
             this.storeConfig = storeConfig;
             this.indexStoreConfig = indexStoreConfig;
+            this.timeIndexStoreConfig = TimeIndex.storeConfig(indexStoreConfig);
+            this.flagIndexStoreConfig = FlagIndex.storeConfig(indexStoreConfig);
         }
     }
 
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
 
 /**
  * @author liyue25
@@ -113,6 +114,21 @@ public class QosStore implements PartitionGroupStore {
         store.asyncWrite(this.qosLevel, eventListener, writeRequests);
     }
 
+    @Override
+    public int writePressure() {
+        return store.writePressure();
+    }
+
+    @Override
+    public FileRegionReadResult readFileRegions(short partition, long index, int count, long maxSize) throws IOException {
+        return store.readFileRegions(partition, index, count, maxSize);
+    }
+
+    @Override
+    public int skipUnmatched(short partition, long index, int maxCount, IntPredicate flagMatcher) throws IOException {
+        return store.skipUnmatched(partition, index, maxCount, flagMatcher);
+    }
+
     @Override
     public ReadResult read(short partition, long index, int count, long maxSize) throws IOException {
         // TODO 临时重试
@@ -15,16 +15,24 @@
  */
 package org.joyqueue.store;
 
+import com.jd.laf.extension.ExtensionManager;
 import org.joyqueue.domain.QosLevel;
 import org.joyqueue.monitor.BufferPoolMonitorInfo;
 import org.joyqueue.store.event.StoreEvent;
 import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.file.TieredStorage;
+import org.joyqueue.store.index.FlagIndex;
 import org.joyqueue.store.index.IndexItem;
+import org.joyqueue.store.index.TimeIndex;
+import org.joyqueue.store.nsm.VirtualThreadExecutor;
 import org.joyqueue.store.replication.ReplicableStore;
+import org.joyqueue.store.tiered.RemoteSegmentStore;
 import org.joyqueue.store.transaction.TransactionStore;
 import org.joyqueue.store.transaction.TransactionStoreManager;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.joyqueue.toolkit.concurrent.EventListener;
+import org.joyqueue.toolkit.concurrent.LoopThread;
+import org.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import org.joyqueue.toolkit.config.PropertySupplier;
 import org.joyqueue.toolkit.config.PropertySupplierAware;
 import org.joyqueue.toolkit.service.Service;
@@ -40,6 +48,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -48,6 +59,7 @@ import java.util.stream.Collectors;
  * <p>
  * root                            # 数据文件根目录
  * ├── lock                        # 进程锁目录，避免多进程同时操作导致数据损坏
+ * ├── cache                       # 分层存储的本地读缓存目录，开启分层存储时有效
  * └── topics                      # 所有topic目录，子目录就是topic名称
  *     ├── coupon                  # topic coupon
  *     └── order                   # topic order
@@ -60,6 +72,11 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
     private static final String TOPICS_DIR = "topics";
     private static final String TX_DIR = "tx";
     private static final String DEL_PREFIX = ".d.";
+    // 虚拟线程执行器参数：空转时长、最大等待时长、递增次数、每次最大占用物理线程的时长
+    private static final long VIRTUAL_THREAD_KEEP_ALIVE_MS = 10L;
+    private static final long VIRTUAL_THREAD_MAX_INTERVAL_MS = 50L;
+    private static final int VIRTUAL_THREAD_STEPS = 10;
+    private static final long VIRTUAL_THREAD_MAX_USE_TIME_MS = 10L;
 
     private final Map<String /* Partition Group，格式为：[topic]/[group index] */, PartitionGroupStoreManager> storeMap = new HashMap<>();
     private final Map<String, TransactionStoreManager> txStoreMap = new HashMap<>();
@@ -69,6 +86,16 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
     private PropertySupplier propertySupplier;
     // 文件锁，防止同一Store目录被多个进程读写
     private StoreLock storeLock;
+    // 所有Partition Group共享的写入、刷盘执行器，未开启时为null，每个Partition Group使用独立的线程。
+    private VirtualThreadExecutor virtualThreadExecutor;
+    // 所有Partition Group共享的fsync线程池，未开启时为null，不主动fsync。
+    private ExecutorService forceExecutor;
+    // 分层存储，未开启时为null
+    private TieredStorage tieredStorage;
+    // 分层存储上传线程，未开启分层存储时为null
+    private LoopThread tieredStorageThread;
+    // 存储事件监听器
+    private final List<EventListener<StoreEvent>> listeners = new CopyOnWriteArrayList<>();
 
     public Store() {
         //do nothing
@@ -99,8 +126,38 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
             this.bufferPool = PreloadBufferPool.getInstance();
         }
         this.bufferPool.addPreLoad(config.getIndexFileSize(), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
+        this.bufferPool.addPreLoad(TimeIndex.FILE_DATA_SIZE, config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
+        this.bufferPool.addPreLoad(FlagIndex.fileDataSize(config.getIndexFileSize()), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
         this.bufferPool.addPreLoad(config.getMessageFileSize(), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
 
+        if (virtualThreadExecutor == null && config.isVirtualThreadEnable()) {
+            virtualThreadExecutor = new VirtualThreadExecutor(VIRTUAL_THREAD_KEEP_ALIVE_MS, VIRTUAL_THREAD_MAX_INTERVAL_MS,
+                    VIRTUAL_THREAD_STEPS, VIRTUAL_THREAD_MAX_USE_TIME_MS, config.getVirtualThreadCount(), "StoreExecutor");
+            logger.info("Store virtual thread executor enabled, thread count: {}.", config.getVirtualThreadCount());
+        }
+        if (forceExecutor == null && config.isForceEnable()) {
+            forceExecutor = Executors.newFixedThreadPool(config.getForceThreadCount(), new NamedThreadFactory("StoreForceThread", true));
+            logger.info("Store fsync enabled, thread count: {}.", config.getForceThreadCount());
+        }
+        if (tieredStorage == null && config.isTieredEnable()) {
+            RemoteSegmentStore remoteSegmentStore = ExtensionManager.getOrLoadExtension(RemoteSegmentStore.class, config.getTieredType());
+            if (remoteSegmentStore == null) {
+                throw new StoreInitializeException(String.format("No such remote segment store: %s.", config.getTieredType()));
+            }
+            if (remoteSegmentStore instanceof PropertySupplierAware) {
+                ((PropertySupplierAware) remoteSegmentStore).setSupplier(propertySupplier);
+            }
+            tieredStorage = new TieredStorage(remoteSegmentStore, base, new File(base, StoreConfig.TIERED_CACHE_PATH),
+                    config.getTieredCacheSize(), config.getTieredLocalFileCount());
+            tieredStorageThread = LoopThread.builder()
+                    .name("TieredStorageThread")
+                    .doWork(this::offload)
+                    .sleepTime(config.getTieredIntervalMs(), config.getTieredIntervalMs())
+                    .onException(e -> logger.warn("Offload exception: ", e))
+                    .build();
+            logger.info("Store tiered storage enabled, type: {}, local file count: {}, cache size: {}.",
+                    config.getTieredType(), config.getTieredLocalFileCount(), config.getTieredCacheSize());
+        }
     }
 
     @Override
@@ -112,6 +169,9 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         for (PartitionGroupStoreManager manger : storeMap.values()) {
             if (!manger.isStarted()) manger.start();
         }
+        if (null != tieredStorageThread) {
+            tieredStorageThread.start();
+        }
 
         started.set(true); // FixMe: 这条语句是否应该删除？
         logger.info("Store started.");
@@ -123,11 +183,25 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
         logger.info("Stopping store {}...", base.getPath());
 
+        if (null != tieredStorageThread) {
+            tieredStorageThread.stop();
+        }
+
         storeMap.values().forEach(p -> {
             p.disable();
             p.stop();
         });
 
+        if (null != virtualThreadExecutor) {
+            virtualThreadExecutor.stop();
+            virtualThreadExecutor = null;
+        }
+
+        if (null != forceExecutor) {
+            forceExecutor.shutdown();
+            forceExecutor = null;
+        }
+
         storeLock.unlock();
 
         logger.info("Store {} stopped.", base.getPath());
@@ -158,6 +232,18 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         return new File(base, getPartitionGroupRelPath(topic, partitionGroup)).isDirectory();
     }
 
+    @Override
+    public long partitionGroupDiskSize(String topic, int partitionGroup) {
+        File[] files = new File(base, getPartitionGroupRelPath(topic, partitionGroup)).listFiles(File::isFile);
+        long size = 0L;
+        if (null != files) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
     @Override
     public boolean topicExists(String topic) {
         return new File(base, getTopicRelPath(topic)).isDirectory();
@@ -247,8 +333,9 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
             File groupBase = new File(base, getPartitionGroupRelPath(topic, partitionGroup));
             partitionGroupStoreManger = new PartitionGroupStoreManager(topic, partitionGroup, groupBase
                     , getPartitionGroupConfig(config)
-                    , bufferPool);
+                    , bufferPool, virtualThreadExecutor, forceExecutor);
             partitionGroupStoreManger.recover();
+            partitionGroupStoreManger.setStoreEventListener(this::fireEvent);
             if (isStarted()) {
                 partitionGroupStoreManger.start();
             }
@@ -273,10 +360,30 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
         PositioningStore.Config messageConfig = getMessageStoreConfig(config);
         PositioningStore.Config indexConfig = getIndexStoreConfig(config);
+        messageConfig.setTieredStorage(tieredStorage);
+        indexConfig.setTieredStorage(tieredStorage);
         return new PartitionGroupStoreManager.Config(
                 config.getMaxMessageLength(), config.getWriteRequestCacheSize(), config.getFlushIntervalMs(),
                 config.getWriteTimeoutMs(), config.getMaxDirtySize(),
-                config.getPrintMetricIntervalMs(), messageConfig, indexConfig);
+                config.getPrintMetricIntervalMs(), config.getGroupCommitMaxCount(), config.getGroupCommitMaxBytes(),
+                messageConfig, indexConfig);
+    }
+
+    /**
+     * 分层存储：依次上传每个Partition Group中写满的文件，删除已经上传的较早的本地文件
+     */
+    private void offload() {
+        List<PartitionGroupStoreManager> stores;
+        synchronized (this) {
+            stores = new ArrayList<>(storeMap.values());
+        }
+        for (PartitionGroupStoreManager store : stores) {
+            try {
+                store.offload();
+            } catch (Throwable t) {
+                logger.warn("Offload partition group {}-{} exception: ", store.getTopic(), store.getPartitionGroup(), t);
+            }
+        }
     }
 
     private PositioningStore.Config getIndexStoreConfig(StoreConfig config) {
@@ -354,14 +461,28 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         return new StoreNodes(new StoreNode(0, true, true));
     }
 
+    /**
+     * 添加监听器，目前发布{@link org.joyqueue.store.event.StoreCommitEvent}和{@link org.joyqueue.store.event.StoreWriteEvent}，
+     * 由提交线程和写入线程同步调用，监听器不能阻塞。
+     */
     @Override
     public void addListener(EventListener<StoreEvent> listener) {
-        throw new UnsupportedOperationException();
+        listeners.add(listener);
     }
 
     @Override
     public void removeListener(EventListener<StoreEvent> listener) {
-        throw new UnsupportedOperationException();
+        listeners.remove(listener);
+    }
+
+    private void fireEvent(StoreEvent event) {
+        for (EventListener<StoreEvent> listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Throwable t) {
+                logger.warn("Store event listener exception, event: {}.", event, t);
+            }
+        }
     }
 
     private String getPartitionGroupRelPath(String topic, int partitionGroup) {
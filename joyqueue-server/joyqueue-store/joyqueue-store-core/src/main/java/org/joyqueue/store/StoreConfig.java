@@ -19,6 +19,8 @@ import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.toolkit.config.Property;
 import org.joyqueue.toolkit.config.PropertySupplier;
 
+import java.io.File;
+
 /**
  * 存储配置
  * 总磁盘大小 = PartitionGroup 数量 * partitionGroupMaxStoreSize
@@ -36,6 +38,17 @@ public class StoreConfig {
     public static final boolean DEFAULT_MESSAGE_FILE_LOAD_ON_READ = false;
     public static final boolean DEFAULT_INDEX_FILE_LOAD_ON_READ = true;
     public static final boolean DEFAULT_FLUSH_FORCE = true;
+    public static final boolean DEFAULT_VIRTUAL_THREAD_ENABLE = false;
+    public static final int DEFAULT_VIRTUAL_THREAD_COUNT = 0;
+    public static final boolean DEFAULT_FORCE_ENABLE = false;
+    public static final int DEFAULT_FORCE_THREAD_COUNT = 4;
+    public static final boolean DEFAULT_TIERED_ENABLE = false;
+    public static final String DEFAULT_TIERED_TYPE = "local";
+    public static final int DEFAULT_TIERED_LOCAL_FILE_COUNT = 4;
+    public static final long DEFAULT_TIERED_CACHE_SIZE = 1024L * 1024 * 1024;
+    public static final long DEFAULT_TIERED_INTERVAL_MS = 60 * 1000L;
+    public static final String TIERED_PATH = "tiered";
+    public static final String TIERED_CACHE_PATH = "cache";
 
     public static final String STORE_PATH = "/store";
     /**
@@ -89,6 +102,16 @@ public class StoreConfig {
 
     private int diskFullRatio = PositioningStore.Config.DEFAULT_DISK_FULL_RATIO;
 
+    /**
+     * 组提交每次最多合并的写入请求数量
+     */
+    private int groupCommitMaxCount = PartitionGroupStoreManager.Config.DEFAULT_GROUP_COMMIT_MAX_COUNT;
+
+    /**
+     * 组提交每次最多合并的消息总长度
+     */
+    private int groupCommitMaxBytes = PartitionGroupStoreManager.Config.DEFAULT_GROUP_COMMIT_MAX_BYTES;
+
 
     private PropertySupplier propertySupplier;
 
@@ -221,6 +244,22 @@ public class StoreConfig {
         this.diskFullRatio = diskFullRatio;
     }
 
+    public int getGroupCommitMaxCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.GROUP_COMMIT_MAX_COUNT, this.groupCommitMaxCount);
+    }
+
+    public void setGroupCommitMaxCount(int groupCommitMaxCount) {
+        this.groupCommitMaxCount = groupCommitMaxCount;
+    }
+
+    public int getGroupCommitMaxBytes() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.GROUP_COMMIT_MAX_BYTES, this.groupCommitMaxBytes);
+    }
+
+    public void setGroupCommitMaxBytes(int groupCommitMaxBytes) {
+        this.groupCommitMaxBytes = groupCommitMaxBytes;
+    }
+
     public boolean isMessageFileLoadOnRead() {
         return PropertySupplier.getValue(propertySupplier, StoreConfigKey.MESSAGE_FILE_LOAD_ON_READ, DEFAULT_MESSAGE_FILE_LOAD_ON_READ);
     }
@@ -229,5 +268,52 @@ public class StoreConfig {
         return PropertySupplier.getValue(propertySupplier, StoreConfigKey.INDEX_FILE_LOAD_ON_READ, DEFAULT_INDEX_FILE_LOAD_ON_READ);
     }
 
+    public boolean isVirtualThreadEnable() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.VIRTUAL_THREAD_ENABLE, DEFAULT_VIRTUAL_THREAD_ENABLE);
+    }
+
+    public int getVirtualThreadCount() {
+        int count = PropertySupplier.getValue(propertySupplier, StoreConfigKey.VIRTUAL_THREAD_COUNT, DEFAULT_VIRTUAL_THREAD_COUNT);
+        return count > 0 ? count : Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean isForceEnable() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.FORCE_ENABLE, DEFAULT_FORCE_ENABLE);
+    }
+
+    public int getForceThreadCount() {
+        int count = PropertySupplier.getValue(propertySupplier, StoreConfigKey.FORCE_THREAD_COUNT, DEFAULT_FORCE_THREAD_COUNT);
+        return count > 0 ? count : DEFAULT_FORCE_THREAD_COUNT;
+    }
+
+    public boolean isTieredEnable() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_ENABLE, DEFAULT_TIERED_ENABLE);
+    }
+
+    public String getTieredType() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_TYPE, DEFAULT_TIERED_TYPE);
+    }
+
+    public String getTieredLocalPath() {
+        String path = PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_LOCAL_PATH, "");
+        if (path == null || path.isEmpty()) {
+            path = new File(new File(getPath()).getAbsoluteFile().getParentFile(), TIERED_PATH).getPath();
+        }
+        return path;
+    }
+
+    public int getTieredLocalFileCount() {
+        int count = PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_LOCAL_FILE_COUNT, DEFAULT_TIERED_LOCAL_FILE_COUNT);
+        return count > 0 ? count : DEFAULT_TIERED_LOCAL_FILE_COUNT;
+    }
+
+    public long getTieredCacheSize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_CACHE_SIZE, DEFAULT_TIERED_CACHE_SIZE);
+    }
+
+    public long getTieredIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_INTERVAL_MS, DEFAULT_TIERED_INTERVAL_MS);
+    }
+
 }
 
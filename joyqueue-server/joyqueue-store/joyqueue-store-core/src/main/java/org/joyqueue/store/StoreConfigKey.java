@@ -19,6 +19,8 @@ import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.toolkit.config.PropertyDef;
 
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_GROUP_COMMIT_MAX_BYTES;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_GROUP_COMMIT_MAX_COUNT;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_MESSAGE_LENGTH;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_REQUEST_CACHE_SIZE;
@@ -88,6 +90,58 @@ public enum StoreConfigKey implements PropertyDef {
 
     DISK_FULL_RATIO("store.disk.full.ratio", PositioningStore.Config.DEFAULT_DISK_FULL_RATIO, Type.INT),
 
+    /**
+     * 是否使用共享的虚拟线程执行器调度所有Partition Group的写入和刷盘
+     */
+    VIRTUAL_THREAD_ENABLE("store.virtual.thread.enable", StoreConfig.DEFAULT_VIRTUAL_THREAD_ENABLE, Type.BOOLEAN),
+    /**
+     * 虚拟线程执行器的物理线程数量，小于等于0时使用CPU核数
+     */
+    VIRTUAL_THREAD_COUNT("store.virtual.thread.count", StoreConfig.DEFAULT_VIRTUAL_THREAD_COUNT, Type.INT),
+
+    /**
+     * 组提交每次最多合并的写入请求数量，小于等于1时不开启组提交
+     */
+    GROUP_COMMIT_MAX_COUNT("store.group.commit.max.count", DEFAULT_GROUP_COMMIT_MAX_COUNT, Type.INT),
+    /**
+     * 组提交每次最多合并的消息总长度
+     */
+    GROUP_COMMIT_MAX_BYTES("store.group.commit.max.bytes", DEFAULT_GROUP_COMMIT_MAX_BYTES, Type.INT),
+
+    /**
+     * 是否开启异步fsync，开启后PERSISTENCE级别的写入在数据fsync到磁盘后才返回
+     */
+    FORCE_ENABLE("store.force.enable", StoreConfig.DEFAULT_FORCE_ENABLE, Type.BOOLEAN),
+    /**
+     * 执行fsync的线程数量，所有Partition Group共享
+     */
+    FORCE_THREAD_COUNT("store.force.thread.count", StoreConfig.DEFAULT_FORCE_THREAD_COUNT, Type.INT),
+
+    /**
+     * 是否开启分层存储，开启后写满的文件会上传到远程存储，本地只保留最近的文件
+     */
+    TIERED_ENABLE("store.tiered.enable", StoreConfig.DEFAULT_TIERED_ENABLE, Type.BOOLEAN),
+    /**
+     * 远程存储的类型，即RemoteSegmentStore扩展点的类型
+     */
+    TIERED_TYPE("store.tiered.type", StoreConfig.DEFAULT_TIERED_TYPE, Type.STRING),
+    /**
+     * 类型为local时，远程存储的根目录，默认为存储目录同级的tiered目录
+     */
+    TIERED_LOCAL_PATH("store.tiered.local.path", "", Type.STRING),
+    /**
+     * 每个存储在本地保留的最近文件数量（包括正在写入的文件）
+     */
+    TIERED_LOCAL_FILE_COUNT("store.tiered.local.file.count", StoreConfig.DEFAULT_TIERED_LOCAL_FILE_COUNT, Type.INT),
+    /**
+     * 读取远程文件时使用的本地读缓存大小
+     */
+    TIERED_CACHE_SIZE("store.tiered.cache.size", StoreConfig.DEFAULT_TIERED_CACHE_SIZE, Type.LONG),
+    /**
+     * 上传和清理本地文件的时间间隔(ms)
+     */
+    TIERED_INTERVAL_MS("store.tiered.interval", StoreConfig.DEFAULT_TIERED_INTERVAL_MS, Type.LONG),
+
     PRINT_METRIC_INTERVAL_MS("print.metric.interval", StoreConfig.DEFAULT_PRINT_METRIC_INTERVAL_MS, Type.LONG);
 
 
@@ -17,6 +17,7 @@ package org.joyqueue.store.file;
 
 import org.joyqueue.store.PositionOverflowException;
 import org.joyqueue.store.PositionUnderflowException;
+import org.joyqueue.store.StoreFileRegion;
 import org.joyqueue.store.WriteException;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.joyqueue.toolkit.format.Format;
@@ -37,6 +38,7 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 /**
  * 带缓存的、高性能、多文件、基于位置的、Append Only的日志存储存储。
@@ -46,6 +48,8 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class PositioningStore<T /* 保存的数据类型 */> implements Closeable {
     private final Logger logger = LoggerFactory.getLogger(PositioningStore.class);
+    // 数据文件名就是文件的起始位置
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile("\\d+");
     private final int fileHeaderSize; // 文件头长度
     private final int fileDataSize; // 文件数据部分最大长度
     // 判断磁盘满的比率，不能等到磁盘真正写满的时候才拒绝写入，否则来不及刷盘的数据将无法写入磁盘，导致丢数据。
@@ -56,21 +60,35 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
     private final File base; // 数据存储目录
     private final LogSerializer<T> serializer; // 数据序列化器
     private final PreloadBufferPool bufferPool; // 缓存页管理器
+    private final String topic; // 所属主题，用于按主题统计和限制缓存页
+    private final TieredStorage tieredStorage; // 分层存储，未开启时为null
     // 所有数据文件跳表
     private final NavigableMap<Long /* 文件起始位置 */, StoreFile<T>> storeFileMap = new ConcurrentSkipListMap<>();
 
     private final AtomicLong flushPosition = new AtomicLong(0L); // 刷盘位置
+    private final AtomicLong forcePosition = new AtomicLong(0L); // fsync位置，forcePosition <= flushPosition
     private final AtomicLong rightPosition = new AtomicLong(0L); // 最大位置
     private final AtomicLong leftPosition = new AtomicLong(0L); // 最小位置
 
     private final Lock writeLock = new ReentrantLock(); // 写入锁
     private final Lock flushLock = new ReentrantLock(); // 刷盘锁
     private final ReentrantLock deleteLock = new ReentrantLock(); // 删除锁
+    private final Lock forceLock = new ReentrantLock(); // fsync锁，fsync不持有刷盘锁，fsync期间可以继续刷盘
+    private final Lock offloadLock = new ReentrantLock(); // 分层存储上传锁
+
+    // 已经上传到远程存储的位置，在此之前的文件都已上传，修改时持有deleteLock
+    private volatile long uploadPosition = 0L;
+    // 回滚次数，上传期间发生回滚时放弃本次上传，修改时持有deleteLock
+    private long rollbackCount = 0L;
 
     // 正在写入的文件
     private StoreFile<T> writeStoreFile = null;
 
     public PositioningStore(File base, Config config, PreloadBufferPool bufferPool, LogSerializer<T> serializer) {
+        this(base, config, bufferPool, serializer, null);
+    }
+
+    public PositioningStore(File base, Config config, PreloadBufferPool bufferPool, LogSerializer<T> serializer, String topic) {
         this.base = base;
         this.fileHeaderSize = config.fileHeaderSize;
         this.fileDataSize = config.fileDataSize;
@@ -85,6 +103,8 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
         }
         this.bufferPool = bufferPool;
         this.serializer = serializer;
+        this.topic = topic;
+        this.tieredStorage = config.tieredStorage;
     }
 
     public long left() {
@@ -99,6 +119,10 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
         return flushPosition.get();
     }
 
+    public long forcePosition() {
+        return forcePosition.get();
+    }
+
     public void clear(long position) {
         logger.info("Clear store, new position: {}, store: {}...",
                 Format.formatWithComma(position),
@@ -109,12 +133,15 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
             flushLock.lock();
             writeLock.lock();
             deleteLock.lock();
+            forceLock.lock();
             clear();
             this.leftPosition.set(position);
             this.rightPosition.set(position);
             this.flushPosition.set(position);
+            this.forcePosition.set(position);
             resetWriteStoreFile();
         } finally {
+            forceLock.unlock();
             deleteLock.unlock();
             writeLock.unlock();
             flushLock.unlock();
@@ -143,18 +170,22 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
             flushLock.lock();
             writeLock.lock();
             deleteLock.lock();
+            forceLock.lock();
             if (position <= left() || position > right()) {
                 clear();
                 this.leftPosition.set(position);
                 this.rightPosition.set(position);
                 this.flushPosition.set(position);
+                this.forcePosition.set(position);
             } else if (position < right()) {
                 rollbackFiles(position);
                 this.rightPosition.set(position);
                 if (this.flushPosition() > position) this.flushPosition.set(position);
+                if (this.forcePosition() > position) this.forcePosition.set(position);
             }
             resetWriteStoreFile();
         } finally {
+            forceLock.unlock();
             deleteLock.unlock();
             writeLock.unlock();
             flushLock.unlock();
@@ -175,6 +206,8 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
                     writeStoreFile = null;
                 }
             }
+            uploadPosition = 0L;
+            rollbackCount++;
         } catch (IOException e) {
             throw new RollBackException(e);
         }
@@ -189,6 +222,7 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
      */
     private void rollbackFiles(long position) throws IOException {
 
+        rollbackCount++;
         if (!storeFileMap.isEmpty()) {
             // position 所在的Page需要截断至position
             Map.Entry<Long, StoreFile<T>> entry = storeFileMap.floorEntry(position);
@@ -197,6 +231,10 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
                 int relPos = (int) (position - storeFile.position());
                 logger.info("Truncate store file {} to relative position {}.", storeFile.file().getAbsolutePath(), relPos);
                 storeFile.rollback(relPos);
+                // 截断的文件如果已经上传，需要删除远程文件后重新上传
+                if (null != tieredStorage && storeFile.position() < uploadPosition) {
+                    tieredStorage.delete(base, storeFile.position());
+                }
             }
 
             SortedMap<Long, StoreFile<T>> toBeRemoved = storeFileMap.tailMap(position);
@@ -207,6 +245,9 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
                     writeStoreFile = null;
                 }
             }
+            if (uploadPosition > position) {
+                uploadPosition = storeFileMap.isEmpty() ? 0L : storeFileMap.floorKey(position);
+            }
         }
 
 
@@ -231,9 +272,12 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
             flushLock.lock();
             writeLock.lock();
             deleteLock.lock();
+            forceLock.lock();
 
             // 恢复文件列表
             recoverFileMap();
+            // 恢复已经上传到远程存储的文件
+            recoverRemoteFiles();
 
             // 恢复相关位置
             long recoverPosition = this.storeFileMap.isEmpty() ? 0L : this.storeFileMap.lastKey() + this.storeFileMap.lastEntry().getValue().fileDataSize();
@@ -257,9 +301,12 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
 
                 }
             }
+            // 恢复时磁盘上的数据都认为已经fsync
+            forcePosition.set(flushPosition());
             // 重置当前写入的文件
             resetWriteStoreFile();
         } finally {
+            forceLock.unlock();
             deleteLock.unlock();
             writeLock.unlock();
             flushLock.unlock();
@@ -277,12 +324,12 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
      * @throws IOException 发生IO异常时抛出
      */
     private void recoverFileMap() throws IOException {
-        File[] files = base.listFiles(file -> file.isFile() && file.getName().matches("\\d+"));
+        File[] files = base.listFiles(file -> file.isFile() && FILE_NAME_PATTERN.matcher(file.getName()).matches());
         long filePosition;
         if (null != files) {
             for (File file : files) {
                 filePosition = Long.parseLong(file.getName());
-                storeFileMap.put(filePosition, new StoreFileImpl<>(filePosition, base, fileHeaderSize, serializer, bufferPool, fileDataSize, loadOnRead, flushForce));
+                storeFileMap.put(filePosition, new StoreFileImpl<>(filePosition, base, fileHeaderSize, serializer, bufferPool, fileDataSize, loadOnRead, flushForce, topic));
             }
         }
         // 当服务器断电时，在存储的末尾，有可能会存在没来得及刷盘的空文件，需要删掉。
@@ -314,6 +361,161 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
         }
     }
 
+    /**
+     * 从远程存储中恢复已经删除本地副本的文件，并恢复上传位置。
+     * 只恢复和本地文件连续的远程文件。
+     *
+     * @throws IOException 发生IO异常时抛出
+     */
+    private void recoverRemoteFiles() throws IOException {
+        uploadPosition = 0L;
+        if (null == tieredStorage || storeFileMap.isEmpty()) {
+            return;
+        }
+
+        // 本地文件中已经上传的部分，最后一个文件可能还在写入，不计入
+        long position = storeFileMap.firstKey();
+        for (StoreFile<T> storeFile : storeFileMap.headMap(storeFileMap.lastKey()).values()) {
+            if (tieredStorage.size(base, storeFile.position()) != storeFile.file().length()) {
+                break;
+            }
+            position = storeFile.position() + storeFile.fileDataSize();
+        }
+        uploadPosition = position;
+
+        // 从后往前恢复只存在于远程存储中的文件，直到遇到不连续的文件
+        List<Long> positions = tieredStorage.positions(base);
+        positions.sort(null);
+        long localLeft = storeFileMap.firstKey();
+        long end = localLeft;
+        for (int i = positions.size() - 1; i >= 0; i--) {
+            long filePosition = positions.get(i);
+            if (filePosition >= end) {
+                continue;
+            }
+            long dataSize = tieredStorage.size(base, filePosition) - fileHeaderSize;
+            if (filePosition + dataSize != end) {
+                logger.warn("Remote store files are not continuous, ignore remote files before {}! file: {}, end: {}, store: {}.",
+                        end, filePosition, filePosition + dataSize, base.getAbsolutePath());
+                break;
+            }
+            storeFileMap.put(filePosition, createTieredStoreFile(filePosition, (int) dataSize));
+            end = filePosition;
+        }
+        if (end < localLeft) {
+            logger.info("Remote store files recovered, remote left: {}, uploadPosition: {}, store: {}.",
+                    Format.formatWithComma(end),
+                    Format.formatWithComma(uploadPosition),
+                    base.getAbsolutePath());
+        }
+    }
+
+    private TieredStoreFile<T> createTieredStoreFile(long position, int dataSize) {
+        return new TieredStoreFile<>(tieredStorage, base, position, dataSize, fileHeaderSize, serializer, bufferPool, loadOnRead, topic);
+    }
+
+    /**
+     * 分层存储：将写满并且已经刷盘的文件上传到远程存储，
+     * 然后删除除最近的localFileCount个文件之外的、已经上传的本地文件，删除后的文件从远程存储读取。
+     * 未开启分层存储时直接返回。
+     *
+     * @return 本次删除本地副本的文件数量
+     * @throws IOException 发生IO异常时抛出
+     */
+    public int offload() throws IOException {
+        if (null == tieredStorage) {
+            return 0;
+        }
+        try {
+            offloadLock.lock();
+            // 上传文件，只上传写满并且已经刷盘的文件，最后一个文件不上传
+            for (StoreFile<T> storeFile : storeFileMap.tailMap(Math.max(uploadPosition, left())).values()) {
+                if (storeFile instanceof TieredStoreFile) {
+                    continue;
+                }
+                long position = storeFile.position();
+                if (storeFileMap.isEmpty() || position >= storeFileMap.lastKey() || storeFile == writeStoreFile
+                        || !storeFile.isClean() || position + storeFile.fileDataSize() > flushPosition()) {
+                    break;
+                }
+                int dataSize = storeFile.fileDataSize();
+                long rollbackCountBeforeUpload;
+                try {
+                    deleteLock.lock();
+                    if (storeFileMap.get(position) != storeFile) {
+                        continue;
+                    }
+                    rollbackCountBeforeUpload = rollbackCount;
+                } finally {
+                    deleteLock.unlock();
+                }
+
+                // 上传期间不持有deleteLock，上传完成后再检查文件是否被删除或者回滚
+                IOException uploadException = null;
+                try {
+                    tieredStorage.upload(base, storeFile);
+                } catch (IOException e) {
+                    uploadException = e;
+                }
+                try {
+                    deleteLock.lock();
+                    if (storeFileMap.get(position) != storeFile || rollbackCount != rollbackCountBeforeUpload
+                            || storeFile.fileDataSize() != dataSize) {
+                        // 文件已经变化，上传的远程文件作废
+                        logger.info("Store file changed while uploading, discard the remote file, position: {}, store: {}.",
+                                Format.formatWithComma(position), base.getAbsolutePath());
+                        tieredStorage.delete(base, position);
+                        break;
+                    }
+                    if (null != uploadException) {
+                        throw uploadException;
+                    }
+                    uploadPosition = position + dataSize;
+                } finally {
+                    deleteLock.unlock();
+                }
+            }
+
+            // 删除已经上传的本地文件
+            int offloaded = 0;
+            try {
+                deleteLock.lock();
+                int localFileCount = 0;
+                for (StoreFile<T> storeFile : storeFileMap.values()) {
+                    if (!(storeFile instanceof TieredStoreFile)) {
+                        localFileCount++;
+                    }
+                }
+                for (StoreFile<T> storeFile : storeFileMap.values()) {
+                    if (localFileCount <= tieredStorage.localFileCount()) {
+                        break;
+                    }
+                    if (storeFile instanceof TieredStoreFile) {
+                        continue;
+                    }
+                    int dataSize = storeFile.fileDataSize();
+                    if (storeFile.position() + dataSize > uploadPosition) {
+                        break;
+                    }
+                    if (storeFileMap.replace(storeFile.position(), storeFile, createTieredStoreFile(storeFile.position(), dataSize))) {
+                        deleteLocalFile(storeFile);
+                        localFileCount--;
+                        offloaded++;
+                    }
+                }
+            } finally {
+                deleteLock.unlock();
+            }
+            if (offloaded > 0) {
+                logger.info("{} store files offloaded, uploadPosition: {}, store: {}.",
+                        offloaded, Format.formatWithComma(uploadPosition), base.getAbsolutePath());
+            }
+            return offloaded;
+        } finally {
+            offloadLock.unlock();
+        }
+    }
+
     private long toLogTail(long position) {
         T t = null;
         long seekEndPosition = Math.max(position - 2 * maxMessageLength, left());
@@ -431,8 +633,33 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
         return false;
     }
 
+    /**
+     * 对已经刷盘但还未fsync的数据调用fsync，可以和flush()并发执行。
+     * 一次fsync覆盖调用时所有已刷盘的数据，多次刷盘只需要一次fsync。
+     * @return 本次fsync的数据长度，0表示没有需要fsync的数据
+     * @throws IOException 发生IO异常时抛出
+     */
+    public long force() throws IOException {
+        try {
+            forceLock.lock();
+            long start = Math.max(forcePosition(), left());
+            long end = flushPosition();
+            if (start >= end) {
+                return 0L;
+            }
+            Long from = storeFileMap.floorKey(start);
+            for (StoreFile<T> storeFile : storeFileMap.subMap(null == from ? start : from, true, end, false).values()) {
+                storeFile.force();
+            }
+            forcePosition.set(end);
+            return end - start;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
     private StoreFile<T> createStoreFile(long position) {
-        StoreFile<T> storeFile = new StoreFileImpl<>(position, base, fileHeaderSize, serializer, bufferPool, fileDataSize, loadOnRead, flushForce);
+        StoreFile<T> storeFile = new StoreFileImpl<>(position, base, fileHeaderSize, serializer, bufferPool, fileDataSize, loadOnRead, flushForce, topic);
         StoreFile<T> present;
         if ((present = storeFileMap.putIfAbsent(position, storeFile)) != null) {
             storeFile = present;
@@ -522,6 +749,62 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
 
     }
 
+    /**
+     * 不反序列化、不复制数据，直接在缓存页上批量读取一段数据。
+     * 数据跨越多个文件时，对每个文件中的数据依次调用一次bufferReader，适用于索引这类不会跨文件的定长数据。
+     * @param position 起始位置
+     * @param length 最大读取长度，超出right()的部分不读取
+     * @param bufferReader 读取数据，返回false时停止读取
+     * @return 读取的数据长度
+     */
+    public long read(long position, long length, BufferReader<Boolean> bufferReader) throws IOException {
+        checkReadPosition(position);
+        long end = Math.min(right(), position + length);
+        long pointer = position;
+        try {
+            while (pointer < end) {
+                StoreFile<T> storeFile = storeFileMap.floorEntry(pointer).getValue();
+                int relPosition = (int) (pointer - storeFile.position());
+                int readLength = (int) Math.min(end - pointer, storeFile.writePosition() - relPosition);
+                if (readLength <= 0) {
+                    break;
+                }
+                Boolean next = storeFile.read(relPosition, readLength, bufferReader);
+                pointer += readLength;
+                if (!Boolean.TRUE.equals(next)) {
+                    break;
+                }
+            }
+            return pointer - position;
+        } catch (Throwable t) {
+            logger.warn("Exception on read position {} of store {}, " +
+                            "leftPosition: {}, rightPosition: {}, flushPosition: {}.",
+                    pointer, base.getAbsolutePath(),
+                    Format.formatWithComma(left()),
+                    Format.formatWithComma(right()),
+                    Format.formatWithComma(flushPosition()),
+                    t);
+            throw t;
+        }
+    }
+
+    /**
+     * 预加载position所在文件的缓存页，用于顺序读取时提前加载下一个文件。
+     * @param position 位置
+     * @return 是否加载了缓存页，position超出范围或者缓存页已经加载时返回false
+     */
+    public boolean prefetch(long position) throws IOException {
+        if (position < left() || position >= right()) {
+            return false;
+        }
+        Map.Entry<Long, StoreFile<T>> entry = storeFileMap.floorEntry(position);
+        if (null == entry || entry.getValue().hasPage()) {
+            return false;
+        }
+        entry.getValue().read(0, 0, (byteBuffer, length) -> Boolean.TRUE);
+        return true;
+    }
+
     public ByteBuffer readByteBuffer(long position, int length) throws IOException {
         checkReadPosition(position);
         try {
@@ -543,6 +826,34 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
     }
 
 
+    /**
+     * 获取一段数据在文件中的位置，用于零拷贝读取。
+     * 只有已经刷盘的数据才能直接从文件中读取。
+     * @param position 数据的起始位置
+     * @param length 数据长度
+     * @return 数据在文件中的位置，数据尚未刷盘或者跨越文件时返回null
+     */
+    public StoreFileRegion fileRegion(long position, int length) {
+        checkReadPosition(position);
+        if (position + length > flushPosition()) {
+            return null;
+        }
+        Map.Entry<Long, StoreFile<T>> entry = storeFileMap.floorEntry(position);
+        if (null == entry) {
+            return null;
+        }
+        StoreFile<T> storeFile = entry.getValue();
+        // 远程文件的本地缓存随时可能被删除，不能直接读文件
+        if (storeFile instanceof TieredStoreFile) {
+            return null;
+        }
+        long relPosition = position - storeFile.position();
+        if (relPosition + length > storeFile.fileDataSize()) {
+            return null;
+        }
+        return new StoreFileRegion(storeFile.file(), fileHeaderSize + relPosition, length);
+    }
+
     private void checkReadPosition(long position) {
         long p;
         if ((p = left()) > position) {
@@ -635,6 +946,14 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
      * 删除文件，丢弃未刷盘的数据，用于rollback
      */
     private void forceDeleteStoreFile(StoreFile<T> storeFile) throws IOException {
+        deleteLocalFile(storeFile);
+        // 删除已经上传的远程文件
+        if (null != tieredStorage && (storeFile instanceof TieredStoreFile || storeFile.position() < uploadPosition)) {
+            tieredStorage.delete(base, storeFile.position());
+        }
+    }
+
+    private void deleteLocalFile(StoreFile<T> storeFile) throws IOException {
         storeFile.forceUnload();
         File file = storeFile.file();
         if (file.exists()) {
@@ -704,7 +1023,9 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
     @Override
     public void close() {
         for (StoreFile<T> storeFile : storeFileMap.values()) {
-            storeFile.unload();
+            if (storeFile.unload() && storeFile instanceof StoreFileImpl) {
+                ((StoreFileImpl<T>) storeFile).release();
+            }
         }
     }
 
@@ -749,6 +1070,10 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
          */
         private final boolean loadOnRead;
         private final boolean flushForce;
+        /**
+         * 分层存储，为null时不开启
+         */
+        private TieredStorage tieredStorage;
 
         public Config() {
             this(DEFAULT_FILE_DATA_SIZE,
@@ -782,6 +1107,30 @@ public class PositioningStore<T /* 保存的数据类型 */> implements Closeabl
         public Config(int messageFileSize, int fileHeaderSize, int diskFullRatio, int maxMessageLength) {
             this(messageFileSize,fileHeaderSize,diskFullRatio, maxMessageLength, DEFAULT_LOAD_ON_READ, DEFAULT_FLUSH_FORCE);
         }
+
+        public int getFileDataSize() {
+            return fileDataSize;
+        }
+
+        /**
+         * 复制配置，使用指定的文件数据长度和最大数据长度，其它配置不变
+         * @param fileDataSize 文件内数据最大长度
+         * @param maxMessageLength 最大数据长度
+         * @return 新的配置
+         */
+        public Config copy(int fileDataSize, int maxMessageLength) {
+            Config config = new Config(fileDataSize, fileHeaderSize, diskFullRatio, maxMessageLength, loadOnRead, flushForce);
+            config.setTieredStorage(tieredStorage);
+            return config;
+        }
+
+        public TieredStorage getTieredStorage() {
+            return tieredStorage;
+        }
+
+        public void setTieredStorage(TieredStorage tieredStorage) {
+            this.tieredStorage = tieredStorage;
+        }
     }
 
 
@@ -59,6 +59,15 @@ public interface StoreFile<T> extends Timed {
      */
     T read(int position, int length) throws IOException;
 
+    /**
+     * 不复制数据，直接在缓存页上读取数据
+     *
+     * @param position     文件内的相对位置
+     * @param length       数据长度
+     * @param bufferReader 读取数据，传入的ByteBuffer是缓存页的只读视图，position为读取的起始位置，limit为文件写入位置
+     */
+    <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException;
+
     /**
      * 追加写入数据
      *
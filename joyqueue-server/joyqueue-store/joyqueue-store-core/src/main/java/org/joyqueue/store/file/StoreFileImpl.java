@@ -65,6 +65,10 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     private ByteBuffer pageBuffer = null;
     private int bufferType = NO_BUFFER;
     private PreloadBufferPool bufferPool;
+    // 所属主题
+    private final String topic;
+    // 所属主题的缓存统计
+    private final PreloadBufferPool.CacheStats cacheStats;
     private final int capacity;
     private long lastAccessTime = SystemClock.now();
     // 当前刷盘位置
@@ -75,12 +79,19 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     // 文件锁，读写文件时加锁
     private final CasLock fileLock = new CasLock();
     private AtomicBoolean forced = new AtomicBoolean(false);
+    // 是否已经从缓冲池中释放
+    private final AtomicBoolean released = new AtomicBoolean(false);
 
     private FileChannel fileChannel;
     private RandomAccessFile raf;
     private volatile boolean writeClosed = true;
 
     StoreFileImpl(long filePosition, File base, int headerSize, LogSerializer<T> serializer, PreloadBufferPool bufferPool, int maxFileDataLength, boolean loadOnRead, boolean flushForce) {
+        this(filePosition, base, headerSize, serializer, bufferPool, maxFileDataLength, loadOnRead, flushForce, null);
+    }
+
+    StoreFileImpl(long filePosition, File base, int headerSize, LogSerializer<T> serializer, PreloadBufferPool bufferPool,
+                  int maxFileDataLength, boolean loadOnRead, boolean flushForce, String topic) {
         this.filePosition = filePosition;
         this.headerSize = headerSize;
         this.serializer = serializer;
@@ -93,6 +104,8 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             this.flushPosition = writePosition;
         }
         this.capacity = Math.max(maxFileDataLength, (int )(file.length() - headerSize));
+        this.topic = topic;
+        this.cacheStats = bufferPool.acquireCacheStats(topic);
     }
 
     @Override
@@ -228,6 +241,17 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         } finally {
             bufferLock.unlockWrite(stamp);
         }
+        // 强制卸载只在删除文件时调用
+        release();
+    }
+
+    /**
+     * 文件删除或者关闭后调用，从缓冲池中释放这个文件的记录，只执行一次
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            bufferPool.release(this);
+        }
     }
 
     @Override
@@ -240,10 +264,16 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         return read(position, length, serializer);
     }
 
+    @Override
     public <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException {
         touch();
         long stamp = bufferLock.readLock();
         try {
+            if (hasPage()) {
+                cacheStats.hit();
+            } else {
+                cacheStats.miss();
+            }
             while (!hasPage()) {
                 long ws = bufferLock.tryConvertToWriteLock(stamp);
                 if (ws != 0L) {
@@ -462,7 +492,7 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
     private void closeFileChannel() throws IOException {
         if (flushForce) {
-            force();
+            forceUnsafe();
         }
         if (null != fileChannel) {
             fileChannel.close();
@@ -513,12 +543,32 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         return unload();
     }
 
+    @Override
+    public String topic() {
+        return topic;
+    }
+
     @Override
     public void force() throws IOException {
+        long stamp = bufferLock.readLock();
+        try {
+            // 文件已经关闭：关闭文件时已经fsync过了
+            if (null != fileChannel && fileChannel.isOpen()) {
+                forceUnsafe();
+            }
+        } finally {
+            bufferLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * fsync不持有fileLock，fsync期间flush()可以继续写入。
+     * fsync覆盖调用前已经写入的数据，期间写入的数据会把forced重置为false，由下一次fsync负责。
+     */
+    private void forceUnsafe() throws IOException {
         if(forced.compareAndSet(false, true)) {
-            fileLock.waitAndLock();
-            ensureOpen();
             try {
+                ensureOpen();
                 if (logger.isDebugEnabled()) {
                     logger.debug("force file, file: {}, writePosition: {}, flushPosition: {}", file.getAbsolutePath(), writePosition, flushPosition);
                 }
@@ -526,8 +576,6 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             } catch (Throwable t) {
                 forced.set(false);
                 throw t;
-            } finally {
-                fileLock.unlock();
             }
         }
     }
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.file;
+
+import org.joyqueue.store.tiered.RemoteSegmentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分层存储，所有PositioningStore共享。
+ *
+ * 写满并且已经刷盘的文件上传到远程存储（RemoteSegmentStore），每个存储只在本地保留最近的localFileCount个文件，
+ * 更早的文件删除本地副本，替换为TieredStoreFile。
+ * 读取TieredStoreFile时，先把远程文件下载到本地读缓存目录中再读取，
+ * 读缓存的总大小超过cacheSize时，按照最近访问时间删除最久没有访问的缓存文件。
+ */
+public class TieredStorage {
+    private static final Logger logger = LoggerFactory.getLogger(TieredStorage.class);
+    private final RemoteSegmentStore remote;
+    // 存储根目录，远程存储的key为存储目录相对于根目录的路径
+    private final File root;
+    // 本地读缓存目录
+    private final File cacheBase;
+    // 本地读缓存的最大容量
+    private final long cacheSize;
+    // 每个存储在本地保留的文件数量
+    private final int localFileCount;
+    // 已经下载到本地读缓存的文件
+    private final Set<TieredStoreFile<?>> cachedFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicLong cachedSize = new AtomicLong(0L);
+
+    public TieredStorage(RemoteSegmentStore remote, File root, File cacheBase, long cacheSize, int localFileCount) throws IOException {
+        this.remote = remote;
+        this.root = root.getAbsoluteFile();
+        this.cacheBase = cacheBase.getAbsoluteFile();
+        this.cacheSize = cacheSize;
+        this.localFileCount = Math.max(1, localFileCount);
+        // 读缓存只在进程内有效，启动时清空
+        deleteFolder(this.cacheBase);
+        if (!this.cacheBase.mkdirs() && !this.cacheBase.isDirectory()) {
+            throw new IOException(String.format("Create directory: %s failed!", this.cacheBase.getAbsolutePath()));
+        }
+    }
+
+    public int localFileCount() {
+        return localFileCount;
+    }
+
+    public long cacheSize() {
+        return cacheSize;
+    }
+
+    public long cachedSize() {
+        return cachedSize.get();
+    }
+
+    String key(File base, long position) {
+        return prefix(base) + "/" + position;
+    }
+
+    /**
+     * 上传文件，文件必须已经写满并且刷盘
+     */
+    void upload(File base, StoreFile<?> storeFile) throws IOException {
+        String key = key(base, storeFile.position());
+        remote.upload(key, storeFile.file());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Store file uploaded, key: {}, file: {}.", key, storeFile.file().getAbsolutePath());
+        }
+    }
+
+    void delete(File base, long position) throws IOException {
+        remote.delete(key(base, position));
+    }
+
+    /**
+     * 远程文件的大小
+     * @return 文件大小（包含文件头），文件不存在时返回-1
+     */
+    long size(File base, long position) throws IOException {
+        return remote.size(key(base, position));
+    }
+
+    /**
+     * 存储目录对应的所有远程文件的起始位置
+     */
+    List<Long> positions(File base) throws IOException {
+        String prefix = prefix(base);
+        List<String> keys = remote.list(prefix);
+        List<Long> positions = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String name = key.substring(key.lastIndexOf('/') + 1);
+            if (name.matches("\\d+")) {
+                positions.add(Long.parseLong(name));
+            }
+        }
+        return positions;
+    }
+
+    File cacheFile(String key) {
+        return new File(cacheBase, key);
+    }
+
+    /**
+     * 下载远程文件到本地读缓存，超出缓存容量时删除最久没有访问的缓存文件。
+     * 调用时持有storeFile的写锁。
+     */
+    void fetch(TieredStoreFile<?> storeFile) throws IOException {
+        File file = storeFile.file();
+        remote.download(storeFile.key(), file);
+        cachedFiles.add(storeFile);
+        cachedSize.addAndGet(file.length());
+        if (cachedSize.get() > cacheSize) {
+            List<TieredStoreFile<?>> candidates = new ArrayList<>(cachedFiles);
+            candidates.sort(Comparator.comparingLong(TieredStoreFile::lastAccessTime));
+            for (TieredStoreFile<?> candidate : candidates) {
+                if (cachedSize.get() <= cacheSize) {
+                    break;
+                }
+                // 正在读取的文件跳过
+                if (candidate != storeFile) {
+                    candidate.tryEvict();
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓存文件已经删除，调用时持有storeFile的写锁。
+     */
+    void release(TieredStoreFile<?> storeFile, long length) {
+        if (cachedFiles.remove(storeFile)) {
+            cachedSize.addAndGet(-length);
+        }
+    }
+
+    private String prefix(File base) {
+        return root.toPath().relativize(base.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static void deleteFolder(File folder) throws IOException {
+        File[] files = folder.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteFolder(file);
+                } else {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+        Files.deleteIfExists(folder.toPath());
+    }
+}
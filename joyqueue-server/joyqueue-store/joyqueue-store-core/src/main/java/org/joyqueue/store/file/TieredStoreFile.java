@@ -0,0 +1,263 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.file;
+
+import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.toolkit.time.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 已经上传到远程存储、删除了本地副本的只读文件。
+ * 读取时从远程存储下载到本地读缓存，再通过StoreFileImpl读取缓存文件。
+ *
+ * 读锁：读取缓存文件；
+ * 写锁：下载、删除缓存文件。
+ */
+class TieredStoreFile<T> implements StoreFile<T> {
+    private final TieredStorage tieredStorage;
+    private final long filePosition;
+    private final int dataSize;
+    private final int headerSize;
+    private final LogSerializer<T> serializer;
+    private final PreloadBufferPool bufferPool;
+    private final boolean loadOnRead;
+    private final String topic;
+    private final String key;
+    // 本地读缓存文件
+    private final File file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 缓存文件，未下载时为null
+    private StoreFileImpl<T> cachedFile = null;
+    private volatile long lastAccessTime = SystemClock.now();
+
+    TieredStoreFile(TieredStorage tieredStorage, File base, long filePosition, int dataSize, int headerSize,
+                    LogSerializer<T> serializer, PreloadBufferPool bufferPool, boolean loadOnRead, String topic) {
+        this.tieredStorage = tieredStorage;
+        this.filePosition = filePosition;
+        this.dataSize = dataSize;
+        this.headerSize = headerSize;
+        this.serializer = serializer;
+        this.bufferPool = bufferPool;
+        this.loadOnRead = loadOnRead;
+        this.topic = topic;
+        this.key = tieredStorage.key(base, filePosition);
+        this.file = tieredStorage.cacheFile(key);
+    }
+
+    String key() {
+        return key;
+    }
+
+    /**
+     * 获取读锁和缓存文件，缓存文件不存在时先下载。调用者使用完毕后需要释放读锁。
+     */
+    private StoreFile<T> acquire() throws IOException {
+        lastAccessTime = SystemClock.now();
+        lock.readLock().lock();
+        if (null != cachedFile) {
+            return cachedFile;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (null == cachedFile) {
+                tieredStorage.fetch(this);
+                cachedFile = new StoreFileImpl<>(filePosition, file.getParentFile(), headerSize, serializer, bufferPool, dataSize, loadOnRead, false, topic);
+            }
+            // 降级为读锁
+            lock.readLock().lock();
+            return cachedFile;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 尝试删除缓存文件，正在读取时返回false
+     */
+    boolean tryEvict() {
+        if (lock.writeLock().tryLock()) {
+            try {
+                evictUnsafe();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return false;
+    }
+
+    private void evictUnsafe() {
+        if (null != cachedFile) {
+            cachedFile.forceUnload();
+            cachedFile = null;
+            long length = file.length();
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException ignored) {
+                // 下次下载时覆盖
+            }
+            tieredStorage.release(this, length);
+        }
+    }
+
+    @Override
+    public File file() {
+        return file;
+    }
+
+    @Override
+    public long position() {
+        return filePosition;
+    }
+
+    @Override
+    public boolean unload() {
+        lock.readLock().lock();
+        try {
+            return null == cachedFile || cachedFile.unload();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forceUnload() {
+        lock.writeLock().lock();
+        try {
+            evictUnsafe();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasPage() {
+        lock.readLock().lock();
+        try {
+            return null != cachedFile && cachedFile.hasPage();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public T read(int position, int length) throws IOException {
+        StoreFile<T> storeFile = acquire();
+        try {
+            return storeFile.read(position, length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException {
+        StoreFile<T> storeFile = acquire();
+        try {
+            return storeFile.read(position, length, bufferReader);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer(int position, int length) throws IOException {
+        StoreFile<T> storeFile = acquire();
+        try {
+            return storeFile.readByteBuffer(position, length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int append(T t) {
+        throw new UnsupportedOperationException("Tiered store file is read only!");
+    }
+
+    @Override
+    public int appendByteBuffer(ByteBuffer byteBuffer) {
+        throw new UnsupportedOperationException("Tiered store file is read only!");
+    }
+
+    @Override
+    public int flush() {
+        return 0;
+    }
+
+    @Override
+    public void rollback(int position) throws IOException {
+        throw new IOException(String.format("Can not rollback tiered store file %s!", key));
+    }
+
+    @Override
+    public boolean isClean() {
+        return true;
+    }
+
+    @Override
+    public int writePosition() {
+        return dataSize;
+    }
+
+    @Override
+    public int fileDataSize() {
+        return dataSize;
+    }
+
+    @Override
+    public int flushPosition() {
+        return dataSize;
+    }
+
+    @Override
+    public long timestamp() {
+        try {
+            StoreFile<T> storeFile = acquire();
+            try {
+                return storeFile.timestamp();
+            } finally {
+                lock.readLock().unlock();
+            }
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public void closeWrite() {
+    }
+
+    @Override
+    public int capacity() {
+        return dataSize;
+    }
+
+    @Override
+    public long lastAccessTime() {
+        return lastAccessTime;
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.BufferReader;
+import org.joyqueue.store.file.LogSerializer;
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.utils.PreloadBufferPool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntPredicate;
+
+/**
+ * 分区的标签索引，和分区索引一一对应，每条消息记录一个2字节的标签（消息头中的FLAG），
+ * 第index条消息的标签位于index * STORAGE_SIZE。
+ * <p>
+ * 按标签过滤的消费者可以只读取标签索引，跳过标签不匹配的消息，不需要读取消息本身。
+ * <p>
+ * 标签索引只用于跳过消息：
+ * 超出分区索引的部分在读取时被忽略，并在写入新的标签时被截掉；
+ * 旧版本的存储没有标签索引，新写入的消息会逐步建立标签索引，没有标签索引的消息按照匹配处理。
+ */
+public class FlagIndex implements Closeable {
+    public static final int STORAGE_SIZE = 2;
+    private static final String FLAG_INDEX_DIR = "flag";
+    // 写入缓冲区的大小
+    private static final int APPEND_BUFFER_SIZE = 4 * 1024;
+
+    private final File base;
+    private final PositioningStore<Short> store;
+    // 复用的写入缓冲区，一批写入的标签先缓存在这里，调用commit()时一次写入存储，只在写入线程中访问
+    private final ByteBuffer appendBuffer = ByteBuffer.allocate(APPEND_BUFFER_SIZE);
+
+    /**
+     * @param indexBase  分区索引所在目录，标签索引存放在这个目录下的子目录中
+     * @param config     存储配置
+     * @param bufferPool 缓存池
+     * @param topic      所属主题
+     */
+    public FlagIndex(File indexBase, PositioningStore.Config config, PreloadBufferPool bufferPool, String topic) {
+        this.base = new File(indexBase, FLAG_INDEX_DIR);
+        this.store = new PositioningStore<>(base, config, bufferPool, new FlagSerializer(), topic);
+    }
+
+    /**
+     * 标签索引的文件数据长度，每个文件和分区索引文件的索引条数相同
+     * @param indexFileDataSize 分区索引的文件数据长度
+     * @return 标签索引的文件数据长度
+     */
+    public static int fileDataSize(int indexFileDataSize) {
+        return indexFileDataSize / IndexItem.STORAGE_SIZE * STORAGE_SIZE;
+    }
+
+    /**
+     * 标签索引的存储配置，按照标签的长度设置文件长度，其它配置和分区索引相同
+     * @param indexStoreConfig 分区索引的存储配置
+     * @return 标签索引的存储配置
+     */
+    public static PositioningStore.Config storeConfig(PositioningStore.Config indexStoreConfig) {
+        return indexStoreConfig.copy(fileDataSize(indexStoreConfig.getFileDataSize()), STORAGE_SIZE);
+    }
+
+    /**
+     * 恢复标签索引，并截掉超出分区索引的部分
+     * @param indexRight 分区索引的下一条索引序号
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void recover(long indexRight) throws IOException {
+        if (!base.isDirectory() && !base.mkdirs()) {
+            throw new IOException(String.format("Create directory: %s failed!", base.getAbsolutePath()));
+        }
+        store.recover();
+        // 截掉末尾可能存在的半条索引
+        store.setRight(store.right() - store.right() % STORAGE_SIZE);
+        truncate(indexRight);
+    }
+
+    /**
+     * 每写入一条消息的索引后调用，批消息的每条索引都记录同一个标签。
+     * 标签先写入复用的缓冲区，一批消息的索引写完后调用commit()写入存储。
+     * 如果index和已有的标签索引不连续（分区索引被回滚过，或者之前没有标签索引），先把标签索引移动到index。
+     * @param index 消息的索引序号
+     * @param flag 消息的标签
+     * @param count 索引条数，批消息大于1
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void append(long index, short flag, int count) throws IOException {
+        long position = index * STORAGE_SIZE;
+        if (position != store.right() + appendBuffer.position()) {
+            commit();
+            if (position != store.right()) {
+                store.setRight(position);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (!appendBuffer.hasRemaining()) {
+                commit();
+            }
+            appendBuffer.putShort(flag);
+        }
+    }
+
+    /**
+     * 把缓冲区中的标签写入存储
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void commit() throws IOException {
+        if (appendBuffer.position() > 0) {
+            appendBuffer.flip();
+            try {
+                store.appendByteBuffer(appendBuffer);
+            } finally {
+                appendBuffer.clear();
+            }
+        }
+    }
+
+    /**
+     * 截掉索引序号大于等于index的所有标签索引
+     * @param index 索引序号
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void truncate(long index) throws IOException {
+        commit();
+        long position = index * STORAGE_SIZE;
+        if (position < store.right()) {
+            store.setRight(position);
+        }
+    }
+
+    /**
+     * 从index开始，统计连续的标签不匹配的消息条数，只读取标签索引。
+     * @param index 起始索引序号
+     * @param maxCount 最多统计的条数
+     * @param flagMatcher 标签是否匹配
+     * @return 连续不匹配的条数，遇到匹配的标签或者没有标签索引的消息时停止
+     * @throws IOException 发生IO异常时抛出
+     */
+    public int countUnmatched(long index, int maxCount, IntPredicate flagMatcher) throws IOException {
+        long position = index * STORAGE_SIZE;
+        if (maxCount <= 0 || position < store.left() || position >= store.right()) {
+            return 0;
+        }
+        UnmatchedCounter counter = new UnmatchedCounter(flagMatcher);
+        store.read(position, (long) maxCount * STORAGE_SIZE, counter);
+        return counter.count;
+    }
+
+    public boolean flush() throws IOException {
+        return store.flush();
+    }
+
+    /**
+     * 删除索引序号小于index的标签索引所在的文件
+     * @param index 分区索引的第一条索引序号
+     * @return 删除的数据长度
+     * @throws IOException 发生IO异常时抛出
+     */
+    public long physicalDeleteTo(long index) throws IOException {
+        return store.physicalDeleteTo(index * STORAGE_SIZE);
+    }
+
+    /**
+     * 分层存储：上传写满的标签索引文件，删除已经上传的较早的本地文件
+     * @return 删除本地副本的文件数量
+     * @throws IOException 发生IO异常时抛出
+     */
+    public int offload() throws IOException {
+        return store.offload();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * 直接在标签索引的缓存页上逐条比较，遇到第一条匹配的标签时停止
+     */
+    private static class UnmatchedCounter implements BufferReader<Boolean> {
+        private final IntPredicate flagMatcher;
+        private int count = 0;
+
+        private UnmatchedCounter(IntPredicate flagMatcher) {
+            this.flagMatcher = flagMatcher;
+        }
+
+        @Override
+        public Boolean read(ByteBuffer byteBuffer, int length) {
+            int position = byteBuffer.position();
+            int end = position + Math.min(length, byteBuffer.remaining());
+            while (position + STORAGE_SIZE <= end) {
+                if (flagMatcher.test(byteBuffer.getShort(position))) {
+                    return Boolean.FALSE;
+                }
+                count++;
+                position += STORAGE_SIZE;
+            }
+            return Boolean.TRUE;
+        }
+    }
+
+    private static class FlagSerializer implements LogSerializer<Short> {
+
+        @Override
+        public Short read(ByteBuffer buffer, int length) {
+            return buffer.getShort();
+        }
+
+        @Override
+        public int size(Short flag) {
+            return STORAGE_SIZE;
+        }
+
+        @Override
+        public int trim(ByteBuffer byteBuffer, int length) {
+            return byteBuffer.remaining() - byteBuffer.remaining() % STORAGE_SIZE;
+        }
+
+        @Override
+        public int append(Short flag, ByteBuffer to) {
+            to.putShort(flag);
+            return STORAGE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.BufferReader;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 批量读取的索引，按列保存在原始类型数组中，读取时不创建{@link IndexItem}对象。
+ * 批消息的多条索引指向同一条消息，相邻offset相同的索引合并成一条，用count记录合并的索引数量。
+ * 非线程安全，同一线程内可以反复{@link #clear()}后复用。
+ */
+public class IndexArray implements BufferReader<Boolean> {
+    private long[] offsets;
+    private int[] lengths;
+    private int[] counts;
+    private int size = 0; // 合并后的索引数量
+    private int indexCount = 0; // 读取的索引总数
+
+    public IndexArray(int capacity) {
+        capacity = Math.max(1, capacity);
+        offsets = new long[capacity];
+        lengths = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+        indexCount = 0;
+    }
+
+    /**
+     * 直接在索引文件的缓存页上逐条解析索引
+     */
+    @Override
+    public Boolean read(ByteBuffer byteBuffer, int length) {
+        int position = byteBuffer.position();
+        int end = position + Math.min(length, byteBuffer.remaining());
+        while (position + IndexItem.STORAGE_SIZE <= end) {
+            add(byteBuffer.getLong(position), byteBuffer.getInt(position + 8));
+            position += IndexItem.STORAGE_SIZE;
+        }
+        return Boolean.TRUE;
+    }
+
+    public void add(long offset, int length) {
+        indexCount++;
+        if (size > 0 && offsets[size - 1] == offset) {
+            counts[size - 1]++;
+            return;
+        }
+        if (size == offsets.length) {
+            int capacity = offsets.length << 1;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        counts[size] = 1;
+        size++;
+    }
+
+    /**
+     * 合并后的索引数量，即消息数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 读取的索引总数
+     */
+    public int indexCount() {
+        return indexCount;
+    }
+
+    public long offset(int i) {
+        return offsets[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * 第i条消息对应的索引数量，批消息大于1
+     */
+    public int count(int i) {
+        return counts[i];
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.BufferReader;
+import org.joyqueue.store.message.BatchMessageParser;
+import org.joyqueue.store.message.MessageParser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 重建索引时，直接在消息文件的缓存页上顺序解析消息头，按列保存在原始类型数组中，每批最多解析capacity条消息。
+ * 每次读取只解析一个文件中的数据，解析到文件末尾、批次已满或者遇到不完整的消息时停止，{@link #scanned()}返回本批解析的数据长度。
+ * 非线程安全，同一线程内可以反复{@link #reset(long)}后复用。
+ */
+public class IndexScanner implements BufferReader<Boolean> {
+    private final long[] offsets;
+    private final short[] partitions;
+    private final long[] indices;
+    private final int[] lengths;
+    private final short[] batchSizes;
+    private final long[] timestamps;
+    private final short[] flags;
+    private final int capacity;
+    private long position = 0L; // 本批第一条消息的全局位置
+    private int scanned = 0; // 本批解析的数据长度
+    private int size = 0; // 本批解析的消息数量
+
+    public IndexScanner(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        offsets = new long[this.capacity];
+        partitions = new short[this.capacity];
+        indices = new long[this.capacity];
+        lengths = new int[this.capacity];
+        batchSizes = new short[this.capacity];
+        timestamps = new long[this.capacity];
+        flags = new short[this.capacity];
+    }
+
+    /**
+     * 开始新的一批
+     * @param position 本批第一条消息的全局位置
+     */
+    public void reset(long position) {
+        this.position = position;
+        this.scanned = 0;
+        this.size = 0;
+    }
+
+    @Override
+    public Boolean read(ByteBuffer byteBuffer, int length) {
+        int start = byteBuffer.position();
+        int end = start + Math.min(length, byteBuffer.remaining());
+        int pointer = start;
+        try {
+            while (size < capacity && pointer < end) {
+                byteBuffer.position(pointer);
+                int messageLength = MessageParser.getInt(byteBuffer, MessageParser.LENGTH);
+                if (messageLength <= 0 || pointer + messageLength > end) {
+                    break;
+                }
+                offsets[size] = position + pointer - start;
+                partitions[size] = MessageParser.getShort(byteBuffer, MessageParser.PARTITION);
+                indices[size] = MessageParser.getLong(byteBuffer, MessageParser.INDEX);
+                lengths[size] = messageLength;
+                batchSizes[size] = BatchMessageParser.isBatch(byteBuffer) ? BatchMessageParser.getBatchSize(byteBuffer) : 0;
+                timestamps[size] = MessageParser.getLong(byteBuffer, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(byteBuffer, MessageParser.STORAGE_TIMESTAMP);
+                flags[size] = MessageParser.getShort(byteBuffer, MessageParser.FLAG);
+                size++;
+                pointer += messageLength;
+            }
+        } catch (IndexOutOfBoundsException ignored) {
+            // 不完整的消息头，停止解析
+        }
+        scanned = pointer - start;
+        // 每次只解析一个文件
+        return Boolean.FALSE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int scanned() {
+        return scanned;
+    }
+
+    /**
+     * 第i条消息的全局位置
+     */
+    public long offset(int i) {
+        return offsets[i];
+    }
+
+    public short partition(int i) {
+        return partitions[i];
+    }
+
+    public long index(int i) {
+        return indices[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * 批消息内的消息数量，不是批消息时返回0
+     */
+    public short batchSize(int i) {
+        return batchSizes[i];
+    }
+
+    public long timestamp(int i) {
+        return timestamps[i];
+    }
+
+    public short flag(int i) {
+        return flags[i];
+    }
+}
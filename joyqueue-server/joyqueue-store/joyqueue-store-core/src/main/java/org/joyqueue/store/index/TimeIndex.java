@@ -0,0 +1,204 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.PositioningStore;
+import org.joyqueue.store.utils.PreloadBufferPool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 分区的稀疏时间索引，每隔interval条消息记录一条时间索引：消息存储时间和索引序号。
+ * <p>
+ * 按时间查找索引时，先在时间索引中折半查找，把查找范围缩小到相邻的两条时间索引之间，
+ * 范围内最多interval条消息，再在这个范围内按消息存储时间折半查找。
+ * 时间索引很小，读取时加载到内存中，避免在整个分区内折半查找时大量随机读取消息。
+ * <p>
+ * 时间索引只用于缩小查找范围：
+ * 分区索引回滚后，超出分区索引的时间索引在查找时被忽略，并在写入新的索引时被截掉；
+ * 旧版本的存储没有时间索引，新写入的消息会逐步建立时间索引。
+ */
+public class TimeIndex implements Closeable {
+    public static final int DEFAULT_INTERVAL = 1024;
+    // 时间索引的文件长度：每个文件4096条时间索引，默认间隔下覆盖4M条消息
+    public static final int FILE_DATA_SIZE = 4096 * TimeIndexItem.STORAGE_SIZE;
+    private static final String TIME_INDEX_DIR = "timestamp";
+
+    private final File base;
+    private final PositioningStore<TimeIndexItem> store;
+    private final int interval;
+    // 最后一条时间索引的索引序号，没有时间索引时为-1
+    private volatile long lastIndex = -1L;
+
+    /**
+     * @param indexBase  分区索引所在目录，时间索引存放在这个目录下的子目录中
+     * @param config     存储配置
+     * @param bufferPool 缓存池
+     * @param interval   每隔多少条消息记录一条时间索引
+     * @param topic      所属主题
+     */
+    public TimeIndex(File indexBase, PositioningStore.Config config, PreloadBufferPool bufferPool, int interval, String topic) {
+        this.base = new File(indexBase, TIME_INDEX_DIR);
+        this.store = new PositioningStore<>(base, config, bufferPool, new TimeIndexSerializer(), topic);
+        this.interval = interval;
+    }
+
+    /**
+     * 时间索引的存储配置，按照时间索引的条目长度设置文件长度，其它配置和分区索引相同
+     * @param indexStoreConfig 分区索引的存储配置
+     * @return 时间索引的存储配置
+     */
+    public static PositioningStore.Config storeConfig(PositioningStore.Config indexStoreConfig) {
+        return indexStoreConfig.copy(FILE_DATA_SIZE, TimeIndexItem.STORAGE_SIZE);
+    }
+
+    /**
+     * 恢复时间索引，并截掉超出分区索引的部分
+     * @param indexRight 分区索引的下一条索引序号
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void recover(long indexRight) throws IOException {
+        if (!base.isDirectory() && !base.mkdirs()) {
+            throw new IOException(String.format("Create directory: %s failed!", base.getAbsolutePath()));
+        }
+        store.recover();
+        // 截掉末尾可能存在的半条索引
+        store.setRight(store.right() - store.right() % TimeIndexItem.STORAGE_SIZE);
+        truncate(indexRight);
+    }
+
+    /**
+     * 每写入一条消息的索引后调用，按需记录一条时间索引。
+     * @param index 消息的索引序号
+     * @param timestamp 消息的存储时间
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void append(long index, long timestamp) throws IOException {
+        if (index <= lastIndex) {
+            // 分区索引被回滚过，截掉失效的时间索引
+            truncate(index);
+        }
+        if (lastIndex < 0 || index - lastIndex >= interval) {
+            store.append(new TimeIndexItem(timestamp, index));
+            lastIndex = index;
+        }
+    }
+
+    /**
+     * 截掉索引序号大于等于index的所有时间索引
+     * @param index 索引序号
+     * @throws IOException 发生IO异常时抛出
+     */
+    public void truncate(long index) throws IOException {
+        long position = store.left() + firstIndexNotBefore(index) * TimeIndexItem.STORAGE_SIZE;
+        if (position < store.right()) {
+            store.setRight(position);
+        }
+        lastIndex = store.right() > store.left() ? read(count() - 1).getIndex() : -1L;
+    }
+
+    /**
+     * 用时间索引缩小按时间查找消息的范围。
+     * 返回的范围[left, right]满足：left之前的消息存储时间都小于timestamp，right之后的消息存储时间都大于等于timestamp。
+     *
+     * @param timestamp 查找的时间
+     * @param leftIndex 分区索引的第一条索引序号
+     * @param rightIndex 分区索引的最后一条索引序号
+     * @return 长度为2的数组，缩小后的范围[left, right]。
+     * @throws IOException 发生IO异常时抛出
+     */
+    public long[] narrow(long timestamp, long leftIndex, long rightIndex) throws IOException {
+        long left = leftIndex, right = rightIndex;
+        // 只使用没有超出分区索引的时间索引
+        long count = lastIndex > rightIndex ? firstIndexNotBefore(rightIndex + 1) : count();
+        if (count > 0) {
+            // 找到第一条存储时间大于等于timestamp的时间索引
+            long lo = 0, hi = count;
+            while (lo < hi) {
+                long mid = lo + (hi - lo) / 2;
+                if (read(mid).getTimestamp() < timestamp) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo > 0) {
+                left = Math.max(left, read(lo - 1).getIndex());
+            }
+            if (lo < count) {
+                right = Math.min(right, read(lo).getIndex());
+            }
+            right = Math.max(left, right);
+        }
+        return new long[]{left, right};
+    }
+
+    public boolean flush() throws IOException {
+        return store.flush();
+    }
+
+    /**
+     * 删除索引序号小于index的时间索引所在的文件
+     * @param index 分区索引的第一条索引序号
+     * @return 删除的数据长度
+     * @throws IOException 发生IO异常时抛出
+     */
+    public long physicalDeleteTo(long index) throws IOException {
+        long position = store.left() + Math.max(0L, firstIndexNotBefore(index) - 1) * TimeIndexItem.STORAGE_SIZE;
+        return store.physicalDeleteTo(position);
+    }
+
+    /**
+     * 分层存储：上传写满的时间索引文件，删除已经上传的较早的本地文件
+     * @return 删除本地副本的文件数量
+     * @throws IOException 发生IO异常时抛出
+     */
+    public int offload() throws IOException {
+        return store.offload();
+    }
+
+    public long count() {
+        return (store.right() - store.left()) / TimeIndexItem.STORAGE_SIZE;
+    }
+
+    private TimeIndexItem read(long i) throws IOException {
+        return store.read(store.left() + i * TimeIndexItem.STORAGE_SIZE);
+    }
+
+    /**
+     * 折半查找第一条索引序号大于等于index的时间索引
+     * @return 时间索引的序号，如果不存在返回count()
+     */
+    private long firstIndexNotBefore(long index) throws IOException {
+        long lo = 0, hi = count();
+        while (lo < hi) {
+            long mid = lo + (hi - lo) / 2;
+            if (read(mid).getIndex() < index) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+}
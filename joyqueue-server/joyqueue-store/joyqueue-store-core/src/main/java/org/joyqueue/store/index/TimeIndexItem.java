@@ -0,0 +1,79 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 时间索引记录：消息存储时间和对应的分区索引序号
+ */
+public class TimeIndexItem {
+
+    public static final int STORAGE_SIZE = 8 + 8;
+
+    /**
+     * 消息存储时间
+     */
+    private long timestamp;
+    /**
+     * 索引，消息在分区内的全局序号
+     */
+    private long index;
+
+    public TimeIndexItem() {
+    }
+
+    public TimeIndexItem(long timestamp, long index) {
+        this.timestamp = timestamp;
+        this.index = index;
+    }
+
+    public static TimeIndexItem from(ByteBuffer byteBuffer) {
+        TimeIndexItem timeIndexItem = new TimeIndexItem();
+        timeIndexItem.setTimestamp(byteBuffer.getLong());
+        timeIndexItem.setIndex(byteBuffer.getLong());
+        return timeIndexItem;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public void setIndex(long index) {
+        this.index = index;
+    }
+
+    public void serializeTo(ByteBuffer buffer) {
+        buffer.putLong(timestamp);
+        buffer.putLong(index);
+    }
+
+    @Override
+    public String toString() {
+        return "TimeIndexItem{" +
+                "timestamp=" + timestamp +
+                ", index=" + index +
+                '}';
+    }
+}
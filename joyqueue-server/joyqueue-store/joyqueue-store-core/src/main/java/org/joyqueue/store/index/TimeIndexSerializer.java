@@ -0,0 +1,48 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.index;
+
+import org.joyqueue.store.file.LogSerializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 时间索引序列化
+ */
+public class TimeIndexSerializer implements LogSerializer<TimeIndexItem> {
+
+    @Override
+    public TimeIndexItem read(ByteBuffer buffer, int length) {
+        return TimeIndexItem.from(buffer);
+    }
+
+    @Override
+    public int size(TimeIndexItem timeIndexItem) {
+        return TimeIndexItem.STORAGE_SIZE;
+    }
+
+    @Override
+    public int trim(ByteBuffer byteBuffer, int length) {
+        return byteBuffer.remaining() - byteBuffer.remaining() % TimeIndexItem.STORAGE_SIZE;
+    }
+
+    @Override
+    public int append(TimeIndexItem timeIndexItem, ByteBuffer to) {
+        timeIndexItem.serializeTo(to);
+        return TimeIndexItem.STORAGE_SIZE;
+    }
+
+}
@@ -20,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
@@ -72,6 +73,10 @@ import java.util.stream.IntStream;
  * 计算等待时长的算法：
  * 如果上次执行任务返回true或者在空转期，等待时长归零，尽快执行下一次。
  * 如果连续多次返回false，并且已经过了空转期，每次增加一点儿等待时长，直到达到最大等待时长。
+ * <p>
+ * 唤醒：
+ * 有新任务到来时，调用方可以调用{@link #wakeup(VirtualThread)}，将虚拟线程的等待时长归零，立即调度执行。
+ * 同一个虚拟线程在任意时刻最多只会被一个物理线程执行，保证了虚拟线程内任务的顺序。
  *
  * @author liyue25
  * Date: 2018-12-19
@@ -85,7 +90,7 @@ public class VirtualThreadExecutor {
     private final DelayQueue<DelayCommand> commandQueue = new DelayQueue<>();
     private final List<Thread> workThreads;
     private final Set<VirtualThread> toBeRemoved = ConcurrentHashMap.newKeySet();
-    private final Set<VirtualThread> virtualThreads = ConcurrentHashMap.newKeySet();
+    private final Map<VirtualThread, DelayCommand> virtualThreads = new ConcurrentHashMap<>();
 
     /**
      * @param keepAliveTimeMs 每次执行完任务后线程空转的时长，在空转期内一旦有任务立即就能执行，避免等待；
@@ -95,6 +100,18 @@ public class VirtualThreadExecutor {
      * @param threadCount     物理线程数量
      */
     public VirtualThreadExecutor(long keepAliveTimeMs, long maxIntervalMs, int steps, long maxUseTime, int threadCount) {
+        this(keepAliveTimeMs, maxIntervalMs, steps, maxUseTime, threadCount, "VirtualThreadExecutor");
+    }
+
+    /**
+     * @param keepAliveTimeMs 每次执行完任务后线程空转的时长，在空转期内一旦有任务立即就能执行，避免等待；
+     * @param maxIntervalMs   最大等待时长
+     * @param steps           递增次数
+     * @param maxUseTime      虚拟线程每次最大占用物理线程的时长
+     * @param threadCount     物理线程数量
+     * @param name            物理线程名称前缀
+     */
+    public VirtualThreadExecutor(long keepAliveTimeMs, long maxIntervalMs, int steps, long maxUseTime, int threadCount, String name) {
         this.keepAliveTimeMs = keepAliveTimeMs;
         this.maxIntervalMs = maxIntervalMs;
         this.steps = steps;
@@ -102,24 +119,52 @@ public class VirtualThreadExecutor {
         workThreads = IntStream.range(0, threadCount)
                 .mapToObj(index -> {
                     Thread thread = new Thread(new WorkThread());
-                    thread.setName("VirtualThreadExecutor-" + index);
+                    thread.setName(name + "-" + index);
                     thread.start();
                     return thread;
                 }).collect(Collectors.toList());
     }
 
     public void start(VirtualThread vt, String name) {
-        virtualThreads.add(vt);
-        commandQueue.add(new DelayCommand(vt, name));
+        start(vt, 0L, name);
     }
 
     public void start(VirtualThread vt, long minDelayMs, String name) {
-        virtualThreads.add(vt);
-        commandQueue.add(new DelayCommand(vt, minDelayMs, name));
+        DelayCommand cmd = new DelayCommand(vt, minDelayMs, name);
+        if (null == virtualThreads.putIfAbsent(vt, cmd)) {
+            commandQueue.add(cmd);
+        }
+    }
+
+    /**
+     * 唤醒虚拟线程：如果虚拟线程正在等待，立即调度执行；
+     * 如果虚拟线程正在执行，执行结束后不再等待，立即再次调度。
+     * @param vt 虚拟线程
+     */
+    public void wakeup(VirtualThread vt) {
+        DelayCommand cmd = virtualThreads.get(vt);
+        if (null == cmd) {
+            return;
+        }
+        cmd.wakeup = true;
+        // 正在执行的虚拟线程不在队列中，由执行线程在执行结束后处理wakeup标志。
+        if (cmd.startTime > SystemClock.now() && commandQueue.remove(cmd)) {
+            cmd.wakeup = false;
+            cmd.delay = cmd.minDelayMs;
+            cmd.startTime = SystemClock.now();
+            commandQueue.put(cmd);
+        }
+    }
+
+    /**
+     * 当前注册的虚拟线程数量
+     */
+    public int size() {
+        return virtualThreads.size();
     }
 
     public void stop(VirtualThread vt) throws InterruptedException {
-        if (virtualThreads.remove(vt)) {
+        if (virtualThreads.remove(vt) != null) {
             toBeRemoved.add(vt);
             if (commandQueue.removeIf(cmd -> cmd.virtualThread == vt)) {
                 toBeRemoved.remove(vt);
@@ -155,11 +200,7 @@ public class VirtualThreadExecutor {
         private volatile long startTime = SystemClock.now();
         private volatile long lastRunTime = SystemClock.now(); // 上一次有效运行的结束时间
         private volatile long delay = 0;
-
-        private DelayCommand(VirtualThread virtualThread, String name) {
-            this(virtualThread, 0L, name);
-
-        }
+        private volatile boolean wakeup = false;
 
         private DelayCommand(VirtualThread virtualThread, long minDelayMs, String name) {
             this.virtualThread = virtualThread;
@@ -217,7 +258,10 @@ public class VirtualThreadExecutor {
                 }
                 if (null != cmd) {
                     long now = SystemClock.now();
-                    if (dryRun) {
+                    if (cmd.wakeup) {
+                        cmd.wakeup = false;
+                        cmd.delay = cmd.minDelayMs;
+                    } else if (dryRun) {
                         if (keepAliveTimeMs + cmd.lastRunTime <= now) {
                             if (cmd.delay < maxIntervalMs) {
                                 cmd.delay += maxIntervalMs / steps;
@@ -229,6 +273,13 @@ public class VirtualThreadExecutor {
                     }
                     cmd.startTime = now + cmd.delay;
                     commandQueue.put(cmd);
+                    // 放回队列的过程中有可能被唤醒，再检查一次，避免丢失唤醒。
+                    if (cmd.wakeup && cmd.delay > 0 && commandQueue.remove(cmd)) {
+                        cmd.wakeup = false;
+                        cmd.delay = cmd.minDelayMs;
+                        cmd.startTime = SystemClock.now() + cmd.delay;
+                        commandQueue.put(cmd);
+                    }
                 }
             }
         }
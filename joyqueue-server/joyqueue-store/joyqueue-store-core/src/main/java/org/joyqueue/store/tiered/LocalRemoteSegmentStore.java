@@ -0,0 +1,106 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.tiered;
+
+import com.jd.laf.extension.Extension;
+import org.joyqueue.store.StoreConfig;
+import org.joyqueue.toolkit.config.PropertySupplier;
+import org.joyqueue.toolkit.config.PropertySupplierAware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 使用本地文件系统（或者挂载到本地的共享文件系统）保存段，主要用于测试。
+ * 段保存在根目录下，key就是段文件相对于根目录的路径。
+ */
+@Extension("local")
+public class LocalRemoteSegmentStore implements RemoteSegmentStore, PropertySupplierAware {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private File root;
+
+    public LocalRemoteSegmentStore() {
+    }
+
+    public LocalRemoteSegmentStore(File root) {
+        this.root = root;
+    }
+
+    @Override
+    public void setSupplier(PropertySupplier supplier) {
+        this.root = new File(new StoreConfig(supplier).getTieredLocalPath());
+    }
+
+    @Override
+    public void upload(String key, File file) throws IOException {
+        copy(file, segmentFile(key));
+    }
+
+    @Override
+    public void download(String key, File file) throws IOException {
+        File segmentFile = segmentFile(key);
+        if (!segmentFile.isFile()) {
+            throw new IOException(String.format("Segment %s not found in %s!", key, root.getAbsolutePath()));
+        }
+        copy(segmentFile, file);
+    }
+
+    @Override
+    public long size(String key) {
+        File segmentFile = segmentFile(key);
+        return segmentFile.isFile() ? segmentFile.length() : -1L;
+    }
+
+    @Override
+    public List<String> list(String prefix) {
+        File[] files = new File(root, prefix).listFiles(file -> file.isFile() && !file.getName().endsWith(TEMP_SUFFIX));
+        if (null == files) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<>(files.length);
+        for (File file : files) {
+            keys.add(prefix + "/" + file.getName());
+        }
+        return keys;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(segmentFile(key).toPath());
+    }
+
+    private File segmentFile(String key) {
+        return new File(root, key);
+    }
+
+    /**
+     * 先复制到临时文件再重命名，保证目标文件是完整的
+     */
+    private void copy(File src, File dest) throws IOException {
+        File parent = dest.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(String.format("Create directory %s failed!", parent.getAbsolutePath()));
+        }
+        File temp = new File(parent, dest.getName() + TEMP_SUFFIX);
+        Files.copy(src.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 分层存储的远程段存储，用于保存已经写满、不再变化的存储文件。
+ * 段用key标识，key的格式为：[存储目录相对于存储根目录的路径]/[文件起始位置]，使用'/'分隔。
+ *
+ * 通过扩展点加载，实现类需要使用@Extension注解指定类型，并注册到META-INF/services中。
+ * 实现类如果需要读取配置，可以实现PropertySupplierAware接口。
+ */
+public interface RemoteSegmentStore {
+
+    /**
+     * 上传段，已存在时覆盖。上传必须是原子的，失败时不能留下不完整的段。
+     *
+     * @param key  段的key
+     * @param file 本地文件
+     * @throws IOException 发生IO异常时抛出
+     */
+    void upload(String key, File file) throws IOException;
+
+    /**
+     * 下载段到本地文件，本地文件已存在时覆盖。
+     *
+     * @param key  段的key
+     * @param file 本地文件
+     * @throws IOException 段不存在或者发生IO异常时抛出
+     */
+    void download(String key, File file) throws IOException;
+
+    /**
+     * 段的大小
+     *
+     * @param key 段的key
+     * @return 段的大小，段不存在时返回-1
+     * @throws IOException 发生IO异常时抛出
+     */
+    long size(String key) throws IOException;
+
+    /**
+     * 列出目录下的所有段
+     *
+     * @param prefix 目录，即段的key去掉最后一级文件起始位置的部分
+     * @return 目录下所有段的key
+     * @throws IOException 发生IO异常时抛出
+     */
+    List<String> list(String prefix) throws IOException;
+
+    /**
+     * 删除段，段不存在时直接返回
+     *
+     * @param key 段的key
+     * @throws IOException 发生IO异常时抛出
+     */
+    void delete(String key) throws IOException;
+}
@@ -44,4 +44,12 @@ public interface BufferHolder extends Timed {
      * @return true：可写，false：只读
      */
     boolean writable();
+
+    /**
+     * 缓存页所属的主题，用于按主题统计和限制缓存用量
+     * @return 主题，不属于任何主题时返回null
+     */
+    default String topic() {
+        return null;
+    }
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.utils;
+
+/**
+ * 缓存页置换策略。
+ * PreloadBufferPool在内存不足时，按照置换权重从小到大的顺序驱逐空闲的缓存页。
+ *
+ * 可以通过系统属性PreloadBufferPool.EvictPolicy指定策略：lru，2q，或者实现了本接口的类名（需要提供无参构造函数）。
+ */
+public interface EvictPolicy {
+
+    /**
+     * 计算缓存页的置换权重，权重越小越先被驱逐。
+     *
+     * @param holder 缓存页
+     * @param loadTime 缓存页加载到内存的时间戳，最近被驱逐后又重新加载的页沿用之前的加载时间戳
+     * @param lastAccessTime 缓存页上次访问的时间戳
+     * @return 置换权重
+     */
+    long weight(BufferHolder holder, long loadTime, long lastAccessTime);
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.utils;
+
+/**
+ * LRU置换策略，优先驱逐最久未访问的缓存页。
+ *
+ * 正在写入的页在置换时有额外的权重，这个权重用时间Ms体现。
+ * 置换权重 = 上次访问时间戳 + 额外权重。
+ * 例如：一个只读的页，上次访问时间戳是T，一个读写页，上次访问时间是T - 60秒，
+ * 额外权重是60秒时，这两个页在置换时有同样的权重。
+ */
+public class LruEvictPolicy implements EvictPolicy {
+    public static final String NAME = "lru";
+    static final long DEFAULT_WRITE_PAGE_EXTRA_WEIGHT_MS = 60000L;
+    private final long writePageExtraWeightMs;
+
+    public LruEvictPolicy() {
+        this(DEFAULT_WRITE_PAGE_EXTRA_WEIGHT_MS);
+    }
+
+    public LruEvictPolicy(long writePageExtraWeightMs) {
+        this.writePageExtraWeightMs = writePageExtraWeightMs;
+    }
+
+    @Override
+    public long weight(BufferHolder holder, long loadTime, long lastAccessTime) {
+        return lastAccessTime + (holder.writable() ? writePageExtraWeightMs : 0L);
+    }
+}
@@ -29,15 +29,14 @@ import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -67,6 +66,12 @@ public class PreloadBufferPool {
     private static final String WRITE_PAGE_EXTRA_WEIGHT_MS_KEY = "PreloadBufferPool.WritePageExtraWeightMs";
     private static final String MAX_PAGE_AGE = "PreloadBufferPool.MaxPageAge";
     private static final int DEFAULT_MAX_PAGE_AGE = 1000 * 60 * 5;
+    private static final String EVICT_POLICY_KEY = "PreloadBufferPool.EvictPolicy";
+    private static final String CORRELATED_PERIOD_MS_KEY = "PreloadBufferPool.CorrelatedPeriodMs";
+    private static final long DEFAULT_CORRELATED_PERIOD_MS = 10000L;
+    private static final String TOPIC_QUOTA_KEY = "PreloadBufferPool.TopicQuota";
+    // 不属于任何主题的缓存页，不受主题配额限制
+    private static final String NO_TOPIC = "";
     private final LoopThread preloadThread;
     private final LoopThread metricThread;
     private final LoopThread evictThread;
@@ -74,6 +79,8 @@ public class PreloadBufferPool {
     private final long coreMemorySize;
     private final long evictMemorySize;
     private final int maxPageAge;
+    // 每个主题最多可以使用的缓存大小，0表示不限制
+    private final long topicQuota;
 
     // 正在写入的页在置换时有额外的权重，这个权重用时间Ms体现。
     // 默认是60秒。
@@ -81,9 +88,17 @@ public class PreloadBufferPool {
     // 例如：一个只读的页，上次访问时间戳是T，一个读写页，上次访问时间是T - 60秒，
     // 这两个页在置换时有同样的权重
     private final long writePageExtraWeightMs;
+    // 缓存页置换策略
+    private final EvictPolicy evictPolicy;
     private final AtomicLong usedSize = new AtomicLong(0L);
-    private final Set<BufferHolder> directBufferHolders = ConcurrentHashMap.newKeySet();
-    private final Set<BufferHolder> mMapBufferHolders = ConcurrentHashMap.newKeySet();
+    // 缓存页 -> 加载时间戳
+    private final Map<BufferHolder, Long> directBufferHolders = new ConcurrentHashMap<>();
+    private final Map<BufferHolder, Long> mMapBufferHolders = new ConcurrentHashMap<>();
+    // 最近被驱逐的页，类似2Q的A1out队列。
+    // 被驱逐的页如果在MaxPageAge内重新加载，沿用之前的加载时间戳，这样访问间隔较长的热点页也能被置换策略识别出来。
+    private final Map<BufferHolder, EvictedPage> evictedPages = new ConcurrentHashMap<>();
+    // 主题 -> 缓存统计，主题的存储文件都已删除或者关闭后删除
+    private final Map<String, CacheStats> cacheStatsMap = new ConcurrentHashMap<>();
     private final Map<Integer, PreLoadCache> bufferCache = new ConcurrentHashMap<>();
     private static PreloadBufferPool instance = null;
 
@@ -102,6 +117,8 @@ public class PreloadBufferPool {
         coreMemorySize = Math.round(maxMemorySize * CORE_RATIO);
         writePageExtraWeightMs = Long.parseLong(System.getProperty(WRITE_PAGE_EXTRA_WEIGHT_MS_KEY, String.valueOf(DEFAULT_WRITE_PAGE_EXTRA_WEIGHT_MS)));
         maxPageAge = Integer.parseInt(System.getProperty(MAX_PAGE_AGE, String.valueOf(DEFAULT_MAX_PAGE_AGE)));
+        topicQuota = getTopicQuota();
+        evictPolicy = buildEvictPolicy();
         preloadThread = buildPreloadThread();
         preloadThread.start();
 
@@ -115,10 +132,51 @@ public class PreloadBufferPool {
         evictThread = buildEvictThread();
         evictThread.start();
 
-        logger.info("Max direct memory: {}, core direct memory: {}, evict direct memory: {}.",
+        logger.info("Max direct memory: {}, core direct memory: {}, evict direct memory: {}, topic quota: {}, evict policy: {}.",
                 Format.formatSize(maxMemorySize),
                 Format.formatSize(coreMemorySize),
-                Format.formatSize(evictMemorySize));
+                Format.formatSize(evictMemorySize),
+                topicQuota > 0 ? Format.formatSize(topicQuota) : "unlimited",
+                evictPolicy.getClass().getSimpleName());
+    }
+
+    /**
+     * 构建缓存页置换策略。
+     *
+     * PreloadBufferPool.EvictPolicy可以设置为：
+     * 1. lru：默认值，优先驱逐最久未访问的页；
+     * 2. 2q：抗扫描的2Q策略，关联周期由PreloadBufferPool.CorrelatedPeriodMs配置；
+     * 3. 实现了{@link EvictPolicy}接口的类名。
+     */
+    private EvictPolicy buildEvictPolicy() {
+        String policy = System.getProperty(EVICT_POLICY_KEY, LruEvictPolicy.NAME);
+        if (LruEvictPolicy.NAME.equalsIgnoreCase(policy)) {
+            return new LruEvictPolicy(writePageExtraWeightMs);
+        }
+        if (TwoQueueEvictPolicy.NAME.equalsIgnoreCase(policy)) {
+            long correlatedPeriodMs = Long.parseLong(System.getProperty(CORRELATED_PERIOD_MS_KEY, String.valueOf(DEFAULT_CORRELATED_PERIOD_MS)));
+            // 保护队列的额外权重大于最大空闲时间，保证试用队列中的页总是先被驱逐
+            return new TwoQueueEvictPolicy(writePageExtraWeightMs, correlatedPeriodMs, 2L * maxPageAge);
+        }
+        try {
+            return (EvictPolicy) Class.forName(policy).newInstance();
+        } catch (Exception e) {
+            logger.warn("Invalid evict policy: {}, using default: {}.", policy, LruEvictPolicy.NAME, e);
+            return new LruEvictPolicy(writePageExtraWeightMs);
+        }
+    }
+
+    /**
+     * 计算每个主题最多可以使用的缓存大小。
+     * PreloadBufferPool.TopicQuota可以设置为数值或者最大堆外内存的百分比，比如：20%，未设置时不限制。
+     */
+    private long getTopicQuota() {
+        String quotaString = System.getProperty(TOPIC_QUOTA_KEY);
+        int pct = Format.getPercentage(quotaString);
+        if (pct > 0 && pct <= 100) {
+            return maxMemorySize * pct / 100;
+        }
+        return Format.parseSize(quotaString, 0L);
     }
 
     /**
@@ -177,14 +235,20 @@ public class PreloadBufferPool {
                     Format.formatSize(totalSize));
             return totalSize;
         }).sum();
-        long mmpUsed = mMapBufferHolders.stream().mapToLong(BufferHolder::capacity).sum();
-        long directUsed = directBufferHolders.stream().mapToLong(BufferHolder::capacity).sum();
+        long mmpUsed = mMapBufferHolders.keySet().stream().mapToLong(BufferHolder::capacity).sum();
+        long directUsed = directBufferHolders.keySet().stream().mapToLong(BufferHolder::capacity).sum();
         logger.info("Direct memory usage: preload/direct/mmp/used/max: {}/{}/{}/{}/{}.",
                 Format.formatSize(plUsed),
                 Format.formatSize(directUsed),
                 Format.formatSize(mmpUsed),
                 Format.formatSize(totalUsed),
                 Format.formatSize(maxMemorySize));
+        for (CacheStats stats : cacheStatsMap.values()) {
+            logger.info("Page cache of topic: {}, used: {}, hit/miss/evict: {}/{}/{}, hit ratio: {}%.",
+                    stats.getTopic(), Format.formatSize(stats.getUsedSize()),
+                    stats.getHits(), stats.getMisses(), stats.getEvictions(),
+                    Math.round(stats.getHitRatio() * 100));
+        }
     }
 
     private LoopThread buildPreloadThread() {
@@ -201,7 +265,7 @@ public class PreloadBufferPool {
         return LoopThread.builder()
                 .name("EvictThread")
                 .sleepTime(INTERVAL_MS, INTERVAL_MS)
-                .condition(this::needEviction)
+                .condition(() -> needEviction() || isOverQuota())
                 .doWork(this::evict)
                 .onException(e -> logger.warn("EvictThread exception:", e))
                 .daemon(true)
@@ -210,7 +274,7 @@ public class PreloadBufferPool {
 
 
     /**
-     * 清除文件缓存页。LRU。
+     * 清除文件缓存页，按照置换策略的权重从小到大的顺序驱逐。
      */
     private void evict() {
         // 清理超过maxCount的缓存页
@@ -225,35 +289,52 @@ public class PreloadBufferPool {
             }
         }
 
-        List<LruWrapper<BufferHolder>> sortedPage = Stream.concat(directBufferHolders.stream(), mMapBufferHolders.stream())
-                .filter(BufferHolder::isFree)
-                .map(bufferHolder -> new LruWrapper<>(bufferHolder, bufferHolder.lastAccessTime(), bufferHolder.writable() ? writePageExtraWeightMs : 0L))
-                .sorted(Comparator.comparing(LruWrapper::getWeight))
-                .collect(Collectors.toList());
+        List<PageWrapper> sortedPage = sortFreePages(Stream.concat(directBufferHolders.entrySet().stream(), mMapBufferHolders.entrySet().stream()));
 
-        Iterator<LruWrapper<BufferHolder>> sortedPageIterator = sortedPage.iterator();
-        while (sortedPageIterator.hasNext()) {
-            LruWrapper<BufferHolder> lruWrapper = sortedPageIterator.next();
-            if (SystemClock.now() - lruWrapper.getLastAccessTime() >= maxPageAge) {
-                lruWrapper.get().evict();
-                sortedPageIterator.remove();
-            } else {
-                break;
-            }
+        // 清理超过最大空闲时间的页面
+        long now = SystemClock.now();
+        evictedPages.values().removeIf(evictedPage -> now - evictedPage.evictTime >= maxPageAge);
+        sortedPage.removeIf(wrapper -> now - wrapper.getLastAccessTime() >= maxPageAge && evict(wrapper));
+
+        // 清理超过主题配额的页面
+        if (isOverQuota()) {
+            sortedPage.removeIf(wrapper -> isOverQuota(cacheStats(wrapper.get().topic())) && evict(wrapper));
         }
 
-        // 清理使用中最旧的页面，直到内存占用率达标
-        if (needEviction()) {
-            while (needEviction() && !sortedPage.isEmpty()) {
-                LruWrapper<BufferHolder> wrapper = sortedPage.remove(0);
-                BufferHolder holder = wrapper.get();
-                if (holder.lastAccessTime() == wrapper.getLastAccessTime()) {
-                    holder.evict();
-                }
-            }
+        // 清理使用中权重最小的页面，直到内存占用率达标
+        while (needEviction() && !sortedPage.isEmpty()) {
+            evict(sortedPage.remove(0));
         }
     }
 
+    /**
+     * 按照置换策略的权重从小到大排序空闲的缓存页
+     */
+    private List<PageWrapper> sortFreePages(Stream<Map.Entry<BufferHolder, Long>> pages) {
+        return pages
+                .filter(entry -> entry.getKey().isFree())
+                .map(entry -> {
+                    BufferHolder holder = entry.getKey();
+                    long lastAccessTime = holder.lastAccessTime();
+                    return new PageWrapper(holder, entry.getValue(), lastAccessTime, evictPolicy.weight(holder, entry.getValue(), lastAccessTime));
+                })
+                .sorted(Comparator.comparing(PageWrapper::getWeight))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 驱逐排序之后没有再被访问过的页
+     * @return 驱逐成功返回true，否则返回false
+     */
+    private boolean evict(PageWrapper wrapper) {
+        BufferHolder holder = wrapper.get();
+        if (holder.lastAccessTime() == wrapper.getLastAccessTime() && holder.evict()) {
+            evictedPages.put(holder, new EvictedPage(wrapper.getLoadTime(), SystemClock.now()));
+            cacheStats(holder.topic()).evictions.increment();
+            return true;
+        }
+        return false;
+    }
 
     private boolean needEviction() {
         return usedSize.get() > evictMemorySize;
@@ -267,6 +348,61 @@ public class PreloadBufferPool {
         return usedSize.get() < coreMemorySize;
     }
 
+    private boolean isOverQuota() {
+        if (topicQuota <= 0) {
+            return false;
+        }
+        for (CacheStats stats : cacheStatsMap.values()) {
+            if (isOverQuota(stats)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isOverQuota(CacheStats stats) {
+        return topicQuota > 0 && !NO_TOPIC.equals(stats.getTopic()) && stats.getUsedSize() > topicQuota;
+    }
+
+    /**
+     * 获取主题的缓存统计
+     * @param topic 主题，为null时返回不属于任何主题的缓存页的统计
+     */
+    public CacheStats cacheStats(String topic) {
+        return cacheStatsMap.computeIfAbsent(null == topic ? NO_TOPIC : topic, CacheStats::new);
+    }
+
+    /**
+     * 创建存储文件时获取主题的缓存统计，主题的存储文件计数加一
+     * @param topic 主题，为null时返回不属于任何主题的缓存页的统计
+     */
+    public CacheStats acquireCacheStats(String topic) {
+        return cacheStatsMap.compute(null == topic ? NO_TOPIC : topic, (key, stats) -> {
+            if (null == stats) {
+                stats = new CacheStats(key);
+            }
+            stats.holders++;
+            return stats;
+        });
+    }
+
+    /**
+     * 存储文件删除或者关闭后调用，清除最近被驱逐的记录，主题的存储文件计数减一。
+     * 主题没有存储文件并且没有缓存页时，删除主题的缓存统计。
+     */
+    public void release(BufferHolder bufferHolder) {
+        evictedPages.remove(bufferHolder);
+        cacheStatsMap.computeIfPresent(null == bufferHolder.topic() ? NO_TOPIC : bufferHolder.topic(),
+                (key, stats) -> --stats.holders <= 0 && stats.getUsedSize() <= 0 ? null : stats);
+    }
+
+    /**
+     * 获取所有主题的缓存统计
+     */
+    public List<CacheStats> cacheStats() {
+        return new ArrayList<>(cacheStatsMap.values());
+    }
+
     public synchronized boolean addPreLoad(int bufferSize, int coreCount, int maxCount) {
         return bufferCache.putIfAbsent(bufferSize, new PreLoadCache(bufferSize, coreCount, maxCount)) == null;
     }
@@ -303,18 +439,10 @@ public class PreloadBufferPool {
                         return;
                     }
                 } else {
-                    List<LruWrapper<BufferHolder>> outdated = directBufferHolders.stream()
-                            .filter(b -> b.capacity() == preLoadCache.bufferSize)
-                            .filter(BufferHolder::isFree)
-                            .map(bufferHolder -> new LruWrapper<>(bufferHolder, bufferHolder.lastAccessTime(), bufferHolder.writable() ? writePageExtraWeightMs : 0L))
-                            .sorted(Comparator.comparing(LruWrapper::getWeight))
-                            .collect(Collectors.toList());
+                    List<PageWrapper> outdated = sortFreePages(directBufferHolders.entrySet().stream()
+                            .filter(entry -> entry.getKey().capacity() == preLoadCache.bufferSize));
                     while (preLoadCache.cache.size() < preLoadCache.coreCount && !outdated.isEmpty()) {
-                        LruWrapper<BufferHolder> wrapper = outdated.remove(0);
-                        BufferHolder holder = wrapper.get();
-                        if (holder.lastAccessTime() == wrapper.getLastAccessTime()) {
-                            holder.evict();
-                        }
+                        evict(outdated.remove(0));
                     }
                 }
             }
@@ -376,15 +504,25 @@ public class PreloadBufferPool {
 
     public void allocateMMap(BufferHolder bufferHolder) {
         reserveMemory(bufferHolder.capacity());
-        mMapBufferHolders.add(bufferHolder);
+        mMapBufferHolders.put(bufferHolder, loadTime(bufferHolder));
+        cacheStats(bufferHolder.topic()).usedSize.addAndGet(bufferHolder.capacity());
     }
 
     public ByteBuffer allocateDirect(BufferHolder bufferHolder) {
         ByteBuffer buffer = allocateDirect(bufferHolder.capacity());
-        directBufferHolders.add(bufferHolder);
+        directBufferHolders.put(bufferHolder, loadTime(bufferHolder));
+        cacheStats(bufferHolder.topic()).usedSize.addAndGet(bufferHolder.capacity());
         return buffer;
     }
 
+    /**
+     * 缓存页的加载时间戳，最近被驱逐过的页沿用之前的加载时间戳
+     */
+    private long loadTime(BufferHolder bufferHolder) {
+        EvictedPage evictedPage = evictedPages.remove(bufferHolder);
+        return null == evictedPage ? SystemClock.now() : evictedPage.loadTime;
+    }
+
     private ByteBuffer allocateDirect(int bufferSize) {
         try {
             PreLoadCache preLoadCache = bufferCache.get(bufferSize);
@@ -411,7 +549,9 @@ public class PreloadBufferPool {
     }
 
     public void releaseDirect(ByteBuffer byteBuffer, BufferHolder bufferHolder) {
-        directBufferHolders.remove(bufferHolder);
+        if (null != directBufferHolders.remove(bufferHolder)) {
+            cacheStats(bufferHolder.topic()).usedSize.addAndGet(-1 * bufferHolder.capacity());
+        }
         int size = byteBuffer.capacity();
         PreLoadCache preLoadCache = bufferCache.get(size);
         if (null != preLoadCache) {
@@ -428,7 +568,9 @@ public class PreloadBufferPool {
     }
 
     public void releaseMMap(BufferHolder bufferHolder) {
-        mMapBufferHolders.remove(bufferHolder);
+        if (null != mMapBufferHolders.remove(bufferHolder)) {
+            cacheStats(bufferHolder.topic()).usedSize.addAndGet(-1 * bufferHolder.capacity());
+        }
         usedSize.getAndAdd(-1 * bufferHolder.capacity());
 
     }
@@ -458,9 +600,21 @@ public class PreloadBufferPool {
             plMonitorInfos.add(plMonitorInfo);
             return totalSize;
         }).sum();
-        long mmpUsed = mMapBufferHolders.stream().mapToLong(BufferHolder::capacity).sum();
-        long directUsed = directBufferHolders.stream().mapToLong(BufferHolder::capacity).sum();
+        long mmpUsed = mMapBufferHolders.keySet().stream().mapToLong(BufferHolder::capacity).sum();
+        long directUsed = directBufferHolders.keySet().stream().mapToLong(BufferHolder::capacity).sum();
+
+        List<BufferPoolMonitorInfo.CacheMonitorInfo> cacheMonitorInfos = new ArrayList<>(cacheStatsMap.size());
+        for (CacheStats stats : cacheStatsMap.values()) {
+            BufferPoolMonitorInfo.CacheMonitorInfo cacheMonitorInfo = new BufferPoolMonitorInfo.CacheMonitorInfo();
+            cacheMonitorInfo.setTopic(stats.getTopic());
+            cacheMonitorInfo.setUsed(Format.formatSize(stats.getUsedSize()));
+            cacheMonitorInfo.setHits(stats.getHits());
+            cacheMonitorInfo.setMisses(stats.getMisses());
+            cacheMonitorInfo.setEvictions(stats.getEvictions());
+            cacheMonitorInfos.add(cacheMonitorInfo);
+        }
 
+        bufferPoolMonitorInfo.setCacheMonitorInfos(cacheMonitorInfos);
         bufferPoolMonitorInfo.setPlMonitorInfos(plMonitorInfos);
         bufferPoolMonitorInfo.setPlUsed(Format.formatSize(plUsed));
         bufferPoolMonitorInfo.setUsed(Format.formatSize(totalUsed));
@@ -482,27 +636,100 @@ public class PreloadBufferPool {
         }
     }
 
-    private static class LruWrapper<V> {
+    /**
+     * 主题的缓存统计
+     */
+    public static class CacheStats {
+        private final String topic;
+        private final AtomicLong usedSize = new AtomicLong(0L);
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        // 主题的存储文件数量，只在cacheStatsMap的compute中修改
+        private int holders = 0;
+
+        CacheStats(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * 读取时缓存页已经在内存中
+         */
+        public void hit() {
+            hits.increment();
+        }
+
+        /**
+         * 读取时缓存页不在内存中，需要加载
+         */
+        public void miss() {
+            misses.increment();
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public long getUsedSize() {
+            return usedSize.get();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public double getHitRatio() {
+            long hits = getHits();
+            long total = hits + getMisses();
+            return total == 0 ? 1d : (double) hits / total;
+        }
+    }
+
+    private static class EvictedPage {
+        private final long loadTime;
+        private final long evictTime;
+
+        EvictedPage(long loadTime, long evictTime) {
+            this.loadTime = loadTime;
+            this.evictTime = evictTime;
+        }
+    }
+
+    private static class PageWrapper {
+        private final long loadTime;
         private final long lastAccessTime;
-        private final long extraWeight;
-        private final V t;
+        private final long weight;
+        private final BufferHolder holder;
 
-        LruWrapper(V t, long lastAccessTime, long extraWeight) {
+        PageWrapper(BufferHolder holder, long loadTime, long lastAccessTime, long weight) {
+            this.loadTime = loadTime;
             this.lastAccessTime = lastAccessTime;
-            this.t = t;
-            this.extraWeight = extraWeight;
+            this.holder = holder;
+            this.weight = weight;
+        }
+
+        private long getLoadTime() {
+            return loadTime;
         }
 
         private long getLastAccessTime() {
             return lastAccessTime;
         }
 
-        private V get() {
-            return t;
+        private BufferHolder get() {
+            return holder;
         }
 
         private long getWeight() {
-            return lastAccessTime + extraWeight;
+            return weight;
         }
     }
 }
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.joyqueue.store.utils;
+
+/**
+ * 抗扫描的2Q置换策略。
+ *
+ * 缓存页分为两个队列：
+ * 试用队列：加载后只在关联周期（correlatedPeriodMs）内被访问过的页，
+ * 例如回放历史消息时顺序扫描的页，读完就不会再访问；
+ * 保护队列：加载超过关联周期之后仍然被访问的页，例如各主题尾部的热点页。
+ * 被驱逐之后很快又重新加载的页沿用之前的加载时间，访问间隔较长的热点页第二次加载后也会进入保护队列。
+ *
+ * 保护队列中的页在置换时有额外的权重protectedExtraWeightMs，
+ * 只要这个权重不小于最大空闲时间（PreloadBufferPool.MaxPageAge），试用队列中的页总是先于保护队列中的页被驱逐，
+ * 队列内部按照LRU的顺序驱逐。这样一个冷数据的大范围扫描只会在试用队列中置换，不会把其它主题的热点页挤出内存。
+ */
+public class TwoQueueEvictPolicy extends LruEvictPolicy {
+    public static final String NAME = "2q";
+    private static final long DEFAULT_CORRELATED_PERIOD_MS = 10000L;
+    private static final long DEFAULT_PROTECTED_EXTRA_WEIGHT_MS = 1000L * 60 * 10;
+    private final long correlatedPeriodMs;
+    private final long protectedExtraWeightMs;
+
+    public TwoQueueEvictPolicy() {
+        this(DEFAULT_WRITE_PAGE_EXTRA_WEIGHT_MS, DEFAULT_CORRELATED_PERIOD_MS, DEFAULT_PROTECTED_EXTRA_WEIGHT_MS);
+    }
+
+    public TwoQueueEvictPolicy(long writePageExtraWeightMs, long correlatedPeriodMs, long protectedExtraWeightMs) {
+        super(writePageExtraWeightMs);
+        this.correlatedPeriodMs = correlatedPeriodMs;
+        this.protectedExtraWeightMs = protectedExtraWeightMs;
+    }
+
+    @Override
+    public long weight(BufferHolder holder, long loadTime, long lastAccessTime) {
+        long weight = super.weight(holder, loadTime, lastAccessTime);
+        return isProtected(loadTime, lastAccessTime) ? weight + protectedExtraWeightMs : weight;
+    }
+
+    /**
+     * 加载超过关联周期之后仍然被访问过的页进入保护队列
+     */
+    boolean isProtected(long loadTime, long lastAccessTime) {
+        return lastAccessTime - loadTime >= correlatedPeriodMs;
+    }
+}
@@ -21,9 +21,12 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.joyqueue.domain.QosLevel;
 import org.joyqueue.exception.JoyQueueCode;
+import org.joyqueue.store.event.StoreCommitEvent;
+import org.joyqueue.store.event.StoreWriteEvent;
 import org.joyqueue.store.file.Checkpoint;
 import org.joyqueue.store.file.PositioningStore;
 import org.joyqueue.store.message.MessageParser;
+import org.joyqueue.store.nsm.VirtualThreadExecutor;
 import org.joyqueue.store.utils.MessageUtils;
 import org.joyqueue.store.utils.PreloadBufferPool;
 import org.joyqueue.toolkit.concurrent.EventFuture;
@@ -43,15 +46,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeoutException;
@@ -60,6 +71,8 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_GROUP_COMMIT_MAX_BYTES;
+import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_GROUP_COMMIT_MAX_COUNT;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_MESSAGE_LENGTH;
 import static org.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_REQUEST_CACHE_SIZE;
@@ -95,6 +108,332 @@ public class PartitionGroupStoreManagerTest {
 
     }
 
+    @Test
+    public void virtualThreadWriteReadTest() throws Exception {
+        VirtualThreadExecutor virtualThreadExecutor = new VirtualThreadExecutor(10, 50, 10, 10, 2);
+        try {
+            destroyStore();
+            recoverStore(virtualThreadExecutor);
+            writeReadTest(QosLevel.PERSISTENCE);
+            after();
+            prepareBaseDir();
+            PartitionGroupStoreSupport.init(groupBase, partitions);
+            recoverStore(virtualThreadExecutor);
+            writeReadTest(QosLevel.REPLICATION);
+        } finally {
+            destroyStore();
+            virtualThreadExecutor.stop();
+        }
+    }
+
+    @Test
+    public void disableWithQueuedWritesTest() throws Exception {
+        // 没有物理线程的执行器，写入请求只进入队列不会被处理
+        VirtualThreadExecutor virtualThreadExecutor = new VirtualThreadExecutor(10, 50, 10, 10, 0);
+        try {
+            destroyStore();
+            recoverStore(virtualThreadExecutor);
+
+            // 模拟调用方的缓冲池：写入前占用，回调后释放
+            AtomicLong used = new AtomicLong();
+            List<JoyQueueCode> codes = new CopyOnWriteArrayList<>();
+            List<ByteBuffer> messages = MessageUtils.build(10, 255);
+            for (ByteBuffer message : messages) {
+                used.addAndGet(message.remaining());
+                int size = message.remaining();
+                store.asyncWrite(QosLevel.PERSISTENCE, event -> {
+                    codes.add(event.getCode());
+                    used.addAndGet(-size);
+                }, new WriteRequest(partitions[0], message));
+            }
+            Assert.assertTrue(used.get() > 0);
+            Assert.assertTrue(codes.isEmpty());
+
+            store.disable();
+            Assert.assertEquals(0, used.get());
+            Assert.assertEquals(messages.size(), codes.size());
+            codes.forEach(code -> Assert.assertEquals(JoyQueueCode.SE_WRITE_FAILED, code));
+        } finally {
+            destroyStore();
+            virtualThreadExecutor.stop();
+        }
+    }
+
+    @Test
+    public void groupCommitWriteReadTest() throws Exception {
+        destroyStore();
+        recoverStore(null, 16);
+        concurrentWriteReadTest();
+
+        VirtualThreadExecutor virtualThreadExecutor = new VirtualThreadExecutor(10, 50, 10, 10, 2);
+        try {
+            after();
+            prepareBaseDir();
+            PartitionGroupStoreSupport.init(groupBase, partitions);
+            recoverStore(virtualThreadExecutor, 16);
+            concurrentWriteReadTest();
+        } finally {
+            destroyStore();
+            virtualThreadExecutor.stop();
+        }
+    }
+
+    @Test
+    public void forceWriteReadTest() throws Exception {
+        ExecutorService forceExecutor = Executors.newFixedThreadPool(2);
+        try {
+            destroyStore();
+            recoverStore(null, 16, forceExecutor);
+            concurrentWriteReadTest();
+            // PERSISTENCE级别的写入都已经返回，数据都已经fsync
+            Assert.assertEquals(store.rightPosition(), store.persistPosition());
+            after();
+            prepareBaseDir();
+            PartitionGroupStoreSupport.init(groupBase, partitions);
+            recoverStore(null, DEFAULT_GROUP_COMMIT_MAX_COUNT, forceExecutor);
+            writeReadTest(QosLevel.ALL);
+        } finally {
+            destroyStore();
+            forceExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void writePressureTest() throws Exception {
+        destroyStore();
+        bufferPool = PreloadBufferPool.getInstance();
+        bufferPool.addPreLoad(32 * 1024 * 1024, 2, 4);
+        bufferPool.addPreLoad(128 * 1024, 2, 4);
+        // 脏数据上限很小，写入需要反复等待刷盘
+        long maxDirtySize = 64 * 1024L;
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH, DEFAULT_WRITE_REQUEST_CACHE_SIZE, 1000L,
+                DEFAULT_WRITE_TIMEOUT_MS, maxDirtySize, 0,
+                new PositioningStore.Config(32 * 1024 * 1024),
+                new PositioningStore.Config(128 * 1024, true, false));
+        store = new PartitionGroupStoreManager(topic, partitionGroup, groupBase, config, bufferPool);
+        store.recover();
+        store.start();
+        store.enable();
+
+        List<ByteBuffer> messages = MessageUtils.build(2048, 1024);
+        List<EventFuture<WriteResult>> futures = new ArrayList<>(messages.size());
+        for (ByteBuffer message : messages) {
+            EventFuture<WriteResult> future = new EventFuture<>();
+            store.asyncWrite(QosLevel.PERSISTENCE, future, new WriteRequest(partitions[0], message));
+            futures.add(future);
+        }
+        for (EventFuture<WriteResult> future : futures) {
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        }
+        // 数据都已经刷盘，没有写入压力
+        Assert.assertEquals(0, store.writePressure());
+    }
+
+    private void concurrentWriteReadTest() throws Exception {
+        int producers = 8;
+        int count = 256;
+        long timeout = 500000L;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<List<WriteResult>>> futures = new ArrayList<>(producers);
+            List<List<ByteBuffer>> messagesList = new ArrayList<>(producers);
+            for (int p = 0; p < producers; p++) {
+                final short partition = partitions[p % partitions.length];
+                final List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+                messagesList.add(messages);
+                futures.add(executor.submit(() -> {
+                    List<EventFuture<WriteResult>> writeFutures = new ArrayList<>(count);
+                    for (ByteBuffer message : messages) {
+                        EventFuture<WriteResult> future = new EventFuture<>();
+                        store.asyncWrite(QosLevel.PERSISTENCE, future, new WriteRequest(partition, message));
+                        writeFutures.add(future);
+                    }
+                    List<WriteResult> writeResults = new ArrayList<>(count);
+                    for (EventFuture<WriteResult> writeFuture : writeFutures) {
+                        writeResults.add(writeFuture.get());
+                    }
+                    return writeResults;
+                }));
+            }
+
+            List<List<WriteResult>> writeResultsList = new ArrayList<>(producers);
+            for (Future<List<WriteResult>> future : futures) {
+                writeResultsList.add(future.get());
+            }
+            store.commit(store.rightPosition());
+
+            // 等待建索引都完成
+            long t0 = SystemClock.now();
+            while (SystemClock.now() - t0 < timeout && store.indexPosition() < store.rightPosition()) {
+                Thread.sleep(10L);
+            }
+
+            for (int p = 0; p < producers; p++) {
+                short partition = partitions[p % partitions.length];
+                for (int i = 0; i < count; i++) {
+                    WriteResult writeResult = writeResultsList.get(p).get(i);
+                    Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+                    ByteBuffer writeBuffer = messagesList.get(p).get(i);
+                    writeBuffer.clear();
+
+                    ReadResult readResult = store.read(partition, writeResult.getIndices()[0], 1, 0);
+                    Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+                    Assert.assertEquals(1, readResult.getMessages().length);
+                    Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 对比开启和关闭组提交时，不同并发生产者数量下1KB消息的同步写入吞吐量。
+     */
+    @Ignore
+    @Test
+    public void groupCommitPerformanceTest() throws Exception {
+        for (int producers : new int[]{1, 16, 256}) {
+            for (int groupCommitMaxCount : new int[]{0, 256}) {
+                after();
+                prepareBaseDir();
+                PartitionGroupStoreSupport.init(groupBase, partitions);
+                recoverStore(null, groupCommitMaxCount);
+                groupCommitPerformanceTest(producers, groupCommitMaxCount, 200000);
+            }
+        }
+    }
+
+    private void groupCommitPerformanceTest(int producers, int groupCommitMaxCount, int totalCount) throws Exception {
+        short partition = partitions[0];
+        int messageSize = MessageUtils.build(1, 1024).get(0).remaining();
+        AtomicLong counter = new AtomicLong(0L);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<?>> futures = new ArrayList<>(producers);
+            long t0 = System.nanoTime();
+            for (int p = 0; p < producers; p++) {
+                futures.add(executor.submit(() -> {
+                    ByteBuffer message = MessageUtils.build(1, 1024).get(0);
+                    while (counter.incrementAndGet() <= totalCount) {
+                        EventFuture<WriteResult> future = new EventFuture<>();
+                        message.clear();
+                        store.asyncWrite(QosLevel.PERSISTENCE, future, new WriteRequest(partition, message));
+                        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long takes = Math.max(1L, (System.nanoTime() - t0) / 1000000L);
+            logger.info("Group commit max count: {}, producers: {}, writes: {}, takes {}ms, qps: {}, traffic: {}.",
+                    groupCommitMaxCount, producers, totalCount, takes,
+                    Format.formatWithComma(1000L * totalCount / takes),
+                    Format.formatTraffic(1000L * totalCount * messageSize / takes));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 对比开启和关闭异步fsync时，不同并发生产者数量下PERSISTENCE级别的写入吞吐量，
+     * fsync的批量大小和耗时见WriteMetric日志中的FsyncTraffic和FsyncLatency。
+     */
+    @Ignore
+    @Test
+    public void forcePerformanceTest() throws Exception {
+        ExecutorService forceExecutor = Executors.newFixedThreadPool(4);
+        try {
+            for (int producers : new int[]{1, 16, 256}) {
+                for (boolean force : new boolean[]{false, true}) {
+                    after();
+                    prepareBaseDir();
+                    PartitionGroupStoreSupport.init(groupBase, partitions);
+                    recoverStore(null, 256, force ? forceExecutor : null);
+                    logger.info("Force enabled: {}.", force);
+                    groupCommitPerformanceTest(producers, 256, 100000);
+                }
+            }
+        } finally {
+            forceExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 对比每个Partition Group独立线程和共享虚拟线程执行器两种模式下，线程数和同步写入延迟。
+     */
+    @Ignore
+    @Test
+    public void threadModelPerformanceTest() throws Exception {
+        destroyStore();
+        for (int groupCount : new int[]{100, 1000, 10000}) {
+            threadModelPerformanceTest(groupCount, null);
+            VirtualThreadExecutor virtualThreadExecutor = new VirtualThreadExecutor(10, 50, 10, 10,
+                    Runtime.getRuntime().availableProcessors());
+            try {
+                threadModelPerformanceTest(groupCount, virtualThreadExecutor);
+            } finally {
+                virtualThreadExecutor.stop();
+            }
+        }
+    }
+
+    private void threadModelPerformanceTest(int groupCount, VirtualThreadExecutor virtualThreadExecutor) throws Exception {
+        int rounds = 10;
+        short partition = partitions[0];
+        String mode = null == virtualThreadExecutor ? "THREAD" : "VIRTUAL_THREAD";
+        if (null == bufferPool) {
+            bufferPool = PreloadBufferPool.getInstance();
+        }
+        PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(
+                DEFAULT_MAX_MESSAGE_LENGTH, DEFAULT_WRITE_REQUEST_CACHE_SIZE, DEFAULT_FLUSH_INTERVAL_MS,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 0,
+                new PositioningStore.Config(128 * 1024),
+                new PositioningStore.Config(16 * 1024, true, false));
+        List<PartitionGroupStoreManager> stores = new ArrayList<>(groupCount);
+        try {
+            for (int i = 0; i < groupCount; i++) {
+                File groupDir = new File(base, String.format("%s-%s-%d/%d", topic, mode, groupCount, i));
+                PartitionGroupStoreSupport.init(groupDir, partitions);
+                PartitionGroupStoreManager groupStore =
+                        new PartitionGroupStoreManager(topic, i, groupDir, config, bufferPool, virtualThreadExecutor);
+                groupStore.recover();
+                groupStore.start();
+                groupStore.enable();
+                stores.add(groupStore);
+            }
+            int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            long[] latencies = new long[groupCount * rounds];
+            int latencyIndex = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (PartitionGroupStoreManager groupStore : stores) {
+                    EventFuture<WriteResult> future = new EventFuture<>();
+                    long t0 = System.nanoTime();
+                    groupStore.asyncWrite(QosLevel.PERSISTENCE, future,
+                            new WriteRequest(partition, MessageUtils.build(1, 1024).get(0)));
+                    Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+                    latencies[latencyIndex++] = System.nanoTime() - t0;
+                }
+            }
+            Arrays.sort(latencies);
+            logger.info("Mode: {}, partition groups: {}, threads: {}, write latency avg/p99/max: {}/{}/{}us.",
+                    mode, groupCount, threadCount,
+                    Arrays.stream(latencies).sum() / latencies.length / 1000,
+                    latencies[(int) (latencies.length * 0.99)] / 1000,
+                    latencies[latencies.length - 1] / 1000);
+        } finally {
+            for (PartitionGroupStoreManager groupStore : stores) {
+                groupStore.disable();
+                groupStore.stop();
+                groupStore.close();
+            }
+        }
+    }
+
 //    @Test
     public void batchWriteReadTest() throws Exception {
         short partition = partitions[0];
@@ -173,6 +512,43 @@ public class PartitionGroupStoreManagerTest {
     }
 
 
+    @Test
+    public void commitListenerTest() throws Exception {
+        List<StoreCommitEvent> events = new ArrayList<>();
+        List<StoreWriteEvent> writeEvents = new CopyOnWriteArrayList<>();
+        store.setStoreEventListener(event -> {
+            if (event instanceof StoreCommitEvent) {
+                events.add((StoreCommitEvent) event);
+            } else if (event instanceof StoreWriteEvent) {
+                writeEvents.add((StoreWriteEvent) event);
+            }
+        });
+        ByteBuffer msg = MessageUtils.build(1, 255).get(0);
+        int length = msg.remaining();
+        store.asyncWrite(QosLevel.RECEIVE, null, new WriteRequest(partitions[0], msg));
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 5000L && writeEvents.isEmpty()) {
+            Thread.sleep(10L);
+        }
+        // 写入完成时通知写入位置
+        Assert.assertEquals(1, writeEvents.size());
+        Assert.assertEquals(topic, writeEvents.get(0).getTopic());
+        Assert.assertEquals(length, writeEvents.get(0).getRightPosition());
+        Assert.assertEquals(length, store.rightPosition());
+
+        long commitPosition = store.commitPosition();
+        store.commit(store.rightPosition());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(topic, events.get(0).getTopic());
+        Assert.assertEquals(partitionGroup, events.get(0).getGroup());
+        Assert.assertEquals(store.rightPosition(), events.get(0).getCommitPosition());
+        Assert.assertTrue(events.get(0).getCommitPosition() > commitPosition);
+
+        // 提交位置没有前进时不通知
+        store.commit(store.rightPosition());
+        Assert.assertEquals(1, events.size());
+    }
+
     @Test
     public void indexLengthTest() throws Exception {
         int count = 1024 * 1024;
@@ -441,6 +817,45 @@ public class PartitionGroupStoreManagerTest {
         this.store.enable();
     }
 
+    @Test
+    public void appendEntryBufferBatchMessageTest() throws Exception {
+        int count = 256;
+        long timeout = 500000L;
+        short partition = 4;
+        short batchSize = 10;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024)
+                .stream().map(m -> MessageUtils.toBatchMessage(m, batchSize))
+                .collect(Collectors.toList());
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        store.asyncWrite(QosLevel.RECEIVE, null, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+
+        // 等待建索引和刷盘都完成
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < timeout && (store.indexPosition() < length || store.flushPosition() < length)) {
+            Thread.sleep(10L);
+        }
+        ByteBuffer byteBuffer = store.readEntryBuffer(0L, (int) length);
+        Assert.assertEquals(length, byteBuffer.remaining());
+
+        // 模拟Follower从头复制
+        store.disable();
+        store.setRightPosition(0L);
+        Assert.assertEquals(length, store.appendEntryBuffer(byteBuffer));
+        store.commit(store.rightPosition());
+
+        for (int i = 0; i < messages.size(); i++) {
+            ByteBuffer writeBuffer = messages.get(i);
+            writeBuffer.clear();
+            for (int j = 0; j < batchSize; j++) {
+                ReadResult readResult = store.read(partition, (long) i * batchSize + j, 1, 0);
+                Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+                Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+            }
+        }
+        Assert.assertEquals((long) count * batchSize, store.getRightIndex(partition));
+    }
+
     @Test
     public void changeFileSizeTest() throws Exception {
         int count = 1024;
@@ -814,6 +1229,49 @@ public class PartitionGroupStoreManagerTest {
         }
     }
 
+    @Test
+    public void rebuildIndicesTest() throws Exception {
+        // 每个分区的消息超过一批，索引超过一个文件
+        int count = 8000;
+        List<ByteBuffer> messages = MessageUtils.build(count * partitions.length, 256);
+        WriteRequest[] writeRequests = new WriteRequest[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            writeRequests[i] = new WriteRequest(partitions[i % partitions.length], messages.get(i));
+        }
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, writeRequests);
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        long length = store.rightPosition();
+        while (store.indexPosition() < length) {
+            Thread.sleep(10L);
+        }
+        destroyStore();
+
+        // 删除所有索引文件和检查点，恢复时从头重建索引
+        for (short partition : partitions) {
+            File[] files = new File(groupBase, "index/" + partition).listFiles(File::isFile);
+            Assert.assertNotNull(files);
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        new File(groupBase, PartitionGroupStoreManager.CHECKPOINT_FILE).delete();
+
+        recoverStore();
+        Assert.assertEquals(length, store.indexPosition());
+        store.commit(store.rightPosition());
+        for (int j = 0; j < partitions.length; j++) {
+            Assert.assertEquals(count, store.getRightIndex(partitions[j]));
+            for (int i = 0; i < count; i += 997) {
+                ByteBuffer writeBuffer = messages.get(i * partitions.length + j);
+                writeBuffer.clear();
+                ReadResult readResult = store.read(partitions[j], i, 1, 0);
+                Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+                Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+            }
+        }
+    }
+
     @Test
     public void getIndexTest() throws InterruptedException, IOException {
         long timeout = 500000L;
@@ -859,6 +1317,216 @@ public class PartitionGroupStoreManagerTest {
 
     }
 
+    @Test
+    public void getIndexByTimeIndexTest() throws Exception {
+        long timeout = 500000L;
+        int count = 5000;
+        short partition = partitions[0];
+        List<ByteBuffer> msgs = MessageUtils.build(count, 255);
+
+        for (int i = 0; i < count; i += 100) {
+            EventFuture<WriteResult> future = new EventFuture<>();
+            store.asyncWrite(QosLevel.PERSISTENCE, future, msgs.subList(i, i + 100).stream()
+                    .map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+            Thread.sleep(2L);
+        }
+        store.commit(store.rightPosition());
+
+        // 等待建索引都完成
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < timeout && store.getRightIndex(partition) < count) {
+            Thread.sleep(10L);
+        }
+
+        long[] storageTimestamps = Arrays.stream(store.read(partition, 0L, count, 0).getMessages())
+                .mapToLong(b -> MessageParser.getLong(b, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(b, MessageParser.STORAGE_TIMESTAMP))
+                .toArray();
+        Assert.assertEquals(count, storageTimestamps.length);
+
+        verifyGetIndex(partition, storageTimestamps);
+
+        // 重启后从时间索引文件恢复
+        destroyStore();
+        recoverStore();
+        verifyGetIndex(partition, storageTimestamps);
+    }
+
+    private void verifyGetIndex(short partition, long[] storageTimestamps) {
+        Assert.assertEquals(0L, store.getIndex(partition, storageTimestamps[0] - 1L));
+        Assert.assertEquals(-1L, store.getIndex(partition, storageTimestamps[storageTimestamps.length - 1] + 1L));
+        for (int i = 0; i < storageTimestamps.length; i += 37) {
+            long expected = i;
+            while (expected > 0 && storageTimestamps[(int) expected - 1] >= storageTimestamps[i]) {
+                expected--;
+            }
+            Assert.assertEquals(expected, store.getIndex(partition, storageTimestamps[i]));
+        }
+    }
+
+    @Test
+    public void readFileRegionsTest() throws Exception {
+        long timeout = 500000L;
+        int count = 1024;
+        short partition = partitions[0];
+        List<ByteBuffer> msgs = MessageUtils.build(count, 1024);
+        msgs.set(100, MessageUtils.toBatchMessage(msgs.get(100), (short) 10));
+
+        EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, msgs.stream()
+                .map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+
+        // 等待建索引都完成
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < timeout && store.getRightIndex(partition) < count + 9) {
+            Thread.sleep(10L);
+        }
+
+        // 从文件中读取的数据和内存中读取的消息相同
+        FileRegionReadResult readResult = store.readFileRegions(partition, 0L, count + 9, 0);
+        Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+        Assert.assertEquals(count, readResult.getCount());
+        Assert.assertEquals(count + 9, readResult.getNextIndex());
+        ByteBuffer[] messages = store.read(partition, 0L, count + 9, 0).getMessages();
+        Assert.assertEquals(Arrays.stream(messages).mapToLong(ByteBuffer::remaining).sum(), readResult.getSize());
+        ByteBuffer fileData = ByteBuffer.allocate((int) readResult.getSize());
+        for (StoreFileRegion region : readResult.getRegions()) {
+            try (FileChannel fileChannel = FileChannel.open(region.getFile().toPath(), StandardOpenOption.READ)) {
+                ByteBuffer regionData = ByteBuffer.allocate(region.getLength());
+                while (regionData.hasRemaining()) {
+                    Assert.assertTrue(fileChannel.read(regionData, region.getPosition() + regionData.position()) > 0);
+                }
+                regionData.flip();
+                fileData.put(regionData);
+            }
+        }
+        fileData.flip();
+        for (ByteBuffer message : messages) {
+            ByteBuffer fileMessage = fileData.slice();
+            fileMessage.limit(message.remaining());
+            Assert.assertEquals(message, fileMessage);
+            fileData.position(fileData.position() + message.remaining());
+        }
+
+        // 从批消息中间开始读，并且读取的数量截断批消息
+        readResult = store.readFileRegions(partition, 102L, 5, 0);
+        Assert.assertEquals(1, readResult.getCount());
+        Assert.assertEquals(110L, readResult.getNextIndex());
+
+        // 限制读取的长度
+        readResult = store.readFileRegions(partition, 0L, 10, messages[0].remaining() + 1);
+        Assert.assertEquals(1, readResult.getCount());
+        Assert.assertEquals(1L, readResult.getNextIndex());
+    }
+
+    @Test
+    public void skipUnmatchedTest() throws Exception {
+        long timeout = 500000L;
+        int count = 1000;
+        short partition = partitions[0];
+        // 每100条消息中只有1条标签匹配，第150条是包含10条消息的批消息
+        List<ByteBuffer> msgs = MessageUtils.build(count, 255);
+        for (int i = 0; i < count; i++) {
+            MessageParser.setShort(msgs.get(i), MessageParser.FLAG, (short) (i % 100 == 0 ? 1 : 2));
+        }
+        msgs.set(150, MessageUtils.toBatchMessage(msgs.get(150), (short) 10));
+
+        EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, msgs.stream()
+                .map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        store.commit(store.rightPosition());
+
+        // 等待建索引都完成
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < timeout && store.getRightIndex(partition) < count + 9) {
+            Thread.sleep(10L);
+        }
+        verifySkipUnmatched(partition);
+
+        // 未提交的消息不跳过
+        future = new EventFuture<>();
+        store.asyncWrite(QosLevel.PERSISTENCE, future, MessageUtils.build(50, 255).stream()
+                .peek(b -> MessageParser.setShort(b, MessageParser.FLAG, (short) 2))
+                .map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        Assert.assertEquals(99, store.skipUnmatched(partition, 910L, 1000, flag -> flag == 1));
+
+        // 重启后从标签索引文件恢复
+        destroyStore();
+        recoverStore();
+        verifySkipUnmatched(partition);
+    }
+
+    private void verifySkipUnmatched(short partition) throws IOException {
+        Assert.assertEquals(0, store.skipUnmatched(partition, 0L, 1000, flag -> flag == 1));
+        Assert.assertEquals(99, store.skipUnmatched(partition, 1L, 1000, flag -> flag == 1));
+        Assert.assertEquals(10, store.skipUnmatched(partition, 1L, 10, flag -> flag == 1));
+        // 跨过批消息，批消息之后的消息序号后移9位
+        Assert.assertEquals(108, store.skipUnmatched(partition, 101L, 1000, flag -> flag == 1));
+        // 不停在批消息的中间
+        Assert.assertEquals(49, store.skipUnmatched(partition, 101L, 52, flag -> flag == 1));
+        Assert.assertEquals(99, store.skipUnmatched(partition, 910L, 1000, flag -> flag == 1));
+        Assert.assertEquals(0, store.skipUnmatched(partition, 1009L, 1000, flag -> flag == 1));
+    }
+
+    /**
+     * 1%的消息标签匹配时，对比读取全部消息再过滤和先用标签索引跳过不匹配消息的读取速度
+     */
+    @Ignore
+    @Test
+    public void skipUnmatchedPerformanceTest() throws Exception {
+        int count = 1000000;
+        short partition = partitions[0];
+        for (int i = 0; i < count; i += 1000) {
+            List<ByteBuffer> msgs = MessageUtils.build(1000, 1024);
+            for (int j = 0; j < msgs.size(); j++) {
+                MessageParser.setShort(msgs.get(j), MessageParser.FLAG, (short) ((i + j) % 100 == 0 ? 1 : 2));
+            }
+            EventFuture<WriteResult> future = new EventFuture<>();
+            store.asyncWrite(QosLevel.PERSISTENCE, future, msgs.stream()
+                    .map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+            Assert.assertEquals(JoyQueueCode.SUCCESS, future.get().getCode());
+        }
+        store.commit(store.rightPosition());
+        destroyStore();
+        recoverStore();
+
+        long t0 = SystemClock.now();
+        long matched = 0L;
+        for (long index = 0; index < count; ) {
+            ByteBuffer[] messages = store.read(partition, index, 100, 0).getMessages();
+            for (ByteBuffer message : messages) {
+                if (MessageParser.getShort(message, MessageParser.FLAG) == 1) {
+                    matched++;
+                }
+            }
+            index += messages.length;
+        }
+        long t1 = SystemClock.now();
+        logger.info("Read all then filter, matched: {}, takes: {}ms.", matched, t1 - t0);
+
+        destroyStore();
+        recoverStore();
+        t0 = SystemClock.now();
+        matched = 0L;
+        for (long index = 0; index < count; ) {
+            index += store.skipUnmatched(partition, index, 10000, flag -> flag == 1);
+            if (index >= count) {
+                break;
+            }
+            ByteBuffer[] messages = store.read(partition, index, 1, 0).getMessages();
+            if (MessageParser.getShort(messages[0], MessageParser.FLAG) == 1) {
+                matched++;
+            }
+            index += messages.length;
+        }
+        t1 = SystemClock.now();
+        logger.info("Skip by flag index then read, matched: {}, takes: {}ms.", matched, t1 - t0);
+    }
+
     private void verifyTerm(ByteBuffer buffer) {
         int term = -1;
         ByteBuffer r = buffer.asReadOnlyBuffer();
@@ -999,6 +1667,18 @@ public class PartitionGroupStoreManagerTest {
     }
 
     private void recoverStore() throws Exception {
+        recoverStore(null);
+    }
+
+    private void recoverStore(VirtualThreadExecutor virtualThreadExecutor) throws Exception {
+        recoverStore(virtualThreadExecutor, DEFAULT_GROUP_COMMIT_MAX_COUNT);
+    }
+
+    private void recoverStore(VirtualThreadExecutor virtualThreadExecutor, int groupCommitMaxCount) throws Exception {
+        recoverStore(virtualThreadExecutor, groupCommitMaxCount, null);
+    }
+
+    private void recoverStore(VirtualThreadExecutor virtualThreadExecutor, int groupCommitMaxCount, Executor forceExecutor) throws Exception {
         if (null == bufferPool) {
             bufferPool = PreloadBufferPool.getInstance();
             bufferPool.addPreLoad(32 * 1024 * 1024, 2, 4);
@@ -1010,11 +1690,12 @@ public class PartitionGroupStoreManagerTest {
                 DEFAULT_WRITE_REQUEST_CACHE_SIZE,
                 1L,
                 DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                groupCommitMaxCount, DEFAULT_GROUP_COMMIT_MAX_BYTES,
                 new PositioningStore.Config(32 * 1024 * 1024),
                 new PositioningStore.Config(128 * 1024,true, false));
 
         this.store = new PartitionGroupStoreManager(topic, partitionGroup, groupBase, config,
-                bufferPool);
+                bufferPool, virtualThreadExecutor, forceExecutor);
         this.store.recover();
         this.store.start();
         this.store.enable();
@@ -16,15 +16,22 @@
 package org.joyqueue.store.file;
 
 import org.joyqueue.store.index.IndexItem;
+import org.joyqueue.store.index.IndexArray;
 import org.joyqueue.store.index.IndexSerializer;
 import org.joyqueue.store.nsm.VirtualThreadExecutor;
+import org.joyqueue.store.tiered.LocalRemoteSegmentStore;
+import org.joyqueue.store.utils.BufferHolder;
+import org.joyqueue.store.utils.EvictPolicy;
+import org.joyqueue.store.utils.LruEvictPolicy;
 import org.joyqueue.store.utils.MessageTestUtils;
 import org.joyqueue.store.utils.PreloadBufferPool;
+import org.joyqueue.store.utils.TwoQueueEvictPolicy;
 import org.joyqueue.toolkit.time.SystemClock;
 import org.joyqueue.toolkit.util.BaseDirUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,8 +41,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -264,6 +275,292 @@ public class PositioningStoreTest {
 
     }
 
+    @Test
+    public void indexArrayReadTest() throws IOException {
+        // 每个文件10条索引
+        PositioningStore.Config config = new PositioningStore.Config(IndexItem.STORAGE_SIZE * 10);
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        PositioningStore<IndexItem> store = new PositioningStore<>(logBase, config, bufferPool, new IndexSerializer());
+        store.recover();
+        int count = 100;
+        short partition = 3;
+
+        // 每3条索引是同一批消息
+        List<IndexItem> indexItems = IntStream.range(0, count)
+                .mapToObj(i -> new IndexItem(partition, i, 666, 888L * (i / 3)))
+                .collect(Collectors.toList());
+        store.append(indexItems);
+        while (store.flush()) {
+            Thread.yield();
+        }
+        store.close();
+        store = new PositioningStore<>(logBase, config, bufferPool, new IndexSerializer());
+        store.recover();
+
+        // 文件还没有加载，预加载成功
+        Assert.assertTrue(store.prefetch(IndexItem.STORAGE_SIZE * 50));
+        Assert.assertFalse(store.prefetch(IndexItem.STORAGE_SIZE * 51));
+        Assert.assertFalse(store.prefetch(store.right()));
+
+        IndexArray indexArray = new IndexArray(1);
+        long start = IndexItem.STORAGE_SIZE * 4;
+        Assert.assertEquals(IndexItem.STORAGE_SIZE * 96L, store.read(start, IndexItem.STORAGE_SIZE * 1000L, indexArray));
+        Assert.assertEquals(96, indexArray.indexCount());
+        // 4, 5 | 6, 7, 8 | ... | 99
+        Assert.assertEquals(33, indexArray.size());
+        Assert.assertEquals(2, indexArray.count(0));
+        Assert.assertEquals(1, indexArray.count(indexArray.size() - 1));
+        for (int i = 0, index = 4; i < indexArray.size(); index += indexArray.count(i), i++) {
+            Assert.assertEquals(indexItems.get(index).getOffset(), indexArray.offset(i));
+            Assert.assertEquals(indexItems.get(index).getLength(), indexArray.length(i));
+        }
+        store.close();
+    }
+
+    @Test
+    public void cacheStatsTest() throws IOException {
+        // 每个文件10条索引
+        PositioningStore.Config config = new PositioningStore.Config(IndexItem.STORAGE_SIZE * 10);
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        String topic = "cache_stats_test";
+        PositioningStore<IndexItem> store = new PositioningStore<>(logBase, config, bufferPool, new IndexSerializer(), topic);
+        store.recover();
+        int count = 100;
+        store.append(IntStream.range(0, count)
+                .mapToObj(i -> new IndexItem((short) 0, i, 666, 888L * i))
+                .collect(Collectors.toList()));
+        while (store.flush()) {
+            Thread.yield();
+        }
+        store.close();
+
+        store = new PositioningStore<>(logBase, config, bufferPool, new IndexSerializer(), topic);
+        store.recover();
+        PreloadBufferPool.CacheStats stats = bufferPool.cacheStats(topic);
+        long hits = stats.getHits(), misses = stats.getMisses();
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(888L * i, store.read((long) i * IndexItem.STORAGE_SIZE).getOffset());
+        }
+        // 每个文件第一次读取时加载，最后一个文件在恢复时已经加载
+        Assert.assertEquals(9, stats.getMisses() - misses);
+        Assert.assertEquals(91, stats.getHits() - hits);
+        Assert.assertEquals(IndexItem.STORAGE_SIZE * count, stats.getUsedSize());
+        store.close();
+        Assert.assertEquals(0L, stats.getUsedSize());
+        // 主题的存储文件都已关闭，删除主题的缓存统计
+        Assert.assertFalse(bufferPool.cacheStats().contains(stats));
+    }
+
+    @Test
+    public void tieredStorageTest() throws IOException {
+        // 每个文件10条索引
+        int fileDataSize = IndexItem.STORAGE_SIZE * 10;
+        int fileSize = PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE + fileDataSize;
+        File remoteBase = new File(base, "remote");
+        File cacheBase = new File(base, "cache");
+        // 本地保留2个文件，读缓存最多3个文件
+        TieredStorage tieredStorage = new TieredStorage(new LocalRemoteSegmentStore(remoteBase), base, cacheBase, fileSize * 3L, 2);
+        PositioningStore.Config config = new PositioningStore.Config(fileDataSize);
+        config.setTieredStorage(tieredStorage);
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        PositioningStore<IndexItem> store = new PositioningStore<>(logBase, config, bufferPool, new IndexSerializer());
+        store.recover();
+        int count = 100;
+        store.append(IntStream.range(0, count)
+                .mapToObj(i -> new IndexItem((short) 0, i, 666, 888L * i))
+                .collect(Collectors.toList()));
+        while (store.flush()) {
+            Thread.yield();
+        }
+
+        // 最后一个文件不上传，本地保留最近的2个文件
+        Assert.assertEquals(8, store.offload());
+        Assert.assertEquals(0, store.offload());
+        Assert.assertEquals(2, logBase.listFiles(file -> file.getName().matches("\\d+")).length);
+        Assert.assertEquals(9, new File(remoteBase, "log").listFiles().length);
+        Assert.assertEquals(10, store.fileCount());
+        Assert.assertNull(store.fileRegion(0L, IndexItem.STORAGE_SIZE));
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(888L * i, store.read((long) i * IndexItem.STORAGE_SIZE).getOffset());
+            Assert.assertTrue(tieredStorage.cachedSize() <= tieredStorage.cacheSize());
+        }
+        store.close();
+
+        // 重启后从远程存储恢复
+        tieredStorage = new TieredStorage(new LocalRemoteSegmentStore(remoteBase), base, cacheBase, fileSize * 3L, 2);
+        config.setTieredStorage(tieredStorage);
+        store = new PositioningStore<>(logBase, config, bufferPool, new IndexSerializer());
+        store.recover();
+        Assert.assertEquals(0L, store.left());
+        Assert.assertEquals((long) IndexItem.STORAGE_SIZE * count, store.right());
+        List<IndexItem> indexItems = store.batchRead(0L, count);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(888L * i, indexItems.get(i).getOffset());
+        }
+
+        // 删除时同时删除远程文件
+        Assert.assertEquals(fileDataSize * 5L, store.physicalDeleteTo(fileDataSize * 5L));
+        Assert.assertEquals(4, new File(remoteBase, "log").listFiles().length);
+        Assert.assertTrue(tieredStorage.cachedSize() <= tieredStorage.cacheSize());
+        store.close();
+    }
+
+    @Test
+    public void offloadWithRollbackTest() throws Exception {
+        int fileDataSize = IndexItem.STORAGE_SIZE * 10;
+        int fileSize = PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE + fileDataSize;
+        File remoteBase = new File(base, "remote");
+        File cacheBase = new File(base, "cache");
+        AtomicReference<PositioningStore<IndexItem>> storeRef = new AtomicReference<>();
+        AtomicBoolean rollbackWhileUploading = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        // 上传第一个文件时，在另外一个线程中回滚，上传期间不持有deleteLock，回滚不会被阻塞
+        LocalRemoteSegmentStore remote = new LocalRemoteSegmentStore(remoteBase) {
+            @Override
+            public void upload(String key, File file) throws IOException {
+                super.upload(key, file);
+                if (rollbackWhileUploading.compareAndSet(true, false)) {
+                    try {
+                        executor.submit(() -> {
+                            storeRef.get().setRight(IndexItem.STORAGE_SIZE * 5L);
+                            return null;
+                        }).get(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        };
+        TieredStorage tieredStorage = new TieredStorage(remote, base, cacheBase, fileSize * 3L, 0);
+        PositioningStore.Config config = new PositioningStore.Config(fileDataSize);
+        config.setTieredStorage(tieredStorage);
+        PositioningStore<IndexItem> store = new PositioningStore<>(logBase, config, PreloadBufferPool.getInstance(), new IndexSerializer());
+        storeRef.set(store);
+        store.recover();
+        store.append(IntStream.range(0, 30)
+                .mapToObj(i -> new IndexItem((short) 0, i, 666, 888L * i))
+                .collect(Collectors.toList()));
+        while (store.flush()) {
+            Thread.yield();
+        }
+
+        try {
+            // 回滚后文件已经变化，上传的远程文件作废，本地文件保留
+            Assert.assertEquals(0, store.offload());
+            Assert.assertEquals(IndexItem.STORAGE_SIZE * 5L, store.right());
+            File[] remoteFiles = new File(remoteBase, "log").listFiles();
+            Assert.assertTrue(null == remoteFiles || remoteFiles.length == 0);
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(888L * i, store.read((long) i * IndexItem.STORAGE_SIZE).getOffset());
+            }
+        } finally {
+            executor.shutdownNow();
+            store.close();
+        }
+    }
+
+    @Test
+    public void evictPolicyTest() {
+        long now = SystemClock.now();
+        BufferHolder readPage = new TestBufferHolder(false);
+        BufferHolder writePage = new TestBufferHolder(true);
+
+        EvictPolicy lru = new LruEvictPolicy(60000L);
+        Assert.assertTrue(lru.weight(readPage, now - 100000L, now - 1000L) < lru.weight(readPage, now - 100000L, now));
+        Assert.assertEquals(lru.weight(readPage, now, now), lru.weight(writePage, now, now - 60000L));
+
+        // 扫描的页：加载之后很快读完；热点页：加载很久之后还在访问
+        EvictPolicy twoQueue = new TwoQueueEvictPolicy(60000L, 10000L, 600000L);
+        long scanPage = twoQueue.weight(readPage, now - 1000L, now);
+        long hotPage = twoQueue.weight(readPage, now - 100000L, now - 30000L);
+        Assert.assertTrue(scanPage < hotPage);
+        Assert.assertTrue(lru.weight(readPage, now - 1000L, now) > lru.weight(readPage, now - 100000L, now - 30000L));
+    }
+
+    /**
+     * 回放冷数据时，其它主题尾部热点页的命中率和读取延迟。
+     * 分别使用 -DargLine="-DPreloadBufferPool.EvictPolicy=lru" 和 -DargLine="-DPreloadBufferPool.EvictPolicy=2q" 单独运行，对比结果。
+     */
+    @Ignore
+    @Test
+    public void replayScanBenchmark() throws Exception {
+        System.setProperty("PreloadBufferPool.MaxMemory", System.getProperty("PreloadBufferPool.MaxMemory", "8M"));
+        System.setProperty("PreloadBufferPool.CorrelatedPeriodMs", System.getProperty("PreloadBufferPool.CorrelatedPeriodMs", "2000"));
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        int fileSize = 256 * 1024;
+        PositioningStore.Config config = new PositioningStore.Config(fileSize, true, false);
+        // 每条消息1KB
+        int msgSize = 1024;
+        ByteBuffer buffer = MessageTestUtils.createMessage(new byte[msgSize - MessageTestUtils.createMessage(new byte[0]).remaining()]);
+
+        // 热点主题：8个文件，每秒读取一次尾部的4个文件
+        PositioningStore<ByteBuffer> hotStore = new PositioningStore<>(indexBase, config, bufferPool, new StoreMessageSerializer(1024 * 1024), "hot");
+        hotStore.recover();
+        while (hotStore.right() < 8L * fileSize) {
+            hotStore.appendByteBuffer(buffer.slice());
+            hotStore.flush();
+        }
+        // 冷数据：1024个文件，以16MB/s的速度从头到尾回放一遍，每秒扫描的数据量是缓存大小的2倍
+        PositioningStore<ByteBuffer> writeStore = new PositioningStore<>(logBase, config, bufferPool, new StoreMessageSerializer(1024 * 1024), "cold");
+        writeStore.recover();
+        while (writeStore.right() < 1024L * fileSize) {
+            writeStore.appendByteBuffer(buffer.slice());
+            writeStore.flush();
+        }
+        while (hotStore.flush() || writeStore.flush()) {
+            Thread.yield();
+        }
+        // 重新打开，模拟回放很久以前写入的数据
+        hotStore.close();
+        writeStore.close();
+        hotStore = new PositioningStore<>(indexBase, config, bufferPool, new StoreMessageSerializer(1024 * 1024), "hot");
+        hotStore.recover();
+        PositioningStore<ByteBuffer> coldStore = new PositioningStore<>(logBase, config, bufferPool, new StoreMessageSerializer(1024 * 1024), "cold");
+        coldStore.recover();
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Thread scanThread = new Thread(() -> {
+            try {
+                long scanStart = SystemClock.now();
+                for (long position = coldStore.left(); position < coldStore.right(); ) {
+                    position += coldStore.readByteBuffer(position, 64 * 1024).remaining();
+                    long sleepMs = (position - coldStore.left()) / (16 * 1024) - (SystemClock.now() - scanStart);
+                    if (sleepMs > 0) {
+                        Thread.sleep(sleepMs);
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Exception: ", e);
+            }
+            stop.set(true);
+        });
+        scanThread.start();
+
+        PreloadBufferPool.CacheStats hotStats = bufferPool.cacheStats("hot");
+        long hits = hotStats.getHits(), misses = hotStats.getMisses();
+        long totalNs = 0L, maxNs = 0L, reads = 0L;
+        long hotStart = hotStore.right() - 4L * fileSize;
+        while (!stop.get()) {
+            for (int i = 0; i < 4; i++) {
+                long start = System.nanoTime();
+                hotStore.read(hotStart + (long) i * fileSize + (long) msgSize * (reads % (fileSize / msgSize)));
+                long ns = System.nanoTime() - start;
+                totalNs += ns;
+                maxNs = Math.max(maxNs, ns);
+                reads++;
+            }
+            Thread.sleep(1000L);
+        }
+        scanThread.join();
+
+        logger.info("Hot tail reads: {}, hit ratio: {}%, avg latency: {}us, max latency: {}us, cold evictions: {}.",
+                reads, (hotStats.getHits() - hits) * 100 / Math.max(1L, hotStats.getHits() - hits + hotStats.getMisses() - misses),
+                totalNs / reads / 1000, maxNs / 1000, bufferPool.cacheStats("cold").getEvictions());
+        hotStore.close();
+        coldStore.close();
+    }
+
     // recover
     @Test
     public void indexRecoverTest() throws IOException, InterruptedException, TimeoutException {
@@ -590,4 +887,37 @@ public class PositioningStoreTest {
 
     }
 
-}
\ No newline at end of file
+    private static class TestBufferHolder implements BufferHolder {
+        private final boolean writable;
+
+        TestBufferHolder(boolean writable) {
+            this.writable = writable;
+        }
+
+        @Override
+        public int capacity() {
+            return 0;
+        }
+
+        @Override
+        public boolean isFree() {
+            return true;
+        }
+
+        @Override
+        public boolean evict() {
+            return true;
+        }
+
+        @Override
+        public boolean writable() {
+            return writable;
+        }
+
+        @Override
+        public long lastAccessTime() {
+            return 0L;
+        }
+    }
+
+}
@@ -31,6 +31,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author majun8
@@ -74,6 +76,40 @@ public class StoreFileTest {
     }
 
 
+    @Test
+    public void flushWhileForceTest() throws Exception {
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(0L, base, 128, new StoreMessageSerializer(1024), PreloadBufferPool.getInstance(), 1024 * 1024 * 10, false, false);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        AtomicLong forceCount = new AtomicLong(0L);
+        // 另外一个线程不停的fsync，fsync期间刷盘不能被跳过
+        Thread forceThread = new Thread(() -> {
+            while (!stopped.get()) {
+                try {
+                    storeFile.force();
+                    forceCount.incrementAndGet();
+                } catch (IOException e) {
+                    logger.warn("Force exception: ", e);
+                }
+            }
+        });
+        try {
+            storeFile.append(MessageTestUtils.createMessage(new byte[10]));
+            Assert.assertTrue(storeFile.flush() > 0);
+            forceThread.start();
+            for (int i = 0; i < 1000; i++) {
+                int size = storeFile.append(MessageTestUtils.createMessage(new byte[10]));
+                Assert.assertEquals(size, storeFile.flush());
+            }
+        } finally {
+            stopped.set(true);
+            forceThread.join();
+        }
+        Assert.assertTrue(forceCount.get() > 0);
+        storeFile.force();
+        Assert.assertEquals(storeFile.writePosition(), storeFile.flushPosition());
+        storeFile.unload();
+    }
+
     @Test
     public void readFileNotExistTimestamp() {
         ByteBuffer timeBuffer = ByteBuffer.allocate(8);